@@ -0,0 +1,145 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import com.google.cloud.hadoop.gcsio.FileInfo;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorage;
+import com.google.common.base.Preconditions;
+
+import org.apache.hadoop.fs.ContentSummary;
+
+/**
+ * Aggregates the ContentSummary of a directory from a flat listing of every object under it, as
+ * the objects are listed, so that neither the listing nor the set of directories seen needs to
+ * be held in memory.
+ * <p>
+ * Objects must be added in the lexicographic order of their names, as returned by a flat
+ * listing. Since the names under any directory then form a single contiguous run, a directory
+ * has already been counted exactly if the previously added name is under it; this counts
+ * implicit directories, which only exist as the parents of other objects, as well as directory
+ * objects, without remembering more than the previous name.
+ * <p>
+ * A listing split into contiguous ranges can be aggregated concurrently, with an aggregator per
+ * range, and the aggregators then merged in order of their ranges.
+ */
+class ContentSummaryAggregator {
+  // Object name of the summarized directory, ending with the path delimiter, or the empty string
+  // for a bucket.
+  private final String directoryName;
+
+  // The first object name added under the directory, or null if none has been.
+  private String firstObjectName;
+
+  // The object name last added, or null if none has been.
+  private String previousObjectName;
+
+  // Whether the summarized path turned out to be a file rather than a directory.
+  private boolean pathIsFile;
+
+  private long length;
+  private long fileCount;
+  private long directoryCount;
+
+  /**
+   * @param objectName object name of the summarized path, or the empty string for a bucket
+   */
+  ContentSummaryAggregator(String objectName) {
+    Preconditions.checkArgument(objectName != null, "objectName must not be null");
+    this.directoryName =
+        objectName.isEmpty() || objectName.endsWith(GoogleCloudStorage.PATH_DELIMITER)
+        ? objectName
+        : objectName + GoogleCloudStorage.PATH_DELIMITER;
+  }
+
+  /**
+   * Adds a listed object, which must sort after every object previously added.
+   */
+  void add(FileInfo fileInfo) {
+    String objectName = fileInfo.getItemInfo().getObjectName();
+    if (!objectName.startsWith(directoryName)) {
+      // The summarized path itself, which is a file.
+      pathIsFile = true;
+      ++fileCount;
+      length += fileInfo.getSize();
+      return;
+    }
+    if (objectName.length() == directoryName.length()) {
+      // The directory object of the summarized directory, which is counted separately.
+      return;
+    }
+
+    // Count each directory on the way to the object which the previous object wasn't under,
+    // including the object itself if it's a directory object.
+    for (int delimiterIndex = objectName.indexOf('/', directoryName.length());
+        delimiterIndex >= 0;
+        delimiterIndex = objectName.indexOf('/', delimiterIndex + 1)) {
+      if (previousObjectName == null
+          || previousObjectName.length() <= delimiterIndex
+          || !previousObjectName.regionMatches(0, objectName, 0, delimiterIndex + 1)) {
+        ++directoryCount;
+      }
+    }
+    if (!objectName.endsWith(GoogleCloudStorage.PATH_DELIMITER)) {
+      ++fileCount;
+      length += fileInfo.getSize();
+    }
+    if (firstObjectName == null) {
+      firstObjectName = objectName;
+    }
+    previousObjectName = objectName;
+  }
+
+  /**
+   * Adds the objects added to {@code next}, an aggregator of the same directory whose objects all
+   * sort after every object added to this one, as if they had been added to this one.
+   */
+  void addAll(ContentSummaryAggregator next) {
+    Preconditions.checkArgument(directoryName.equals(next.directoryName),
+        "Cannot merge summaries of '%s' and '%s'", directoryName, next.directoryName);
+    pathIsFile |= next.pathIsFile;
+    length += next.length;
+    fileCount += next.fileCount;
+    directoryCount += next.directoryCount;
+    if (next.firstObjectName == null) {
+      return;
+    }
+
+    // The directories of the first object of next which the last object of this one is also
+    // under were counted by both.
+    if (previousObjectName != null) {
+      for (int delimiterIndex = next.firstObjectName.indexOf('/', directoryName.length());
+          delimiterIndex >= 0;
+          delimiterIndex = next.firstObjectName.indexOf('/', delimiterIndex + 1)) {
+        if (previousObjectName.length() > delimiterIndex
+            && previousObjectName.regionMatches(0, next.firstObjectName, 0, delimiterIndex + 1)) {
+          --directoryCount;
+        }
+      }
+    }
+    if (firstObjectName == null) {
+      firstObjectName = next.firstObjectName;
+    }
+    previousObjectName = next.previousObjectName;
+  }
+
+  /**
+   * Returns the summary of the objects added so far; a directory counts itself.
+   */
+  ContentSummary getContentSummary() {
+    return new ContentSummary(length, fileCount, pathIsFile ? directoryCount : directoryCount + 1);
+  }
+}
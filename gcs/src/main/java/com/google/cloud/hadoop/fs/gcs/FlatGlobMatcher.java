@@ -0,0 +1,463 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import com.google.cloud.hadoop.gcsio.FileInfo;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageItemInfo;
+import com.google.cloud.hadoop.gcsio.PrefetchingPageIterator;
+import com.google.cloud.hadoop.gcsio.StorageResourceId;
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.base.Preconditions;
+
+import org.apache.hadoop.fs.GlobPattern;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Matches a glob pattern against the objects of a single flat listing, as they are listed, so
+ * that flat globbing needs neither the whole listing in memory nor a second pass over it.
+ * <p>
+ * The pattern is compiled into one GlobPattern per path component. Each listed object name is
+ * matched one component at a time; once a directory component fails to match, or a match has
+ * been found at the depth of the pattern, every following object under that directory is
+ * skipped with a single prefix comparison, so whole subtrees cost almost nothing.
+ * <p>
+ * As with Hadoop's Globber, directories match whether they exist as directory objects or only
+ * implicitly, as the parents of other objects. Implicit directories are returned with a
+ * creation time of 0, so that the caller can repair them.
+ */
+class FlatGlobMatcher {
+  private static final LogUtil log = new LogUtil(FlatGlobMatcher.class);
+
+  private final String bucketName;
+  private final GlobPattern[] components;
+
+  private FlatGlobMatcher(String bucketName, GlobPattern[] components) {
+    this.bucketName = bucketName;
+    this.components = components;
+  }
+
+  /**
+   * Compiles the glob {@code objectNamePattern}, matched against the object names of
+   * {@code bucketName}.
+   *
+   * @return the matcher, or null if the pattern can't be matched one component at a time, in
+   *     which case the caller must fall back to Hadoop's globbing.
+   */
+  static FlatGlobMatcher compile(String bucketName, String objectNamePattern) {
+    Preconditions.checkArgument(objectNamePattern != null, "objectNamePattern must not be null");
+    if (objectNamePattern.startsWith("/")) {
+      objectNamePattern = objectNamePattern.substring(1);
+    }
+    if (objectNamePattern.isEmpty() || hasDelimiterInBraces(objectNamePattern)) {
+      log.debug("Can't match '%s' one path component at a time", objectNamePattern);
+      return null;
+    }
+
+    String[] componentPatterns = objectNamePattern.split("/", -1);
+    GlobPattern[] components = new GlobPattern[componentPatterns.length];
+    for (int i = 0; i < componentPatterns.length; ++i) {
+      if (componentPatterns[i].isEmpty()) {
+        log.debug("Can't match '%s' with an empty path component", objectNamePattern);
+        return null;
+      }
+      try {
+        components[i] = new GlobPattern(componentPatterns[i]);
+      } catch (IllegalArgumentException iae) {
+        // Leave reporting of malformed patterns to Hadoop's globbing.
+        log.debug("Failed to compile '%s': %s", componentPatterns[i], iae);
+        return null;
+      }
+    }
+    return new FlatGlobMatcher(bucketName, components);
+  }
+
+  /**
+   * Expands the leading brace groups and character classes of the glob {@code objectNamePattern}
+   * into the literal prefixes which every matching object name must start with, so that listing
+   * those prefixes finds every match. For example, "logs/{2015-01,2015-02}/*" expands to
+   * "logs/2015-01/" and "logs/2015-02/", and "part-[0-2]*" to "part-0", "part-1" and "part-2".
+   * Expansion of each alternative stops at its first other wildcard.
+   *
+   * @return the sorted prefixes, none of which starts with another, or null if there would be
+   *     more than {@code maxPrefixes} of them.
+   */
+  static List<String> expandPrefixes(String objectNamePattern, int maxPrefixes) {
+    if (objectNamePattern.startsWith("/")) {
+      objectNamePattern = objectNamePattern.substring(1);
+    }
+    TreeSet<String> prefixes = new TreeSet<>();
+    if (!expandPrefixes(objectNamePattern, "", prefixes, maxPrefixes)) {
+      return null;
+    }
+
+    // Listing a prefix also lists every prefix which starts with it.
+    List<String> disjointPrefixes = new ArrayList<>();
+    for (String prefix : prefixes) {
+      if (disjointPrefixes.isEmpty()
+          || !prefix.startsWith(disjointPrefixes.get(disjointPrefixes.size() - 1))) {
+        disjointPrefixes.add(prefix);
+      }
+    }
+    return disjointPrefixes;
+  }
+
+  /**
+   * Adds to {@code prefixes} the expansions of {@code pattern}, each preceded by
+   * {@code literalPrefix}.
+   *
+   * @return false if there are more than {@code maxPrefixes} prefixes.
+   */
+  private static boolean expandPrefixes(
+      String pattern, String literalPrefix, Set<String> prefixes, int maxPrefixes) {
+    StringBuilder literal = new StringBuilder(literalPrefix);
+    for (int i = 0; i < pattern.length(); ++i) {
+      char c = pattern.charAt(i);
+      if (c == '\\' && i + 1 < pattern.length()) {
+        literal.append(pattern.charAt(++i));
+      } else if (c == '{') {
+        int end = findGroupEnd(pattern, i, '{', '}');
+        if (end < 0) {
+          break;
+        }
+        List<String> alternatives = splitAlternatives(pattern.substring(i + 1, end));
+        String rest = pattern.substring(end + 1);
+        for (String alternative : alternatives) {
+          if (!expandPrefixes(alternative + rest, literal.toString(), prefixes, maxPrefixes)) {
+            return false;
+          }
+        }
+        return true;
+      } else if (c == '[') {
+        int end = findGroupEnd(pattern, i, '[', ']');
+        List<Character> chars =
+            end < 0 ? null : parseCharacterClass(pattern.substring(i + 1, end));
+        if (chars == null) {
+          break;
+        }
+        if (chars.size() > maxPrefixes) {
+          return false;
+        }
+        String rest = pattern.substring(end + 1);
+        for (char classChar : chars) {
+          if (!expandPrefixes(rest, literal.toString() + classChar, prefixes, maxPrefixes)) {
+            return false;
+          }
+        }
+        return true;
+      } else if (c == '*' || c == '?') {
+        break;
+      } else {
+        literal.append(c);
+      }
+    }
+    prefixes.add(literal.toString());
+    return prefixes.size() <= maxPrefixes;
+  }
+
+  /**
+   * Returns the lowest object name which may match the glob {@code objectNamePattern}, or be the
+   * descendant of a directory which matches it, so that a listing may start there. For example,
+   * "part-000[3-5]*" can match no name lower than "part-0003".
+   */
+  static String getRangeStart(String objectNamePattern) {
+    if (objectNamePattern.startsWith("/")) {
+      objectNamePattern = objectNamePattern.substring(1);
+    }
+    return getRangeStart(objectNamePattern, "");
+  }
+
+  private static String getRangeStart(String pattern, String literalPrefix) {
+    StringBuilder literal = new StringBuilder(literalPrefix);
+    for (int i = 0; i < pattern.length(); ++i) {
+      char c = pattern.charAt(i);
+      if (c == '\\' && i + 1 < pattern.length()) {
+        literal.append(pattern.charAt(++i));
+      } else if (c == '{') {
+        int end = findGroupEnd(pattern, i, '{', '}');
+        if (end < 0) {
+          break;
+        }
+        String rest = pattern.substring(end + 1);
+        String rangeStart = null;
+        for (String alternative : splitAlternatives(pattern.substring(i + 1, end))) {
+          String alternativeStart = getRangeStart(alternative + rest, literal.toString());
+          if (rangeStart == null || alternativeStart.compareTo(rangeStart) < 0) {
+            rangeStart = alternativeStart;
+          }
+        }
+        return rangeStart;
+      } else if (c == '[') {
+        int end = findGroupEnd(pattern, i, '[', ']');
+        List<Character> chars =
+            end < 0 ? null : parseCharacterClass(pattern.substring(i + 1, end));
+        if (chars != null) {
+          literal.append(Collections.min(chars));
+        }
+        break;
+      } else if (c == '*' || c == '?') {
+        break;
+      } else {
+        literal.append(c);
+      }
+    }
+    return literal.toString();
+  }
+
+  /**
+   * Returns the lowest object name above every name which may match the glob
+   * {@code objectNamePattern}, or be the descendant of a directory which matches it, so that a
+   * listing may end there; or null if there is no such name. For example, every match of
+   * "part-000[3-5]*" is lower than "part-0006".
+   */
+  static String getRangeEnd(String objectNamePattern) {
+    if (objectNamePattern.startsWith("/")) {
+      objectNamePattern = objectNamePattern.substring(1);
+    }
+    return getRangeEnd(objectNamePattern, "");
+  }
+
+  private static String getRangeEnd(String pattern, String literalPrefix) {
+    StringBuilder literal = new StringBuilder(literalPrefix);
+    for (int i = 0; i < pattern.length(); ++i) {
+      char c = pattern.charAt(i);
+      if (c == '\\' && i + 1 < pattern.length()) {
+        literal.append(pattern.charAt(++i));
+      } else if (c == '{') {
+        int end = findGroupEnd(pattern, i, '{', '}');
+        if (end < 0) {
+          break;
+        }
+        String rest = pattern.substring(end + 1);
+        String rangeEnd = null;
+        for (String alternative : splitAlternatives(pattern.substring(i + 1, end))) {
+          String alternativeEnd = getRangeEnd(alternative + rest, literal.toString());
+          if (alternativeEnd == null) {
+            return null;
+          }
+          if (rangeEnd == null || alternativeEnd.compareTo(rangeEnd) > 0) {
+            rangeEnd = alternativeEnd;
+          }
+        }
+        return rangeEnd;
+      } else if (c == '[') {
+        int end = findGroupEnd(pattern, i, '[', ']');
+        List<Character> chars =
+            end < 0 ? null : parseCharacterClass(pattern.substring(i + 1, end));
+        if (chars != null) {
+          literal.append(Collections.max(chars));
+        }
+        break;
+      } else if (c == '*' || c == '?') {
+        break;
+      } else {
+        literal.append(c);
+      }
+    }
+    return getPrefixEnd(literal.toString());
+  }
+
+  /**
+   * Returns the lowest name above every name starting with {@code prefix}, or null if there is
+   * none. Only ASCII characters are incremented, since incrementing others may yield a name
+   * which isn't valid UTF-8, or which GCS, comparing UTF-8 bytes, orders differently.
+   */
+  private static String getPrefixEnd(String prefix) {
+    for (int i = prefix.length() - 1; i >= 0; --i) {
+      char c = prefix.charAt(i);
+      if (c < 0x7f) {
+        return prefix.substring(0, i) + (char) (c + 1);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the index of the {@code close} character ending the group opened at {@code start},
+   * or -1 if it isn't closed.
+   */
+  private static int findGroupEnd(String pattern, int start, char open, char close) {
+    int depth = 0;
+    for (int i = start; i < pattern.length(); ++i) {
+      char c = pattern.charAt(i);
+      if (c == '\\') {
+        ++i;
+      } else if (c == open) {
+        ++depth;
+      } else if (c == close && --depth == 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Splits the contents of a brace group into its alternatives, at its top-level commas.
+   */
+  private static List<String> splitAlternatives(String group) {
+    List<String> alternatives = new ArrayList<>();
+    int depth = 0;
+    int alternativeStart = 0;
+    for (int i = 0; i < group.length(); ++i) {
+      char c = group.charAt(i);
+      if (c == '\\') {
+        ++i;
+      } else if (c == '{') {
+        ++depth;
+      } else if (c == '}') {
+        --depth;
+      } else if (c == ',' && depth == 0) {
+        alternatives.add(group.substring(alternativeStart, i));
+        alternativeStart = i + 1;
+      }
+    }
+    alternatives.add(group.substring(alternativeStart));
+    return alternatives;
+  }
+
+  /**
+   * Returns the characters matched by the contents of a character class, or null if it is
+   * negated or contains anything other than plain characters and ranges.
+   */
+  private static List<Character> parseCharacterClass(String characterClass) {
+    if (characterClass.isEmpty()
+        || characterClass.charAt(0) == '^' || characterClass.charAt(0) == '!') {
+      return null;
+    }
+    List<Character> chars = new ArrayList<>();
+    for (int i = 0; i < characterClass.length(); ++i) {
+      char c = characterClass.charAt(i);
+      if (c == '\\' || c == '[') {
+        return null;
+      }
+      if (i + 2 < characterClass.length() && characterClass.charAt(i + 1) == '-') {
+        char last = characterClass.charAt(i + 2);
+        if (last < c) {
+          return null;
+        }
+        for (char rangeChar = c; rangeChar <= last && rangeChar >= c; ++rangeChar) {
+          chars.add(rangeChar);
+        }
+        i += 2;
+      } else {
+        chars.add(c);
+      }
+    }
+    return chars;
+  }
+
+  /**
+   * Returns true if a brace group of {@code pattern} contains a path delimiter, so that its
+   * alternatives span a different number of path components.
+   */
+  private static boolean hasDelimiterInBraces(String pattern) {
+    int braceDepth = 0;
+    for (int i = 0; i < pattern.length(); ++i) {
+      char c = pattern.charAt(i);
+      if (c == '\\') {
+        ++i;
+      } else if (c == '{') {
+        ++braceDepth;
+      } else if (c == '}' && braceDepth > 0) {
+        --braceDepth;
+      } else if (c == '/' && braceDepth > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Consumes {@code objects}, which must all belong to this matcher's bucket, and returns the
+   * files, directory objects and implicit directories matching the pattern, in the order in which
+   * they were first seen.
+   */
+  List<FileInfo> match(PrefetchingPageIterator<FileInfo> objects)
+      throws IOException {
+    Map<URI, FileInfo> matches = new LinkedHashMap<>();
+    // Objects with this prefix can't produce any match not already found.
+    String skippedPrefix = null;
+    long numObjects = 0;
+    long numSkipped = 0;
+    while (objects.hasNext()) {
+      FileInfo info = objects.next();
+      ++numObjects;
+      String objectName = info.getItemInfo().getObjectName();
+      if (skippedPrefix != null && objectName.startsWith(skippedPrefix)) {
+        ++numSkipped;
+        continue;
+      }
+      skippedPrefix = null;
+
+      int componentStart = 0;
+      for (int i = 0; i < components.length; ++i) {
+        int componentEnd = objectName.indexOf('/', componentStart);
+        String component = componentEnd < 0
+            ? objectName.substring(componentStart)
+            : objectName.substring(componentStart, componentEnd);
+        // True if this is the last component of objectName, whether a file or directory object.
+        boolean isObject = componentEnd < 0 || componentEnd == objectName.length() - 1;
+
+        if (component.isEmpty() || !components[i].matches(component)) {
+          if (componentEnd >= 0) {
+            skippedPrefix = objectName.substring(0, componentEnd + 1);
+          }
+          break;
+        }
+        if (i == components.length - 1) {
+          if (isObject) {
+            matches.put(info.getPath(), info);
+          } else {
+            addImplicitDirectory(matches, objectName.substring(0, componentEnd + 1));
+          }
+          if (componentEnd >= 0) {
+            skippedPrefix = objectName.substring(0, componentEnd + 1);
+          }
+          break;
+        }
+        if (isObject) {
+          // Shallower than the pattern.
+          break;
+        }
+        componentStart = componentEnd + 1;
+      }
+    }
+    log.debug("Matched %d paths among %d objects, skipping %d of them",
+        matches.size(), numObjects, numSkipped);
+    return new ArrayList<>(matches.values());
+  }
+
+  /**
+   * Adds the directory {@code directoryName}, implied by one of its children, unless it already
+   * matched as a directory object.
+   */
+  private void addImplicitDirectory(Map<URI, FileInfo> matches, String directoryName) {
+    FileInfo directoryInfo = FileInfo.fromItemInfo(new GoogleCloudStorageItemInfo(
+        new StorageResourceId(bucketName, directoryName), 0, 0, null, null));
+    if (!matches.containsKey(directoryInfo.getPath())) {
+      matches.put(directoryInfo.getPath(), directoryInfo);
+    }
+  }
+}
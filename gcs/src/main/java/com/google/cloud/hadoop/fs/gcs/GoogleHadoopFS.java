@@ -27,8 +27,10 @@ import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FsServerDefaults;
 import org.apache.hadoop.fs.FsStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Options.ChecksumOpt;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.util.Progressable;
 
@@ -225,6 +227,18 @@ public class GoogleHadoopFS extends AbstractFileSystem {
     return ghfs.listStatus(f);
   }
 
+  @Override
+  public RemoteIterator<FileStatus> listStatusIterator(final Path f) throws IOException {
+    log.debug("listStatusIterator");
+    return ghfs.listStatusIterator(f);
+  }
+
+  @Override
+  public RemoteIterator<LocatedFileStatus> listLocatedStatus(final Path f) throws IOException {
+    log.debug("listLocatedStatus");
+    return ghfs.listLocatedStatus(f);
+  }
+
   @Override
   public void setVerifyChecksum(final boolean verifyChecksum) {
     log.debug("setVerifyChecksum");
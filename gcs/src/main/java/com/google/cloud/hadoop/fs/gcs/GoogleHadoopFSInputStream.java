@@ -17,6 +17,7 @@
 package com.google.cloud.hadoop.fs.gcs;
 
 import com.google.cloud.hadoop.gcsio.SeekableReadableByteChannel;
+import com.google.cloud.hadoop.util.ChecksummingChannel;
 import com.google.cloud.hadoop.util.LogUtil;
 import com.google.common.base.Preconditions;
 
@@ -312,6 +313,14 @@ class GoogleHadoopFSInputStream
         long duration = System.nanoTime() - startTime;
         ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_CLOSE);
         ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_CLOSE_TIME, duration);
+        if (channel instanceof ChecksummingChannel) {
+          long checksumDuration = ((ChecksummingChannel) channel).getChecksumTimeNanos();
+          if (checksumDuration > 0) {
+            ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_CHECKSUM);
+            ghfs.increment(
+                GoogleHadoopFileSystemBase.Counter.READ_CHECKSUM_TIME, checksumDuration);
+          }
+        }
         long streamDuration = System.nanoTime() - initTime;
         ghfs.increment(GoogleHadoopFileSystemBase.Counter.INPUT_STREAM);
         ghfs.increment(
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageItemInfo;
+import com.google.common.base.Preconditions;
+import com.google.common.io.BaseEncoding;
+
+import org.apache.hadoop.fs.FileChecksum;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A FileChecksum backed by a hash which GCS computed server-side for an object, so that checksums
+ * can be compared without reading the object contents.
+ */
+public class GoogleHadoopFileChecksum extends FileChecksum {
+
+  /**
+   * The kinds of checksum which may be reported by getFileChecksum.
+   */
+  public enum Type {
+    // getFileChecksum returns null, as the default Hadoop FileSystem does.
+    NONE(null, 0),
+
+    // The CRC32C of the whole object, as 4 big-endian bytes.
+    CRC32C("CRC32C", 4),
+
+    // The MD5 of the whole object; not available for composite objects.
+    MD5("MD5", 16),
+
+    // The CRC32C of the whole object reported under the algorithm name and wire format used by
+    // HDFS when dfs.checksum.combine.mode is COMPOSITE_CRC and dfs.checksum.type is CRC32C. Since
+    // a composite CRC is independent of block and chunk sizes, it compares equal to the checksum
+    // HDFS reports for a file with the same contents.
+    COMPOSITE_CRC32C("COMPOSITE-CRC32C", 4);
+
+    private final String algorithmName;
+    private final int length;
+
+    private Type(String algorithmName, int length) {
+      this.algorithmName = algorithmName;
+      this.length = length;
+    }
+
+    /**
+     * Returns the hash of this type held by {@code itemInfo}, or null if GCS did not provide one.
+     */
+    byte[] getHash(GoogleCloudStorageItemInfo itemInfo) {
+      switch (this) {
+        case CRC32C:
+        case COMPOSITE_CRC32C:
+          return itemInfo.getCrc32c();
+        case MD5:
+          return itemInfo.getMd5Hash();
+        default:
+          return null;
+      }
+    }
+  }
+
+  private final Type type;
+  private byte[] bytes;
+
+  /**
+   * Constructs a checksum of the given type with the given hash bytes.
+   */
+  public GoogleHadoopFileChecksum(Type type, byte[] bytes) {
+    Preconditions.checkArgument(type != Type.NONE, "type must not be NONE");
+    Preconditions.checkArgument(bytes != null && bytes.length == type.length,
+        "Expected %s bytes for checksum type %s", type.length, type);
+    this.type = type;
+    this.bytes = bytes;
+  }
+
+  /**
+   * Returns the checksum of the given type for the object described by {@code itemInfo}, or null
+   * if {@code type} is NONE or GCS did not provide the corresponding hash.
+   */
+  public static GoogleHadoopFileChecksum fromItemInfo(
+      Type type, GoogleCloudStorageItemInfo itemInfo) {
+    byte[] hash = type.getHash(itemInfo);
+    if (hash == null || hash.length != type.length) {
+      return null;
+    }
+    return new GoogleHadoopFileChecksum(type, hash);
+  }
+
+  /**
+   * Gets the type of this checksum.
+   */
+  public Type getType() {
+    return type;
+  }
+
+  @Override
+  public String getAlgorithmName() {
+    return type.algorithmName;
+  }
+
+  @Override
+  public int getLength() {
+    return type.length;
+  }
+
+  @Override
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Writes the raw hash bytes; for COMPOSITE_CRC32C this matches the HDFS serialization of a
+   * single big-endian int.
+   */
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.write(bytes);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    byte[] newBytes = new byte[type.length];
+    in.readFully(newBytes);
+    bytes = newBytes;
+  }
+
+  @Override
+  public String toString() {
+    return getAlgorithmName() + ":" + BaseEncoding.base16().lowerCase().encode(bytes);
+  }
+}
@@ -22,6 +22,8 @@ import com.google.cloud.hadoop.gcsio.DirectoryListCache;
 import com.google.cloud.hadoop.gcsio.FileInfo;
 import com.google.cloud.hadoop.gcsio.GoogleCloudStorageFileSystem;
 import com.google.cloud.hadoop.gcsio.GoogleCloudStorageFileSystemOptions;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageOptions;
+import com.google.cloud.hadoop.gcsio.PrefetchingPageIterator;
 import com.google.cloud.hadoop.util.ConfigurationUtil;
 import com.google.cloud.hadoop.util.CredentialFactory;
 import com.google.cloud.hadoop.util.HadoopCredentialConfiguration;
@@ -34,6 +36,7 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.ContentSummary;
@@ -41,7 +44,6 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileStatus;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.GlobPattern;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
@@ -55,7 +57,14 @@ import java.net.URI;
 import java.nio.file.DirectoryNotEmptyException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -84,7 +93,7 @@ import java.util.concurrent.atomic.AtomicLong;
  * return false.
  */
 public abstract class GoogleHadoopFileSystemBase
-    extends FileSystem implements FileSystemDescriptor {
+    extends GoogleHadoopFileSystemBaseSpecific implements FileSystemDescriptor {
   // Logger.
   public static final LogUtil log = new LogUtil(GoogleHadoopFileSystemBase.class);
 
@@ -124,6 +133,23 @@ public abstract class GoogleHadoopFileSystemBase
   // it to a known good value.
   public static final int WRITE_BUFFERSIZE_DEFAULT = 64 * 1024 * 1024;
 
+  // Configuration key for computing a CRC32C of data as it is written and validating it against
+  // the CRC32C computed by GCS for the uploaded object; a mismatch fails close() and deletes the
+  // corrupt generation. The upload has already completed by then, so the corrupt generation has
+  // replaced any previous one, which only versioned buckets keep; corruption is detected, not
+  // prevented.
+  public static final String WRITE_CHECKSUM_ENABLE_KEY = "fs.gs.io.checksum.write.enable";
+
+  // Default value of fs.gs.io.checksum.write.enable.
+  public static final boolean WRITE_CHECKSUM_ENABLE_DEFAULT = false;
+
+  // Configuration key for computing a CRC32C of data as it is read and validating it against the
+  // CRC32C stored by GCS. Only reads which consume a whole object sequentially are validated.
+  public static final String READ_CHECKSUM_ENABLE_KEY = "fs.gs.io.checksum.read.enable";
+
+  // Default value of fs.gs.io.checksum.read.enable.
+  public static final boolean READ_CHECKSUM_ENABLE_DEFAULT = false;
+
   // Configuration key for default block size of a file.
   public static final String BLOCK_SIZE_KEY = "fs.gs.block.size";
 
@@ -217,21 +243,99 @@ public abstract class GoogleHadoopFileSystemBase
   // IN_MEMORY: Enforces immediate consistency within same Java process.
   // FILESYSTEM_BACKED: Enforces consistency across all cooperating processes pointed at the same
   //     local mirror directory, which may be an NFS directory for distributed coordination.
+  // LOG_STRUCTURED: Enforces the same consistency as FILESYSTEM_BACKED, but keeps a single
+  //     append-only log file per bucket in the directory instead of one file per object.
+  // REMOTE: Enforces consistency across all processes pointed at the same
+  //     DirectoryListCacheServer, see fs.gs.metadata.cache.server.address.
   public static final String GCS_METADATA_CACHE_TYPE_KEY = "fs.gs.metadata.cache.type";
 
   // Default value for fs.gs.metadata.cache.type.
   public static final String GCS_METADATA_CACHE_TYPE_DEFAULT = "IN_MEMORY";
 
-  // Only used if fs.gs.metadata.cache.type is FILESYSTEM_BACKED, specifies the local path to
-  // use as the base path for storing mirrored GCS metadata. Must be an absolute path, must be
-  // a directory, and must be fully readable/writable/executable by any user running processes
-  // which use the GCS connector.
+  // Only used if fs.gs.metadata.cache.type is FILESYSTEM_BACKED or LOG_STRUCTURED, specifies the
+  // local path to use as the base path for storing mirrored GCS metadata. Must be an absolute
+  // path, must be a directory, and must be fully readable/writable/executable by any user running
+  // processes which use the GCS connector.
   public static final String GCS_METADATA_CACHE_DIRECTORY_KEY = "fs.gs.metadata.cache.directory";
 
   // Default value for fs.gs.metadata.cache.directory.
   public static final String GCS_METADATA_CACHE_DIRECTORY_DEFAULT =
       "/tmp/gcs_connector_metadata_cache";
 
+  // Only used if fs.gs.metadata.cache.type is REMOTE, specifies the "host:port" address of the
+  // DirectoryListCacheServer holding the metadata cache shared by all processes of a cluster.
+  // The server doesn't authenticate its clients, so it must only be reachable from trusted hosts.
+  public static final String GCS_METADATA_CACHE_SERVER_ADDRESS_KEY =
+      "fs.gs.metadata.cache.server.address";
+
+  // Default value for fs.gs.metadata.cache.server.address.
+  public static final String GCS_METADATA_CACHE_SERVER_ADDRESS_DEFAULT = "";
+
+  // Configuration key for the maximum number of objects held by the IN_MEMORY metadata cache
+  // before the least recently used ones are evicted; 0 means no limit. The cache is shared by
+  // all filesystem instances in the process.
+  public static final String GCS_METADATA_CACHE_MAX_ENTRIES_KEY =
+      "fs.gs.metadata.cache.max.entries";
+
+  // Default value for fs.gs.metadata.cache.max.entries.
+  public static final long GCS_METADATA_CACHE_MAX_ENTRIES_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.METADATA_CACHE_MAX_ENTRIES_DEFAULT;
+
+  // Configuration key for the approximate maximum number of bytes of memory used by the
+  // IN_MEMORY metadata cache before the least recently used objects are evicted; 0 means no
+  // limit.
+  public static final String GCS_METADATA_CACHE_MAX_BYTES_KEY = "fs.gs.metadata.cache.max.bytes";
+
+  // Default value for fs.gs.metadata.cache.max.bytes.
+  public static final long GCS_METADATA_CACHE_MAX_BYTES_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.METADATA_CACHE_MAX_BYTES_DEFAULT;
+
+  // Configuration key for the local file to which the IN_MEMORY metadata cache is saved when the
+  // last filesystem of the process using it is closed or the JVM shuts down, and from which it is
+  // restored when the first such filesystem is initialized, so that frequently relaunched
+  // processes don't each start with an empty cache. Empty disables it.
+  public static final String GCS_METADATA_CACHE_SNAPSHOT_PATH_KEY =
+      "fs.gs.metadata.cache.snapshot.path";
+
+  // Default value for fs.gs.metadata.cache.snapshot.path.
+  public static final String GCS_METADATA_CACHE_SNAPSHOT_PATH_DEFAULT = "";
+
+  // Configuration key for the maximum age in milliseconds of a metadata cache snapshot which is
+  // still restored; entries and statuses in it which have since expired are never restored.
+  public static final String GCS_METADATA_CACHE_SNAPSHOT_MAX_AGE_MS_KEY =
+      "fs.gs.metadata.cache.snapshot.max.age.ms";
+
+  // Default value for fs.gs.metadata.cache.snapshot.max.age.ms.
+  public static final long GCS_METADATA_CACHE_SNAPSHOT_MAX_AGE_MS_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.METADATA_CACHE_SNAPSHOT_MAX_AGE_MILLIS_DEFAULT;
+
+  // Configuration key for the number of milliseconds for which the metadata cache serves the
+  // status of an existing file or directory without a request to GCS; 0 disables it. The
+  // cache sees changes made by this process only, so others' changes may be missed for this long.
+  public static final String GCS_STAT_CACHE_TTL_MS_KEY = "fs.gs.metadata.cache.stat.ttl.ms";
+
+  // Default value for fs.gs.metadata.cache.stat.ttl.ms.
+  public static final long GCS_STAT_CACHE_TTL_MS_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.STAT_CACHE_TTL_MILLIS_DEFAULT;
+
+  // Configuration key for the number of milliseconds for which the metadata cache remembers
+  // that a path does not exist; 0 disables it.
+  public static final String GCS_STAT_CACHE_NEGATIVE_TTL_MS_KEY =
+      "fs.gs.metadata.cache.stat.negative.ttl.ms";
+
+  // Default value for fs.gs.metadata.cache.stat.negative.ttl.ms.
+  public static final long GCS_STAT_CACHE_NEGATIVE_TTL_MS_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.STAT_CACHE_NEGATIVE_TTL_MILLIS_DEFAULT;
+
+  // Configuration key for the maximum number of statuses, and separately of missing paths, kept
+  // by the metadata cache.
+  public static final String GCS_STAT_CACHE_MAX_ENTRIES_KEY =
+      "fs.gs.metadata.cache.stat.max.entries";
+
+  // Default value for fs.gs.metadata.cache.stat.max.entries.
+  public static final long GCS_STAT_CACHE_MAX_ENTRIES_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.STAT_CACHE_MAX_ENTRIES_DEFAULT;
+
   // Configuration key containing a comma-separated list of sub-strings that when matched will
   // cause a particular directory to not have its modification timestamp updated.
   // Includes take precedence over excludes.
@@ -276,14 +380,81 @@ public abstract class GoogleHadoopFileSystemBase
   private boolean enableAutoRepairImplicitDirectories =
       GCS_ENABLE_REPAIR_IMPLICIT_DIRECTORIES_DEFAULT;
 
-  // Configuration key for enabling the use of a large flat listing to pre-populate possible
-  // glob matches in a single API call before running the core globbing logic in-memory rather
-  // than sequentially and recursively performing API calls.
+  // Configuration key for listing the subdirectories of a directory from the prefixes returned by
+  // GCS alone, without fetching each subdirectory's object. Missing subdirectory objects are then
+  // only repaired if fs.gs.implicit.dir.repair.background.enable is set.
+  public static final String GCS_ENABLE_INFER_LISTED_DIRECTORIES_KEY =
+      "fs.gs.list.infer.directories.enable";
+
+  // Default value for fs.gs.list.infer.directories.enable.
+  public static final boolean GCS_ENABLE_INFER_LISTED_DIRECTORIES_DEFAULT =
+      GoogleCloudStorageOptions.INFER_DIRECTORIES_FROM_PREFIXES_DEFAULT;
+
+  // Configuration key for repairing, on a single background thread, the missing directory objects
+  // of subdirectories listed with fs.gs.list.infer.directories.enable. Has no effect unless
+  // fs.gs.implicit.dir.repair.enable is also set.
+  public static final String GCS_ENABLE_BACKGROUND_REPAIR_IMPLICIT_DIRECTORIES_KEY =
+      "fs.gs.implicit.dir.repair.background.enable";
+
+  // Default value for fs.gs.implicit.dir.repair.background.enable.
+  public static final boolean GCS_ENABLE_BACKGROUND_REPAIR_IMPLICIT_DIRECTORIES_DEFAULT =
+      GoogleCloudStorageOptions.BACKGROUND_REPAIR_IMPLICIT_DIRECTORIES_DEFAULT;
+
+  // Configuration key for listing a directory's children before checking that the directory
+  // exists, inferring its existence from the children, so that listing a non-empty directory
+  // takes a single request.
+  public static final String GCS_ENABLE_LIST_BEFORE_STAT_KEY = "fs.gs.list.before.stat.enable";
+
+  // Default value for fs.gs.list.before.stat.enable.
+  public static final boolean GCS_ENABLE_LIST_BEFORE_STAT_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.LIST_BEFORE_STAT_ENABLED_DEFAULT;
+
+  // Configuration key for sharing a single request among concurrent identical object lookups and
+  // listings made through the same filesystem instance.
+  public static final String GCS_ENABLE_COALESCE_REQUESTS_KEY =
+      "fs.gs.metadata.requests.coalesce.enable";
+
+  // Default value for fs.gs.metadata.requests.coalesce.enable.
+  public static final boolean GCS_ENABLE_COALESCE_REQUESTS_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.COALESCE_REQUESTS_ENABLED_DEFAULT;
+
+  // Configuration key for enabling the use of a large flat listing to find glob matches, matching
+  // the listed objects as they stream in rather than sequentially and recursively performing API
+  // calls.
   public static final String GCS_ENABLE_FLAT_GLOB_KEY = "fs.gs.glob.flatlist.enable";
 
   // Default value for fs.gs.glob.flatlist.enable.
   public static final boolean GCS_ENABLE_FLAT_GLOB_DEFAULT = true;
 
+  // Configuration key for the maximum number of literal prefixes into which the brace groups and
+  // character classes of a flat glob may be expanded, to be listed concurrently instead of listing
+  // everything preceding the first wildcard; for example, "logs/{2015-01,2015-02}/*" is listed as
+  // "logs/2015-01/" and "logs/2015-02/" instead of "logs/". Patterns expanding into more prefixes
+  // list everything preceding the first wildcard; 0 disables expansion.
+  public static final String GCS_FLAT_GLOB_MAX_PREFIXES_KEY = "fs.gs.glob.flatlist.max.prefixes";
+
+  // Default value for fs.gs.glob.flatlist.max.prefixes.
+  public static final int GCS_FLAT_GLOB_MAX_PREFIXES_DEFAULT = 16;
+
+  // Configuration key for the number of key ranges into which the flat listing of a directory
+  // with more than one page of objects, as used by recursive listFiles and getContentSummary, is
+  // split, so that the ranges are listed concurrently rather than one page after another; 1
+  // lists serially.
+  public static final String GCS_LIST_SHARDS_KEY = "fs.gs.list.shards";
+
+  // Default value for fs.gs.list.shards.
+  public static final int GCS_LIST_SHARDS_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.LIST_SHARDS_DEFAULT;
+
+  // Configuration key for the characters at which the key ranges of a sharded listing are split,
+  // following the prefix shared by the first page of the listing; these should be the characters
+  // of which the names of the objects in large directories are most commonly made.
+  public static final String GCS_LIST_SHARD_ALPHABET_KEY = "fs.gs.list.shard.alphabet";
+
+  // Default value for fs.gs.list.shard.alphabet.
+  public static final String GCS_LIST_SHARD_ALPHABET_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.LIST_SHARD_ALPHABET_DEFAULT;
+
   // Configuration key for enabling the use of marker files during file creation. When running
   // non-MR applications that make use of the FileSystem, it is a idea to enable marker files
   // to better mimic HDFS overwrite and locking behavior.
@@ -293,12 +464,61 @@ public abstract class GoogleHadoopFileSystemBase
   // Default value for fs.gs.create.marker.files.enable
   public static final boolean GCS_ENABLE_MARKER_FILE_CREATION_DEFAULT = false;
 
+  // Configuration key for the maximum number of batch requests a single copy or delete of many
+  // objects (e.g. renaming or deleting a large directory) keeps in flight at once, which is also
+  // the number of threads executing the batches of all such operations of a filesystem.
+  public static final String GCS_BATCH_THREADS_KEY = "fs.gs.batch.threads";
+
+  // Default value for fs.gs.batch.threads.
+  public static final int GCS_BATCH_THREADS_DEFAULT =
+      GoogleCloudStorageOptions.BATCH_THREADS_DEFAULT;
+
+  // Configuration key for copying objects (e.g. when renaming) with the GCS rewrite API, which
+  // unlike the copy API works between buckets of different locations or storage classes and
+  // copies large objects over several calls.
+  public static final String GCS_COPY_WITH_REWRITE_KEY = "fs.gs.copy.with.rewrite.enable";
+
+  // Default value for fs.gs.copy.with.rewrite.enable.
+  public static final boolean GCS_COPY_WITH_REWRITE_DEFAULT =
+      GoogleCloudStorageOptions.COPY_WITH_REWRITE_ENABLED_DEFAULT;
+
+  // Configuration key for the maximum number of bytes copied by each rewrite call; must be a
+  // multiple of 1048576. 0 lets GCS choose.
+  public static final String GCS_REWRITE_MAX_BYTES_PER_CALL_KEY =
+      "fs.gs.rewrite.max.bytes.per.call";
+
+  // Default value for fs.gs.rewrite.max.bytes.per.call.
+  public static final long GCS_REWRITE_MAX_BYTES_PER_CALL_DEFAULT =
+      GoogleCloudStorageOptions.MAX_BYTES_REWRITTEN_PER_CALL_DEFAULT;
+
+  // Configuration key for recording the progress of directory renames in the metadata of the
+  // destination directory, from which an interrupted rename is completed by the next rename to
+  // that destination.
+  public static final String GCS_ENABLE_RENAME_JOURNAL_KEY = "fs.gs.rename.journal.enable";
+
+  // Default value for fs.gs.rename.journal.enable.
+  public static final boolean GCS_ENABLE_RENAME_JOURNAL_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.RENAME_JOURNAL_ENABLED_DEFAULT;
+
   // Configuration key for adding a suffix to the GHFS application name sent to GCS.
   public static final String GCS_APPLICATION_NAME_SUFFIX_KEY = "fs.gs.application.name.suffix";
 
   // Default suffix to add to the application name.
   public static final String GCS_APPLICATION_NAME_SUFFIX_DEFAULT = "";
 
+  // Configuration key for the type of checksum returned by getFileChecksum, computed server-side
+  // by GCS so that no object data needs to be read. Supported values, in any case:
+  // NONE: getFileChecksum returns null, matching the default Hadoop FileSystem behavior.
+  // CRC32C: the object's CRC32C.
+  // MD5: the object's MD5 hash; composite objects have no MD5 and report null.
+  // COMPOSITE_CRC32C: the object's CRC32C, comparable with the HDFS checksum reported when
+  //     dfs.checksum.combine.mode is COMPOSITE_CRC, so that tools like distcp -update can skip
+  //     unchanged files when copying between HDFS and GCS.
+  public static final String GCS_FILE_CHECKSUM_TYPE_KEY = "fs.gs.checksum.type";
+
+  // Default value for fs.gs.checksum.type.
+  public static final String GCS_FILE_CHECKSUM_TYPE_DEFAULT = "NONE";
+
   // Default PathFilter that accepts all paths.
   public static final PathFilter DEFAULT_FILTER = new PathFilter() {
     @Override
@@ -332,6 +552,27 @@ public abstract class GoogleHadoopFileSystemBase
   // Instance value of fs.gs.glob.flatlist.enable based on the initial Configuration.
   private boolean enableFlatGlob = GCS_ENABLE_FLAT_GLOB_DEFAULT;
 
+  // Instance value of fs.gs.glob.flatlist.max.prefixes based on the initial Configuration.
+  private int maxFlatGlobPrefixes = GCS_FLAT_GLOB_MAX_PREFIXES_DEFAULT;
+
+  // Executor for listing the prefixes of a flat glob concurrently.
+  private final ExecutorService flatGlobExecutor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("ghfs-flat-glob-%d")
+          .setDaemon(true)
+          .build());
+
+  // Executor for aggregating the shards of a content summary's listing concurrently.
+  private final ExecutorService contentSummaryExecutor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("ghfs-content-summary-%d")
+          .setDaemon(true)
+          .build());
+
+  // Instance value of fs.gs.checksum.type based on the initial Configuration.
+  private GoogleHadoopFileChecksum.Type checksumType =
+      GoogleHadoopFileChecksum.Type.valueOf(GCS_FILE_CHECKSUM_TYPE_DEFAULT);
+
   //The URI the File System is passed in initialize.
   protected URI initUri;
 
@@ -426,6 +667,9 @@ public abstract class GoogleHadoopFileSystemBase
    * There are two types of counters:
    * -- METHOD_NAME      : Number of successful invocations of method METHOD.
    * -- METHOD_NAME_TIME : Total inclusive time spent in method METHOD.
+   *
+   * DELETED_OBJECTS and DELETED_PAGES instead count the objects, and the listing pages of objects,
+   * deleted so far by recursive deletes and directory renames.
    */
   public enum Counter {
     APPEND,
@@ -434,6 +678,10 @@ public abstract class GoogleHadoopFileSystemBase
     CREATE_TIME,
     DELETE,
     DELETE_TIME,
+    DELETED_OBJECTS,
+    DELETED_PAGES,
+    GET_FILE_CHECKSUM,
+    GET_FILE_CHECKSUM_TIME,
     GET_FILE_STATUS,
     GET_FILE_STATUS_TIME,
     INIT,
@@ -454,6 +702,8 @@ public abstract class GoogleHadoopFileSystemBase
     READ_TIME,
     READ_FROM_CHANNEL,
     READ_FROM_CHANNEL_TIME,
+    READ_CHECKSUM,
+    READ_CHECKSUM_TIME,
     READ_CLOSE,
     READ_CLOSE_TIME,
     READ_POS,
@@ -468,6 +718,8 @@ public abstract class GoogleHadoopFileSystemBase
     WRITE1_TIME,
     WRITE,
     WRITE_TIME,
+    WRITE_CHECKSUM,
+    WRITE_CHECKSUM_TIME,
     WRITE_CLOSE,
     WRITE_CLOSE_TIME,
   }
@@ -916,6 +1168,8 @@ public abstract class GoogleHadoopFileSystemBase
     } catch (IOException e) {
       log.debug("GHFS.rename", e);
       return false;
+    } finally {
+      updateDeleteCounters();
     }
 
     long duration = System.nanoTime() - startTime;
@@ -962,6 +1216,8 @@ public abstract class GoogleHadoopFileSystemBase
     } catch (IOException e) {
       log.debug("GHFS.delete", e);
       return false;
+    } finally {
+      updateDeleteCounters();
     }
 
     long duration = System.nanoTime() - startTime;
@@ -1008,6 +1264,65 @@ public abstract class GoogleHadoopFileSystemBase
     return status.toArray(new FileStatus[0]);
   }
 
+  /**
+   * Starts an incremental listing of file info. If the given path points to a directory then
+   * its children are listed one page at a time as the returned iterator is consumed, with the
+   * following page fetched in the background; otherwise only the given file is listed. Backs the
+   * incremental listing methods on Hadoop 2, see GoogleHadoopFileSystemBaseSpecific.
+   *
+   * @param hadoopPath Given path.
+   * @throws FileNotFoundException if the path does not exist.
+   * @throws IOException if an error occurs.
+   */
+  PrefetchingPageIterator<FileInfo> listFileInfoIterator(Path hadoopPath)
+      throws IOException {
+    long startTime = System.nanoTime();
+    Preconditions.checkArgument(hadoopPath != null, "hadoopPath must not be null");
+
+    checkOpen();
+
+    log.debug("GHFS.listFileInfoIterator: %s", hadoopPath);
+    URI gcsPath = getGcsPath(hadoopPath);
+    PrefetchingPageIterator<FileInfo> fileInfos =
+        gcsfs.listFileInfoIterator(gcsPath, enableAutoRepairImplicitDirectories);
+
+    long duration = System.nanoTime() - startTime;
+    increment(Counter.LIST_STATUS);
+    increment(Counter.LIST_STATUS_TIME, duration);
+    return fileInfos;
+  }
+
+  /**
+   * Starts an incremental listing of every object under the given directory, including directory
+   * objects, with a single flat prefix listing instead of one listing per directory of the tree;
+   * if the given path points to a file then only the file is listed. Backs recursive listFiles on
+   * Hadoop 2, see GoogleHadoopFileSystemBaseSpecific.
+   *
+   * @param hadoopPath Given path.
+   * @return the listing, or null if the path is the global root, which cannot be listed flat.
+   * @throws FileNotFoundException if nothing exists at or under the path.
+   * @throws IOException if an error occurs.
+   */
+  PrefetchingPageIterator<FileInfo> listAllFileInfoIterator(Path hadoopPath)
+      throws IOException {
+    long startTime = System.nanoTime();
+    Preconditions.checkArgument(hadoopPath != null, "hadoopPath must not be null");
+
+    checkOpen();
+
+    log.debug("GHFS.listAllFileInfoIterator: %s", hadoopPath);
+    URI gcsPath = getGcsPath(hadoopPath);
+    if (gcsPath.equals(GoogleCloudStorageFileSystem.GCS_ROOT)) {
+      return null;
+    }
+    PrefetchingPageIterator<FileInfo> fileInfos = gcsfs.listAllFileInfoIterator(gcsPath);
+
+    long duration = System.nanoTime() - startTime;
+    increment(Counter.LIST_STATUS);
+    increment(Counter.LIST_STATUS_TIME, duration);
+    return fileInfos;
+  }
+
   /**
    * Sets the current working directory to the given path.
    *
@@ -1120,8 +1435,8 @@ public abstract class GoogleHadoopFileSystemBase
 
   /**
    * Determines based on config settings and suitability of {@code fixedPath} whether to use
-   * flat globbing logic where we use a single large listing during globStatus to then perform
-   * the core globbing logic in-memory.
+   * flat globbing logic where we use a single large listing during globStatus, matching each
+   * listed object against the pattern as it arrives.
    */
   @VisibleForTesting
   boolean shouldUseFlatGlob(Path fixedPath) {
@@ -1184,6 +1499,116 @@ public abstract class GoogleHadoopFileSystemBase
     return path.substring(0, trimIndex);
   }
 
+  /**
+   * Returns the GCS path of {@code prefixString}, a prefix of a flat glob, keeping any trailing
+   * slash.
+   */
+  private URI getFlatGlobPrefixUri(String prefixString) {
+    Path prefixPath = new Path(prefixString);
+    URI prefixUri = getGcsPath(prefixPath);
+
+    if (prefixString.endsWith("/") && !prefixPath.toString().endsWith("/")) {
+      // Path strips a trailing slash unless it's the 'root' path. We want to keep the trailing
+      // slash so that we don't wastefully list sibling files which may match the directory-name
+      // as a strict prefix but would've been omitted due to not containing the '/' at the end.
+      prefixUri = FileInfo.convertToDirectoryPath(prefixUri);
+    }
+    return prefixUri;
+  }
+
+  /**
+   * Returns the prefixes to list for the flat glob {@code fixedPath}: the literal prefixes its
+   * brace groups and character classes expand into, or null if there would be more than
+   * fs.gs.glob.flatlist.max.prefixes of them.
+   */
+  private List<URI> getFlatGlobPrefixUris(Path fixedPath) {
+    List<String> expandedPrefixes =
+        FlatGlobMatcher.expandPrefixes(fixedPath.toUri().getPath(), maxFlatGlobPrefixes);
+    if (expandedPrefixes == null) {
+      log.debug("'%s' expands into more than %d prefixes", fixedPath, maxFlatGlobPrefixes);
+      return null;
+    }
+
+    String bucketPathString = String.format(
+        "%s://%s/", fixedPath.toUri().getScheme(), fixedPath.toUri().getAuthority());
+    List<URI> prefixUris = new ArrayList<>(expandedPrefixes.size());
+    for (String expandedPrefix : expandedPrefixes) {
+      prefixUris.add(getFlatGlobPrefixUri(bucketPathString + expandedPrefix));
+    }
+    return prefixUris;
+  }
+
+  /**
+   * Lists the objects under each of {@code prefixUris} concurrently, matching each listing
+   * against {@code matcher} as it is listed.
+   *
+   * @return the matches of all listings, or null if no objects were listed.
+   */
+  private List<FileInfo> matchFlatGlobPrefixes(
+      final FlatGlobMatcher matcher, List<URI> prefixUris)
+      throws IOException {
+    if (prefixUris.size() == 1) {
+      return matchFlatGlobPrefix(matcher, prefixUris.get(0), null, null);
+    }
+
+    List<Future<List<FileInfo>>> listings = new ArrayList<>(prefixUris.size());
+    for (final URI prefixUri : prefixUris) {
+      listings.add(flatGlobExecutor.submit(new Callable<List<FileInfo>>() {
+        @Override
+        public List<FileInfo> call() throws IOException {
+          return matchFlatGlobPrefix(matcher, prefixUri, null, null);
+        }
+      }));
+    }
+
+    List<FileInfo> matches = null;
+    try {
+      for (Future<List<FileInfo>> listing : listings) {
+        List<FileInfo> listingMatches = listing.get();
+        if (listingMatches != null) {
+          if (matches == null) {
+            matches = new ArrayList<>();
+          }
+          matches.addAll(listingMatches);
+        }
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while listing glob prefixes", ie);
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof IOException) {
+        throw (IOException) ee.getCause();
+      }
+      throw new IOException(ee.getCause());
+    } finally {
+      for (Future<List<FileInfo>> listing : listings) {
+        listing.cancel(true);
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Lists the objects under {@code prefixUri} whose names lie in the range from
+   * {@code startOffset} to {@code endOffset}, either of which may be null for no bound, matching
+   * them against {@code matcher} as they are listed.
+   *
+   * @return the matches, or null if no objects were listed.
+   */
+  private List<FileInfo> matchFlatGlobPrefix(
+      FlatGlobMatcher matcher, URI prefixUri, String startOffset, String endOffset)
+      throws IOException {
+    log.debug("Matching everything with prefix '%s' from '%s' to '%s'",
+        prefixUri, startOffset, endOffset);
+    PrefetchingPageIterator<FileInfo> fileInfos =
+        gcsfs.listAllFileInfoForPrefixIterator(prefixUri, startOffset, endOffset);
+    try {
+      return fileInfos.hasNext() ? matcher.match(fileInfos) : null;
+    } finally {
+      fileInfos.close();
+    }
+  }
+
   /**
    * Returns an array of FileStatus objects whose path names match pathPattern.
    *
@@ -1221,34 +1646,63 @@ public abstract class GoogleHadoopFileSystemBase
     log.debug("GHFS.globStatus: %s", pathPattern);
     // We convert pathPattern to GCS path and then to Hadoop path to ensure that it ends up in
     // the correct format. See note in getHadoopPath for more information.
-    Path fixedPath = getHadoopPath(getGcsPath(pathPattern));
+    Path fixedPath;
+    try {
+      fixedPath = getHadoopPath(getGcsPath(pathPattern));
+    } catch (IllegalArgumentException iae) {
+      // The braces and brackets of a glob may not appear unquoted in a GCS path URI; such a
+      // pattern is only ever expanded into literal paths, so qualifying it is enough.
+      log.debug("Failed to convert '%s' to a GCS path, qualifying it instead: %s",
+          pathPattern, iae);
+      fixedPath = makeQualified(pathPattern);
+    }
     log.debug("GHFS.globStatus fixedPath: %s => %s", pathPattern, fixedPath);
 
     if (shouldUseFlatGlob(fixedPath)) {
       String pathString = fixedPath.toString();
-      String prefixString = trimToPrefixWithoutGlob(pathString);
-      Path prefixPath = new Path(prefixString);
-      URI prefixUri = getGcsPath(prefixPath);
-
-      if (prefixString.endsWith("/") && !prefixPath.toString().endsWith("/")) {
-        // Path strips a trailing slash unless it's the 'root' path. We want to keep the trailing
-        // slash so that we don't wastefully list sibling files which may match the directory-name
-        // as a strict prefix but would've been omitted due to not containing the '/' at the end.
-        prefixUri = FileInfo.convertToDirectoryPath(prefixUri);
-      }
+      URI prefixUri = getFlatGlobPrefixUri(trimToPrefixWithoutGlob(pathString));
+
+      FileStatus[] returnList;
+      String objectNamePattern = fixedPath.toUri().getPath();
+      FlatGlobMatcher matcher =
+          FlatGlobMatcher.compile(prefixUri.getAuthority(), objectNamePattern);
+      if (matcher != null) {
+        // Match everything with each of the prefixes the pattern expands into, or else with the
+        // non-glob prefix and within the range of names the pattern bounds, as it is listed.
+        List<URI> prefixUris = getFlatGlobPrefixUris(fixedPath);
+        List<FileInfo> matches = prefixUris != null
+            ? matchFlatGlobPrefixes(matcher, prefixUris)
+            : matchFlatGlobPrefix(matcher, prefixUri,
+                FlatGlobMatcher.getRangeStart(objectNamePattern),
+                FlatGlobMatcher.getRangeEnd(objectNamePattern));
+        if (matches == null) {
+          // Let the superclass define the proper logic for finding no matches.
+          return super.globStatus(fixedPath, filter);
+        }
 
-      // Get everything matching the non-glob prefix.
-      log.debug("Listing everything with prefix '%s'", prefixUri);
-      List<FileInfo> fileInfos = gcsfs.listAllFileInfoForPrefix(prefixUri);
-      if (fileInfos.isEmpty()) {
-        // Let the superclass define the proper logic for finding no matches.
-        return super.globStatus(fixedPath, filter);
-      }
+        List<FileStatus> statuses = new ArrayList<>(matches.size());
+        for (FileInfo match : matches) {
+          FileStatus status = getFileStatus(match);
+          if (filter.accept(status.getPath())) {
+            statuses.add(status);
+          }
+        }
+        returnList = statuses.toArray(new FileStatus[statuses.size()]);
+        Arrays.sort(returnList);
+      } else {
+        // Get everything matching the non-glob prefix.
+        log.debug("Listing everything with prefix '%s'", prefixUri);
+        List<FileInfo> fileInfos = gcsfs.listAllFileInfoForPrefix(prefixUri);
+        if (fileInfos.isEmpty()) {
+          // Let the superclass define the proper logic for finding no matches.
+          return super.globStatus(fixedPath, filter);
+        }
 
-      // Perform the core globbing logic in the helper filesystem.
-      GoogleHadoopFileSystem helperFileSystem =
-          ListHelperGoogleHadoopFileSystem.createInstance(fileInfos);
-      FileStatus[] returnList = helperFileSystem.globStatus(pathPattern, filter);
+        // Perform the core globbing logic in the helper filesystem.
+        GoogleHadoopFileSystem helperFileSystem =
+            ListHelperGoogleHadoopFileSystem.createInstance(fileInfos);
+        returnList = helperFileSystem.globStatus(pathPattern, filter);
+      }
 
       // If the return list contains directories, we should repair them if they're 'implicit'.
       if (enableAutoRepairImplicitDirectories) {
@@ -1298,7 +1752,7 @@ public abstract class GoogleHadoopFileSystemBase
   /**
    * Gets FileStatus corresponding to the given FileInfo value.
    */
-  private FileStatus getFileStatus(FileInfo fileInfo) {
+  FileStatus getFileStatus(FileInfo fileInfo) {
     // GCS does not provide modification time. It only provides creation time.
     // It works for objects because they are immutable once created.
     FileStatus status =
@@ -1389,18 +1843,31 @@ public abstract class GoogleHadoopFileSystemBase
     counters.get(key).addAndGet(value);
   }
 
+  /**
+   * Copies the numbers of objects and listing pages deleted so far by gcsfs into their counters.
+   */
+  private void updateDeleteCounters() {
+    if (gcsfs != null) {
+      counters.get(Counter.DELETED_OBJECTS).set(gcsfs.getDeletedObjectCount());
+      counters.get(Counter.DELETED_PAGES).set(gcsfs.getDeletedPageCount());
+    }
+  }
+
   /**
    * Gets value of all counters as a formatted string.
    */
   @VisibleForTesting
   String countersToString() {
+    updateDeleteCounters();
     StringBuilder sb = new StringBuilder();
     sb.append("\n");
     double numNanoSecPerSec = TimeUnit.SECONDS.toNanos(1);
     String timeSuffix = "_TIME";
     for (Counter c : Counter.values()) {
       String name = c.toString();
-      if (!name.endsWith(timeSuffix)) {
+      if (c == Counter.DELETED_OBJECTS || c == Counter.DELETED_PAGES) {
+        sb.append(String.format("%20s = %d\n\n", name, counters.get(c).get()));
+      } else if (!name.endsWith(timeSuffix)) {
         // Log invocation counter.
         long count = counters.get(c).get();
         sb.append(String.format("%20s = %d calls\n", name, count));
@@ -1479,6 +1946,26 @@ public abstract class GoogleHadoopFileSystemBase
     }
   }
 
+  /**
+   * Parses fs.gs.checksum.type from {@code config}, ignoring case.
+   *
+   * @throws IllegalArgumentException if the value names no checksum type.
+   */
+  @VisibleForTesting
+  static GoogleHadoopFileChecksum.Type getChecksumType(Configuration config) {
+    String checksumTypeName =
+        config.get(GCS_FILE_CHECKSUM_TYPE_KEY, GCS_FILE_CHECKSUM_TYPE_DEFAULT);
+    try {
+      return GoogleHadoopFileChecksum.Type.valueOf(
+          checksumTypeName.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException iae) {
+      throw new IllegalArgumentException(String.format(
+          "Invalid value '%s' for %s, expected one of %s", checksumTypeName,
+          GCS_FILE_CHECKSUM_TYPE_KEY, Arrays.toString(GoogleHadoopFileChecksum.Type.values())),
+          iae);
+    }
+  }
+
   /**
    * Configures GHFS using the supplied configuration.
    *
@@ -1525,6 +2012,56 @@ public abstract class GoogleHadoopFileSystemBase
       log.debug("%s = %s", GCS_METADATA_CACHE_DIRECTORY_KEY, cacheBasePath);
       optionsBuilder.setCacheBasePath(cacheBasePath);
 
+      String cacheServerAddress = config.get(
+          GCS_METADATA_CACHE_SERVER_ADDRESS_KEY, GCS_METADATA_CACHE_SERVER_ADDRESS_DEFAULT);
+      log.debug("%s = %s", GCS_METADATA_CACHE_SERVER_ADDRESS_KEY, cacheServerAddress);
+      optionsBuilder.setCacheServerAddress(cacheServerAddress);
+
+      long metadataCacheMaxEntries = config.getLong(
+          GCS_METADATA_CACHE_MAX_ENTRIES_KEY, GCS_METADATA_CACHE_MAX_ENTRIES_DEFAULT);
+      log.debug("%s = %d", GCS_METADATA_CACHE_MAX_ENTRIES_KEY, metadataCacheMaxEntries);
+      long metadataCacheMaxBytes = config.getLong(
+          GCS_METADATA_CACHE_MAX_BYTES_KEY, GCS_METADATA_CACHE_MAX_BYTES_DEFAULT);
+      log.debug("%s = %d", GCS_METADATA_CACHE_MAX_BYTES_KEY, metadataCacheMaxBytes);
+      optionsBuilder
+          .setMetadataCacheMaxEntries(metadataCacheMaxEntries)
+          .setMetadataCacheMaxBytes(metadataCacheMaxBytes);
+
+      String metadataCacheSnapshotPath = config.get(
+          GCS_METADATA_CACHE_SNAPSHOT_PATH_KEY, GCS_METADATA_CACHE_SNAPSHOT_PATH_DEFAULT);
+      log.debug("%s = %s", GCS_METADATA_CACHE_SNAPSHOT_PATH_KEY, metadataCacheSnapshotPath);
+      long metadataCacheSnapshotMaxAgeMillis = config.getLong(
+          GCS_METADATA_CACHE_SNAPSHOT_MAX_AGE_MS_KEY,
+          GCS_METADATA_CACHE_SNAPSHOT_MAX_AGE_MS_DEFAULT);
+      log.debug("%s = %d",
+          GCS_METADATA_CACHE_SNAPSHOT_MAX_AGE_MS_KEY, metadataCacheSnapshotMaxAgeMillis);
+      optionsBuilder
+          .setMetadataCacheSnapshotPath(metadataCacheSnapshotPath)
+          .setMetadataCacheSnapshotMaxAgeMillis(metadataCacheSnapshotMaxAgeMillis);
+
+      int listShards = config.getInt(GCS_LIST_SHARDS_KEY, GCS_LIST_SHARDS_DEFAULT);
+      log.debug("%s = %d", GCS_LIST_SHARDS_KEY, listShards);
+      String listShardAlphabet = config.get(
+          GCS_LIST_SHARD_ALPHABET_KEY, GCS_LIST_SHARD_ALPHABET_DEFAULT);
+      log.debug("%s = %s", GCS_LIST_SHARD_ALPHABET_KEY, listShardAlphabet);
+      optionsBuilder
+          .setListShards(listShards)
+          .setListShardAlphabet(listShardAlphabet);
+
+      long statCacheTtlMillis = config.getLong(
+          GCS_STAT_CACHE_TTL_MS_KEY, GCS_STAT_CACHE_TTL_MS_DEFAULT);
+      log.debug("%s = %d", GCS_STAT_CACHE_TTL_MS_KEY, statCacheTtlMillis);
+      long statCacheNegativeTtlMillis = config.getLong(
+          GCS_STAT_CACHE_NEGATIVE_TTL_MS_KEY, GCS_STAT_CACHE_NEGATIVE_TTL_MS_DEFAULT);
+      log.debug("%s = %d", GCS_STAT_CACHE_NEGATIVE_TTL_MS_KEY, statCacheNegativeTtlMillis);
+      long statCacheMaxEntries = config.getLong(
+          GCS_STAT_CACHE_MAX_ENTRIES_KEY, GCS_STAT_CACHE_MAX_ENTRIES_DEFAULT);
+      log.debug("%s = %d", GCS_STAT_CACHE_MAX_ENTRIES_KEY, statCacheMaxEntries);
+      optionsBuilder
+          .setStatCacheTtlMillis(statCacheTtlMillis)
+          .setStatCacheNegativeTtlMillis(statCacheNegativeTtlMillis)
+          .setStatCacheMaxEntries(statCacheMaxEntries);
+
       Predicate<String> shouldIncludeInTimestampUpdatesPredicate =
           ParentTimestampUpdateIncludePredicate.create(config);
       optionsBuilder.setShouldIncludeInTimestampUpdatesPredicate(
@@ -1541,9 +2078,28 @@ public abstract class GoogleHadoopFileSystemBase
           GCS_ENABLE_FLAT_GLOB_DEFAULT);
       log.debug("%s = %s", GCS_ENABLE_FLAT_GLOB_KEY, enableFlatGlob);
 
+      maxFlatGlobPrefixes = config.getInt(
+          GCS_FLAT_GLOB_MAX_PREFIXES_KEY,
+          GCS_FLAT_GLOB_MAX_PREFIXES_DEFAULT);
+      log.debug("%s = %d", GCS_FLAT_GLOB_MAX_PREFIXES_KEY, maxFlatGlobPrefixes);
+
+      boolean enableInferListedDirectories = config.getBoolean(
+          GCS_ENABLE_INFER_LISTED_DIRECTORIES_KEY,
+          GCS_ENABLE_INFER_LISTED_DIRECTORIES_DEFAULT);
+      log.debug("%s = %s", GCS_ENABLE_INFER_LISTED_DIRECTORIES_KEY, enableInferListedDirectories);
+
+      boolean enableBackgroundRepairImplicitDirectories = config.getBoolean(
+          GCS_ENABLE_BACKGROUND_REPAIR_IMPLICIT_DIRECTORIES_KEY,
+          GCS_ENABLE_BACKGROUND_REPAIR_IMPLICIT_DIRECTORIES_DEFAULT);
+      log.debug("%s = %s", GCS_ENABLE_BACKGROUND_REPAIR_IMPLICIT_DIRECTORIES_KEY,
+          enableBackgroundRepairImplicitDirectories);
+
       optionsBuilder
           .getCloudStorageOptionsBuilder()
-          .setAutoRepairImplicitDirectoriesEnabled(enableAutoRepairImplicitDirectories);
+          .setAutoRepairImplicitDirectoriesEnabled(enableAutoRepairImplicitDirectories)
+          .setInferDirectoriesFromPrefixesEnabled(enableInferListedDirectories)
+          .setBackgroundRepairImplicitDirectoriesEnabled(
+              enableBackgroundRepairImplicitDirectories);
 
       boolean enableMarkerFileCreation = config.getBoolean(
           GCS_ENABLE_MARKER_FILE_CREATION_KEY,
@@ -1554,6 +2110,46 @@ public abstract class GoogleHadoopFileSystemBase
           .getCloudStorageOptionsBuilder()
           .setCreateMarkerObjects(enableMarkerFileCreation);
 
+      boolean enableRenameJournal = config.getBoolean(
+          GCS_ENABLE_RENAME_JOURNAL_KEY,
+          GCS_ENABLE_RENAME_JOURNAL_DEFAULT);
+      log.debug("%s = %s", GCS_ENABLE_RENAME_JOURNAL_KEY, enableRenameJournal);
+      optionsBuilder.setRenameJournalEnabled(enableRenameJournal);
+
+      boolean enableListBeforeStat = config.getBoolean(
+          GCS_ENABLE_LIST_BEFORE_STAT_KEY,
+          GCS_ENABLE_LIST_BEFORE_STAT_DEFAULT);
+      log.debug("%s = %s", GCS_ENABLE_LIST_BEFORE_STAT_KEY, enableListBeforeStat);
+      optionsBuilder.setListBeforeStatEnabled(enableListBeforeStat);
+
+      boolean enableCoalesceRequests = config.getBoolean(
+          GCS_ENABLE_COALESCE_REQUESTS_KEY,
+          GCS_ENABLE_COALESCE_REQUESTS_DEFAULT);
+      log.debug("%s = %s", GCS_ENABLE_COALESCE_REQUESTS_KEY, enableCoalesceRequests);
+      optionsBuilder.setCoalesceRequestsEnabled(enableCoalesceRequests);
+
+      int batchThreads = config.getInt(GCS_BATCH_THREADS_KEY, GCS_BATCH_THREADS_DEFAULT);
+      log.debug("%s = %d", GCS_BATCH_THREADS_KEY, batchThreads);
+
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .setBatchThreads(batchThreads);
+
+      boolean copyWithRewrite = config.getBoolean(
+          GCS_COPY_WITH_REWRITE_KEY,
+          GCS_COPY_WITH_REWRITE_DEFAULT);
+      log.debug("%s = %s", GCS_COPY_WITH_REWRITE_KEY, copyWithRewrite);
+
+      long maxBytesRewrittenPerCall = config.getLong(
+          GCS_REWRITE_MAX_BYTES_PER_CALL_KEY,
+          GCS_REWRITE_MAX_BYTES_PER_CALL_DEFAULT);
+      log.debug("%s = %d", GCS_REWRITE_MAX_BYTES_PER_CALL_KEY, maxBytesRewrittenPerCall);
+
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .setCopyWithRewriteEnabled(copyWithRewrite)
+          .setMaxBytesRewrittenPerCall(maxBytesRewrittenPerCall);
+
       projectId = ConfigurationUtil.getMandatoryConfig(config, GCS_PROJECT_ID_KEY);
 
       optionsBuilder.getCloudStorageOptionsBuilder().setProjectId(projectId);
@@ -1576,6 +2172,23 @@ public abstract class GoogleHadoopFileSystemBase
           getWriteChannelOptionsBuilder().
           setUploadBufferSize(uploadBufferSize);
 
+      boolean enableWriteChecksum =
+          config.getBoolean(WRITE_CHECKSUM_ENABLE_KEY, WRITE_CHECKSUM_ENABLE_DEFAULT);
+      log.debug("%s = %s", WRITE_CHECKSUM_ENABLE_KEY, enableWriteChecksum);
+
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .getWriteChannelOptionsBuilder()
+          .setChecksumEnabled(enableWriteChecksum);
+
+      boolean enableReadChecksum =
+          config.getBoolean(READ_CHECKSUM_ENABLE_KEY, READ_CHECKSUM_ENABLE_DEFAULT);
+      log.debug("%s = %s", READ_CHECKSUM_ENABLE_KEY, enableReadChecksum);
+
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .setReadChecksumEnabled(enableReadChecksum);
+
       String applicationNameSuffix = config.get(
           GCS_APPLICATION_NAME_SUFFIX_KEY, GCS_APPLICATION_NAME_SUFFIX_DEFAULT);
       log.debug("%s = %s", GCS_APPLICATION_NAME_SUFFIX_KEY, applicationNameSuffix);
@@ -1599,6 +2212,9 @@ public abstract class GoogleHadoopFileSystemBase
     defaultBlockSize = config.getLong(BLOCK_SIZE_KEY, BLOCK_SIZE_DEFAULT);
     log.debug("%s = %d", BLOCK_SIZE_KEY, defaultBlockSize);
 
+    checksumType = getChecksumType(config);
+    log.debug("%s = %s", GCS_FILE_CHECKSUM_TYPE_KEY, checksumType);
+
     String systemBucketName = config.get(GCS_SYSTEM_BUCKET_KEY, null);
     log.debug("%s = %s", GCS_SYSTEM_BUCKET_KEY, systemBucketName);
 
@@ -1705,15 +2321,101 @@ public abstract class GoogleHadoopFileSystemBase
     super.processDeleteOnExit();
   }
 
+  /**
+   * Summarizes a directory with a single flat listing of every object under it, aggregated as it
+   * is listed, rather than with one listStatus call per directory of the tree as in the default
+   * implementation. If the listing is split into shards, see fs.gs.list.shards, the shards are
+   * aggregated concurrently and their summaries merged.
+   */
   @Override
   public ContentSummary getContentSummary(Path f)
       throws IOException {
+    long startTime = System.nanoTime();
+    Preconditions.checkArgument(f != null, "f must not be null");
+
+    checkOpen();
+
     log.debug("GHFS.getContentSummary: %s", f);
-    ContentSummary result = super.getContentSummary(f);
+    URI gcsPath = getGcsPath(f);
+    if (gcsPath.equals(GoogleCloudStorageFileSystem.GCS_ROOT)) {
+      // The global root can't be listed flat.
+      ContentSummary result = super.getContentSummary(f);
+      log.debug("GHFS.getContentSummary:=> %s", result);
+      return result;
+    }
+
+    final String objectName = Strings.nullToEmpty(
+        GoogleCloudStorageFileSystem.validatePathAndGetId(gcsPath, true).getObjectName());
+    List<PrefetchingPageIterator<FileInfo>> shardFileInfos =
+        gcsfs.listAllFileInfoShardIterators(gcsPath);
+    ContentSummaryAggregator aggregator;
+    if (shardFileInfos.size() == 1) {
+      aggregator = aggregateContentSummary(objectName, shardFileInfos.get(0));
+    } else {
+      List<Future<ContentSummaryAggregator>> aggregations =
+          new ArrayList<>(shardFileInfos.size());
+      for (final PrefetchingPageIterator<FileInfo> fileInfos : shardFileInfos) {
+        aggregations.add(contentSummaryExecutor.submit(new Callable<ContentSummaryAggregator>() {
+          @Override
+          public ContentSummaryAggregator call() throws IOException {
+            return aggregateContentSummary(objectName, fileInfos);
+          }
+        }));
+      }
+
+      aggregator = null;
+      try {
+        for (Future<ContentSummaryAggregator> aggregation : aggregations) {
+          if (aggregator == null) {
+            aggregator = aggregation.get();
+          } else {
+            aggregator.addAll(aggregation.get());
+          }
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while summarizing listing shards", ie);
+      } catch (ExecutionException ee) {
+        if (ee.getCause() instanceof IOException) {
+          throw (IOException) ee.getCause();
+        }
+        throw new IOException(ee.getCause());
+      } finally {
+        for (Future<ContentSummaryAggregator> aggregation : aggregations) {
+          aggregation.cancel(true);
+        }
+        for (PrefetchingPageIterator<FileInfo> fileInfos : shardFileInfos) {
+          fileInfos.close();
+        }
+      }
+    }
+    ContentSummary result = aggregator.getContentSummary();
+
+    long duration = System.nanoTime() - startTime;
+    increment(Counter.LIST_STATUS);
+    increment(Counter.LIST_STATUS_TIME, duration);
     log.debug("GHFS.getContentSummary:=> %s", result);
     return result;
   }
 
+  /**
+   * Aggregates the summary of the directory or file {@code objectName} from {@code fileInfos},
+   * which is closed once it has been consumed.
+   */
+  private static ContentSummaryAggregator aggregateContentSummary(
+      String objectName, PrefetchingPageIterator<FileInfo> fileInfos)
+      throws IOException {
+    ContentSummaryAggregator aggregator = new ContentSummaryAggregator(objectName);
+    try {
+      while (fileInfos.hasNext()) {
+        aggregator.add(fileInfos.next());
+      }
+    } finally {
+      fileInfos.close();
+    }
+    return aggregator;
+  }
+
   @Override
   public Token<?> getDelegationToken(String renewer)
       throws IOException {
@@ -1781,6 +2483,8 @@ public abstract class GoogleHadoopFileSystemBase
       gcsfs.close();
       gcsfs = null;
     }
+    flatGlobExecutor.shutdownNow();
+    contentSummaryExecutor.shutdownNow();
     logCounters();
     log.debug("GHFS.close:=> ");
   }
@@ -1802,15 +2506,44 @@ public abstract class GoogleHadoopFileSystemBase
     return result;
   }
 
+  /**
+   * Returns the checksum selected by fs.gs.checksum.type from the hashes GCS maintains for
+   * every object, requiring only a metadata request. Returns null for directories, when the
+   * checksum type is NONE, or when GCS has no hash of the requested type for the object.
+   */
   @Override
-  public FileChecksum getFileChecksum(Path f)
+  public FileChecksum getFileChecksum(Path hadoopPath)
       throws IOException {
-    log.debug("GHFS.getFileChecksum:");
-    FileChecksum result = super.getFileChecksum(f);
+    long startTime = System.nanoTime();
+    Preconditions.checkArgument(hadoopPath != null, "hadoopPath must not be null");
+
+    checkOpen();
+
+    log.debug("GHFS.getFileChecksum: %s", hadoopPath);
+    FileChecksum result = null;
+    if (checksumType != GoogleHadoopFileChecksum.Type.NONE) {
+      URI gcsPath = getGcsPath(hadoopPath);
+      FileInfo fileInfo = gcsfs.getFileInfo(gcsPath);
+      if (!fileInfo.exists()) {
+        throw new FileNotFoundException("File not found : " + hadoopPath);
+      }
+      if (!fileInfo.isDirectory()) {
+        result = GoogleHadoopFileChecksum.fromItemInfo(checksumType, fileInfo.getItemInfo());
+      }
+    }
     log.debug("GHFS.getFileChecksum:=> %s", result);
+
+    long duration = System.nanoTime() - startTime;
+    increment(Counter.GET_FILE_CHECKSUM);
+    increment(Counter.GET_FILE_CHECKSUM_TIME, duration);
     return result;
   }
 
+  @VisibleForTesting
+  void setChecksumType(GoogleHadoopFileChecksum.Type checksumType) {
+    this.checksumType = checksumType;
+  }
+
   @Override
   public void setVerifyChecksum(boolean verifyChecksum) {
     log.debug("GHFS.setVerifyChecksum:");
@@ -16,27 +16,350 @@
 
 package com.google.cloud.hadoop.fs.gcs;
 
+import com.google.api.client.util.Clock;
 import com.google.cloud.hadoop.gcsio.CacheEntry;
 import com.google.cloud.hadoop.gcsio.DirectoryListCache;
 import com.google.cloud.hadoop.gcsio.FileSystemBackedDirectoryListCache;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorage;
+import com.google.cloud.hadoop.gcsio.LogStructuredDirectoryListCache;
+import com.google.cloud.hadoop.gcsio.StorageResourceId;
 import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A tool that will perform GC on {@link FileSystemBackedDirectoryListCache} backing stores.
+ * <p>
+ * The mirror directory of a FILESYSTEM_BACKED cache is split into units of work, one per
+ * top-level entry of each bucket, which are walked in parallel. Since the cache restores the
+ * lastModified time of a directory whenever it adds or removes a child, a directory's
+ * lastModified time is the time the directory itself was cached, and every entry beneath it
+ * was cached later; the walk therefore skips the whole subtree of any directory which hasn't
+ * expired yet.
+ * <p>
+ * A run may be given a time budget, after which no more units are started. The first
+ * unfinished unit is then recorded in a checkpoint file, and the next run resumes from it.
  */
 public class GoogleHadoopFileSystemCacheCleaner {
   public static final LogUtil log = new LogUtil(GoogleHadoopFileSystemCacheCleaner.class);
 
+  // Configuration key for the number of threads walking a FILESYSTEM_BACKED cache directory
+  // in parallel.
+  public static final String CLEANER_THREADS_KEY = "fs.gs.metadata.cache.cleaner.threads";
+
+  // Default value for fs.gs.metadata.cache.cleaner.threads.
+  public static final int CLEANER_THREADS_DEFAULT = 8;
+
+  // Configuration key for the number of milliseconds after which a run stops starting new
+  // units of work and checkpoints its progress; 0 means no limit.
+  public static final String CLEANER_TIME_BUDGET_MS_KEY =
+      "fs.gs.metadata.cache.cleaner.time.budget.ms";
+
+  // Default value for fs.gs.metadata.cache.cleaner.time.budget.ms.
+  public static final long CLEANER_TIME_BUDGET_MS_DEFAULT = 0;
+
+  // Configuration key for the file in which a run which ran out of time records where the next
+  // run should resume. If empty, ".cleaner-checkpoint" is appended to the cache directory.
+  public static final String CLEANER_CHECKPOINT_PATH_KEY =
+      "fs.gs.metadata.cache.cleaner.checkpoint.path";
+
+  // Default value for fs.gs.metadata.cache.cleaner.checkpoint.path.
+  public static final String CLEANER_CHECKPOINT_PATH_DEFAULT = "";
+
+  // Suffix appended to the cache directory to get the default checkpoint path.
+  public static final String CHECKPOINT_SUFFIX = ".cleaner-checkpoint";
+
+  private final FileSystemBackedDirectoryListCache cache;
+  private final int numThreads;
+  private final long timeBudgetMillis;
+  private final Path checkpointPath;
+
+  // Clock used both for expiration and for enforcing the time budget.
+  private Clock clock = Clock.SYSTEM;
+
+  // Entries visited and removed by the last call to clean().
+  private final AtomicLong numEntriesScanned = new AtomicLong();
+  private final AtomicLong numEntriesRemoved = new AtomicLong();
+
+  /**
+   * @param cache The cache to clean, using its maxEntryAgeMillis.
+   * @param numThreads The number of units of work to walk in parallel.
+   * @param timeBudgetMillis Time after which no new units of work are started; 0 for no limit.
+   * @param checkpointPath File in which to record progress when out of time, or null to always
+   *     start from the beginning. Must not be under the cache directory.
+   */
+  public GoogleHadoopFileSystemCacheCleaner(
+      FileSystemBackedDirectoryListCache cache, int numThreads, long timeBudgetMillis,
+      Path checkpointPath) {
+    Preconditions.checkArgument(cache != null, "cache must not be null");
+    Preconditions.checkArgument(numThreads > 0, "numThreads must be positive, got %s", numThreads);
+    Preconditions.checkArgument(timeBudgetMillis >= 0,
+        "timeBudgetMillis must be non-negative, got %s", timeBudgetMillis);
+    Preconditions.checkArgument(
+        checkpointPath == null || !checkpointPath.startsWith(cache.getBasePath()),
+        "checkpointPath '%s' must not be under the cache directory", checkpointPath);
+    this.cache = cache;
+    this.numThreads = numThreads;
+    this.timeBudgetMillis = timeBudgetMillis;
+    this.checkpointPath = checkpointPath;
+  }
+
+  @VisibleForTesting
+  void setClock(Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the number of files and directories visited by the last call to {@link #clean}.
+   */
+  public long getNumEntriesScanned() {
+    return numEntriesScanned.get();
+  }
+
+  /**
+   * Returns the number of expired files and directories removed by the last call to
+   * {@link #clean}.
+   */
+  public long getNumEntriesRemoved() {
+    return numEntriesRemoved.get();
+  }
+
+  /**
+   * Removes the expired entries of the cache, resuming from the checkpoint if there is one.
+   *
+   * @return true if the whole cache was cleaned, false if the time budget ran out first, in
+   *     which case the checkpoint tells the next call where to resume.
+   */
+  public boolean clean() throws IOException {
+    numEntriesScanned.set(0);
+    numEntriesRemoved.set(0);
+    long startTime = clock.currentTimeMillis();
+    final long deadline = timeBudgetMillis == 0 ? Long.MAX_VALUE : startTime + timeBudgetMillis;
+    // Entries cached before this time are expired.
+    final long expirationTime = startTime - cache.getMutableConfig().getMaxEntryAgeMillis();
+
+    String checkpoint = readCheckpoint();
+    if (checkpoint != null) {
+      log.info("Resuming GC from '%s'", checkpoint);
+    }
+
+    final Path basePath = cache.getBasePath();
+    List<String> units = new ArrayList<>();
+    List<Path> buckets = listSorted(basePath);
+    for (Path bucket : buckets) {
+      if (!Files.isDirectory(bucket)) {
+        log.error("Found non-directory file '%s' in cache directory", bucket);
+        continue;
+      }
+      numEntriesScanned.incrementAndGet();
+      if (bucket.toFile().lastModified() >= expirationTime) {
+        // Nothing in a bucket cached after the expiration time can have expired.
+        continue;
+      }
+      for (Path entry : listSorted(bucket)) {
+        String unit = basePath.relativize(entry).toString();
+        if (checkpoint == null || unit.compareTo(checkpoint) >= 0) {
+          units.add(unit);
+        }
+      }
+    }
+    Collections.sort(units);
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactoryBuilder()
+            .setNameFormat("gcs-cache-cleaner-%d")
+            .setDaemon(true)
+            .build());
+    String firstUnfinishedUnit = null;
+    try {
+      List<Future<Boolean>> results = new ArrayList<>(units.size());
+      for (final String unit : units) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws IOException {
+            if (clock.currentTimeMillis() > deadline) {
+              return false;
+            }
+            cleanSubtree(basePath.resolve(unit), expirationTime);
+            return true;
+          }
+        }));
+      }
+      for (int i = 0; i < results.size(); ++i) {
+        if (!results.get(i).get() && firstUnfinishedUnit == null) {
+          firstUnfinishedUnit = units.get(i);
+        }
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while cleaning cache", ie);
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof IOException) {
+        throw (IOException) ee.getCause();
+      }
+      throw new IOException(ee.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    if (firstUnfinishedUnit == null) {
+      // Only now that their contents are gone can the expired buckets be removed.
+      for (Path bucket : buckets) {
+        if (Files.isDirectory(bucket) && bucket.toFile().lastModified() < expirationTime) {
+          removeEntry(new StorageResourceId(bucket.getFileName().toString()), bucket);
+        }
+      }
+    }
+    writeCheckpoint(firstUnfinishedUnit);
+
+    long elapsedMillis = Math.max(1, clock.currentTimeMillis() - startTime);
+    log.info("Scanned %d entries and removed %d in %d ms (%d scanned/s, %d removed/s)%s",
+        numEntriesScanned.get(), numEntriesRemoved.get(), elapsedMillis,
+        numEntriesScanned.get() * 1000 / elapsedMillis,
+        numEntriesRemoved.get() * 1000 / elapsedMillis,
+        firstUnfinishedUnit == null ? "" : "; out of time before " + firstUnfinishedUnit);
+    return firstUnfinishedUnit == null;
+  }
+
+  /**
+   * Removes the expired entries under and including {@code root}, children before parents so
+   * that emptied directories can be removed too.
+   */
+  private void cleanSubtree(Path root, final long expirationTime) throws IOException {
+    final Path basePath = cache.getBasePath();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        numEntriesScanned.incrementAndGet();
+        return attrs.lastModifiedTime().toMillis() >= expirationTime
+            ? FileVisitResult.SKIP_SUBTREE
+            : FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        numEntriesScanned.incrementAndGet();
+        if (attrs.lastModifiedTime().toMillis() < expirationTime) {
+          removeEntry(getResourceId(basePath, file, false), file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException ioe) throws IOException {
+        return handleFailure(file, ioe);
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException ioe) throws IOException {
+        if (ioe != null) {
+          return handleFailure(dir, ioe);
+        }
+        // Check again in case another process removed and recreated the directory meanwhile.
+        if (dir.toFile().lastModified() < expirationTime) {
+          removeEntry(getResourceId(basePath, dir, true), dir);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * Entries removed by other processes while walking are expected; anything else is rethrown.
+   */
+  private static FileVisitResult handleFailure(Path path, IOException ioe) throws IOException {
+    if (ioe instanceof NoSuchFileException) {
+      log.debug("'%s' was removed while walking the cache directory", path);
+      return FileVisitResult.CONTINUE;
+    }
+    throw ioe;
+  }
+
+  /**
+   * Removes {@code resourceId} through the cache, which leaves non-empty directories in place.
+   */
+  private void removeEntry(StorageResourceId resourceId, Path mirrorPath) throws IOException {
+    cache.removeResourceId(resourceId);
+    if (!Files.exists(mirrorPath)) {
+      numEntriesRemoved.incrementAndGet();
+    }
+  }
+
+  private static StorageResourceId getResourceId(Path basePath, Path path, boolean isDirectory) {
+    Path relativePath = basePath.relativize(path);
+    String bucketName = relativePath.getName(0).toString();
+    String objectName = relativePath.subpath(1, relativePath.getNameCount()).toString();
+    if (isDirectory) {
+      // Path strips the trailing delimiter which marks directory objects.
+      objectName = objectName + GoogleCloudStorage.PATH_DELIMITER;
+    }
+    return new StorageResourceId(bucketName, objectName);
+  }
+
+  private static List<Path> listSorted(Path dir) throws IOException {
+    List<Path> entries = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path entry : stream) {
+        entries.add(entry);
+      }
+    } catch (NoSuchFileException nsfe) {
+      log.debug("'%s' was removed before it could be listed", dir);
+    }
+    Collections.sort(entries);
+    return entries;
+  }
+
+  private String readCheckpoint() throws IOException {
+    if (checkpointPath == null || !Files.exists(checkpointPath)) {
+      return null;
+    }
+    String checkpoint = new String(Files.readAllBytes(checkpointPath), StandardCharsets.UTF_8);
+    return checkpoint.isEmpty() ? null : checkpoint;
+  }
+
+  /**
+   * Records {@code unit} as the place to resume from, or removes the checkpoint if null.
+   */
+  private void writeCheckpoint(String unit) throws IOException {
+    if (checkpointPath == null) {
+      return;
+    }
+    if (unit == null) {
+      Files.deleteIfExists(checkpointPath);
+      return;
+    }
+    Path tempPath = Paths.get(checkpointPath + ".tmp");
+    Files.write(tempPath, unit.getBytes(StandardCharsets.UTF_8));
+    Files.move(tempPath, checkpointPath,
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
   /**
    * Iterates over items in {@code cache}, object-first then buckets, allowing the list operations
    * to perform cache-expiration as they run.
@@ -60,16 +383,30 @@ public class GoogleHadoopFileSystemCacheCleaner {
     Configuration configuration = parser.getConfiguration();
 
     // TODO: Wire out constants and defaults through GoogleHadoopFileSystemBase once submitted.
-    if ("FILESYSTEM_BACKED".equals(configuration.get("fs.gs.metadata.cache.type", "IN_MEMORY"))) {
+    String cacheType = configuration.get("fs.gs.metadata.cache.type", "IN_MEMORY");
+    if ("FILESYSTEM_BACKED".equals(cacheType) || "LOG_STRUCTURED".equals(cacheType)) {
       String fsStringPath = configuration.get("fs.gs.metadata.cache.directory", "");
       Preconditions.checkState(!Strings.isNullOrEmpty(fsStringPath));
       log.info("Performing GC on cache directory %s", fsStringPath);
 
       Path path = Paths.get(fsStringPath);
       if (Files.exists(path)) {
-        FileSystemBackedDirectoryListCache cache =
-            new FileSystemBackedDirectoryListCache(fsStringPath);
-        cleanCache(cache);
+        if ("FILESYSTEM_BACKED".equals(cacheType)) {
+          int numThreads = configuration.getInt(CLEANER_THREADS_KEY, CLEANER_THREADS_DEFAULT);
+          long timeBudgetMillis =
+              configuration.getLong(CLEANER_TIME_BUDGET_MS_KEY, CLEANER_TIME_BUDGET_MS_DEFAULT);
+          String checkpointPath =
+              configuration.get(CLEANER_CHECKPOINT_PATH_KEY, CLEANER_CHECKPOINT_PATH_DEFAULT);
+          if (Strings.isNullOrEmpty(checkpointPath)) {
+            checkpointPath = path.toAbsolutePath().normalize() + CHECKPOINT_SUFFIX;
+          }
+          GoogleHadoopFileSystemCacheCleaner cleaner = new GoogleHadoopFileSystemCacheCleaner(
+              new FileSystemBackedDirectoryListCache(fsStringPath), numThreads, timeBudgetMillis,
+              Paths.get(checkpointPath));
+          cleaner.clean();
+        } else {
+          cleanCache(new LogStructuredDirectoryListCache(fsStringPath));
+        }
       }
     }
 
@@ -17,6 +17,7 @@
 package com.google.cloud.hadoop.fs.gcs;
 
 import com.google.cloud.hadoop.gcsio.CreateFileOptions;
+import com.google.cloud.hadoop.util.ChecksummingChannel;
 import com.google.cloud.hadoop.util.LogUtil;
 
 import org.apache.hadoop.fs.FileSystem;
@@ -120,6 +121,14 @@ class GoogleHadoopOutputStream
         long duration = System.nanoTime() - startTime;
         ghfs.increment(GoogleHadoopFileSystemBase.Counter.WRITE_CLOSE);
         ghfs.increment(GoogleHadoopFileSystemBase.Counter.WRITE_CLOSE_TIME, duration);
+        if (channel instanceof ChecksummingChannel) {
+          long checksumDuration = ((ChecksummingChannel) channel).getChecksumTimeNanos();
+          if (checksumDuration > 0) {
+            ghfs.increment(GoogleHadoopFileSystemBase.Counter.WRITE_CHECKSUM);
+            ghfs.increment(
+                GoogleHadoopFileSystemBase.Counter.WRITE_CHECKSUM_TIME, checksumDuration);
+          }
+        }
         long streamDuration = System.nanoTime() - initTime;
         ghfs.increment(GoogleHadoopFileSystemBase.Counter.OUTPUT_STREAM);
         ghfs.increment(
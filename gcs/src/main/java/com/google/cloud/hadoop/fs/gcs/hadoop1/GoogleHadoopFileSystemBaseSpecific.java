@@ -0,0 +1,27 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import org.apache.hadoop.fs.FileSystem;
+
+/**
+ * Hadoop 1 variant of the FileSystem methods of GoogleHadoopFileSystemBase which depend on the
+ * Hadoop version. Hadoop 1 has no incremental listing APIs, so there are none; see the hadoop2
+ * variant of this class. Only one variant is compiled, selected by the hadoop1 or hadoop2 profile.
+ */
+public abstract class GoogleHadoopFileSystemBaseSpecific extends FileSystem {
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import com.google.cloud.hadoop.gcsio.FileInfo;
+import com.google.cloud.hadoop.gcsio.PrefetchingPageIterator;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Hadoop 2 variant of the FileSystem methods of GoogleHadoopFileSystemBase which depend on the
+ * Hadoop version: the incremental listing APIs, which return children one listing page at a time
+ * instead of all at once as listStatus does. Only one variant is compiled, selected by the
+ * hadoop1 or hadoop2 profile.
+ */
+public abstract class GoogleHadoopFileSystemBaseSpecific extends FileSystem {
+  /**
+   * Starts an incremental listing of the children of {@code hadoopPath}, or of just
+   * {@code hadoopPath} if it is a file.
+   *
+   * @throws FileNotFoundException if the path does not exist.
+   */
+  abstract PrefetchingPageIterator<FileInfo> listFileInfoIterator(Path hadoopPath)
+      throws IOException;
+
+  /**
+   * Starts an incremental listing of every object under {@code hadoopPath} with a single flat
+   * listing, or of just {@code hadoopPath} if it is a file; returns null if the path cannot be
+   * listed flat.
+   *
+   * @throws FileNotFoundException if nothing exists at or under the path.
+   */
+  abstract PrefetchingPageIterator<FileInfo> listAllFileInfoIterator(Path hadoopPath)
+      throws IOException;
+
+  /**
+   * Gets FileStatus corresponding to the given FileInfo value.
+   */
+  abstract FileStatus getFileStatus(FileInfo fileInfo);
+
+  /**
+   * Lists the status of the children of {@code hadoopPath} incrementally. Hadoop 2.7 added this
+   * method to FileSystem; on earlier versions it is only called by GoogleHadoopFS.
+   */
+  public RemoteIterator<FileStatus> listStatusIterator(Path hadoopPath)
+      throws IOException {
+    final PrefetchingPageIterator<FileInfo> fileInfos = listFileInfoIterator(hadoopPath);
+    return new RemoteIterator<FileStatus>() {
+      @Override
+      public boolean hasNext() throws IOException {
+        return fileInfos.hasNext();
+      }
+
+      @Override
+      public FileStatus next() throws IOException {
+        try {
+          return getFileStatus(fileInfos.next());
+        } catch (IOException | RuntimeException e) {
+          fileInfos.close();
+          throw e;
+        }
+      }
+    };
+  }
+
+  /**
+   * Lists the status and block locations of the children of {@code hadoopPath} incrementally.
+   * Also serves listLocatedStatus(Path) and, through it, the default listFiles.
+   */
+  @Override
+  protected RemoteIterator<LocatedFileStatus> listLocatedStatus(
+      Path hadoopPath, final PathFilter filter)
+      throws IOException {
+    final PrefetchingPageIterator<FileInfo> fileInfos = listFileInfoIterator(hadoopPath);
+    return new RemoteIterator<LocatedFileStatus>() {
+      // The next accepted status, if already found by hasNext().
+      private LocatedFileStatus nextStatus;
+
+      @Override
+      public boolean hasNext() throws IOException {
+        try {
+          while (nextStatus == null && fileInfos.hasNext()) {
+            FileStatus status = getFileStatus(fileInfos.next());
+            if (filter.accept(status.getPath())) {
+              nextStatus = getLocatedFileStatus(status);
+            }
+          }
+        } catch (IOException | RuntimeException e) {
+          // RemoteIterator has no close, so abandon the listing here rather than leave its
+          // following page to be fetched for nobody.
+          fileInfos.close();
+          throw e;
+        }
+        return nextStatus != null;
+      }
+
+      @Override
+      public LocatedFileStatus next() throws IOException {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        LocatedFileStatus status = nextStatus;
+        nextStatus = null;
+        return status;
+      }
+    };
+  }
+
+  /**
+   * Lists the files under {@code hadoopPath} incrementally. A recursive listing is a single flat
+   * listing of every object under the path, from which directory objects are dropped, so it costs
+   * one request per page of objects rather than at least one per directory of the tree.
+   */
+  @Override
+  public RemoteIterator<LocatedFileStatus> listFiles(Path hadoopPath, boolean recursive)
+      throws IOException {
+    final PrefetchingPageIterator<FileInfo> fileInfos =
+        recursive ? listAllFileInfoIterator(hadoopPath) : null;
+    if (fileInfos == null) {
+      // Non-recursive listings, and recursive ones of the global root, go through
+      // listLocatedStatus.
+      return super.listFiles(hadoopPath, recursive);
+    }
+    return new RemoteIterator<LocatedFileStatus>() {
+      // The next file, if already found by hasNext().
+      private LocatedFileStatus nextStatus;
+
+      @Override
+      public boolean hasNext() throws IOException {
+        try {
+          while (nextStatus == null && fileInfos.hasNext()) {
+            FileInfo fileInfo = fileInfos.next();
+            if (!fileInfo.isDirectory()) {
+              nextStatus = getLocatedFileStatus(getFileStatus(fileInfo));
+            }
+          }
+        } catch (IOException | RuntimeException e) {
+          // As in listLocatedStatus, abandon the listing, and with it any shards still listing.
+          fileInfos.close();
+          throw e;
+        }
+        return nextStatus != null;
+      }
+
+      @Override
+      public LocatedFileStatus next() throws IOException {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        LocatedFileStatus status = nextStatus;
+        nextStatus = null;
+        return status;
+      }
+    };
+  }
+
+  /**
+   * Adds the block locations of a file to its status, as FileSystem.listLocatedStatus does.
+   */
+  LocatedFileStatus getLocatedFileStatus(FileStatus status)
+      throws IOException {
+    return new LocatedFileStatus(status,
+        status.isFile() ? getFileBlockLocations(status, 0, status.getLen()) : null);
+  }
+}
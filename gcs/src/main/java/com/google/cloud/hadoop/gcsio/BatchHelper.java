@@ -18,14 +18,26 @@ package com.google.cloud.hadoop.gcsio;
 
 import com.google.api.client.googleapis.batch.BatchRequest;
 import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.services.storage.Storage;
 import com.google.api.services.storage.StorageRequest;
+import com.google.cloud.hadoop.util.LogUtil;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BatchHelper abstracts out the logic for maximum requests per batch, and also allows a workaround
@@ -33,10 +45,21 @@ import java.util.List;
  * impossible to unittest. Instead, batch interactions with a Storage API client will be funneled
  * through this class, while unittests can inject a mock batch helper.
  * <p>
- * This class is not thread-safe; expected usage is to create a new BatchHelper instance per
- * single-threaded logical grouping of requests.
+ * By default each batch is executed synchronously by the thread calling {@link #queue} or
+ * {@link #flush}. If constructed with an ExecutorService and {@code maxConcurrentBatches} greater
+ * than 1, up to {@code maxConcurrentBatches} batches are executed concurrently on the executor.
+ * In that case callbacks run on executor threads, but never concurrently with one another, so
+ * callbacks may update shared state without further synchronization, and may queue further
+ * requests (e.g. retries); all state written by callbacks is visible to the calling thread once
+ * {@link #flush} returns.
+ * <p>
+ * Other than from within callbacks, this class is not thread-safe; expected usage is to create a
+ * new BatchHelper instance per single-threaded logical grouping of requests.
  */
 public class BatchHelper {
+  // Logger.
+  private static final LogUtil log = new LogUtil(BatchHelper.class);
+
   /**
    * Since each BatchHelper instance should be tied to a particular related set of requests,
    * use cases will generally interact via an injectable BatchHelper.Factory.
@@ -44,22 +67,73 @@ public class BatchHelper {
   public static class Factory {
     public BatchHelper newBatchHelper(HttpRequestInitializer requestInitializer, Storage gcs,
         long maxRequestsPerBatch) {
-      return new BatchHelper(requestInitializer, gcs, maxRequestsPerBatch);
+      return new BatchHelper(requestInitializer, gcs, maxRequestsPerBatch, 1, null);
+    }
+
+    public BatchHelper newBatchHelper(HttpRequestInitializer requestInitializer, Storage gcs,
+        long maxRequestsPerBatch, int maxConcurrentBatches, ExecutorService batchExecutor) {
+      return new BatchHelper(
+          requestInitializer, gcs, maxRequestsPerBatch, maxConcurrentBatches, batchExecutor);
     }
   }
 
   /**
-   * Callback that causes a single StorageRequest to be added to the BatchRequest.
+   * Callback that causes a single StorageRequest to be added to a BatchRequest.
    */
   protected static interface QueueRequestCallback {
-    void enqueue() throws IOException;
+    void enqueue(BatchRequest batch) throws IOException;
   }
 
+  /**
+   * Wraps a callback so that it runs while holding {@code callbackLock}, serializing callbacks of
+   * concurrently executing batches.
+   */
+  private class SerializedBatchCallback<T> extends JsonBatchCallback<T> {
+    private final JsonBatchCallback<T> delegate;
+
+    SerializedBatchCallback(JsonBatchCallback<T> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void onSuccess(T response, HttpHeaders responseHeaders) throws IOException {
+      callbackLock.lock();
+      try {
+        delegate.onSuccess(response, responseHeaders);
+      } finally {
+        callbackLock.unlock();
+      }
+    }
+
+    @Override
+    public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) throws IOException {
+      callbackLock.lock();
+      try {
+        delegate.onFailure(e, responseHeaders);
+      } finally {
+        callbackLock.unlock();
+      }
+    }
+  }
+
+  // Requests not yet added to a BatchRequest; guarded by itself since callbacks running on
+  // executor threads may queue requests.
   private final List<QueueRequestCallback> pendingBatchEntries;
+  private final HttpRequestInitializer requestInitializer;
+  private final Storage gcs;
+  // Batch reused for every synchronously executed sub-batch.
   private final BatchRequest batch;
   // Number of requests which can be queued into a single actual HTTP request before a sub-batch
   // is sent.
   private final long maxRequestsPerBatch;
+  // Maximum number of sub-batches executing at once on batchExecutor.
+  private final int maxConcurrentBatches;
+  // Executor for concurrent sub-batches; null if sub-batches are executed synchronously.
+  private final ExecutorService batchExecutor;
+  // Sub-batches submitted to batchExecutor which have not yet been waited on, oldest first.
+  private final Deque<Future<Void>> inFlightBatches = new ArrayDeque<>();
+  // Held while running callbacks of concurrently executing sub-batches.
+  private final ReentrantLock callbackLock = new ReentrantLock();
   // Flag that indicates whether there is an in-progress flush.
   private boolean flushing = false;
 
@@ -67,39 +141,75 @@ public class BatchHelper {
    * Primary constructor, generally accessed only via the inner Factory class.
    */
   private BatchHelper(HttpRequestInitializer requestInitializer, Storage gcs,
-      long maxRequestsPerBatch) {
+      long maxRequestsPerBatch, int maxConcurrentBatches, ExecutorService batchExecutor) {
+    Preconditions.checkArgument(maxConcurrentBatches > 0,
+        "maxConcurrentBatches must be positive, got %s", maxConcurrentBatches);
     this.pendingBatchEntries = new LinkedList<>();
-    this.batch = gcs.batch(requestInitializer);
+    this.requestInitializer = requestInitializer;
+    this.gcs = gcs;
     this.maxRequestsPerBatch = maxRequestsPerBatch;
+    if (maxConcurrentBatches > 1 && batchExecutor != null) {
+      this.batch = null;
+      this.maxConcurrentBatches = maxConcurrentBatches;
+      this.batchExecutor = batchExecutor;
+    } else {
+      this.batch = gcs.batch(requestInitializer);
+      this.maxConcurrentBatches = 1;
+      this.batchExecutor = null;
+    }
   }
 
   @VisibleForTesting
   protected BatchHelper() {
     this.pendingBatchEntries = new LinkedList<>();
+    this.requestInitializer = null;
+    this.gcs = null;
     this.batch = null;
     this.maxRequestsPerBatch = -1;
+    this.maxConcurrentBatches = 1;
+    this.batchExecutor = null;
   }
 
   /**
    * Adds an additional request to the batch, and possibly flushes the current contents of the batch
    * if {@code maxRequestsPerBatch} has been reached.
    */
-  public <T> void queue(final StorageRequest<T> req, final JsonBatchCallback<T> callback)
+  public <T> void queue(final StorageRequest<T> req, JsonBatchCallback<T> callback)
       throws IOException {
-      QueueRequestCallback queueCallback = new QueueRequestCallback() {
-        @Override
-        public void enqueue() throws IOException {
-          req.queue(batch, callback);
-        }
-      };
-    pendingBatchEntries.add(queueCallback);
+    final JsonBatchCallback<T> batchCallback =
+        isConcurrent() ? new SerializedBatchCallback<>(callback) : callback;
+    QueueRequestCallback queueCallback = new QueueRequestCallback() {
+      @Override
+      public void enqueue(BatchRequest batch) throws IOException {
+        req.queue(batch, batchCallback);
+      }
+    };
+    synchronized (pendingBatchEntries) {
+      pendingBatchEntries.add(queueCallback);
+    }
 
     flushIfPossibleAndRequired();
   }
 
+  private boolean isConcurrent() {
+    return batchExecutor != null;
+  }
+
+  private int pendingSize() {
+    synchronized (pendingBatchEntries) {
+      return pendingBatchEntries.size();
+    }
+  }
+
   // Flush our buffer if we have more pending entries than maxRequestsPerBatch
   private void flushIfPossibleAndRequired() throws IOException {
-    if (pendingBatchEntries.size() > maxRequestsPerBatch) {
+    if (isConcurrent()) {
+      // Requests queued by callbacks are sent by the thread calling flush(); sending them from the
+      // callback could deadlock waiting on a batch whose callbacks are blocked on callbackLock.
+      if (!callbackLock.isHeldByCurrentThread() && pendingSize() >= maxRequestsPerBatch) {
+        submitPendingBatch();
+      }
+    } else if (pendingBatchEntries.size() > maxRequestsPerBatch) {
       flushIfPossible();
     }
   }
@@ -112,7 +222,7 @@ public class BatchHelper {
         while (batch.size() < maxRequestsPerBatch
             && pendingBatchEntries.size() > 0) {
           QueueRequestCallback head = pendingBatchEntries.remove(0);
-          head.enqueue();
+          head.enqueue(batch);
         }
 
         batch.execute();
@@ -122,20 +232,103 @@ public class BatchHelper {
     }
   }
 
+  /**
+   * Moves up to {@code maxRequestsPerBatch} pending requests into a new BatchRequest and submits
+   * it to batchExecutor, first waiting for an in-flight batch to finish if
+   * {@code maxConcurrentBatches} are already executing.
+   */
+  private void submitPendingBatch() throws IOException {
+    while (inFlightBatches.size() >= maxConcurrentBatches) {
+      awaitOldestBatch();
+    }
+
+    final BatchRequest subBatch = gcs.batch(requestInitializer);
+    synchronized (pendingBatchEntries) {
+      while (subBatch.size() < maxRequestsPerBatch && pendingBatchEntries.size() > 0) {
+        pendingBatchEntries.remove(0).enqueue(subBatch);
+      }
+    }
+    if (subBatch.size() == 0) {
+      return;
+    }
+
+    inFlightBatches.add(batchExecutor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        subBatch.execute();
+        return null;
+      }
+    }));
+  }
+
+  /**
+   * Waits for the oldest in-flight batch to finish, rethrowing any exception it threw. On failure
+   * all other in-flight batches are waited for as well, so no callback can run after the
+   * exception reaches the caller.
+   */
+  private void awaitOldestBatch() throws IOException {
+    try {
+      awaitBatch(inFlightBatches.remove());
+    } catch (IOException ioe) {
+      while (!inFlightBatches.isEmpty()) {
+        try {
+          awaitBatch(inFlightBatches.remove());
+        } catch (IOException suppressed) {
+          log.error("Batch failed while handling an earlier batch failure", suppressed);
+        }
+      }
+      throw ioe;
+    }
+  }
+
+  private static void awaitBatch(Future<Void> future) throws IOException {
+    try {
+      future.get();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException iioe = new InterruptedIOException("Interrupted awaiting batch");
+      iioe.initCause(ie);
+      throw iioe;
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof IOException) {
+        throw (IOException) ee.getCause();
+      }
+      throw new IOException("Batch execution failed", ee.getCause());
+    }
+  }
 
   /**
    * Sends any currently remaining requests in the batch; should be caleld at the end of any
    * series of batched requests to ensure everything has been sent.
+   * <p>
+   * When batches execute concurrently, this also waits for all in-flight batches and sends any
+   * requests queued by their callbacks, so that {@link #isEmpty} is true when it returns.
    */
   public void flush()
       throws IOException {
-    flushIfPossible();
+    if (!isConcurrent()) {
+      flushIfPossible();
+      return;
+    }
+
+    while (true) {
+      int pending = pendingSize();
+      if (pending >= maxRequestsPerBatch || (pending > 0 && inFlightBatches.isEmpty())) {
+        submitPendingBatch();
+      } else if (!inFlightBatches.isEmpty()) {
+        // Callbacks of in-flight batches may queue more requests; wait for them rather than
+        // sending a partial batch.
+        awaitOldestBatch();
+      } else {
+        break;
+      }
+    }
   }
 
   /**
    * Returns true if there are no currently queued entries in the batch helper.
    */
   public boolean isEmpty() {
-    return pendingBatchEntries.size() == 0;
+    return pendingSize() == 0 && inFlightBatches.isEmpty();
   }
 }
@@ -49,6 +49,10 @@ public class CacheEntry {
   // Might be 0 if the info was never retrieved.
   private long itemInfoUpdateTimeMillis;
 
+  // Sequence number of the most recent access to this entry through its cache, used to evict
+  // the least recently used entries; 0 if the cache doesn't track accesses.
+  private volatile long accessSequence;
+
   /**
    * Constructs a CacheEntry with no known GoogleCloudStorageItemInfo; callers may have to
    * fetch the associated GoogleCloudStorageItemInfo on-demand.
@@ -147,6 +151,21 @@ public class CacheEntry {
     return itemInfoUpdateTimeMillis;
   }
 
+  /**
+   * Returns the sequence number of the most recent access recorded by the owning cache.
+   */
+  long getAccessSequence() {
+    return accessSequence;
+  }
+
+  /**
+   * Records an access to this entry by the owning cache, with a sequence number which is greater
+   * than that of any earlier access.
+   */
+  void setAccessSequence(long accessSequence) {
+    this.accessSequence = accessSequence;
+  }
+
   /**
    * Returns the GoogleCloudStorageItemInfo currently held by this CacheEntry; may be null if one
    * was never provided.
@@ -164,6 +183,20 @@ public class CacheEntry {
     itemInfoUpdateTimeMillis = 0;
   }
 
+  /**
+   * Sets the GoogleCloudStorageItemInfo of this CacheEntry along with the time it was originally
+   * obtained, when restoring the entry from a snapshot of a cache.
+   */
+  synchronized void restoreItemInfo(
+      GoogleCloudStorageItemInfo restoredItemInfo, long restoredUpdateTimeMillis) {
+    validateItemInfo(restoredItemInfo);
+    Preconditions.checkArgument(restoredItemInfo.getResourceId().equals(resourceId),
+        "restoredItemInfo's resourceId (%s) doesn't match existing resourceId (%s)!",
+        restoredItemInfo.getResourceId(), resourceId);
+    itemInfo = restoredItemInfo;
+    itemInfoUpdateTimeMillis = restoredUpdateTimeMillis;
+  }
+
   /**
    * Sets the GoogleCloudStorageItemInfo corresponding to this CacheEntry's StorageResourceId,
    * and updates the itemInfoUpdateTimeMillis. Returns the old info, or null if it was never set
@@ -16,13 +16,16 @@
 
 package com.google.cloud.hadoop.gcsio;
 
+import com.google.cloud.hadoop.util.ChecksummingChannel;
 import com.google.cloud.hadoop.util.LogUtil;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -38,6 +41,10 @@ public class CacheSupplementedGoogleCloudStorage
   // Logger.
   private static final LogUtil log = new LogUtil(CacheSupplementedGoogleCloudStorage.class);
 
+  // Separates the delegate's page token from the last name of the page in listObjectNamesPage
+  // page tokens.
+  private static final char PAGE_TOKEN_SEPARATOR = '\n';
+
   // An actual implementation of GoogleCloudStorage which will be used for the actual logic of
   // GCS operations, while this class adds book-keeping around the delegated calls.
   private final GoogleCloudStorage gcsDelegate;
@@ -51,6 +58,10 @@ public class CacheSupplementedGoogleCloudStorage
   // client consistency isn't enforced.
   private DirectoryListCache resourceCache;
 
+  // Cache serving getItemInfo and getItemInfos, populated by them and by listObjectInfo*, and
+  // invalidated by create/copy/delete; null if disabled.
+  private final ItemInfoCache itemInfoCache;
+
   /**
    * Constructs a CacheSupplementedGoogleCloudStorage which should be usable anywhere a
    * GoogleCloudStorage interface is used and which supplements missing listObject/listBucket
@@ -62,11 +73,64 @@ public class CacheSupplementedGoogleCloudStorage
    */
   public CacheSupplementedGoogleCloudStorage(
       GoogleCloudStorage gcsDelegate, DirectoryListCache resourceCache) {
+    this(gcsDelegate, resourceCache, null);
+  }
+
+  /**
+   * Constructs a CacheSupplementedGoogleCloudStorage which additionally serves getItemInfo and
+   * getItemInfos from {@code itemInfoCache} when it holds the requested infos.
+   *
+   * @param itemInfoCache The cache of item infos, or null to always fetch them from the delegate.
+   */
+  public CacheSupplementedGoogleCloudStorage(
+      GoogleCloudStorage gcsDelegate, DirectoryListCache resourceCache,
+      ItemInfoCache itemInfoCache) {
     Preconditions.checkArgument(gcsDelegate != null, "gcsDelegate must not be null");
     Preconditions.checkArgument(resourceCache != null, "resourceCache must not be null");
 
     this.gcsDelegate = gcsDelegate;
     this.resourceCache = resourceCache;
+    this.itemInfoCache = itemInfoCache;
+  }
+
+  /**
+   * Returns the cache of item infos, or null if it is disabled.
+   */
+  public ItemInfoCache getItemInfoCache() {
+    return itemInfoCache;
+  }
+
+  /**
+   * Drops any cached info of {@code resourceId}, which is being created or deleted.
+   */
+  private void invalidateItemInfo(StorageResourceId resourceId) {
+    if (itemInfoCache != null) {
+      itemInfoCache.invalidate(resourceId);
+    }
+  }
+
+  /**
+   * Returns the invalidation epoch of the item info cache, to be read before fetching infos to
+   * cache, or 0 if it is disabled.
+   */
+  private long getItemInfoCacheEpoch() {
+    return itemInfoCache != null ? itemInfoCache.getInvalidationEpoch() : 0;
+  }
+
+  /**
+   * Caches the infos of listed objects, unless an info was invalidated since {@code epoch}, read
+   * before listing them. Directory infos are skipped, since they may have been synthesized from
+   * listed prefixes rather than fetched from GCS.
+   */
+  private void cacheListedItemInfos(List<GoogleCloudStorageItemInfo> itemInfos, long epoch) {
+    if (itemInfoCache != null) {
+      for (GoogleCloudStorageItemInfo itemInfo : itemInfos) {
+        if (itemInfo.exists() && !FileInfo.isDirectory(itemInfo)
+            && !itemInfoCache.put(itemInfo, epoch)) {
+          return;
+        }
+      }
+    }
   }
 
   /**
@@ -85,32 +149,54 @@ public class CacheSupplementedGoogleCloudStorage
       throws IOException {
     log.debug("create(%s, %s)", resourceId, options);
 
-    final WritableByteChannel innerChannel = gcsDelegate.create(resourceId, options);
+    WritableByteChannel innerChannel = gcsDelegate.create(resourceId, options);
 
     // Wrap the delegate's channel in our own channel which simply adds the additional book-keeping
     // hook to close().
-    return new WritableByteChannel() {
-      @Override
-      public int write(ByteBuffer buffer)
-          throws IOException {
-        return innerChannel.write(buffer);
-      }
+    return new CacheUpdatingWriteChannel(innerChannel, resourceId);
+  }
 
-      @Override
-      public boolean isOpen() {
-        return innerChannel.isOpen();
-      }
+  /**
+   * Delegates to the wrapped channel and records the created resourceId in the resourceCache
+   * when closed.
+   */
+  private class CacheUpdatingWriteChannel implements WritableByteChannel, ChecksummingChannel {
+    private final WritableByteChannel innerChannel;
+    private final StorageResourceId resourceId;
 
-      @Override
-      public void close()
-          throws IOException {
-        innerChannel.close();
-        // TODO(user): Make create() somehow wire the StorageObject through to the caller,
-        // possibly through an onClose() handler so that we can pre-emptively populate the
-        // metadata in the CacheEntry.
-        resourceCache.putResourceId(resourceId);
-      }
-    };
+    CacheUpdatingWriteChannel(WritableByteChannel innerChannel, StorageResourceId resourceId) {
+      this.innerChannel = innerChannel;
+      this.resourceId = resourceId;
+    }
+
+    @Override
+    public int write(ByteBuffer buffer)
+        throws IOException {
+      return innerChannel.write(buffer);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return innerChannel.isOpen();
+    }
+
+    @Override
+    public void close()
+        throws IOException {
+      innerChannel.close();
+      invalidateItemInfo(resourceId);
+      // TODO(user): Make create() somehow wire the StorageObject through to the caller,
+      // possibly through an onClose() handler so that we can pre-emptively populate the
+      // metadata in the CacheEntry.
+      resourceCache.putResourceId(resourceId);
+    }
+
+    @Override
+    public long getChecksumTimeNanos() {
+      return innerChannel instanceof ChecksummingChannel
+          ? ((ChecksummingChannel) innerChannel).getChecksumTimeNanos()
+          : 0;
+    }
   }
 
   /**
@@ -121,6 +207,7 @@ public class CacheSupplementedGoogleCloudStorage
       throws IOException {
     log.debug("createEmptyObject(%s)", resourceId);
     gcsDelegate.createEmptyObject(resourceId);
+    invalidateItemInfo(resourceId);
     resourceCache.putResourceId(resourceId);
   }
 
@@ -129,6 +216,7 @@ public class CacheSupplementedGoogleCloudStorage
       throws IOException {
     log.debug("createEmptyObject(%s, %s)", resourceId, options);
     gcsDelegate.createEmptyObject(resourceId, options);
+    invalidateItemInfo(resourceId);
     resourceCache.putResourceId(resourceId);
   }
 
@@ -141,6 +229,7 @@ public class CacheSupplementedGoogleCloudStorage
     log.debug("createEmptyObjects(%s)", resourceIds);
     gcsDelegate.createEmptyObjects(resourceIds);
     for (StorageResourceId resourceId : resourceIds) {
+      invalidateItemInfo(resourceId);
       resourceCache.putResourceId(resourceId);
     }
   }
@@ -151,6 +240,7 @@ public class CacheSupplementedGoogleCloudStorage
     log.debug("createEmptyObjects(%s, %s)", resourceIds, options);
     gcsDelegate.createEmptyObjects(resourceIds, options);
     for (StorageResourceId resourceId : resourceIds) {
+      invalidateItemInfo(resourceId);
       resourceCache.putResourceId(resourceId);
     }
   }
@@ -175,6 +265,7 @@ public class CacheSupplementedGoogleCloudStorage
     // TODO(user): Make create() return the Bucket so that we can pre-emptively populate the
     // metadata in the CachedBucket.
     gcsDelegate.create(bucketName);
+    invalidateItemInfo(new StorageResourceId(bucketName));
     resourceCache.putResourceId(new StorageResourceId(bucketName));
   }
 
@@ -190,6 +281,7 @@ public class CacheSupplementedGoogleCloudStorage
     // the blacklist entry.
     gcsDelegate.deleteBuckets(bucketNames);
     for (String bucketName : bucketNames) {
+      invalidateItemInfo(new StorageResourceId(bucketName));
       resourceCache.removeResourceId(new StorageResourceId(bucketName));
     }
   }
@@ -206,6 +298,21 @@ public class CacheSupplementedGoogleCloudStorage
     // the blacklist entry.
     gcsDelegate.deleteObjects(fullObjectNames);
     for (StorageResourceId resourceId : fullObjectNames) {
+      invalidateItemInfo(resourceId);
+      resourceCache.removeResourceId(resourceId);
+    }
+  }
+
+  /**
+   * Removes objects from cache, if they exist.
+   */
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    log.debug("deleteObjects(%s, %s)", fullObjectNames, generations);
+    gcsDelegate.deleteObjects(fullObjectNames, generations);
+    for (StorageResourceId resourceId : fullObjectNames) {
+      invalidateItemInfo(resourceId);
       resourceCache.removeResourceId(resourceId);
     }
   }
@@ -225,6 +332,7 @@ public class CacheSupplementedGoogleCloudStorage
     // successfully created, so that we can pre-emptively populate the metadata into the cache.
     gcsDelegate.copy(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames);
     for (String dstObjectName : dstObjectNames) {
+      invalidateItemInfo(new StorageResourceId(dstBucketName, dstObjectName));
       resourceCache.putResourceId(new StorageResourceId(dstBucketName, dstObjectName));
     }
   }
@@ -412,6 +520,173 @@ public class CacheSupplementedGoogleCloudStorage
     return allObjectNames;
   }
 
+  /**
+   * Supplements each page returned by the delegate with the cached object names which sort
+   * within the range of names covered by that page, so that every cached name is supplemented at
+   * most once over the whole listing without remembering the names of earlier pages. To know
+   * where the range of a page begins, the last name of each page is appended to the delegate's
+   * page token after a newline, which cannot occur in an object name.
+   */
+  @Override
+  public ListPage<String> listObjectNamesPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    return listObjectNamesPage(bucketName, objectNamePrefix, delimiter, null, null, pageToken);
+  }
+
+  /**
+   * Supplements each page returned by the delegate in the same way as the unbounded
+   * listObjectNamesPage, with only the cached object names in the given range.
+   */
+  @Override
+  public ListPage<String> listObjectNamesPage(
+      String bucketName, String objectNamePrefix, String delimiter,
+      String startOffset, String endOffset, String pageToken)
+      throws IOException {
+    log.debug("listObjectNamesPage(%s, %s, %s, %s, %s, %s)", bucketName, objectNamePrefix,
+        delimiter, startOffset, endOffset, pageToken);
+    String previousLastName = getPreviousLastName(pageToken);
+    ListPage<String> page = gcsDelegate.listObjectNamesPage(bucketName, objectNamePrefix,
+        delimiter, startOffset, endOffset, getDelegatePageToken(pageToken));
+    List<String> objectNames = page.getItems();
+    String lastName = objectNames.isEmpty()
+        ? previousLastName
+        : objectNames.get(objectNames.size() - 1);
+
+    Set<StorageResourceId> objectIds = new HashSet<>();
+    for (String objectName : objectNames) {
+      objectIds.add(new StorageResourceId(bucketName, objectName));
+    }
+    List<CacheEntry> supplements = getPageSupplementalEntries(bucketName, objectNamePrefix,
+        delimiter, startOffset, endOffset, objectIds, previousLastName, lastName,
+        page.getNextPageToken() == null);
+    if (!supplements.isEmpty()) {
+      // Make a copy in case the delegate returned an immutable list.
+      objectNames = new ArrayList<>(objectNames);
+      for (CacheEntry supplement : supplements) {
+        objectNames.add(supplement.getResourceId().getObjectName());
+      }
+      Collections.sort(objectNames);
+    }
+    return new ListPage<>(objectNames, getPageToken(page.getNextPageToken(), lastName));
+  }
+
+  /**
+   * Supplements each page returned by the delegate with cached object infos in the same way as
+   * listObjectNamesPage supplements names; may trigger fetching of any metadata not already
+   * available in the cache.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    return listObjectInfoPage(bucketName, objectNamePrefix, delimiter, null, null, pageToken);
+  }
+
+  /**
+   * Supplements each page returned by the delegate in the same way as the unbounded
+   * listObjectInfoPage, with only the cached object infos in the given range.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter,
+      String startOffset, String endOffset, String pageToken)
+      throws IOException {
+    log.debug("listObjectInfoPage(%s, %s, %s, %s, %s, %s)", bucketName, objectNamePrefix,
+        delimiter, startOffset, endOffset, pageToken);
+    String previousLastName = getPreviousLastName(pageToken);
+    long epoch = getItemInfoCacheEpoch();
+    ListPage<GoogleCloudStorageItemInfo> page = gcsDelegate.listObjectInfoPage(bucketName,
+        objectNamePrefix, delimiter, startOffset, endOffset, getDelegatePageToken(pageToken));
+    List<GoogleCloudStorageItemInfo> objectInfos = page.getItems();
+    cacheListedItemInfos(objectInfos, epoch);
+    String lastName = objectInfos.isEmpty()
+        ? previousLastName
+        : objectInfos.get(objectInfos.size() - 1).getObjectName();
+
+    Set<StorageResourceId> objectIds = new HashSet<>();
+    for (GoogleCloudStorageItemInfo itemInfo : objectInfos) {
+      objectIds.add(itemInfo.getResourceId());
+    }
+    List<CacheEntry> supplements = getPageSupplementalEntries(bucketName, objectNamePrefix,
+        delimiter, startOffset, endOffset, objectIds, previousLastName, lastName,
+        page.getNextPageToken() == null);
+    if (!supplements.isEmpty()) {
+      // Make a copy in case the delegate returned an immutable list.
+      objectInfos = new ArrayList<>(objectInfos);
+      objectInfos.addAll(extractItemInfos(supplements));
+      Collections.sort(objectInfos, GoogleCloudStorageItemInfo.OBJECT_NAME_COMPARATOR);
+    }
+    return new ListPage<>(objectInfos, getPageToken(page.getNextPageToken(), lastName));
+  }
+
+  /**
+   * Returns the cached entries in the range from {@code startOffset} to {@code endOffset} missing
+   * from a page of {@code objectIds} which sort after {@code previousLastName} and, unless this
+   * is the last page, no later than {@code lastName}.
+   */
+  private List<CacheEntry> getPageSupplementalEntries(String bucketName, String objectNamePrefix,
+      String delimiter, String startOffset, String endOffset, Set<StorageResourceId> objectIds,
+      String previousLastName, String lastName, boolean lastPage)
+      throws IOException {
+    List<CacheEntry> pageEntries = new ArrayList<>();
+    // See listObjectNames for why 'prefixes' is null.
+    List<CacheEntry> cachedObjects = resourceCache.getObjectList(
+        bucketName, objectNamePrefix, delimiter, null);
+    if (cachedObjects == null || cachedObjects.isEmpty()) {
+      return pageEntries;
+    }
+    for (CacheEntry supplement : getSupplementalEntries(objectIds, cachedObjects)) {
+      String objectName = supplement.getResourceId().getObjectName();
+      boolean afterPreviousPage =
+          previousLastName == null || objectName.compareTo(previousLastName) > 0;
+      boolean beforeNextPage =
+          lastPage || (lastName != null && objectName.compareTo(lastName) <= 0);
+      if (afterPreviousPage && beforeNextPage
+          && GoogleCloudStorageStrings.isInListRange(objectName, startOffset, endOffset)) {
+        log.info("Supplementing missing matched StorageResourceId: %s",
+            supplement.getResourceId());
+        pageEntries.add(supplement);
+      }
+    }
+    return pageEntries;
+  }
+
+  /**
+   * Extracts the delegate's page token from a page token returned by a list*Page method.
+   */
+  private static String getDelegatePageToken(String pageToken) {
+    if (pageToken == null) {
+      return null;
+    }
+    int separatorIndex = pageToken.lastIndexOf(PAGE_TOKEN_SEPARATOR);
+    Preconditions.checkArgument(separatorIndex >= 0, "Invalid page token '%s'", pageToken);
+    return pageToken.substring(0, separatorIndex);
+  }
+
+  /**
+   * Extracts the last name of the previous page from a page token returned by a list*Page method.
+   */
+  private static String getPreviousLastName(String pageToken) {
+    if (pageToken == null) {
+      return null;
+    }
+    int separatorIndex = pageToken.lastIndexOf(PAGE_TOKEN_SEPARATOR);
+    Preconditions.checkArgument(separatorIndex >= 0, "Invalid page token '%s'", pageToken);
+    return pageToken.substring(separatorIndex + 1);
+  }
+
+  /**
+   * Combines the delegate's next page token with the last name of a page, or returns null if the
+   * delegate has no next page.
+   */
+  private static String getPageToken(String delegateNextPageToken, String lastName) {
+    if (delegateNextPageToken == null) {
+      return null;
+    }
+    return delegateNextPageToken + PAGE_TOKEN_SEPARATOR + Strings.nullToEmpty(lastName);
+  }
+
   /**
    * Supplements the list returned by the delegate with cached object infos; may trigger fetching
    * of any metadata not already available in the cache. If a delegate-returned item is also in the
@@ -439,9 +714,11 @@ public class CacheSupplementedGoogleCloudStorage
       throws IOException {
     log.debug("listObjectInfo(%s, %s, %s, %d)", bucketName, objectNamePrefix,
         delimiter, maxResults);
+    long epoch = getItemInfoCacheEpoch();
     List<GoogleCloudStorageItemInfo> allObjectInfos =
         gcsDelegate.listObjectInfo(bucketName, objectNamePrefix, delimiter,
             maxResults);
+    cacheListedItemInfos(allObjectInfos, epoch);
     if (maxResults > 0 && allObjectInfos.size() >= maxResults) {
         return allObjectInfos;
     }
@@ -479,39 +756,97 @@ public class CacheSupplementedGoogleCloudStorage
   }
 
   /**
-   * Pure pass-through.
+   * Serves the infos held by the item info cache, if enabled, and fetches the others from the
+   * delegate in a single call, caching them. Otherwise a pure pass-through.
    */
   @Override
   public List<GoogleCloudStorageItemInfo> getItemInfos(List<StorageResourceId> resourceIds)
       throws IOException {
     log.debug("getItemInfos(%s)", resourceIds.toString());
-    return gcsDelegate.getItemInfos(resourceIds);
+    if (itemInfoCache == null) {
+      return gcsDelegate.getItemInfos(resourceIds);
+    }
+
+    List<GoogleCloudStorageItemInfo> itemInfos = new ArrayList<>(resourceIds.size());
+    List<StorageResourceId> missingIds = new ArrayList<>();
+    for (StorageResourceId resourceId : resourceIds) {
+      GoogleCloudStorageItemInfo itemInfo = itemInfoCache.get(resourceId);
+      itemInfos.add(itemInfo);
+      if (itemInfo == null) {
+        missingIds.add(resourceId);
+      }
+    }
+    if (missingIds.isEmpty()) {
+      return itemInfos;
+    }
+
+    long epoch = itemInfoCache.getInvalidationEpoch();
+    List<GoogleCloudStorageItemInfo> fetchedInfos = gcsDelegate.getItemInfos(missingIds);
+    int fetchedIndex = 0;
+    for (int i = 0; i < itemInfos.size(); ++i) {
+      if (itemInfos.get(i) == null) {
+        GoogleCloudStorageItemInfo fetchedInfo = fetchedInfos.get(fetchedIndex++);
+        itemInfoCache.put(fetchedInfo, epoch);
+        itemInfos.set(i, fetchedInfo);
+      }
+    }
+    return itemInfos;
   }
 
+  /**
+   * Caches the updated infos after delegating.
+   */
   @Override
   public List<GoogleCloudStorageItemInfo> updateItems(List<UpdatableItemInfo> itemInfoList)
       throws IOException {
     log.debug("updateItems(%s)", itemInfoList);
-    return gcsDelegate.updateItems(itemInfoList);
+    List<GoogleCloudStorageItemInfo> updatedInfos = gcsDelegate.updateItems(itemInfoList);
+    if (itemInfoCache != null) {
+      // Invalidate first, so that infos fetched before the update aren't cached after it.
+      for (GoogleCloudStorageItemInfo updatedInfo : updatedInfos) {
+        itemInfoCache.invalidate(updatedInfo.getResourceId());
+      }
+      long epoch = itemInfoCache.getInvalidationEpoch();
+      for (GoogleCloudStorageItemInfo updatedInfo : updatedInfos) {
+        itemInfoCache.put(updatedInfo, epoch);
+      }
+    }
+    return updatedInfos;
   }
 
   /**
-   * Pure pass-through.
+   * Serves the info from the item info cache, if enabled and holding it, else fetches it from the
+   * delegate and caches it. Otherwise a pure pass-through.
    */
   @Override
   public GoogleCloudStorageItemInfo getItemInfo(StorageResourceId resourceId)
       throws IOException {
     log.debug("getItemInfo(%s)", resourceId);
-    // TODO(user): Maybe opportunistically update the cache with any retrieved info; it would take
-    // more memory but potentially improve cache coherence. Here and in getItemInfos.
-    return gcsDelegate.getItemInfo(resourceId);
+    if (itemInfoCache == null) {
+      return gcsDelegate.getItemInfo(resourceId);
+    }
+    GoogleCloudStorageItemInfo itemInfo = itemInfoCache.get(resourceId);
+    if (itemInfo == null) {
+      long epoch = itemInfoCache.getInvalidationEpoch();
+      itemInfo = gcsDelegate.getItemInfo(resourceId);
+      itemInfoCache.put(itemInfo, epoch);
+    }
+    return itemInfo;
   }
 
   /**
-   * Pure pass-through.
+   * Closes the resourceCache and then the delegate, after logging the item info cache's
+   * counters.
    */
   @Override
   public void close() {
+    if (itemInfoCache != null) {
+      log.debug("close(): %s", itemInfoCache);
+    }
+    if (resourceCache instanceof InMemoryDirectoryListCache) {
+      log.debug("close(): %s", resourceCache);
+    }
+    resourceCache.close();
     gcsDelegate.close();
   }
 
@@ -19,9 +19,12 @@ package com.google.cloud.hadoop.gcsio;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A cache entry for the relevant metadata of a single GCS Bucket, used by {@code
@@ -33,10 +36,25 @@ import java.util.Map;
  * not have associated GoogleCloudStorageItemInfo available. The caller is responsible for fetching
  * or updating such stale/nonexistent metadata if it is desired; for name-listing operations,
  * cached bucket/object names may be used directly without lazily populating associated metadata.
+ *
+ * Objects are kept sorted by name in a concurrent map, so that lookups and prefix scans don't
+ * block each other or concurrent additions and removals.
  */
 public class CachedBucket extends CacheEntry {
-  // Mapping from objectNames to cache entries for GCS StorageObjects.
-  private final Map<String, CacheEntry> objectLookup = new HashMap<>();
+  // Mapping from objectNames to cache entries for GCS StorageObjects, sorted by objectName.
+  private final ConcurrentNavigableMap<String, CacheEntry> objectLookup =
+      new ConcurrentSkipListMap<>();
+
+  // Approximate number of bytes used by a cached StorageObject entry, not counting its name:
+  // the CacheEntry with a cached GoogleCloudStorageItemInfo, its StorageResourceId and the
+  // skip-list node holding it.
+  static final long OBJECT_ENTRY_OVERHEAD_BYTES = 512;
+
+  // Number of entries in objectLookup, whose own size() is linear in the number of entries.
+  private final AtomicInteger numObjects = new AtomicInteger();
+
+  // Approximate number of bytes used by the entries in objectLookup.
+  private final AtomicLong estimatedObjectBytes = new AtomicLong();
 
   /**
    * Constructs a CachedBucket which has no associated GoogleCloudStorageItemInfo for the bucket.
@@ -47,6 +65,14 @@ public class CachedBucket extends CacheEntry {
     super(new StorageResourceId(bucketName));
   }
 
+  /**
+   * Constructs a CachedBucket with no associated GoogleCloudStorageItemInfo and an explicit
+   * creationTimeMillis, when restoring it from a snapshot of a cache.
+   */
+  CachedBucket(String bucketName, long creationTimeMillis) {
+    super(new StorageResourceId(bucketName), creationTimeMillis);
+  }
+
   /**
    * Constructs a CachedBucket with the provided GoogleCloudStorageItemInfo for the bucket.
    *
@@ -88,7 +114,7 @@ public class CachedBucket extends CacheEntry {
    *
    * @param resourceId identifies a StorageObject. Bucket must match this CachedBucket's name.
    */
-  public synchronized CacheEntry get(StorageResourceId resourceId) {
+  public CacheEntry get(StorageResourceId resourceId) {
     validateStorageObjectId(resourceId);
     return objectLookup.get(resourceId.getObjectName());
   }
@@ -99,9 +125,29 @@ public class CachedBucket extends CacheEntry {
    *
    * @param resourceId identifies a StorageObject. Bucket must match this CachedBucket's name.
    */
-  public synchronized void remove(StorageResourceId resourceId) {
+  public void remove(StorageResourceId resourceId) {
     validateStorageObjectId(resourceId);
-    objectLookup.remove(resourceId.getObjectName());
+    if (objectLookup.remove(resourceId.getObjectName()) != null) {
+      numObjects.decrementAndGet();
+      estimatedObjectBytes.addAndGet(-estimateObjectEntryBytes(resourceId.getObjectName()));
+    }
+  }
+
+  /**
+   * Removes {@code entry} if it is still the CacheEntry for its StorageObject, leaving alone any
+   * newer entry added for the same object after {@code entry} was removed.
+   *
+   * @return true if {@code entry} was removed.
+   */
+  boolean removeEntry(CacheEntry entry) {
+    validateStorageObjectId(entry.getResourceId());
+    String objectName = entry.getResourceId().getObjectName();
+    if (objectLookup.remove(objectName, entry)) {
+      numObjects.decrementAndGet();
+      estimatedObjectBytes.addAndGet(-estimateObjectEntryBytes(objectName));
+      return true;
+    }
+    return false;
   }
 
   /**
@@ -111,32 +157,79 @@ public class CachedBucket extends CacheEntry {
    * @param resourceId identifies a StorageObject. Bucket must match this CachedBucket's name.
    * @return The CacheEntry which got added, *or* the pre-existing entry.
    */
-  public synchronized CacheEntry put(StorageResourceId resourceId) {
+  public CacheEntry put(StorageResourceId resourceId) {
     validateStorageObjectId(resourceId);
 
     // Only add a new CacheEntry entry if it doesn't already exist.
     // TODO(user): Maybe invalidate any existing entry's info.
     CacheEntry returnEntry = objectLookup.get(resourceId.getObjectName());
     if (returnEntry == null) {
-      returnEntry = new CacheEntry(resourceId);
-      objectLookup.put(resourceId.getObjectName(), returnEntry);
+      CacheEntry newEntry = new CacheEntry(resourceId);
+      returnEntry = objectLookup.putIfAbsent(resourceId.getObjectName(), newEntry);
+      if (returnEntry == null) {
+        numObjects.incrementAndGet();
+        estimatedObjectBytes.addAndGet(estimateObjectEntryBytes(resourceId.getObjectName()));
+        returnEntry = newEntry;
+      }
     }
     return returnEntry;
   }
 
+  /**
+   * Adds {@code entry} for a StorageObject residing in this bucket unless an entry for the same
+   * StorageObject already exists.
+   *
+   * @return true if {@code entry} was added.
+   */
+  boolean putEntryIfAbsent(CacheEntry entry) {
+    validateStorageObjectId(entry.getResourceId());
+    String objectName = entry.getResourceId().getObjectName();
+    if (objectLookup.putIfAbsent(objectName, entry) == null) {
+      numObjects.incrementAndGet();
+      estimatedObjectBytes.addAndGet(estimateObjectEntryBytes(objectName));
+      return true;
+    }
+    return false;
+  }
+
   /**
    * @return List of CacheEntrys for StorageObjects residing in this bucket. May be empty. The
    *     list is a copy, so any later additions/removals of StorageObjects to this bucket will
    *     not be reflected in the returned list instance.
    */
-  public synchronized List<CacheEntry> getObjectList() {
+  public List<CacheEntry> getObjectList() {
     return ImmutableList.copyOf(objectLookup.values());
   }
 
+  /**
+   * Returns a live view, sorted by objectName, of the CacheEntrys for StorageObjects whose names
+   * are greater than or equal to {@code objectName}. Iterating the view doesn't block concurrent
+   * modifications, and may or may not reflect those made after the iteration started.
+   */
+  NavigableMap<String, CacheEntry> getObjectsFrom(String objectName) {
+    return objectLookup.tailMap(objectName, true);
+  }
+
   /**
    * @return The number of StorageObjects residing within this CachedBucket.
    */
-  public synchronized int getNumObjects() {
-    return objectLookup.size();
+  public int getNumObjects() {
+    return numObjects.get();
+  }
+
+  /**
+   * @return The approximate number of bytes of memory used by the StorageObjects cached within
+   *     this CachedBucket.
+   */
+  public long getEstimatedObjectBytes() {
+    return estimatedObjectBytes.get();
+  }
+
+  /**
+   * Returns the approximate number of bytes of memory used by the cached entry of a
+   * StorageObject named {@code objectName}.
+   */
+  static long estimateObjectEntryBytes(String objectName) {
+    return OBJECT_ENTRY_OVERHEAD_BYTES + 2L * objectName.length();
   }
 }
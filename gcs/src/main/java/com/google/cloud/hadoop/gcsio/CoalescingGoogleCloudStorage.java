@@ -0,0 +1,449 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.ChecksummingChannel;
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A GoogleCloudStorage which coalesces concurrent identical metadata requests: while a
+ * getItemInfo, getItemInfos, listObjectNames or listObjectInfo call is in flight, identical calls
+ * from other threads wait for it and share its result instead of issuing their own request. Many
+ * tasks starting at once and all looking up the same directory then cost one request.
+ *
+ * <p>A call only joins a request started before it; once this instance has created, copied,
+ * deleted or updated anything, later calls start a fresh request, so that a thread always sees
+ * its own changes.
+ */
+public class CoalescingGoogleCloudStorage implements GoogleCloudStorage {
+  // Logger.
+  private static final LogUtil log = new LogUtil(CoalescingGoogleCloudStorage.class);
+
+  private final GoogleCloudStorage wrappedGcs;
+
+  // The result of each request in flight, keyed by the method name followed by its arguments.
+  private final ConcurrentMap<List<Object>, SettableFuture<Object>> inFlightRequests =
+      new ConcurrentHashMap<>();
+
+  // Number of calls which shared the result of another call's request.
+  private final AtomicLong coalescedRequestCount = new AtomicLong();
+
+  /**
+   * Performs a single wrapped request, whose result is shared with callers of the same method
+   * with the same arguments while it is in flight.
+   */
+  private interface Request<T> {
+    T execute() throws IOException;
+  }
+
+  /**
+   * @param wrappedGcs The GoogleCloudStorage that we should delegate operations to.
+   */
+  public CoalescingGoogleCloudStorage(GoogleCloudStorage wrappedGcs) {
+    Preconditions.checkArgument(wrappedGcs != null, "wrappedGcs must not be null");
+    this.wrappedGcs = wrappedGcs;
+  }
+
+  /**
+   * Returns the number of calls which shared the result of another call's request.
+   */
+  public long getCoalescedRequestCount() {
+    return coalescedRequestCount.get();
+  }
+
+  /**
+   * Executes {@code request} unless an identical one is in flight, in which case its result is
+   * awaited instead.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T coalesce(Request<T> request, Object... key)
+      throws IOException {
+    List<Object> requestKey = Arrays.asList(key);
+    SettableFuture<Object> result = SettableFuture.create();
+    SettableFuture<Object> inFlightResult = inFlightRequests.putIfAbsent(requestKey, result);
+    if (inFlightResult != null) {
+      coalescedRequestCount.incrementAndGet();
+      log.debug("Joining in-flight request %s", requestKey);
+      return (T) awaitResult(inFlightResult);
+    }
+
+    try {
+      T value = request.execute();
+      result.set(value);
+      return value;
+    } catch (IOException | RuntimeException e) {
+      result.setException(e);
+      throw e;
+    } finally {
+      inFlightRequests.remove(requestKey, result);
+    }
+  }
+
+  private static Object awaitResult(SettableFuture<Object> result)
+      throws IOException {
+    try {
+      return copyResult(result.get());
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted awaiting in-flight request", ie);
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof IOException) {
+        throw (IOException) ee.getCause();
+      } else if (ee.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ee.getCause();
+      }
+      throw new IOException(ee.getCause());
+    }
+  }
+
+  /**
+   * Copies shared lists, so that a caller modifying its result does not affect the others.
+   */
+  private static Object copyResult(Object value) {
+    if (value instanceof List) {
+      return new ArrayList<>((List<?>) value);
+    } else if (value instanceof ListPage) {
+      ListPage<?> page = (ListPage<?>) value;
+      return new ListPage<>(new ArrayList<>(page.getItems()), page.getNextPageToken());
+    }
+    return value;
+  }
+
+  /**
+   * Makes calls after a change start fresh requests rather than join ones which may predate it.
+   */
+  private void detachInFlightRequests() {
+    inFlightRequests.clear();
+  }
+
+  @Override
+  public WritableByteChannel create(StorageResourceId resourceId)
+      throws IOException {
+    return create(resourceId, CreateObjectOptions.DEFAULT);
+  }
+
+  @Override
+  public WritableByteChannel create(StorageResourceId resourceId, CreateObjectOptions options)
+      throws IOException {
+    final WritableByteChannel innerChannel = wrappedGcs.create(resourceId, options);
+    // The object appears when the channel is closed.
+    return new DetachingWriteChannel(innerChannel);
+  }
+
+  /**
+   * Delegates to the wrapped channel and detaches in-flight requests when closed.
+   */
+  private class DetachingWriteChannel implements WritableByteChannel, ChecksummingChannel {
+    private final WritableByteChannel innerChannel;
+
+    DetachingWriteChannel(WritableByteChannel innerChannel) {
+      this.innerChannel = innerChannel;
+    }
+
+    @Override
+    public int write(ByteBuffer buffer)
+        throws IOException {
+      return innerChannel.write(buffer);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return innerChannel.isOpen();
+    }
+
+    @Override
+    public void close()
+        throws IOException {
+      try {
+        innerChannel.close();
+      } finally {
+        detachInFlightRequests();
+      }
+    }
+
+    @Override
+    public long getChecksumTimeNanos() {
+      return innerChannel instanceof ChecksummingChannel
+          ? ((ChecksummingChannel) innerChannel).getChecksumTimeNanos()
+          : 0;
+    }
+  }
+
+  @Override
+  public void createEmptyObject(StorageResourceId resourceId)
+      throws IOException {
+    try {
+      wrappedGcs.createEmptyObject(resourceId);
+    } finally {
+      detachInFlightRequests();
+    }
+  }
+
+  @Override
+  public void createEmptyObject(StorageResourceId resourceId, CreateObjectOptions options)
+      throws IOException {
+    try {
+      wrappedGcs.createEmptyObject(resourceId, options);
+    } finally {
+      detachInFlightRequests();
+    }
+  }
+
+  @Override
+  public void createEmptyObjects(List<StorageResourceId> resourceIds)
+      throws IOException {
+    try {
+      wrappedGcs.createEmptyObjects(resourceIds);
+    } finally {
+      detachInFlightRequests();
+    }
+  }
+
+  @Override
+  public void createEmptyObjects(List<StorageResourceId> resourceIds, CreateObjectOptions options)
+      throws IOException {
+    try {
+      wrappedGcs.createEmptyObjects(resourceIds, options);
+    } finally {
+      detachInFlightRequests();
+    }
+  }
+
+  @Override
+  public SeekableReadableByteChannel open(StorageResourceId resourceId)
+      throws IOException {
+    return wrappedGcs.open(resourceId);
+  }
+
+  @Override
+  public void create(String bucketName)
+      throws IOException {
+    try {
+      wrappedGcs.create(bucketName);
+    } finally {
+      detachInFlightRequests();
+    }
+  }
+
+  @Override
+  public void deleteBuckets(List<String> bucketNames)
+      throws IOException {
+    try {
+      wrappedGcs.deleteBuckets(bucketNames);
+    } finally {
+      detachInFlightRequests();
+    }
+  }
+
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames)
+      throws IOException {
+    try {
+      wrappedGcs.deleteObjects(fullObjectNames);
+    } finally {
+      detachInFlightRequests();
+    }
+  }
+
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    try {
+      wrappedGcs.deleteObjects(fullObjectNames, generations);
+    } finally {
+      detachInFlightRequests();
+    }
+  }
+
+  @Override
+  public void copy(String srcBucketName, List<String> srcObjectNames,
+      String dstBucketName, List<String> dstObjectNames)
+      throws IOException {
+    try {
+      wrappedGcs.copy(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames);
+    } finally {
+      detachInFlightRequests();
+    }
+  }
+
+  @Override
+  public List<String> listBucketNames()
+      throws IOException {
+    return wrappedGcs.listBucketNames();
+  }
+
+  @Override
+  public List<GoogleCloudStorageItemInfo> listBucketInfo()
+      throws IOException {
+    return wrappedGcs.listBucketInfo();
+  }
+
+  @Override
+  public List<String> listObjectNames(
+      String bucketName, String objectNamePrefix, String delimiter)
+      throws IOException {
+    return listObjectNames(bucketName, objectNamePrefix, delimiter,
+        GoogleCloudStorage.MAX_RESULTS_UNLIMITED);
+  }
+
+  @Override
+  public List<String> listObjectNames(
+      final String bucketName, final String objectNamePrefix, final String delimiter,
+      final long maxResults)
+      throws IOException {
+    return coalesce(new Request<List<String>>() {
+      @Override
+      public List<String> execute() throws IOException {
+        return wrappedGcs.listObjectNames(bucketName, objectNamePrefix, delimiter, maxResults);
+      }
+    }, "listObjectNames", bucketName, objectNamePrefix, delimiter, maxResults);
+  }
+
+  @Override
+  public ListPage<String> listObjectNamesPage(
+      final String bucketName, final String objectNamePrefix, final String delimiter,
+      final String pageToken)
+      throws IOException {
+    return coalesce(new Request<ListPage<String>>() {
+      @Override
+      public ListPage<String> execute() throws IOException {
+        return wrappedGcs.listObjectNamesPage(bucketName, objectNamePrefix, delimiter, pageToken);
+      }
+    }, "listObjectNamesPage", bucketName, objectNamePrefix, delimiter, pageToken);
+  }
+
+  @Override
+  public ListPage<String> listObjectNamesPage(
+      final String bucketName, final String objectNamePrefix, final String delimiter,
+      final String startOffset, final String endOffset, final String pageToken)
+      throws IOException {
+    return coalesce(new Request<ListPage<String>>() {
+      @Override
+      public ListPage<String> execute() throws IOException {
+        return wrappedGcs.listObjectNamesPage(
+            bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+      }
+    }, "listObjectNamesPage", bucketName, objectNamePrefix, delimiter, startOffset, endOffset,
+        pageToken);
+  }
+
+  @Override
+  public List<GoogleCloudStorageItemInfo> listObjectInfo(
+      String bucketName, String objectNamePrefix, String delimiter)
+      throws IOException {
+    return listObjectInfo(bucketName, objectNamePrefix, delimiter,
+        GoogleCloudStorage.MAX_RESULTS_UNLIMITED);
+  }
+
+  @Override
+  public List<GoogleCloudStorageItemInfo> listObjectInfo(
+      final String bucketName, final String objectNamePrefix, final String delimiter,
+      final long maxResults)
+      throws IOException {
+    return coalesce(new Request<List<GoogleCloudStorageItemInfo>>() {
+      @Override
+      public List<GoogleCloudStorageItemInfo> execute() throws IOException {
+        return wrappedGcs.listObjectInfo(bucketName, objectNamePrefix, delimiter, maxResults);
+      }
+    }, "listObjectInfo", bucketName, objectNamePrefix, delimiter, maxResults);
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      final String bucketName, final String objectNamePrefix, final String delimiter,
+      final String pageToken)
+      throws IOException {
+    return coalesce(new Request<ListPage<GoogleCloudStorageItemInfo>>() {
+      @Override
+      public ListPage<GoogleCloudStorageItemInfo> execute() throws IOException {
+        return wrappedGcs.listObjectInfoPage(bucketName, objectNamePrefix, delimiter, pageToken);
+      }
+    }, "listObjectInfoPage", bucketName, objectNamePrefix, delimiter, pageToken);
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      final String bucketName, final String objectNamePrefix, final String delimiter,
+      final String startOffset, final String endOffset, final String pageToken)
+      throws IOException {
+    return coalesce(new Request<ListPage<GoogleCloudStorageItemInfo>>() {
+      @Override
+      public ListPage<GoogleCloudStorageItemInfo> execute() throws IOException {
+        return wrappedGcs.listObjectInfoPage(
+            bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+      }
+    }, "listObjectInfoPage", bucketName, objectNamePrefix, delimiter, startOffset, endOffset,
+        pageToken);
+  }
+
+  @Override
+  public GoogleCloudStorageItemInfo getItemInfo(final StorageResourceId resourceId)
+      throws IOException {
+    return coalesce(new Request<GoogleCloudStorageItemInfo>() {
+      @Override
+      public GoogleCloudStorageItemInfo execute() throws IOException {
+        return wrappedGcs.getItemInfo(resourceId);
+      }
+    }, "getItemInfo", resourceId);
+  }
+
+  @Override
+  public List<GoogleCloudStorageItemInfo> getItemInfos(List<StorageResourceId> resourceIds)
+      throws IOException {
+    final List<StorageResourceId> requestedIds = new ArrayList<>(resourceIds);
+    return coalesce(new Request<List<GoogleCloudStorageItemInfo>>() {
+      @Override
+      public List<GoogleCloudStorageItemInfo> execute() throws IOException {
+        return wrappedGcs.getItemInfos(requestedIds);
+      }
+    }, "getItemInfos", requestedIds);
+  }
+
+  @Override
+  public List<GoogleCloudStorageItemInfo> updateItems(List<UpdatableItemInfo> itemInfoList)
+      throws IOException {
+    try {
+      return wrappedGcs.updateItems(itemInfoList);
+    } finally {
+      detachInFlightRequests();
+    }
+  }
+
+  @Override
+  public void close() {
+    wrappedGcs.close();
+  }
+
+  @Override
+  public void waitForBucketEmpty(String bucketName)
+      throws IOException {
+    wrappedGcs.waitForBucketEmpty(bucketName);
+  }
+}
@@ -44,8 +44,9 @@ public abstract class DirectoryListCache {
   // Logger.
   private static final LogUtil log = new LogUtil(DirectoryListCache.class);
 
-  // Clock instance used for calculating expiration times.
-  protected Clock clock = Clock.SYSTEM;
+  // Clock instance used for calculating expiration times. Volatile so that expiration checks
+  // don't need to hold the cache's lock.
+  protected volatile Clock clock = Clock.SYSTEM;
 
   // The configuration settings for this DirectlyListCache instance.
   protected Config cacheConfig = new Config();
@@ -67,6 +68,15 @@ public abstract class DirectoryListCache {
     // a GoogleCloudStorage instance.
     private long maxInfoAgeMillis = 10 * 1000L;
 
+    // Maximum number of StorageObject entries the cache holds before evicting the least recently
+    // used ones, or 0 for no limit. Only enforced by InMemoryDirectoryListCache.
+    private long maxEntries = 0;
+
+    // Approximate maximum number of bytes of memory the cached StorageObject entries may use
+    // before the least recently used ones are evicted, or 0 for no limit. Only enforced by
+    // InMemoryDirectoryListCache.
+    private long maxBytes = 0;
+
     /**
      * Getter for maxEntryAgeMillis.
      */
@@ -96,6 +106,39 @@ public abstract class DirectoryListCache {
       this.maxInfoAgeMillis = maxInfoAgeMillis;
       return this;
     }
+
+    /**
+     * Getter for maxEntries.
+     */
+    public synchronized long getMaxEntries() {
+      return maxEntries;
+    }
+
+    /**
+     * Setter for maxEntries.
+     */
+    public synchronized Config setMaxEntries(long maxEntries) {
+      Preconditions.checkArgument(maxEntries >= 0,
+          "maxEntries must not be negative, got %s", maxEntries);
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    /**
+     * Getter for maxBytes.
+     */
+    public synchronized long getMaxBytes() {
+      return maxBytes;
+    }
+
+    /**
+     * Setter for maxBytes.
+     */
+    public synchronized Config setMaxBytes(long maxBytes) {
+      Preconditions.checkArgument(maxBytes >= 0, "maxBytes must not be negative, got %s", maxBytes);
+      this.maxBytes = maxBytes;
+      return this;
+    }
   }
 
   /**
@@ -103,7 +146,9 @@ public abstract class DirectoryListCache {
    */
   public static enum Type {
     IN_MEMORY,
-    FILESYSTEM_BACKED
+    FILESYSTEM_BACKED,
+    LOG_STRUCTURED,
+    REMOTE
   }
 
   /**
@@ -208,6 +253,13 @@ public abstract class DirectoryListCache {
   @VisibleForTesting
   public abstract int getInternalNumObjects() throws IOException;
 
+  /**
+   * Releases the resources, such as open files or connections, held by this instance; using it
+   * again afterwards reacquires them. Does nothing by default.
+   */
+  public void close() {
+  }
+
   /**
    * Returns the {@code Config} instance used by this DirectoryListCache instance to determine
    * expiration ages, etc. It is the actual mutable Config object, such that modifications in-place
@@ -230,7 +282,7 @@ public abstract class DirectoryListCache {
    * Helper for determining whether a CacheEntry is entirely expired and should be removed
    * from the cache.
    */
-  protected synchronized boolean isCacheEntryExpired(CacheEntry entry) {
+  protected boolean isCacheEntryExpired(CacheEntry entry) {
     long creationTime = entry.getCreationTimeMillis();
     long entryAge = clock.currentTimeMillis() - creationTime;
     if (entryAge > cacheConfig.getMaxEntryAgeMillis()) {
@@ -255,12 +307,8 @@ public abstract class DirectoryListCache {
    * on cacheConfig settings.
    */
   protected void maybeInvalidateExpiredInfo(CacheEntry entry) {
-    long currentTimeMillis;
-    long maxInfoAgeMillis;
-    synchronized (this) {
-      currentTimeMillis = clock.currentTimeMillis();
-      maxInfoAgeMillis = cacheConfig.getMaxInfoAgeMillis();
-    }
+    long currentTimeMillis = clock.currentTimeMillis();
+    long maxInfoAgeMillis = cacheConfig.getMaxInfoAgeMillis();
 
     // We must synchronize on 'entry' since we are reading its itemInfoUpdateTimeMillis and then
     // possibly mutating it based on that value. Requires that CacheEntry's other mutators like
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Wire format shared by RemoteDirectoryListCache and DirectoryListCacheServer.
+ * <p>
+ * After connecting, the client sends {@link #MAGIC}. Each request is then an opcode byte
+ * followed by its arguments, and each response is a status byte followed by either the result
+ * or, for {@link #STATUS_ERROR}, a message. Responses are sent in request order, so a client
+ * may send any number of requests before reading their responses, and both sides flush only
+ * once they have nothing more to write, so that requests and responses sent together travel in
+ * as few packets as possible.
+ * <p>
+ * Strings are written with {@link DataOutputStream#writeUTF}; a nullable string is preceded by
+ * a boolean telling whether it is present. A StorageResourceId is its bucketName followed by
+ * its nullable objectName.
+ */
+final class DirectoryListCacheProtocol {
+  // Sent by the client when connecting: "GCSD" followed by the protocol version.
+  static final long MAGIC = 0x4743534400000001L;
+
+  // putResourceId(resourceId) returns the creation time of the entry.
+  static final byte OP_PUT = 1;
+
+  // getCacheEntry(resourceId) returns whether the entry exists, followed by its creation time.
+  static final byte OP_GET = 2;
+
+  // removeResourceId(resourceId) returns nothing.
+  static final byte OP_REMOVE = 3;
+
+  // getBucketList() and getRawBucketList() return a count followed by that many pairs of
+  // bucketName and creation time.
+  static final byte OP_LIST_BUCKETS = 4;
+  static final byte OP_LIST_RAW_BUCKETS = 5;
+
+  // getObjectList(bucketName, nullable prefix, nullable delimiter, wantPrefixes) returns whether
+  // the bucket exists; if so, a count followed by that many pairs of objectName and creation
+  // time, then a count followed by that many returned prefixes.
+  static final byte OP_LIST_OBJECTS = 6;
+
+  // getInternalNumBuckets() and getInternalNumObjects() return an int.
+  static final byte OP_NUM_BUCKETS = 7;
+  static final byte OP_NUM_OBJECTS = 8;
+
+  static final byte STATUS_OK = 0;
+  static final byte STATUS_ERROR = 1;
+
+  private DirectoryListCacheProtocol() {}
+
+  static void writeNullableString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  static String readNullableString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  static void writeResourceId(DataOutputStream out, StorageResourceId resourceId)
+      throws IOException {
+    out.writeUTF(resourceId.getBucketName());
+    writeNullableString(out, resourceId.getObjectName());
+  }
+
+  static StorageResourceId readResourceId(DataInputStream in) throws IOException {
+    String bucketName = in.readUTF();
+    String objectName = readNullableString(in);
+    return objectName == null
+        ? new StorageResourceId(bucketName)
+        : new StorageResourceId(bucketName, objectName);
+  }
+}
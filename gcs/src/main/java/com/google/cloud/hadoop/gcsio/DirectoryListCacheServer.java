@@ -0,0 +1,358 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A standalone server holding a DirectoryListCache on behalf of every RemoteDirectoryListCache
+ * connected to it, so that all the processes of a cluster see each other's list-after-write
+ * updates. It holds its entries in an InMemoryDirectoryListCache, which keeps each bucket's
+ * objects sorted by name so that a listing only visits the objects under its prefix, and
+ * applies its own expiration settings to them.
+ * <p>
+ * Each connection is served by its own thread, which answers requests in the order they
+ * arrive, using the protocol described in DirectoryListCacheProtocol.
+ * <p>
+ * The protocol has neither authentication nor encryption: any host which can connect to the
+ * server can add and remove the entries of every bucket, and so make every client list objects
+ * which don't exist or miss objects which do. The server therefore listens only on the loopback
+ * interface unless given another bind address, which should only be done where every host able
+ * to reach the port, for example through the firewall of the cluster's network, is trusted.
+ * <p>
+ * Run {@link #main} to serve a new cache on a given port.
+ */
+public class DirectoryListCacheServer implements Closeable {
+  private static final LogUtil log = new LogUtil(DirectoryListCacheServer.class);
+
+  /**
+   * Port listened on by default.
+   */
+  public static final int DEFAULT_PORT = 4791;
+
+  private final DirectoryListCache cache;
+  private final ServerSocket serverSocket;
+  private final ExecutorService connectionExecutor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("gcs-directory-list-cache-server-%d")
+          .setDaemon(true)
+          .build());
+
+  // Accepted connections which are still open.
+  private final Set<Socket> openSockets =
+      Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+  /**
+   * Creates a server listening on the loopback interface only.
+   *
+   * @param port The port to listen on, or 0 for any free port, see {@link #getPort}.
+   * @param cache The cache to serve.
+   */
+  public DirectoryListCacheServer(int port, DirectoryListCache cache) throws IOException {
+    this(InetAddress.getLoopbackAddress(), port, cache);
+  }
+
+  /**
+   * @param bindAddress The local address to listen on; see the class comment before choosing
+   *     one reachable from other hosts.
+   * @param port The port to listen on, or 0 for any free port, see {@link #getPort}.
+   * @param cache The cache to serve.
+   */
+  public DirectoryListCacheServer(InetAddress bindAddress, int port, DirectoryListCache cache)
+      throws IOException {
+    Preconditions.checkArgument(bindAddress != null, "bindAddress must not be null");
+    Preconditions.checkArgument(cache != null, "cache must not be null");
+    this.cache = cache;
+    // A backlog of 0 selects the default.
+    this.serverSocket = new ServerSocket(port, 0, bindAddress);
+  }
+
+  /**
+   * Returns the port this server listens on.
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the local address this server listens on.
+   */
+  public InetAddress getBindAddress() {
+    return serverSocket.getInetAddress();
+  }
+
+  /**
+   * Returns the cache served by this server.
+   */
+  public DirectoryListCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Starts accepting connections in the background.
+   */
+  public void start() {
+    log.info("Serving directory list cache on %s port %d", getBindAddress(), getPort());
+    connectionExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        acceptConnections();
+      }
+    });
+  }
+
+  /**
+   * Stops accepting connections and closes those already accepted.
+   */
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    connectionExecutor.shutdownNow();
+    for (Socket socket : openSockets) {
+      socket.close();
+    }
+  }
+
+  private void acceptConnections() {
+    while (!serverSocket.isClosed()) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException ioe) {
+        if (!serverSocket.isClosed()) {
+          log.error("Failed to accept connection", ioe);
+        }
+        continue;
+      }
+      connectionExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          openSockets.add(socket);
+          try (Socket connection = socket) {
+            connection.setTcpNoDelay(true);
+            serveConnection(connection);
+          } catch (IOException ioe) {
+            if (!serverSocket.isClosed()) {
+              log.warn("Closing connection from %s: %s", socket.getRemoteSocketAddress(), ioe);
+            }
+          } finally {
+            openSockets.remove(socket);
+          }
+        }
+      });
+    }
+  }
+
+  private void serveConnection(Socket socket) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    if (in.readLong() != DirectoryListCacheProtocol.MAGIC) {
+      throw new IOException("Unrecognized client protocol");
+    }
+    log.debug("Accepted connection from %s", socket.getRemoteSocketAddress());
+
+    while (!Thread.currentThread().isInterrupted()) {
+      byte opcode;
+      try {
+        opcode = in.readByte();
+      } catch (EOFException eofe) {
+        log.debug("Connection from %s closed", socket.getRemoteSocketAddress());
+        return;
+      }
+      serveRequest(opcode, in, out);
+      // Only flush once every request which has already arrived has been answered, so that
+      // responses to pipelined requests go out together.
+      if (in.available() == 0) {
+        out.flush();
+      }
+    }
+  }
+
+  /**
+   * Reads the arguments of the request identified by {@code opcode}, then writes its response.
+   * Failures of the cache are sent back to the client; failures to read or write the
+   * connection are thrown.
+   */
+  private void serveRequest(byte opcode, DataInputStream in, DataOutputStream out)
+      throws IOException {
+    switch (opcode) {
+      case DirectoryListCacheProtocol.OP_PUT: {
+        StorageResourceId resourceId = DirectoryListCacheProtocol.readResourceId(in);
+        CacheEntry entry;
+        try {
+          entry = cache.putResourceId(resourceId);
+        } catch (IOException | RuntimeException e) {
+          writeError(out, e);
+          return;
+        }
+        out.writeByte(DirectoryListCacheProtocol.STATUS_OK);
+        out.writeLong(entry.getCreationTimeMillis());
+        return;
+      }
+      case DirectoryListCacheProtocol.OP_GET: {
+        StorageResourceId resourceId = DirectoryListCacheProtocol.readResourceId(in);
+        CacheEntry entry;
+        try {
+          entry = cache.getCacheEntry(resourceId);
+        } catch (IOException | RuntimeException e) {
+          writeError(out, e);
+          return;
+        }
+        out.writeByte(DirectoryListCacheProtocol.STATUS_OK);
+        out.writeBoolean(entry != null);
+        out.writeLong(entry == null ? 0 : entry.getCreationTimeMillis());
+        return;
+      }
+      case DirectoryListCacheProtocol.OP_REMOVE: {
+        StorageResourceId resourceId = DirectoryListCacheProtocol.readResourceId(in);
+        try {
+          cache.removeResourceId(resourceId);
+        } catch (IOException | RuntimeException e) {
+          writeError(out, e);
+          return;
+        }
+        out.writeByte(DirectoryListCacheProtocol.STATUS_OK);
+        return;
+      }
+      case DirectoryListCacheProtocol.OP_LIST_BUCKETS:
+      case DirectoryListCacheProtocol.OP_LIST_RAW_BUCKETS: {
+        List<CacheEntry> bucketEntries;
+        try {
+          bucketEntries = opcode == DirectoryListCacheProtocol.OP_LIST_BUCKETS
+              ? cache.getBucketList()
+              : cache.getRawBucketList();
+        } catch (IOException | RuntimeException e) {
+          writeError(out, e);
+          return;
+        }
+        out.writeByte(DirectoryListCacheProtocol.STATUS_OK);
+        out.writeInt(bucketEntries.size());
+        for (CacheEntry bucketEntry : bucketEntries) {
+          out.writeUTF(bucketEntry.getResourceId().getBucketName());
+          out.writeLong(bucketEntry.getCreationTimeMillis());
+        }
+        return;
+      }
+      case DirectoryListCacheProtocol.OP_LIST_OBJECTS: {
+        String bucketName = in.readUTF();
+        String objectNamePrefix = DirectoryListCacheProtocol.readNullableString(in);
+        String delimiter = DirectoryListCacheProtocol.readNullableString(in);
+        Set<String> returnedPrefixes = in.readBoolean() ? new HashSet<String>() : null;
+        List<CacheEntry> objectEntries;
+        try {
+          objectEntries =
+              cache.getObjectList(bucketName, objectNamePrefix, delimiter, returnedPrefixes);
+        } catch (IOException | RuntimeException e) {
+          writeError(out, e);
+          return;
+        }
+        out.writeByte(DirectoryListCacheProtocol.STATUS_OK);
+        out.writeBoolean(objectEntries != null);
+        if (objectEntries != null) {
+          out.writeInt(objectEntries.size());
+          for (CacheEntry objectEntry : objectEntries) {
+            out.writeUTF(objectEntry.getResourceId().getObjectName());
+            out.writeLong(objectEntry.getCreationTimeMillis());
+          }
+          if (returnedPrefixes == null) {
+            out.writeInt(0);
+          } else {
+            out.writeInt(returnedPrefixes.size());
+            for (String prefix : returnedPrefixes) {
+              out.writeUTF(prefix);
+            }
+          }
+        }
+        return;
+      }
+      case DirectoryListCacheProtocol.OP_NUM_BUCKETS:
+      case DirectoryListCacheProtocol.OP_NUM_OBJECTS: {
+        int count;
+        try {
+          count = opcode == DirectoryListCacheProtocol.OP_NUM_BUCKETS
+              ? cache.getInternalNumBuckets()
+              : cache.getInternalNumObjects();
+        } catch (IOException | RuntimeException e) {
+          writeError(out, e);
+          return;
+        }
+        out.writeByte(DirectoryListCacheProtocol.STATUS_OK);
+        out.writeInt(count);
+        return;
+      }
+      default:
+        // The arguments of an unknown request can't be skipped, so the connection is unusable.
+        throw new IOException(String.format("Unknown opcode %d", opcode));
+    }
+  }
+
+  private static void writeError(DataOutputStream out, Exception e) throws IOException {
+    log.debug("Request failed: %s", e);
+    out.writeByte(DirectoryListCacheProtocol.STATUS_ERROR);
+    out.writeUTF(String.valueOf(e.getMessage()));
+  }
+
+  /**
+   * Serves a new InMemoryDirectoryListCache until killed.
+   * <p>
+   * Usage: DirectoryListCacheServer [port [maxEntryAgeMillis [maxEntries [maxBytes
+   * [bindAddress]]]]]
+   * <p>
+   * maxEntries and maxBytes bound the size of the cache as described in
+   * DirectoryListCache.Config, 0 meaning no limit; bindAddress defaults to the loopback address.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    InMemoryDirectoryListCache cache = new InMemoryDirectoryListCache();
+    if (args.length > 1) {
+      cache.getMutableConfig().setMaxEntryAgeMillis(Long.parseLong(args[1]));
+    }
+    if (args.length > 2) {
+      cache.getMutableConfig().setMaxEntries(Long.parseLong(args[2]));
+    }
+    if (args.length > 3) {
+      cache.getMutableConfig().setMaxBytes(Long.parseLong(args[3]));
+    }
+    InetAddress bindAddress = args.length > 4
+        ? InetAddress.getByName(args[4])
+        : InetAddress.getLoopbackAddress();
+    DirectoryListCacheServer server = new DirectoryListCacheServer(bindAddress, port, cache);
+    server.start();
+    Thread.currentThread().join();
+  }
+}
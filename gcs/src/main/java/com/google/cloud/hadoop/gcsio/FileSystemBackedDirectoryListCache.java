@@ -661,6 +661,13 @@ public class FileSystemBackedDirectoryListCache extends DirectoryListCache {
     return count[0];
   }
 
+  /**
+   * Returns the directory under which each bucket is mirrored as a subdirectory.
+   */
+  public Path getBasePath() {
+    return basePath;
+  }
+
   /**
    * Sets {@code listener} as a function to be called immediately prior to all mkdir() or
    * createNewFile() invocations, passing it the StorageResourceId that is about to be created.
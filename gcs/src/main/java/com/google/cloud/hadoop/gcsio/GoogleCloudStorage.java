@@ -140,6 +140,20 @@ public interface GoogleCloudStorage {
   void deleteObjects(List<StorageResourceId> fullObjectNames)
       throws IOException;
 
+  /**
+   * Same as {@link #deleteObjects(List)}, except that the generation of each object may already
+   * be known, e.g. from the listing which found it, so that it need not be fetched again before
+   * the object is deleted. If an object's generation has since changed, its latest generation is
+   * deleted as if its generation were unknown.
+   *
+   * @param fullObjectNames names of objects to delete with their respective bucketNames.
+   * @param generations generation of each object in {@code fullObjectNames}, or null if unknown
+   * @throws FileNotFoundException if the given object does not exist
+   * @throws IOException if object exists but cannot be deleted
+   */
+  void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException;
+
   /**
    * Copies metadata of the given objects. After the copy is successfully complete,
    * each object blob is reachable by two different names.
@@ -230,6 +244,43 @@ public interface GoogleCloudStorage {
       long maxResults)
       throws IOException;
 
+  /**
+   * Same name-matching semantics as {@link listObjectNames}, except that only a single page of
+   * names is returned, so that callers may process arbitrarily large listings without holding
+   * all names in memory. Within a page, names are in lexicographic order; pages are returned in
+   * order, and each name is returned at most once over all pages of a listing.
+   *
+   * @param bucketName bucket name
+   * @param objectNamePrefix object name prefix or null if all objects in the bucket are desired
+   * @param delimiter delimiter to use (typically "/"), otherwise null
+   * @param pageToken the next page token of the previous page, or null for the first page
+   * @return a page of object names; its next page token is null if it is the last page
+   * @throws IOException on IO error
+   */
+  ListPage<String> listObjectNamesPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException;
+
+  /**
+   * Same as {@link #listObjectNamesPage(String, String, String, String)}, except that only names
+   * in the lexicographic range from {@code startOffset}, inclusive, to {@code endOffset},
+   * exclusive, are returned, so that a listing need not page through every name with the prefix
+   * to find those within a narrower range.
+   *
+   * @param bucketName bucket name
+   * @param objectNamePrefix object name prefix or null if all objects in the bucket are desired
+   * @param delimiter delimiter to use (typically "/"), otherwise null
+   * @param startOffset lowest name to return, or null for no lower bound
+   * @param endOffset name above every name to return, or null for no upper bound
+   * @param pageToken the next page token of the previous page, or null for the first page
+   * @return a page of object names; its next page token is null if it is the last page
+   * @throws IOException on IO error
+   */
+  ListPage<String> listObjectNamesPage(
+      String bucketName, String objectNamePrefix, String delimiter,
+      String startOffset, String endOffset, String pageToken)
+      throws IOException;
+
   /**
    * Same name-matching semantics as {@link listObjectNames} except this method
    * retrieves the full GoogleCloudStorageFileInfo for each item as well.
@@ -275,6 +326,39 @@ public interface GoogleCloudStorage {
       long maxResults)
       throws IOException;
 
+  /**
+   * Same paging semantics as {@link #listObjectNamesPage}, except that the full
+   * GoogleCloudStorageItemInfo is returned for each item, as for {@link #listObjectInfo}.
+   *
+   * @param bucketName bucket name
+   * @param objectNamePrefix object name prefix or null if all objects in the bucket are desired
+   * @param delimiter delimiter to use (typically "/"), otherwise null
+   * @param pageToken the next page token of the previous page, or null for the first page
+   * @return a page of object infos; its next page token is null if it is the last page
+   * @throws IOException on IO error
+   */
+  ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException;
+
+  /**
+   * Same range semantics as {@link #listObjectNamesPage(String, String, String, String, String,
+   * String)}, except that the full GoogleCloudStorageItemInfo is returned for each item.
+   *
+   * @param bucketName bucket name
+   * @param objectNamePrefix object name prefix or null if all objects in the bucket are desired
+   * @param delimiter delimiter to use (typically "/"), otherwise null
+   * @param startOffset lowest name to return, or null for no lower bound
+   * @param endOffset name above every name to return, or null for no upper bound
+   * @param pageToken the next page token of the previous page, or null for the first page
+   * @return a page of object infos; its next page token is null if it is the last page
+   * @throws IOException on IO error
+   */
+  ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter,
+      String startOffset, String endOffset, String pageToken)
+      throws IOException;
+
   /**
    * Gets information about an object or a bucket.
    *
@@ -25,28 +25,43 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Provides a POSIX like file system layered on top of Google Cloud Storage (GCS).
@@ -72,6 +87,50 @@ public class GoogleCloudStorageFileSystem {
   // FS options
   private final GoogleCloudStorageFileSystemOptions options;
 
+  // The metadata cache to restore from and save to options.getMetadataCacheSnapshotPath(), or
+  // null if snapshots are disabled.
+  private InMemoryDirectoryListCache snapshotCache;
+
+  // Maximum number of listing pages of a recursive delete or directory rename whose objects may be
+  // awaiting deletion while the following page is listed.
+  @VisibleForTesting
+  static final int MAX_PENDING_DELETES = 2;
+
+  // Metadata key of the destination directory object under which a rename's progress is
+  // recorded, so that the journal never appears in the namespace.
+  public static final String RENAME_JOURNAL_METADATA_KEY = "system.gcsfs_rename_journal";
+
+  // Numbers of objects, and of listing pages of objects, deleted so far by recursive deletes and
+  // directory renames.
+  private final AtomicLong deletedObjectCount = new AtomicLong();
+  private final AtomicLong deletedPageCount = new AtomicLong();
+
+  // Executor for deleting pages of objects during recursive deletes and directory renames.
+  private ExecutorService deleteExecutor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("gcsfs-delete-%d")
+          .setDaemon(true)
+          .build());
+
+  // Executor for fetching the following pages of incremental directory listings.
+  private ExecutorService listPrefetchExecutor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("gcsfs-list-prefetch-%d")
+          .setDaemon(true)
+          .build());
+
+  // Maximum number of pages each shard of a sharded listing fetches ahead of its consumer.
+  private static final int MAX_BUFFERED_LIST_PAGES_PER_SHARD = 4;
+
+  // Time after which a shard of a sharded listing whose consumer takes no pages stops fetching
+  // and gives up its thread until the consumer catches up.
+  private static final long LIST_SHARD_PARK_TIMEOUT_MILLIS = 30 * 1000L;
+
+  // Minimum number of candidate offsets per shard from which the offsets of a sharded listing are
+  // picked, so that they can be spread evenly, and the most candidates ever considered.
+  private static final int MIN_LIST_SHARD_CANDIDATES_PER_SHARD = 4;
+  private static final int MAX_LIST_SHARD_CANDIDATES = 64 * 1024;
+
   // Executor for updating directory timestamps.
   private ExecutorService updateTimestampsExecutor = new ThreadPoolExecutor(
       2 /* core thread count */, 2 /* max thread count */, 2 /* keepAliveTime */,
@@ -143,11 +202,26 @@ public class GoogleCloudStorageFileSystem {
     this.options = options;
     this.gcs = new GoogleCloudStorageImpl(options.getCloudStorageOptions(), credential);
 
+    if (options.isCoalesceRequestsEnabled()) {
+      gcs = new CoalescingGoogleCloudStorage(gcs);
+    }
+
     if (options.isMetadataCacheEnabled()) {
       DirectoryListCache resourceCache = null;
       switch (options.getCacheType()) {
         case IN_MEMORY: {
           resourceCache = InMemoryDirectoryListCache.getInstance();
+          // The cache is shared process-wide, so only apply limits which were actually set.
+          if (options.getMetadataCacheMaxEntries() > 0) {
+            resourceCache.getMutableConfig().setMaxEntries(options.getMetadataCacheMaxEntries());
+          }
+          if (options.getMetadataCacheMaxBytes() > 0) {
+            resourceCache.getMutableConfig().setMaxBytes(options.getMetadataCacheMaxBytes());
+          }
+          if (!Strings.isNullOrEmpty(options.getMetadataCacheSnapshotPath())) {
+            snapshotCache = (InMemoryDirectoryListCache) resourceCache;
+            openMetadataCacheSnapshot();
+          }
           break;
         }
         case FILESYSTEM_BACKED: {
@@ -156,11 +230,28 @@ public class GoogleCloudStorageFileSystem {
           resourceCache = new FileSystemBackedDirectoryListCache(options.getCacheBasePath());
           break;
         }
+        case LOG_STRUCTURED: {
+          Preconditions.checkArgument(!Strings.isNullOrEmpty(options.getCacheBasePath()),
+              "When using LOG_STRUCTURED DirectoryListCache, cacheBasePath must not be null.");
+          resourceCache = new LogStructuredDirectoryListCache(options.getCacheBasePath());
+          break;
+        }
+        case REMOTE: {
+          Preconditions.checkArgument(!Strings.isNullOrEmpty(options.getCacheServerAddress()),
+              "When using REMOTE DirectoryListCache, cacheServerAddress must not be null.");
+          resourceCache = RemoteDirectoryListCache.fromAddress(options.getCacheServerAddress());
+          break;
+        }
         default:
           throw new IllegalArgumentException(String.format(
               "DirectoryListCache.Type '%s' not supported.", options.getCacheType()));
       }
-      gcs = new CacheSupplementedGoogleCloudStorage(gcs, resourceCache);
+      ItemInfoCache itemInfoCache = null;
+      if (options.isStatCacheEnabled()) {
+        itemInfoCache = new ItemInfoCache(options.getStatCacheMaxEntries(),
+            options.getStatCacheTtlMillis(), options.getStatCacheNegativeTtlMillis());
+      }
+      gcs = new CacheSupplementedGoogleCloudStorage(gcs, resourceCache, itemInfoCache);
     }
   }
 
@@ -314,11 +405,10 @@ public class GoogleCloudStorageFileSystem {
 
     // Delete sub-items if it is a directory.
     if (fileInfo.isDirectory()) {
-      List<URI> subpaths = listFileNames(fileInfo, recursive);
       if (recursive) {
-        itemsToDelete.addAll(subpaths);
+        deleteObjectsUnder(validatePathAndGetId(fileInfo.getPath(), true));
       } else {
-        if (subpaths.size() > 0) {
+        if (listFileNames(fileInfo, false).size() > 0) {
           throw new DirectoryNotEmptyException("Cannot delete a non-empty directory.");
         }
       }
@@ -577,6 +667,10 @@ public class GoogleCloudStorageFileSystem {
     Preconditions.checkNotNull(dst);
     Preconditions.checkArgument(!src.equals(GCS_ROOT), "Root path cannot be renamed.");
 
+    if (options.isRenameJournalEnabled() && completeInterruptedRename(src, dst)) {
+      return;
+    }
+
     // Leaf item of the source path.
     String srcItemName = getItemName(src);
 
@@ -684,87 +778,484 @@ public class GoogleCloudStorageFileSystem {
    */
   private void renameInternal(FileInfo srcInfo, URI dst)
       throws IOException {
+    if (srcInfo.isDirectory()) {
+      renameDirectoryInternal(srcInfo, FileInfo.convertToDirectoryPath(dst));
+      return;
+    }
+
+    StorageResourceId srcResourceId = validatePathAndGetId(srcInfo.getPath(), true);
+    StorageResourceId dstResourceId = validatePathAndGetId(dst, true);
+    gcs.copy(srcResourceId.getBucketName(), ImmutableList.of(srcResourceId.getObjectName()),
+        dstResourceId.getBucketName(), ImmutableList.of(dstResourceId.getObjectName()));
+
+    List<URI> destinationUris = ImmutableList.of(dst);
+    tryUpdateTimestampsForParentDirectories(destinationUris, destinationUris);
 
-    // List of individual paths to rename; we will try to carry out the copies in this list's
-    // order.
+    // Delete the item we successfully copied.
     List<URI> srcItemNames = new ArrayList<>();
+    srcItemNames.add(srcInfo.getPath());
+    deleteInternal(srcItemNames, new ArrayList<URI>());
+  }
 
-    // Mapping from each src to its respective dst.
-    Map<URI, URI> dstItemNames = new HashMap<>();
+  /**
+   * Renames the directory {@code srcInfo} to the directory path {@code dst}, see
+   * {@link #moveObjects}; the full listing is never held in memory. If enabled, progress is
+   * recorded in a journal on the destination directory object, from which an interrupted rename
+   * is completed by the next rename to the same destination, or can be completed or rolled back
+   * with {@link #recoverRename}.
+   */
+  private void renameDirectoryInternal(FileInfo srcInfo, URI dst)
+      throws IOException {
+    StorageResourceId srcResourceId = validatePathAndGetId(srcInfo.getPath(), true);
+    StorageResourceId dstResourceId = validatePathAndGetId(dst, true);
+    checkNotRenamingIntoItself(srcResourceId, dstResourceId);
 
-    if (srcInfo.isDirectory()) {
-      srcItemNames = listFileNames(srcInfo, true);
-
-      // Sort src items so that parent directories appear before their children.
-      // That allows us to copy parent directories before we copy their children.
-      Collections.sort(srcItemNames, pathComparator);
-
-      // Create the destination directory.
-      dst = FileInfo.convertToDirectoryPath(dst);
-      mkdir(dst);
-
-      // Create a list of sub-items to copy.
-      String prefix = srcInfo.getPath().toString();
-      for (URI srcItemName : srcItemNames) {
-        String relativeItemName = srcItemName.toString().substring(prefix.length());
-        URI dstItemName = dst.resolve(relativeItemName);
-        dstItemNames.put(srcItemName, dstItemName);
-      }
+    // Create the destination directory.
+    mkdir(dst);
 
+    RenameJournal journal = null;
+    if (options.isRenameJournalEnabled() && dstResourceId.isStorageObject()) {
+      journal = new RenameJournal(dstResourceId, srcInfo.getPath(), dst);
+      journal.write(null);
+    }
+
+    moveObjects(srcResourceId, dstResourceId, null, journal);
+    deleteRenamedDirectory(srcInfo.getPath());
+
+    if (journal != null) {
+      journal.delete();
+    }
+  }
+
+  /**
+   * Completes or rolls back a directory rename to {@code dst} which was interrupted, using the
+   * journal recorded for it when {@link GoogleCloudStorageFileSystemOptions#isRenameJournalEnabled}
+   * is set. Completing moves the remaining source objects to {@code dst}; rolling back moves
+   * everything already under {@code dst} back to the source and removes {@code dst}.
+   *
+   * @param dst Destination directory of the interrupted rename.
+   * @param rollBack If true, undo the rename; otherwise, finish it.
+   * @return true if a journal was found and recovery performed, false if there was nothing to do.
+   * @throws IOException
+   */
+  public boolean recoverRename(URI dst, boolean rollBack)
+      throws IOException {
+    log.debug("recoverRename(%s, %s)", dst, rollBack);
+    Preconditions.checkNotNull(dst);
+    dst = FileInfo.convertToDirectoryPath(dst);
+    StorageResourceId dstResourceId = validatePathAndGetId(dst, true);
+    if (!dstResourceId.isStorageObject()) {
+      return false;
+    }
+
+    RenameJournal journal = readRenameJournal(dstResourceId);
+    if (journal == null) {
+      return false;
+    }
+    Preconditions.checkState(dst.equals(journal.dst),
+        "Journal for '%s' records a rename to '%s'", dst, journal.dst);
+    recoverRename(journal, rollBack);
+    return true;
+  }
+
+  /**
+   * If a journal records an interrupted rename to the directory {@code dst}, completes that
+   * rename before {@code src} is renamed to {@code dst}.
+   *
+   * @return true if the interrupted rename was of {@code src} to {@code dst}, which is then
+   *     complete, so that a retried rename doesn't move {@code src} into its own partial copy.
+   */
+  private boolean completeInterruptedRename(URI src, URI dst)
+      throws IOException {
+    URI dstDir = FileInfo.convertToDirectoryPath(dst);
+    StorageResourceId dstDirId = validatePathAndGetId(dstDir, true);
+    if (!dstDirId.isStorageObject()) {
+      return false;
+    }
+    RenameJournal journal = readRenameJournal(dstDirId);
+    if (journal == null || !dstDir.equals(journal.dst)) {
+      return false;
+    }
+    log.info("Completing interrupted rename of '%s' to '%s' before renaming '%s'",
+        journal.src, journal.dst, src);
+    recoverRename(journal, false);
+    return journal.src.equals(FileInfo.convertToDirectoryPath(src));
+  }
+
+  /**
+   * Completes or rolls back the rename recorded in {@code journal}, then removes the journal.
+   */
+  private void recoverRename(RenameJournal journal, boolean rollBack)
+      throws IOException {
+    StorageResourceId srcResourceId = validatePathAndGetId(journal.src, true);
+    StorageResourceId dstResourceId = validatePathAndGetId(journal.dst, true);
+    if (rollBack) {
+      log.info("Rolling back rename of '%s' to '%s'", journal.src, journal.dst);
+      // Objects moved back to the source are deleted from dst, so the journal must no longer
+      // claim that a prefix of the source is already present in dst.
+      journal.write(null);
+      mkdir(journal.src);
+      moveObjects(dstResourceId, srcResourceId, null, null);
+      // Deleting the destination directory object also deletes the journal recorded on it.
+      deleteRenamedDirectory(journal.dst);
+    } else {
+      log.info("Completing rename of '%s' to '%s'", journal.src, journal.dst);
+      mkdir(journal.dst);
+      moveObjects(srcResourceId, dstResourceId, journal.copiedThrough, journal);
+      deleteRenamedDirectory(journal.src);
+      journal.delete();
+    }
+  }
+
+  /**
+   * Throws if {@code dst} lies under {@code src}: the objects a rename copies there would be
+   * listed, and moved, again.
+   */
+  private static void checkNotRenamingIntoItself(StorageResourceId src, StorageResourceId dst)
+      throws IOException {
+    if (src.getBucketName().equals(dst.getBucketName())
+        && (src.isBucket()
+            || (dst.isStorageObject() && dst.getObjectName().startsWith(src.getObjectName())))) {
+      throw new IOException(String.format(
+          "Cannot rename '%s' to its own subdirectory '%s'", src, dst));
+    }
+  }
+
+  /**
+   * Deletes the (by now empty) source directory of a rename, or its bucket.
+   */
+  private void deleteRenamedDirectory(URI dirPath)
+      throws IOException {
+    List<URI> srcItemNames = new ArrayList<>();
+    List<URI> bucketsToDelete = new ArrayList<>();
+    if (validatePathAndGetId(dirPath, true).isBucket()) {
+      bucketsToDelete.add(dirPath);
     } else {
-      srcItemNames.add(srcInfo.getPath());
-      dstItemNames.put(srcInfo.getPath(), dst);
+      srcItemNames.add(dirPath);
+    }
+    deleteInternal(srcItemNames, bucketsToDelete);
+  }
+
+  /**
+   * Moves every object under the directory {@code srcDir} to the same relative name under
+   * {@code dstDir}, which must already exist; the directory object of {@code srcDir} itself is
+   * neither copied nor deleted. The source is listed and copied one page at a time, and the
+   * deletion of exactly the objects each page copied, at their listed generations, is handed to
+   * {@link #deleteExecutor} while the next page is listed and copied; the source is never listed
+   * again to decide what to delete, so objects created under it during the move are left alone.
+   * Directory objects are collected from every page and deleted last, see
+   * {@link #deleteDirectoryObjects}.
+   *
+   * @param copiedThrough If non-null, source objects whose names sort at or before it are known to
+   *     have been copied already and are only deleted.
+   * @param journal If non-null, updated after each page is copied.
+   */
+  private void moveObjects(StorageResourceId srcDir, StorageResourceId dstDir,
+      String copiedThrough, RenameJournal journal)
+      throws IOException {
+    String srcBucketName = srcDir.getBucketName();
+    String dstBucketName = dstDir.getBucketName();
+    String srcPrefix = srcDir.isStorageObject() ? srcDir.getObjectName() : "";
+    String dstPrefix = dstDir.isStorageObject() ? dstDir.getObjectName() : "";
+
+    Deque<Future<Void>> pendingDeletes = new ArrayDeque<>();
+    List<StorageResourceId> directoriesToDelete = new ArrayList<>();
+    List<Long> directoryGenerationsToDelete = new ArrayList<>();
+    long objectsMoved = 0;
+    boolean succeeded = false;
+    try {
+      String pageToken = null;
+      do {
+        ListPage<GoogleCloudStorageItemInfo> page = gcs.listObjectInfoPage(
+            srcBucketName, Strings.emptyToNull(srcPrefix), null, pageToken);
+        pageToken = page.getNextPageToken();
+        List<GoogleCloudStorageItemInfo> srcInfos = page.getItems();
+        if (srcInfos.isEmpty()) {
+          continue;
+        }
+
+        List<String> srcObjectNamesToCopy = new ArrayList<>(srcInfos.size());
+        List<String> dstObjectNamesToCopy = new ArrayList<>(srcInfos.size());
+        List<URI> destinationUris = new ArrayList<>(srcInfos.size());
+        List<StorageResourceId> objectsToDelete = new ArrayList<>(srcInfos.size());
+        List<Long> generationsToDelete = new ArrayList<>(srcInfos.size());
+        for (GoogleCloudStorageItemInfo srcInfo : srcInfos) {
+          String srcObjectName = srcInfo.getObjectName();
+          if (srcObjectName.equals(srcPrefix)) {
+            // The destination directory object already exists, and may hold the journal.
+            continue;
+          }
+          String dstObjectName = dstPrefix + srcObjectName.substring(srcPrefix.length());
+          if (copiedThrough == null || srcObjectName.compareTo(copiedThrough) > 0) {
+            srcObjectNamesToCopy.add(srcObjectName);
+            dstObjectNamesToCopy.add(dstObjectName);
+          }
+          destinationUris.add(getPath(dstBucketName, dstObjectName));
+
+          if (srcInfo.getResourceId().isDirectory()) {
+            directoriesToDelete.add(srcInfo.getResourceId());
+            directoryGenerationsToDelete.add(getListedGeneration(srcInfo));
+          } else {
+            objectsToDelete.add(srcInfo.getResourceId());
+            generationsToDelete.add(getListedGeneration(srcInfo));
+          }
+        }
+
+        if (!srcObjectNamesToCopy.isEmpty()) {
+          gcs.copy(srcBucketName, srcObjectNamesToCopy, dstBucketName, dstObjectNamesToCopy);
+          tryUpdateTimestampsForParentDirectories(destinationUris, destinationUris);
+        }
+        if (journal != null) {
+          journal.write(srcInfos.get(srcInfos.size() - 1).getObjectName());
+        }
+        submitDelete(pendingDeletes, objectsToDelete, generationsToDelete);
+
+        objectsMoved += srcInfos.size();
+        if (pageToken != null) {
+          log.info("Moved %d objects from '%s' to '%s' so far", objectsMoved, srcDir, dstDir);
+        }
+      } while (pageToken != null);
+
+      awaitDeletes(pendingDeletes, 0);
+      succeeded = true;
+    } finally {
+      if (!succeeded) {
+        awaitDeletesQuietly(pendingDeletes);
+      }
     }
-    Preconditions.checkState(srcItemNames.size() == dstItemNames.size(),
-        "srcItemNames.size() != dstItemNames.size(), '%s' vs '%s'", srcItemNames, dstItemNames);
+    deleteDirectoryObjects(directoriesToDelete, directoryGenerationsToDelete);
+  }
+
+  /**
+   * Deletes every object under the directory {@code dir}, but not {@code dir} itself. The
+   * directory is listed one page at a time, and each page's deletion is handed to
+   * {@link #deleteExecutor} while the next page is listed, so memory use does not grow with the
+   * size of the tree. Directory objects are collected from every page and deleted last, see
+   * {@link #deleteDirectoryObjects}; only they are held in memory, and they are usually few
+   * compared to the objects they contain.
+   */
+  private void deleteObjectsUnder(StorageResourceId dir)
+      throws IOException {
+    String bucketName = dir.getBucketName();
+    String prefix = dir.isStorageObject() ? dir.getObjectName() : null;
+
+    Deque<Future<Void>> pendingDeletes = new ArrayDeque<>();
+    List<StorageResourceId> directoriesToDelete = new ArrayList<>();
+    List<Long> directoryGenerationsToDelete = new ArrayList<>();
+    long objectsDeleted = 0;
+    boolean succeeded = false;
+    try {
+      String pageToken = null;
+      do {
+        ListPage<GoogleCloudStorageItemInfo> page =
+            gcs.listObjectInfoPage(bucketName, prefix, null, pageToken);
+        pageToken = page.getNextPageToken();
+
+        List<StorageResourceId> objectsToDelete = new ArrayList<>(page.getItems().size());
+        List<Long> generationsToDelete = new ArrayList<>(page.getItems().size());
+        for (GoogleCloudStorageItemInfo info : page.getItems()) {
+          if (info.getResourceId().isDirectory()) {
+            directoriesToDelete.add(info.getResourceId());
+            directoryGenerationsToDelete.add(getListedGeneration(info));
+          } else {
+            objectsToDelete.add(info.getResourceId());
+            generationsToDelete.add(getListedGeneration(info));
+          }
+        }
+        submitDelete(pendingDeletes, objectsToDelete, generationsToDelete);
 
-    if (srcItemNames.size() > 0) {
+        objectsDeleted += objectsToDelete.size();
+        if (pageToken != null) {
+          log.info("Deleted %d objects under '%s' so far", objectsDeleted, dir);
+        }
+      } while (pageToken != null);
 
-      String srcBucketName = null;
-      String dstBucketName = null;
-      List<String> srcObjectNames = new ArrayList<>();
-      List<String> dstObjectNames = new ArrayList<>();
+      awaitDeletes(pendingDeletes, 0);
+      succeeded = true;
+    } finally {
+      if (!succeeded) {
+        awaitDeletesQuietly(pendingDeletes);
+      }
+    }
+    deleteDirectoryObjects(directoriesToDelete, directoryGenerationsToDelete);
+  }
 
-      // Prepare list of items to copy.
-      for (URI srcItemName : srcItemNames) {
-        StorageResourceId resourceId;
+  /**
+   * Deletes the directory objects {@code directories}, listed in sorted order under a directory
+   * whose other objects are gone, at their listed {@code generations}. They are deleted children
+   * first, so an interrupted delete does not leave objects whose parent directory objects were
+   * deleted before them.
+   */
+  private void deleteDirectoryObjects(List<StorageResourceId> directories, List<Long> generations)
+      throws IOException {
+    if (directories.isEmpty()) {
+      return;
+    }
+    // Names are listed in sorted order, in which children follow their parents.
+    List<StorageResourceId> directoriesToDelete = Lists.reverse(directories);
+    List<Long> generationsToDelete = Lists.reverse(generations);
+    gcs.deleteObjects(directoriesToDelete, generationsToDelete);
+    deletedObjectCount.addAndGet(directoriesToDelete.size());
+  }
 
-        resourceId = validatePathAndGetId(srcItemName, true);
-        srcBucketName = resourceId.getBucketName();
-        String srcObjectName = resourceId.getObjectName();
-        srcObjectNames.add(srcObjectName);
+  /**
+   * Returns the number of objects deleted so far by recursive deletes and directory renames.
+   */
+  public long getDeletedObjectCount() {
+    return deletedObjectCount.get();
+  }
 
-        resourceId = validatePathAndGetId(dstItemNames.get(srcItemName), true);
-        dstBucketName = resourceId.getBucketName();
-        String dstObjectName = resourceId.getObjectName();
-        dstObjectNames.add(dstObjectName);
+  /**
+   * Returns the number of listing pages whose objects have been deleted so far by recursive
+   * deletes and directory renames.
+   */
+  public long getDeletedPageCount() {
+    return deletedPageCount.get();
+  }
+
+  /**
+   * Returns the generation of a listed object with which to delete it, or null if the listing
+   * did not report one.
+   */
+  private static Long getListedGeneration(GoogleCloudStorageItemInfo info) {
+    return info.getContentGeneration() != 0 ? info.getContentGeneration() : null;
+  }
+
+  /**
+   * Submits the deletion of {@code objects} at their listed {@code generations} to
+   * {@link #deleteExecutor}, then waits until at most {@link #MAX_PENDING_DELETES} submitted
+   * deletions are outstanding.
+   */
+  private void submitDelete(Deque<Future<Void>> pendingDeletes,
+      final List<StorageResourceId> objects, final List<Long> generations)
+      throws IOException {
+    if (objects.isEmpty()) {
+      return;
+    }
+    pendingDeletes.add(deleteExecutor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        gcs.deleteObjects(objects, generations);
+        deletedObjectCount.addAndGet(objects.size());
+        deletedPageCount.incrementAndGet();
+        return null;
       }
+    }));
+    awaitDeletes(pendingDeletes, MAX_PENDING_DELETES);
+  }
 
-      // Perform copy.
-      gcs.copy(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames);
+  /**
+   * Waits for the oldest of {@code pendingDeletes} until at most {@code maxPending} remain,
+   * rethrowing the first failure.
+   */
+  private static void awaitDeletes(Deque<Future<Void>> pendingDeletes, int maxPending)
+      throws IOException {
+    while (pendingDeletes.size() > maxPending) {
+      try {
+        pendingDeletes.remove().get();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted awaiting delete", ie);
+      } catch (ExecutionException ee) {
+        if (ee.getCause() instanceof IOException) {
+          throw (IOException) ee.getCause();
+        }
+        throw new IOException(ee.getCause());
+      }
+    }
+  }
 
-      // So far, only the destination directories are updated. Only do those now:
-      List<URI> destinationUris = new ArrayList<>(dstObjectNames.size());
-      for (String dstObjectName : dstObjectNames) {
-        destinationUris.add(getPath(dstBucketName, dstObjectName));
+  /**
+   * After an earlier failure, lets deletes of pages already dealt with finish so the caller sees
+   * a settled state, logging rather than throwing their failures.
+   */
+  private static void awaitDeletesQuietly(Deque<Future<Void>> pendingDeletes) {
+    while (!pendingDeletes.isEmpty()) {
+      try {
+        awaitDeletes(pendingDeletes, pendingDeletes.size() - 1);
+      } catch (IOException ioe) {
+        log.debug("Delete failed after an earlier failure", ioe);
       }
-      tryUpdateTimestampsForParentDirectories(destinationUris, destinationUris);
     }
+  }
 
-    List<URI> bucketsToDelete = new ArrayList<>();
+  /**
+   * Reads the rename journal recorded on the directory object {@code dstDirId}, or returns null
+   * if there is none.
+   */
+  private RenameJournal readRenameJournal(StorageResourceId dstDirId)
+      throws IOException {
+    GoogleCloudStorageItemInfo dstDirInfo = gcs.getItemInfo(dstDirId);
+    byte[] journalBytes = dstDirInfo.exists() && dstDirInfo.getMetadata() != null
+        ? dstDirInfo.getMetadata().get(RENAME_JOURNAL_METADATA_KEY)
+        : null;
+    if (journalBytes == null) {
+      return null;
+    }
+    Properties properties = new Properties();
+    try (InputStream in = new ByteArrayInputStream(journalBytes)) {
+      properties.load(in);
+    }
+    String src = properties.getProperty(RenameJournal.SRC_KEY);
+    String dst = properties.getProperty(RenameJournal.DST_KEY);
+    if (src == null || dst == null) {
+      throw new IOException("Malformed rename journal on " + dstDirId);
+    }
+    RenameJournal journal = new RenameJournal(dstDirId, URI.create(src), URI.create(dst));
+    journal.copiedThrough = properties.getProperty(RenameJournal.COPIED_THROUGH_KEY);
+    return journal;
+  }
 
-    if (srcInfo.isDirectory()) {
-      if (srcInfo.getItemInfo().isBucket()) {
-        bucketsToDelete.add(srcInfo.getPath());
-      } else {
-        // If src is a directory then srcItemNames does not contain its own name,
-        // therefore add it to the list before we delete items in the list.
-        srcItemNames.add(srcInfo.getPath());
+  /**
+   * Progress of a directory rename, persisted in properties format in the metadata of the
+   * destination directory object: the source and destination directories, and the last source
+   * object name known to be copied.
+   */
+  private class RenameJournal {
+    private static final String SRC_KEY = "src";
+    private static final String DST_KEY = "dst";
+    private static final String COPIED_THROUGH_KEY = "copiedThrough";
+
+    private final StorageResourceId dstDirId;
+    final URI src;
+    final URI dst;
+    String copiedThrough;
+
+    RenameJournal(StorageResourceId dstDirId, URI src, URI dst) {
+      this.dstDirId = dstDirId;
+      this.src = src;
+      this.dst = dst;
+    }
+
+    void write(String copiedThrough)
+        throws IOException {
+      Properties properties = new Properties();
+      properties.setProperty(SRC_KEY, src.toString());
+      properties.setProperty(DST_KEY, dst.toString());
+      if (copiedThrough != null) {
+        properties.setProperty(COPIED_THROUGH_KEY, copiedThrough);
       }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      properties.store(out, null);
+      updateJournalMetadata(out.toByteArray());
+      this.copiedThrough = copiedThrough;
     }
 
-    // Delete the items we successfully copied.
-    deleteInternal(srcItemNames, bucketsToDelete);
+    void delete()
+        throws IOException {
+      updateJournalMetadata(null);
+    }
+
+    /**
+     * Sets the journal metadata of the destination directory object, or removes it if
+     * {@code journalBytes} is null.
+     */
+    private void updateJournalMetadata(byte[] journalBytes)
+        throws IOException {
+      Map<String, byte[]> metadata =
+          Collections.singletonMap(RENAME_JOURNAL_METADATA_KEY, journalBytes);
+      gcs.updateItems(ImmutableList.of(new UpdatableItemInfo(dstDirId, metadata)));
+    }
   }
 
   /**
@@ -930,6 +1421,47 @@ public class GoogleCloudStorageFileSystem {
     return fileInfos;
   }
 
+  /**
+   * Same as {@link #listAllFileInfoForPrefix}, except that objects are listed one page at a time
+   * as the returned iterator is consumed, as in listAllFileInfoIterator, and are returned in the
+   * lexicographic order of their object names rather than sorted by fileInfoPathComparator.
+   *
+   * @param prefix the prefix to use to list all matching objects.
+   */
+  public PrefetchingPageIterator<FileInfo> listAllFileInfoForPrefixIterator(URI prefix)
+      throws IOException {
+    return listAllFileInfoForPrefixIterator(prefix, null, null);
+  }
+
+  /**
+   * Same as {@link #listAllFileInfoForPrefixIterator(URI)}, except that only objects whose names
+   * lie in the lexicographic range from {@code startOffset}, inclusive, to {@code endOffset},
+   * exclusive, are listed, so that a listing of a narrow range of names under a broad prefix
+   * doesn't page through every other object under it.
+   *
+   * @param prefix the prefix to use to list all matching objects.
+   * @param startOffset the lowest object name to list, or null for no lower bound.
+   * @param endOffset the object name above every object to list, or null for no upper bound.
+   */
+  public PrefetchingPageIterator<FileInfo> listAllFileInfoForPrefixIterator(
+      URI prefix, final String startOffset, final String endOffset)
+      throws IOException {
+    log.debug("listAllFileInfoForPrefixIterator(%s, %s, %s)", prefix, startOffset, endOffset);
+    Preconditions.checkNotNull(prefix);
+
+    final StorageResourceId prefixId = validatePathAndGetId(prefix, true);
+    Preconditions.checkState(
+        !prefixId.isRoot(), "Prefix must not be global root, got '%s'", prefix);
+    return new PrefetchingPageIterator<FileInfo>(
+        listAllFileInfoPage(prefixId, startOffset, endOffset, null), listPrefetchExecutor) {
+      @Override
+      protected ListPage<FileInfo> fetchPage(String pageToken)
+          throws IOException {
+        return listAllFileInfoPage(prefixId, startOffset, endOffset, pageToken);
+      }
+    };
+  }
+
   /**
    * If the given path points to a directory then the information about its
    * children is returned, otherwise information about the given file is returned.
@@ -940,6 +1472,10 @@ public class GoogleCloudStorageFileSystem {
    * {@link GoogleCloudStorageFileSystem#listFileNames(FileInfo)} if you only need
    * names of children and no other attributes.
    *
+   * If listing before stat is enabled, the children of path are listed first, and path itself
+   * is only looked up if it has none; a non-empty directory thus costs one request fewer, but
+   * shadows a file of the same name and, if implicit, is not itself repaired.
+   *
    * @param path Given path.
    * @param enableAutoRepair if true, attempt to repair implicit directories when detected.
    * @return Information about a file or children of a directory.
@@ -951,17 +1487,391 @@ public class GoogleCloudStorageFileSystem {
     log.debug("listFileInfo(%s, %s)", path, enableAutoRepair);
     Preconditions.checkNotNull(path);
 
+    StorageResourceId dirId = null;
+    if (options.isListBeforeStatEnabled() && !path.equals(GCS_ROOT)) {
+      // A directory with children exists, so list it straight away and only look for the file
+      // or empty directory at path if there are none.
+      dirId = FileInfo.convertToDirectoryPath(validatePathAndGetId(path, true));
+      List<FileInfo> fileInfos = FileInfo.fromItemInfos(gcs.listObjectInfo(
+          dirId.getBucketName(), dirId.getObjectName(), GoogleCloudStorage.PATH_DELIMITER));
+      if (!fileInfos.isEmpty()) {
+        Collections.sort(fileInfos, fileInfoPathComparator);
+        return fileInfos;
+      }
+    }
+
+    FileInfo pathInfo = getListedPathInfo(path, enableAutoRepair);
+    if (!pathInfo.isDirectory()) {
+      List<FileInfo> listedInfo = new ArrayList<>();
+      listedInfo.add(pathInfo);
+      return listedInfo;
+    }
+
+    List<GoogleCloudStorageItemInfo> itemInfos;
+    if (pathInfo.isGlobalRoot()) {
+      itemInfos = gcs.listBucketInfo();
+    } else if (pathInfo.getItemInfo().getResourceId().equals(dirId)) {
+      // Already listed above, and empty.
+      return new ArrayList<>();
+    } else {
+      itemInfos = gcs.listObjectInfo(
+          pathInfo.getItemInfo().getBucketName(),
+          pathInfo.getItemInfo().getObjectName(),
+          GoogleCloudStorage.PATH_DELIMITER);
+    }
+    List<FileInfo> fileInfos = FileInfo.fromItemInfos(itemInfos);
+    Collections.sort(fileInfos, fileInfoPathComparator);
+    return fileInfos;
+  }
+
+  /**
+   * Same as {@link #listFileInfo}, except that a directory's children are listed one page at a
+   * time as the returned iterator is consumed, with the following page fetched in the background.
+   * The first page is listed before this method returns. Children of a directory are returned in
+   * the lexicographic order of their object names rather than sorted by fileInfoPathComparator.
+   *
+   * @param path Given path.
+   * @param enableAutoRepair if true, attempt to repair implicit directories when detected.
+   * @return Iterator over information about a file or children of a directory.
+   * @throws FileNotFoundException if the given path does not exist.
+   * @throws IOException
+   */
+  public PrefetchingPageIterator<FileInfo> listFileInfoIterator(
+      URI path, boolean enableAutoRepair)
+      throws IOException {
+    log.debug("listFileInfoIterator(%s, %s)", path, enableAutoRepair);
+    Preconditions.checkNotNull(path);
+
+    if (options.isListBeforeStatEnabled() && !path.equals(GCS_ROOT)) {
+      // As in listFileInfo, look for the file or empty directory at path only if the first page
+      // of its children is empty.
+      final StorageResourceId dirId =
+          FileInfo.convertToDirectoryPath(validatePathAndGetId(path, true));
+      ListPage<FileInfo> firstPage = listDirectoryInfoPage(dirId, null);
+      if (!firstPage.getItems().isEmpty() || firstPage.getNextPageToken() != null) {
+        return new PrefetchingPageIterator<FileInfo>(firstPage, listPrefetchExecutor) {
+          @Override
+          protected ListPage<FileInfo> fetchPage(String pageToken)
+              throws IOException {
+            return listDirectoryInfoPage(dirId, pageToken);
+          }
+        };
+      }
+    }
+
+    FileInfo pathInfo = getListedPathInfo(path, enableAutoRepair);
+    ListPage<FileInfo> firstPage;
+    if (!pathInfo.isDirectory()) {
+      firstPage = new ListPage<>(ImmutableList.of(pathInfo), null);
+    } else if (pathInfo.isGlobalRoot()) {
+      List<FileInfo> bucketInfos = FileInfo.fromItemInfos(gcs.listBucketInfo());
+      Collections.sort(bucketInfos, fileInfoPathComparator);
+      firstPage = new ListPage<>(bucketInfos, null);
+    } else {
+      firstPage = listDirectoryInfoPage(pathInfo.getItemInfo().getResourceId(), null);
+    }
+
+    final StorageResourceId dirId = pathInfo.getItemInfo().getResourceId();
+    return new PrefetchingPageIterator<FileInfo>(firstPage, listPrefetchExecutor) {
+      @Override
+      protected ListPage<FileInfo> fetchPage(String pageToken)
+          throws IOException {
+        return listDirectoryInfoPage(dirId, pageToken);
+      }
+    };
+  }
+
+  /**
+   * Lists every object under the bucket or directory {@code path} with a single flat listing
+   * without delimiter, in the manner of listAllFileInfoForPrefix, instead of listing each
+   * directory of the tree in turn. Objects are listed one page at a time as in
+   * listFileInfoIterator, in the lexicographic order of their object names, and include directory
+   * objects. If {@code path} is a file, only the file is listed. As with listAllFileInfoForPrefix,
+   * implicit directories are not repaired, but are listed as long as they contain objects.
+   *
+   * @param path Given path, other than the global root.
+   * @return Iterator over information about a file or all objects under a directory.
+   * @throws FileNotFoundException if nothing exists at or under the given path.
+   * @throws IOException
+   */
+  public PrefetchingPageIterator<FileInfo> listAllFileInfoIterator(URI path)
+      throws IOException {
+    log.debug("listAllFileInfoIterator(%s)", path);
+    return Iterables.getOnlyElement(startAllFileInfoListing(path, false));
+  }
+
+  /**
+   * Same as {@link #listAllFileInfoIterator}, except that if the listing is split into shards,
+   * an iterator over each shard is returned rather than a single iterator over all of them. The
+   * shards list contiguous ranges of the listing in ascending order, so that consumers which
+   * don't need the whole listing in order can consume them concurrently. A listing which isn't
+   * split is returned as a single iterator. Every iterator must be either consumed or closed.
+   *
+   * @param path Given path, other than the global root.
+   * @return Iterators over the shards of the listing of a file or all objects under a directory.
+   * @throws FileNotFoundException if nothing exists at or under the given path.
+   * @throws IOException
+   */
+  public List<PrefetchingPageIterator<FileInfo>> listAllFileInfoShardIterators(URI path)
+      throws IOException {
+    log.debug("listAllFileInfoShardIterators(%s)", path);
+    return startAllFileInfoListing(path, true);
+  }
+
+  /**
+   * Starts the listing of listAllFileInfoIterator, returning either a single iterator over the
+   * whole listing or, if {@code iteratorPerShard} is true, an iterator over each of its shards.
+   * <p>
+   * If options.getListShards() is greater than 1 and a directory has more than one page of
+   * objects, the listing is split into that many shards. The first page serves as a sample of the
+   * names in the directory, from which getListShardOffsets() picks where to split the rest of the
+   * key space. The first shard continues the listing from the first page, while each other shard
+   * lists its key range with a listing bounded by offsets.
+   */
+  private List<PrefetchingPageIterator<FileInfo>> startAllFileInfoListing(
+      URI path, boolean iteratorPerShard)
+      throws IOException {
+    Preconditions.checkNotNull(path);
+    Preconditions.checkArgument(!path.equals(GCS_ROOT), "Cannot list all objects under root path.");
+
+    FileInfo pathInfo = getFileInfo(path);
+    if (pathInfo.exists() && !pathInfo.isDirectory()) {
+      PrefetchingPageIterator<FileInfo> fileInfos = new PrefetchingPageIterator<FileInfo>(
+          new ListPage<>(ImmutableList.of(pathInfo), null), listPrefetchExecutor) {
+        @Override
+        protected ListPage<FileInfo> fetchPage(String pageToken) {
+          throw new IllegalStateException("A single file has no following pages");
+        }
+      };
+      return ImmutableList.of(fileInfos);
+    }
+
+    final StorageResourceId dirId =
+        FileInfo.convertToDirectoryPath(validatePathAndGetId(path, true));
+    ListPage<FileInfo> firstPage = listAllFileInfoPage(dirId, null);
+    if (!pathInfo.exists()
+        && firstPage.getItems().isEmpty() && firstPage.getNextPageToken() == null) {
+      throw getFileNotFoundException(path);
+    }
+
+    List<String> shardOffsets = ImmutableList.of();
+    if (options.getListShards() > 1 && firstPage.getNextPageToken() != null) {
+      List<String> sampleNames = new ArrayList<>(firstPage.getItems().size());
+      for (FileInfo fileInfo : firstPage.getItems()) {
+        sampleNames.add(fileInfo.getItemInfo().getObjectName());
+      }
+      shardOffsets = getListShardOffsets(Strings.nullToEmpty(dirId.getObjectName()),
+          sampleNames, options.getListShardAlphabet(), options.getListShards());
+    }
+    if (shardOffsets.isEmpty()) {
+      PrefetchingPageIterator<FileInfo> fileInfos =
+          new PrefetchingPageIterator<FileInfo>(firstPage, listPrefetchExecutor) {
+            @Override
+            protected ListPage<FileInfo> fetchPage(String pageToken)
+                throws IOException {
+              return listAllFileInfoPage(dirId, pageToken);
+            }
+          };
+      return ImmutableList.of(fileInfos);
+    }
+
+    ShardedPageListing<FileInfo> listing =
+        startShardedAllFileInfoListing(dirId, firstPage, shardOffsets);
+    if (!iteratorPerShard) {
+      return ImmutableList.of(listing.iterator(listPrefetchExecutor));
+    }
+    List<PrefetchingPageIterator<FileInfo>> shardFileInfos = new ArrayList<>();
+    for (int shard = 0; shard < listing.getShardCount(); ++shard) {
+      shardFileInfos.add(listing.shardIterator(shard, listPrefetchExecutor));
+    }
+    return shardFileInfos;
+  }
+
+  /**
+   * Returns the object names at which a flat listing of the objects whose names start with
+   * {@code prefix} is split into at most {@code shardCount} shards, in ascending order; each
+   * name is the start of one shard after the first, and the end of the shard before it. Returns
+   * an empty list if the listing can't be split.
+   * <p>
+   * {@code sampleNames}, the sorted names of the first page of the listing, show where the rest
+   * of the names are likely to be. Names sharing a longer prefix than {@code prefix}, such as
+   * the "part-00000" to "part-00999" of a directory of "part-00000" to "part-99999", are split
+   * after their longest common prefix, less any trailing characters which are of the same kind
+   * as those following it: here after "part-", since its common "00" is the start of a counter
+   * whose next digits vary. The split characters are those of {@code alphabet}, or only its
+   * digits if the sample varies only in digits there, and enough of them are appended for there
+   * to be several candidate offsets per shard after the last sampled name, among which the
+   * offsets are spread evenly.
+   */
+  @VisibleForTesting
+  static List<String> getListShardOffsets(
+      String prefix, List<String> sampleNames, String alphabet, int shardCount) {
+    // Only names under the prefix, other than the prefix itself, say anything about the rest.
+    List<String> names = new ArrayList<>();
+    for (String name : sampleNames) {
+      if (name.length() > prefix.length() && name.startsWith(prefix)) {
+        names.add(name);
+      }
+    }
+    String lastListedName = names.isEmpty() ? prefix : names.get(names.size() - 1);
+    String commonPrefix = names.size() < 2
+        ? prefix
+        : Strings.commonPrefix(names.get(0), lastListedName);
+
+    // The characters at which the sample varies decide which characters to split at.
+    char[] alphabetChars = alphabet.toCharArray();
+    Arrays.sort(alphabetChars);
+    boolean onlyDigitsVary = false;
+    for (String name : names) {
+      if (name.length() > commonPrefix.length()) {
+        char variedChar = name.charAt(commonPrefix.length());
+        onlyDigitsVary = variedChar >= '0' && variedChar <= '9';
+        if (!onlyDigitsVary) {
+          break;
+        }
+      }
+    }
+    StringBuilder splitChars = new StringBuilder();
+    for (char alphabetChar : alphabetChars) {
+      if ((!onlyDigitsVary || (alphabetChar >= '0' && alphabetChar <= '9'))
+          && (splitChars.length() == 0
+              || splitChars.charAt(splitChars.length() - 1) != alphabetChar)) {
+        splitChars.append(alphabetChar);
+      }
+    }
+    if (splitChars.length() == 0) {
+      return new ArrayList<>();
+    }
+
+    // Back up over the trailing split characters of the common prefix, which are likely the
+    // leading characters of names which vary beyond the sample.
+    int splitDepth = commonPrefix.length();
+    while (splitDepth > prefix.length()
+        && splitChars.indexOf(String.valueOf(commonPrefix.charAt(splitDepth - 1))) >= 0) {
+      --splitDepth;
+    }
+    String splitPrefix = commonPrefix.substring(0, splitDepth);
+
+    // Append split characters until there are several candidates per shard.
+    List<String> candidateOffsets = new ArrayList<>();
+    List<String> suffixes = ImmutableList.of("");
+    while (candidateOffsets.size() < MIN_LIST_SHARD_CANDIDATES_PER_SHARD * shardCount
+        && suffixes.size() * splitChars.length() <= MAX_LIST_SHARD_CANDIDATES) {
+      List<String> longerSuffixes = new ArrayList<>(suffixes.size() * splitChars.length());
+      for (String suffix : suffixes) {
+        for (int i = 0; i < splitChars.length(); ++i) {
+          longerSuffixes.add(suffix + splitChars.charAt(i));
+        }
+      }
+      suffixes = longerSuffixes;
+      candidateOffsets.clear();
+      for (String suffix : suffixes) {
+        String offset = splitPrefix + suffix;
+        if (offset.compareTo(lastListedName) > 0) {
+          candidateOffsets.add(offset);
+        }
+      }
+    }
+
+    List<String> shardOffsets = new ArrayList<>();
+    if (candidateOffsets.isEmpty()) {
+      return shardOffsets;
+    }
+    for (int shard = 1; shard < shardCount; ++shard) {
+      String offset = candidateOffsets.get(shard * candidateOffsets.size() / shardCount);
+      if (shardOffsets.isEmpty() || !offset.equals(shardOffsets.get(shardOffsets.size() - 1))) {
+        shardOffsets.add(offset);
+      }
+    }
+    return shardOffsets;
+  }
+
+  /**
+   * Starts a listing of all objects under {@code dirId} split at {@code shardOffsets}, of which
+   * {@code firstPage} is the first page.
+   */
+  private ShardedPageListing<FileInfo> startShardedAllFileInfoListing(
+      final StorageResourceId dirId, ListPage<FileInfo> firstPage,
+      final List<String> shardOffsets) {
+    log.debug("Listing %s in %d shards split at %s", dirId, shardOffsets.size() + 1, shardOffsets);
+    return new ShardedPageListing<FileInfo>(firstPage, shardOffsets.size() + 1,
+        MAX_BUFFERED_LIST_PAGES_PER_SHARD, LIST_SHARD_PARK_TIMEOUT_MILLIS, listPrefetchExecutor) {
+      @Override
+      protected ListPage<FileInfo> fetchPage(int shard, String pageToken)
+          throws IOException {
+        if (shard == 0) {
+          // The first shard continues the unbounded listing of the first page, which it ends
+          // where the second shard starts.
+          ListPage<FileInfo> page = listAllFileInfoPage(dirId, pageToken);
+          List<FileInfo> pageItems = new ArrayList<>();
+          for (FileInfo fileInfo : page.getItems()) {
+            if (fileInfo.getItemInfo().getObjectName().compareTo(shardOffsets.get(0)) >= 0) {
+              return new ListPage<>(pageItems, null);
+            }
+            pageItems.add(fileInfo);
+          }
+          return page;
+        }
+        String endOffset = shard < shardOffsets.size() ? shardOffsets.get(shard) : null;
+        return listAllFileInfoPage(dirId, shardOffsets.get(shard - 1), endOffset, pageToken);
+      }
+    };
+  }
+
+  /**
+   * Lists the page {@code pageToken} of all objects whose names start with the object name of
+   * {@code dirId}, or of all objects in its bucket.
+   */
+  private ListPage<FileInfo> listAllFileInfoPage(StorageResourceId dirId, String pageToken)
+      throws IOException {
+    // Use 'null' for delimiter to get full 'recursive' listing.
+    ListPage<GoogleCloudStorageItemInfo> page = gcs.listObjectInfoPage(
+        dirId.getBucketName(), dirId.getObjectName(), null, pageToken);
+    return new ListPage<>(FileInfo.fromItemInfos(page.getItems()), page.getNextPageToken());
+  }
+
+  /**
+   * Same as {@link #listAllFileInfoPage(StorageResourceId, String)}, bounded to the objects whose
+   * names lie in the range from {@code startOffset} to {@code endOffset}.
+   */
+  private ListPage<FileInfo> listAllFileInfoPage(StorageResourceId dirId, String startOffset,
+      String endOffset, String pageToken)
+      throws IOException {
+    // Use 'null' for delimiter to get full 'recursive' listing.
+    ListPage<GoogleCloudStorageItemInfo> page = gcs.listObjectInfoPage(dirId.getBucketName(),
+        dirId.getObjectName(), null, startOffset, endOffset, pageToken);
+    return new ListPage<>(FileInfo.fromItemInfos(page.getItems()), page.getNextPageToken());
+  }
+
+  /**
+   * Lists the page {@code pageToken} of the children of the bucket or directory {@code dirId}.
+   */
+  private ListPage<FileInfo> listDirectoryInfoPage(StorageResourceId dirId, String pageToken)
+      throws IOException {
+    ListPage<GoogleCloudStorageItemInfo> page = gcs.listObjectInfoPage(
+        dirId.getBucketName(), dirId.getObjectName(), GoogleCloudStorage.PATH_DELIMITER,
+        pageToken);
+    return new ListPage<>(FileInfo.fromItemInfos(page.getItems()), page.getNextPageToken());
+  }
+
+  /**
+   * Returns the info of the file at {@code path} if it is one, else of the directory at
+   * {@code path} whose children are to be listed, repairing or inferring an implicit directory
+   * as configured.
+   *
+   * @throws FileNotFoundException if the given path does not exist.
+   */
+  private FileInfo getListedPathInfo(URI path, boolean enableAutoRepair)
+      throws IOException {
     URI dirPath = FileInfo.convertToDirectoryPath(path);
     List<FileInfo> baseAndDirInfos = getFileInfosRaw(ImmutableList.of(path, dirPath));
     Preconditions.checkState(
         baseAndDirInfos.size() == 2, "Expected baseAndDirInfos.size() == 2, got %s",
         baseAndDirInfos.size());
 
-    // If the non-directory object exists, return a single-element list directly.
+    // If the non-directory object exists, it is listed by itself.
     if (!baseAndDirInfos.get(0).isDirectory() && baseAndDirInfos.get(0).exists()) {
-      List<FileInfo> listedInfo = new ArrayList<>();
-      listedInfo.add(baseAndDirInfos.get(0));
-      return listedInfo;
+      return baseAndDirInfos.get(0);
     }
 
     // The second element is definitely a directory-path FileInfo.
@@ -982,24 +1892,16 @@ public class GoogleCloudStorageFileSystem {
     if (!dirInfo.exists()) {
       throw getFileNotFoundException(path);
     }
-
-    List<GoogleCloudStorageItemInfo> itemInfos;
-    if (dirInfo.isGlobalRoot()) {
-      itemInfos = gcs.listBucketInfo();
-    } else {
-      itemInfos = gcs.listObjectInfo(
-          dirInfo.getItemInfo().getBucketName(),
-          dirInfo.getItemInfo().getObjectName(),
-          GoogleCloudStorage.PATH_DELIMITER);
-    }
-    List<FileInfo> fileInfos = FileInfo.fromItemInfos(itemInfos);
-    Collections.sort(fileInfos, fileInfoPathComparator);
-    return fileInfos;
+    return dirInfo;
   }
 
   /**
    * Gets information about the given path item.
    *
+   * The file and the directory of the same name are looked up in one batch, so that a stat of a
+   * file, a directory or a missing path takes one round trip. If inferring implicit directories
+   * is enabled, the inferring listing is only issued if neither exists.
+   *
    * @param path The path we want information about.
    * @return Information about the given path item.
    * @throws IOException
@@ -1013,40 +1915,34 @@ public class GoogleCloudStorageFileSystem {
     // One should be able to get info about top level directory (== bucket),
     // therefore we allow object name to be empty.
     StorageResourceId resourceId = validatePathAndGetId(path, true);
-    GoogleCloudStorageItemInfo itemInfo = gcs.getItemInfo(resourceId);
-    // TODO(user): Here and below, just request foo and foo/ simultaneously in the same batch
-    // request and choose the relevant one.
-    if (!itemInfo.exists() && !FileInfo.isDirectory(itemInfo)) {
-      // If the given file does not exist, see if a directory of
-      // the same name exists.
-      StorageResourceId newResourceId = FileInfo.convertToDirectoryPath(resourceId);
-      log.debug("getFileInfo(%s) : not found. trying: %s", path, newResourceId.toString());
-      GoogleCloudStorageItemInfo newItemInfo = gcs.getItemInfo(newResourceId);
-      // Only swap out the old not-found itemInfo if the "converted" itemInfo actually exists; if
-      // both forms do not exist, we will just go with the original non-converted itemInfo.
-      if (newItemInfo.exists()) {
+
+    GoogleCloudStorageItemInfo itemInfo;
+    StorageResourceId dirId = FileInfo.convertToDirectoryPath(resourceId);
+    if (dirId.equals(resourceId)) {
+      itemInfo = gcs.getItemInfo(resourceId);
+    } else {
+      // Look up the file and the directory of the same name in a single batch.
+      List<GoogleCloudStorageItemInfo> itemInfos =
+          gcs.getItemInfos(ImmutableList.of(resourceId, dirId));
+      itemInfo = itemInfos.get(0);
+      // Only swap out the not-found file info if the directory actually exists; if both forms
+      // do not exist, we will just go with the original non-converted itemInfo.
+      if (!itemInfo.exists() && itemInfos.get(1).exists()) {
         log.debug(
             "getFileInfo: swapping not-found info: %s for converted info: %s",
-            itemInfo, newItemInfo);
-        itemInfo = newItemInfo;
-        resourceId = newResourceId;
+            itemInfo, itemInfos.get(1));
+        itemInfo = itemInfos.get(1);
       }
     }
 
     if (!itemInfo.exists() && options.isInferImplicitDirectoriesEnabled()) {
-      StorageResourceId newResourceId = resourceId;
-      if (!FileInfo.isDirectory(itemInfo)) {
-        newResourceId = FileInfo.convertToDirectoryPath(resourceId);
-      }
-      log.debug("getFileInfo(%s) : still not found, trying inferred: %s",
-          path, newResourceId.toString());
+      log.debug("getFileInfo(%s) : still not found, trying inferred: %s", path, dirId);
       GoogleCloudStorageItemInfo newItemInfo = getInferredItemInfo(resourceId);
       if (newItemInfo.exists()) {
         log.debug(
             "getFileInfo: swapping not-found info: %s for inferred info: %s",
             itemInfo, newItemInfo);
         itemInfo = newItemInfo;
-        resourceId = newResourceId;
       }
     }
 
@@ -1226,10 +2122,44 @@ public class GoogleCloudStorageFileSystem {
     return itemInfos;
   }
 
+  /**
+   * Opens the snapshot of the metadata cache, restoring it if this is the first instance in the
+   * process to do so and it was saved recently enough. A snapshot which can't be read is ignored,
+   * since the cache only supplements GCS.
+   */
+  private void openMetadataCacheSnapshot() {
+    Path snapshotPath = Paths.get(options.getMetadataCacheSnapshotPath());
+    try {
+      int numRestored = snapshotCache.openSnapshot(
+          snapshotPath, options.getMetadataCacheSnapshotMaxAgeMillis());
+      log.debug("Restored %d metadata cache entries from '%s'", numRestored, snapshotPath);
+    } catch (IOException ioe) {
+      log.warn("Failed to restore metadata cache snapshot '%s': %s", snapshotPath, ioe);
+    }
+  }
+
+  /**
+   * Closes the snapshot of the metadata cache, which saves it for the next process to restore
+   * once the last instance in this process using it is closed.
+   */
+  private void closeMetadataCacheSnapshot() {
+    Path snapshotPath = Paths.get(options.getMetadataCacheSnapshotPath());
+    try {
+      snapshotCache.closeSnapshot(snapshotPath);
+    } catch (IOException ioe) {
+      log.warn("Failed to save metadata cache snapshot '%s': %s", snapshotPath, ioe);
+    }
+  }
+
   /**
    * Releases resources used by this instance.
    */
   public void close() {
+    if (snapshotCache != null) {
+      closeMetadataCacheSnapshot();
+      snapshotCache = null;
+    }
+
     if (gcs != null) {
       log.debug("close()");
       try {
@@ -1251,6 +2181,16 @@ public class GoogleCloudStorageFileSystem {
       }
       updateTimestampsExecutor = null;
     }
+
+    if (deleteExecutor != null) {
+      deleteExecutor.shutdown();
+      deleteExecutor = null;
+    }
+
+    if (listPrefetchExecutor != null) {
+      listPrefetchExecutor.shutdownNow();
+      listPrefetchExecutor = null;
+    }
   }
 
   /**
@@ -17,6 +17,7 @@ package com.google.cloud.hadoop.gcsio;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Strings;
 
 /**
  * Configurable options for the GoogleCloudStorageFileSystem class.
@@ -28,6 +29,70 @@ public class GoogleCloudStorageFileSystemOptions {
    */
   public static final boolean INFER_IMPLICIT_DIRECTORIES_DEFAULT = false;
 
+  /**
+   * Default setting for recording the progress of directory renames in a journal object.
+   */
+  public static final boolean RENAME_JOURNAL_ENABLED_DEFAULT = false;
+
+  /**
+   * Default setting for listing a directory before, rather than after, checking that it exists.
+   */
+  public static final boolean LIST_BEFORE_STAT_ENABLED_DEFAULT = false;
+
+  /**
+   * Default number of milliseconds the metadata cache serves the info of an existing item;
+   * 0 disables caching of such infos.
+   */
+  public static final long STAT_CACHE_TTL_MILLIS_DEFAULT = 0;
+
+  /**
+   * Default number of milliseconds the metadata cache serves the not-found info of a missing
+   * item; 0 disables caching of such infos.
+   */
+  public static final long STAT_CACHE_NEGATIVE_TTL_MILLIS_DEFAULT = 0;
+
+  /**
+   * Default maximum number of infos kept by each of the found and not-found halves of the
+   * metadata cache.
+   */
+  public static final long STAT_CACHE_MAX_ENTRIES_DEFAULT = 100000;
+
+  /**
+   * Default setting for sharing one request among concurrent identical metadata requests, see
+   * CoalescingGoogleCloudStorage.
+   */
+  public static final boolean COALESCE_REQUESTS_ENABLED_DEFAULT = false;
+
+  /**
+   * Default maximum number of objects held by the in-memory metadata cache before the least
+   * recently used ones are evicted; 0 means no limit.
+   */
+  public static final long METADATA_CACHE_MAX_ENTRIES_DEFAULT = 0;
+
+  /**
+   * Default approximate maximum number of bytes of memory used by the in-memory metadata cache
+   * before the least recently used objects are evicted; 0 means no limit.
+   */
+  public static final long METADATA_CACHE_MAX_BYTES_DEFAULT = 0;
+
+  /**
+   * Default maximum age in milliseconds of a metadata cache snapshot which is still restored.
+   */
+  public static final long METADATA_CACHE_SNAPSHOT_MAX_AGE_MILLIS_DEFAULT = 10 * 60 * 1000L;
+
+  /**
+   * Default number of key ranges into which a flat listing of a large directory is split and
+   * listed concurrently; 1 lists it serially.
+   */
+  public static final int LIST_SHARDS_DEFAULT = 1;
+
+  /**
+   * Default characters at which the key ranges of a sharded flat listing are split, following
+   * the prefix shared by the first page of the listing.
+   */
+  public static final String LIST_SHARD_ALPHABET_DEFAULT =
+      "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
   /**
    * Mutable builder for GoogleCloudStorageFileSystemOptions.
    */
@@ -35,9 +100,23 @@ public class GoogleCloudStorageFileSystemOptions {
     protected boolean metadataCacheEnabled = true;
     protected DirectoryListCache.Type cacheType = DirectoryListCache.Type.IN_MEMORY;
     protected String cacheBasePath = null;
+    private String cacheServerAddress = null;
+    private String metadataCacheSnapshotPath = null;
+    private long metadataCacheSnapshotMaxAgeMillis =
+        METADATA_CACHE_SNAPSHOT_MAX_AGE_MILLIS_DEFAULT;
     protected Predicate<String> shouldIncludeInTimestampUpdatesPredicate = Predicates.alwaysTrue();
     private boolean inferImplicitDirectoriesEnabled =
         INFER_IMPLICIT_DIRECTORIES_DEFAULT;
+    private boolean renameJournalEnabled = RENAME_JOURNAL_ENABLED_DEFAULT;
+    private boolean listBeforeStatEnabled = LIST_BEFORE_STAT_ENABLED_DEFAULT;
+    private long statCacheTtlMillis = STAT_CACHE_TTL_MILLIS_DEFAULT;
+    private long statCacheNegativeTtlMillis = STAT_CACHE_NEGATIVE_TTL_MILLIS_DEFAULT;
+    private long statCacheMaxEntries = STAT_CACHE_MAX_ENTRIES_DEFAULT;
+    private boolean coalesceRequestsEnabled = COALESCE_REQUESTS_ENABLED_DEFAULT;
+    private long metadataCacheMaxEntries = METADATA_CACHE_MAX_ENTRIES_DEFAULT;
+    private long metadataCacheMaxBytes = METADATA_CACHE_MAX_BYTES_DEFAULT;
+    private int listShards = LIST_SHARDS_DEFAULT;
+    private String listShardAlphabet = LIST_SHARD_ALPHABET_DEFAULT;
 
     private GoogleCloudStorageOptions.Builder cloudStorageOptionsBuilder =
         new GoogleCloudStorageOptions.Builder();
@@ -61,6 +140,11 @@ public class GoogleCloudStorageFileSystemOptions {
       return this;
     }
 
+    public Builder setCacheServerAddress(String cacheServerAddress) {
+      this.cacheServerAddress = cacheServerAddress;
+      return this;
+    }
+
     public Builder setShouldIncludeInTimestampUpdatesPredicate(
         Predicate<String> shouldIncludeInTimestampUpdatesPredicate) {
       this.shouldIncludeInTimestampUpdatesPredicate = shouldIncludeInTimestampUpdatesPredicate;
@@ -73,6 +157,66 @@ public class GoogleCloudStorageFileSystemOptions {
       return this;
     }
 
+    public Builder setRenameJournalEnabled(boolean renameJournalEnabled) {
+      this.renameJournalEnabled = renameJournalEnabled;
+      return this;
+    }
+
+    public Builder setListBeforeStatEnabled(boolean listBeforeStatEnabled) {
+      this.listBeforeStatEnabled = listBeforeStatEnabled;
+      return this;
+    }
+
+    public Builder setStatCacheTtlMillis(long statCacheTtlMillis) {
+      this.statCacheTtlMillis = statCacheTtlMillis;
+      return this;
+    }
+
+    public Builder setStatCacheNegativeTtlMillis(long statCacheNegativeTtlMillis) {
+      this.statCacheNegativeTtlMillis = statCacheNegativeTtlMillis;
+      return this;
+    }
+
+    public Builder setStatCacheMaxEntries(long statCacheMaxEntries) {
+      this.statCacheMaxEntries = statCacheMaxEntries;
+      return this;
+    }
+
+    public Builder setCoalesceRequestsEnabled(boolean coalesceRequestsEnabled) {
+      this.coalesceRequestsEnabled = coalesceRequestsEnabled;
+      return this;
+    }
+
+    public Builder setMetadataCacheMaxEntries(long metadataCacheMaxEntries) {
+      this.metadataCacheMaxEntries = metadataCacheMaxEntries;
+      return this;
+    }
+
+    public Builder setMetadataCacheMaxBytes(long metadataCacheMaxBytes) {
+      this.metadataCacheMaxBytes = metadataCacheMaxBytes;
+      return this;
+    }
+
+    public Builder setMetadataCacheSnapshotPath(String metadataCacheSnapshotPath) {
+      this.metadataCacheSnapshotPath = metadataCacheSnapshotPath;
+      return this;
+    }
+
+    public Builder setMetadataCacheSnapshotMaxAgeMillis(long metadataCacheSnapshotMaxAgeMillis) {
+      this.metadataCacheSnapshotMaxAgeMillis = metadataCacheSnapshotMaxAgeMillis;
+      return this;
+    }
+
+    public Builder setListShards(int listShards) {
+      this.listShards = listShards;
+      return this;
+    }
+
+    public Builder setListShardAlphabet(String listShardAlphabet) {
+      this.listShardAlphabet = listShardAlphabet;
+      return this;
+    }
+
     public GoogleCloudStorageFileSystemOptions build() {
       return new GoogleCloudStorageFileSystemOptions(
           cloudStorageOptionsBuilder.build(),
@@ -80,7 +224,20 @@ public class GoogleCloudStorageFileSystemOptions {
           cacheType,
           cacheBasePath,
           shouldIncludeInTimestampUpdatesPredicate,
-          inferImplicitDirectoriesEnabled);
+          inferImplicitDirectoriesEnabled,
+          renameJournalEnabled,
+          listBeforeStatEnabled,
+          statCacheTtlMillis,
+          statCacheNegativeTtlMillis,
+          statCacheMaxEntries,
+          coalesceRequestsEnabled,
+          metadataCacheMaxEntries,
+          metadataCacheMaxBytes,
+          cacheServerAddress,
+          metadataCacheSnapshotPath,
+          metadataCacheSnapshotMaxAgeMillis,
+          listShards,
+          listShardAlphabet);
     }
   }
 
@@ -91,9 +248,25 @@ public class GoogleCloudStorageFileSystemOptions {
   private final GoogleCloudStorageOptions cloudStorageOptions;
   private final boolean metadataCacheEnabled;
   private final DirectoryListCache.Type cacheType;
-  private final String cacheBasePath;  // Only used if cacheType == FILESYSTEM_BACKED.
+  // Only used if cacheType is FILESYSTEM_BACKED or LOG_STRUCTURED.
+  private final String cacheBasePath;
+  // Only used if cacheType is REMOTE.
+  private final String cacheServerAddress;
+  // Only used if cacheType is IN_MEMORY; null disables snapshots.
+  private final String metadataCacheSnapshotPath;
+  private final long metadataCacheSnapshotMaxAgeMillis;
   private final Predicate<String> shouldIncludeInTimestampUpdatesPredicate;
   private final boolean inferImplicitDirectoriesEnabled;
+  private final boolean renameJournalEnabled;
+  private final boolean listBeforeStatEnabled;
+  private final long statCacheTtlMillis;
+  private final long statCacheNegativeTtlMillis;
+  private final long statCacheMaxEntries;
+  private final boolean coalesceRequestsEnabled;
+  private final long metadataCacheMaxEntries;
+  private final long metadataCacheMaxBytes;
+  private final int listShards;
+  private final String listShardAlphabet;
 
   public GoogleCloudStorageFileSystemOptions(
       GoogleCloudStorageOptions cloudStorageOptions,
@@ -102,12 +275,72 @@ public class GoogleCloudStorageFileSystemOptions {
       String cacheBasePath,
       Predicate<String> shouldIncludeInTimestampUpdatesPredicate,
       boolean inferImplicitDirectoriesEnabled) {
+    this(cloudStorageOptions, metadataCacheEnabled, cacheType, cacheBasePath,
+        shouldIncludeInTimestampUpdatesPredicate, inferImplicitDirectoriesEnabled,
+        RENAME_JOURNAL_ENABLED_DEFAULT);
+  }
+
+  public GoogleCloudStorageFileSystemOptions(
+      GoogleCloudStorageOptions cloudStorageOptions,
+      boolean metadataCacheEnabled,
+      DirectoryListCache.Type cacheType,
+      String cacheBasePath,
+      Predicate<String> shouldIncludeInTimestampUpdatesPredicate,
+      boolean inferImplicitDirectoriesEnabled,
+      boolean renameJournalEnabled) {
+    this(cloudStorageOptions, metadataCacheEnabled, cacheType, cacheBasePath,
+        shouldIncludeInTimestampUpdatesPredicate, inferImplicitDirectoriesEnabled,
+        renameJournalEnabled, LIST_BEFORE_STAT_ENABLED_DEFAULT, STAT_CACHE_TTL_MILLIS_DEFAULT,
+        STAT_CACHE_NEGATIVE_TTL_MILLIS_DEFAULT, STAT_CACHE_MAX_ENTRIES_DEFAULT,
+        COALESCE_REQUESTS_ENABLED_DEFAULT, METADATA_CACHE_MAX_ENTRIES_DEFAULT,
+        METADATA_CACHE_MAX_BYTES_DEFAULT, null, null,
+        METADATA_CACHE_SNAPSHOT_MAX_AGE_MILLIS_DEFAULT, LIST_SHARDS_DEFAULT,
+        LIST_SHARD_ALPHABET_DEFAULT);
+  }
+
+  /**
+   * Options added since the public constructors above are set only through the Builder, so that
+   * adding another doesn't change the signature of a public constructor.
+   */
+  private GoogleCloudStorageFileSystemOptions(
+      GoogleCloudStorageOptions cloudStorageOptions,
+      boolean metadataCacheEnabled,
+      DirectoryListCache.Type cacheType,
+      String cacheBasePath,
+      Predicate<String> shouldIncludeInTimestampUpdatesPredicate,
+      boolean inferImplicitDirectoriesEnabled,
+      boolean renameJournalEnabled,
+      boolean listBeforeStatEnabled,
+      long statCacheTtlMillis,
+      long statCacheNegativeTtlMillis,
+      long statCacheMaxEntries,
+      boolean coalesceRequestsEnabled,
+      long metadataCacheMaxEntries,
+      long metadataCacheMaxBytes,
+      String cacheServerAddress,
+      String metadataCacheSnapshotPath,
+      long metadataCacheSnapshotMaxAgeMillis,
+      int listShards,
+      String listShardAlphabet) {
     this.cloudStorageOptions = cloudStorageOptions;
     this.metadataCacheEnabled = metadataCacheEnabled;
     this.cacheType = cacheType;
     this.cacheBasePath = cacheBasePath;
     this.shouldIncludeInTimestampUpdatesPredicate = shouldIncludeInTimestampUpdatesPredicate;
     this.inferImplicitDirectoriesEnabled = inferImplicitDirectoriesEnabled;
+    this.renameJournalEnabled = renameJournalEnabled;
+    this.listBeforeStatEnabled = listBeforeStatEnabled;
+    this.statCacheTtlMillis = statCacheTtlMillis;
+    this.statCacheNegativeTtlMillis = statCacheNegativeTtlMillis;
+    this.statCacheMaxEntries = statCacheMaxEntries;
+    this.coalesceRequestsEnabled = coalesceRequestsEnabled;
+    this.metadataCacheMaxEntries = metadataCacheMaxEntries;
+    this.metadataCacheMaxBytes = metadataCacheMaxBytes;
+    this.cacheServerAddress = cacheServerAddress;
+    this.metadataCacheSnapshotPath = metadataCacheSnapshotPath;
+    this.metadataCacheSnapshotMaxAgeMillis = metadataCacheSnapshotMaxAgeMillis;
+    this.listShards = listShards;
+    this.listShardAlphabet = listShardAlphabet;
   }
 
   public GoogleCloudStorageOptions getCloudStorageOptions() {
@@ -126,6 +359,10 @@ public class GoogleCloudStorageFileSystemOptions {
     return cacheBasePath;
   }
 
+  public String getCacheServerAddress() {
+    return cacheServerAddress;
+  }
+
   public Predicate<String> getShouldIncludeInTimestampUpdatesPredicate() {
     return shouldIncludeInTimestampUpdatesPredicate;
   }
@@ -134,11 +371,81 @@ public class GoogleCloudStorageFileSystemOptions {
     return inferImplicitDirectoriesEnabled;
   }
 
+  public boolean isRenameJournalEnabled() {
+    return renameJournalEnabled;
+  }
+
+  public boolean isListBeforeStatEnabled() {
+    return listBeforeStatEnabled;
+  }
+
+  public long getStatCacheTtlMillis() {
+    return statCacheTtlMillis;
+  }
+
+  public long getStatCacheNegativeTtlMillis() {
+    return statCacheNegativeTtlMillis;
+  }
+
+  public long getStatCacheMaxEntries() {
+    return statCacheMaxEntries;
+  }
+
+  public boolean isCoalesceRequestsEnabled() {
+    return coalesceRequestsEnabled;
+  }
+
+  public long getMetadataCacheMaxEntries() {
+    return metadataCacheMaxEntries;
+  }
+
+  public long getMetadataCacheMaxBytes() {
+    return metadataCacheMaxBytes;
+  }
+
+  public String getMetadataCacheSnapshotPath() {
+    return metadataCacheSnapshotPath;
+  }
+
+  public long getMetadataCacheSnapshotMaxAgeMillis() {
+    return metadataCacheSnapshotMaxAgeMillis;
+  }
+
+  public int getListShards() {
+    return listShards;
+  }
+
+  public String getListShardAlphabet() {
+    return listShardAlphabet;
+  }
+
+  /**
+   * Returns true if the metadata cache should serve item infos, see ItemInfoCache.
+   */
+  public boolean isStatCacheEnabled() {
+    return statCacheTtlMillis > 0 || statCacheNegativeTtlMillis > 0;
+  }
+
   public void throwIfNotValid() {
     Preconditions.checkArgument(
         shouldIncludeInTimestampUpdatesPredicate != null,
         "Predicate for ignored directory updates should not be null. "
             + "Consider Predicates.alwasyTrue");
+    Preconditions.checkArgument(statCacheTtlMillis >= 0 && statCacheNegativeTtlMillis >= 0,
+        "Stat cache TTLs must not be negative, got %s and %s",
+        statCacheTtlMillis, statCacheNegativeTtlMillis);
+    Preconditions.checkArgument(statCacheMaxEntries > 0,
+        "statCacheMaxEntries must be positive, got %s", statCacheMaxEntries);
+    Preconditions.checkArgument(metadataCacheMaxEntries >= 0 && metadataCacheMaxBytes >= 0,
+        "Metadata cache size limits must not be negative, got %s entries and %s bytes",
+        metadataCacheMaxEntries, metadataCacheMaxBytes);
+    Preconditions.checkArgument(metadataCacheSnapshotMaxAgeMillis >= 0,
+        "metadataCacheSnapshotMaxAgeMillis must not be negative, got %s",
+        metadataCacheSnapshotMaxAgeMillis);
+    Preconditions.checkArgument(listShards > 0,
+        "listShards must be positive, got %s", listShards);
+    Preconditions.checkArgument(listShards == 1 || !Strings.isNullOrEmpty(listShardAlphabet),
+        "listShardAlphabet must not be empty when listShards is greater than 1");
     cloudStorageOptions.throwIfNotValid();
   }
 }
@@ -45,6 +45,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
 import com.google.common.io.BaseEncoding;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -61,6 +62,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -101,6 +103,12 @@ public class GoogleCloudStorageImpl
   // Maximum number of times to retry deletes in the case of precondition failures.
   private static final int MAXIMUM_PRECONDITION_FAILURES_IN_DELETE = 4;
 
+  // Query parameters of objects().list bounding the listing to a lexicographic range of names.
+  @VisibleForTesting
+  static final String START_OFFSET_PARAMETER = "startOffset";
+  @VisibleForTesting
+  static final String END_OFFSET_PARAMETER = "endOffset";
+
   // Determine if a given IOException is due to rate-limiting.
   private final Predicate<IOException> isRateLimitedException = new Predicate<IOException>() {
     @Override
@@ -159,6 +167,31 @@ public class GoogleCloudStorageImpl
           .setDaemon(true)
           .build());
 
+  // Maximum number of batches of prefixes which may await background repair; the repairs of
+  // listings beyond it are skipped.
+  private static final int MAX_QUEUED_BACKGROUND_REPAIRS = 100;
+
+  // Maximum number of directories remembered as repaired or queued for repair in the background,
+  // which later listings don't queue again.
+  private static final int MAX_TRACKED_BACKGROUND_REPAIRS = 10000;
+
+  // Single thread, with a bounded queue, on which missing directory objects of inferred
+  // directories are repaired.
+  private ExecutorService backgroundRepairThreadPool = new ThreadPoolExecutor(
+      1 /* base num threads */, 1 /* max num threads */, 10L /* keepalive time */,
+      TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_BACKGROUND_REPAIRS),
+      new ThreadFactoryBuilder()
+          .setNameFormat("gcs-background-repair-pool-%d")
+          .setDaemon(true)
+          .build());
+
+  // Directories recently repaired or queued for repair in the background.
+  private final Map<StorageResourceId, Boolean> backgroundRepairedDirectories =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_TRACKED_BACKGROUND_REPAIRS)
+          .<StorageResourceId, Boolean>build()
+          .asMap();
+
   // Thread-pool for manual matching of metadata tasks.
   // TODO(user): Wire out GoogleCloudStorageOptions for these.
   private ExecutorService manualBatchingThreadPool = new ThreadPoolExecutor(
@@ -169,6 +202,11 @@ public class GoogleCloudStorageImpl
           .setDaemon(true)
           .build());
 
+  // Thread-pool on which batch requests are executed when GoogleCloudStorageOptions allows more
+  // than one concurrent batch; each BatchHelper bounds how many of its batches run at once, and
+  // the pool bounds the batches of all BatchHelpers together to the same number.
+  private ExecutorService batchThreadPool;
+
   // Helper delegate for turning IOExceptions from API calls into higher-level semantics.
   private ApiErrorExtractor errorExtractor = new ApiErrorExtractor();
 
@@ -206,6 +244,7 @@ public class GoogleCloudStorageImpl
     options.throwIfNotValid();
 
     this.storageOptions = options;
+    this.batchThreadPool = createBatchThreadPool(options.getBatchThreads());
 
     Preconditions.checkArgument(credential != null, "credential must not be null");
 
@@ -231,6 +270,7 @@ public class GoogleCloudStorageImpl
     options.throwIfNotValid();
 
     this.storageOptions = options;
+    this.batchThreadPool = createBatchThreadPool(options.getBatchThreads());
 
     Preconditions.checkArgument(gcs != null, "gcs must not be null");
 
@@ -244,6 +284,23 @@ public class GoogleCloudStorageImpl
   @VisibleForTesting
   protected GoogleCloudStorageImpl() {
     this.storageOptions = GoogleCloudStorageOptions.newBuilder().build();
+    this.batchThreadPool = createBatchThreadPool(storageOptions.getBatchThreads());
+  }
+
+  /**
+   * Creates the thread-pool for concurrent batches, running at most {@code batchThreads} batches
+   * at once and queueing the others; its threads exit when idle.
+   */
+  private static ExecutorService createBatchThreadPool(int batchThreads) {
+    ThreadPoolExecutor batchThreadPool = new ThreadPoolExecutor(
+        batchThreads /* base num threads */, batchThreads /* max num threads */,
+        10L /* keepalive time */, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder()
+            .setNameFormat("gcs-batch-pool-%d")
+            .setDaemon(true)
+            .build());
+    batchThreadPool.allowCoreThreadTimeOut(true);
+    return batchThreadPool;
   }
 
   @VisibleForTesting
@@ -251,6 +308,11 @@ public class GoogleCloudStorageImpl
     this.threadPool = threadPool;
   }
 
+  @VisibleForTesting
+  void setBackgroundRepairThreadPool(ExecutorService backgroundRepairThreadPool) {
+    this.backgroundRepairThreadPool = backgroundRepairThreadPool;
+  }
+
   @VisibleForTesting
   void setManualBatchingThreadPool(ExecutorService manualBatchingThreadPool) {
     this.manualBatchingThreadPool = manualBatchingThreadPool;
@@ -518,12 +580,14 @@ public class GoogleCloudStorageImpl
           resourceId.getBucketName(), resourceId.getObjectName());
     }
 
-    return new GoogleCloudStorageReadChannel(
+    GoogleCloudStorageReadChannel channel = new GoogleCloudStorageReadChannel(
         gcs,
         resourceId.getBucketName(),
         resourceId.getObjectName(),
         errorExtractor,
         clientRequestHelper);
+    channel.enableChecksum(storageOptions.isReadChecksumEnabled());
+    return channel;
   }
 
   /**
@@ -604,7 +668,18 @@ public class GoogleCloudStorageImpl
   @Override
   public void deleteObjects(List<StorageResourceId> fullObjectNames)
       throws IOException {
-    log.debug("deleteObjects(%s)", fullObjectNames.toString());
+    deleteObjects(fullObjectNames, Collections.<Long>nCopies(fullObjectNames.size(), null));
+  }
+
+  /**
+   * See {@link GoogleCloudStorage#deleteObjects(List, List)} for details about expected behavior.
+   */
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    log.debug("deleteObjects(%s, %s)", fullObjectNames, generations);
+    Preconditions.checkArgument(fullObjectNames.size() == generations.size(),
+        "Must supply same number of elements in fullObjectNames and generations");
 
     // Validate that all the elements represent StorageObjects.
     for (StorageResourceId fullObjectName : fullObjectNames) {
@@ -617,10 +692,13 @@ public class GoogleCloudStorageImpl
     BatchHelper batchHelper = batchFactory.newBatchHelper(
         httpRequestInitializer,
         gcs,
-        storageOptions.getMaxRequestsPerBatch());
+        storageOptions.getMaxRequestsPerBatch(),
+        storageOptions.getBatchThreads(),
+        batchThreadPool);
 
-    for (final StorageResourceId fullObjectName : fullObjectNames) {
-      queueSingleObjectDelete(fullObjectName, innerExceptions, batchHelper, 1);
+    for (int i = 0; i < fullObjectNames.size(); i++) {
+      queueSingleObjectDelete(
+          fullObjectNames.get(i), generations.get(i), innerExceptions, batchHelper, 1);
     }
 
     do {
@@ -632,11 +710,23 @@ public class GoogleCloudStorageImpl
     }
   }
 
+  /**
+   * Queues the deletion of the latest generation of {@code fullObjectName}. If {@code generation}
+   * is known, e.g. from the listing which led to the delete, a single DELETE conditioned on it is
+   * sent; otherwise, or if that precondition fails, the current generation is first fetched with
+   * a GET.
+   */
   private void queueSingleObjectDelete(
       final StorageResourceId fullObjectName,
+      Long generation,
       final List<IOException> innerExceptions,
       final BatchHelper batchHelper,
       final int attempt) throws IOException {
+    if (generation != null) {
+      queueSingleObjectDeleteAtGeneration(
+          fullObjectName, generation, innerExceptions, batchHelper, attempt);
+      return;
+    }
 
     final String bucketName = fullObjectName.getBucketName();
     final String objectName = fullObjectName.getObjectName();
@@ -648,46 +738,10 @@ public class GoogleCloudStorageImpl
       @Override
       public void onSuccess(StorageObject storageObject, HttpHeaders httpHeaders)
           throws IOException {
-        final Long generation = storageObject.getGeneration();
-        Storage.Objects.Delete deleteObject =
-            gcs.objects().delete(bucketName, objectName)
-                .setIfGenerationMatch(generation);
-
-        batchHelper.queue(deleteObject, new JsonBatchCallback<Void>() {
-          @Override
-          public void onSuccess(Void obj, HttpHeaders responseHeaders) {
-            log.debug(
-                "Successfully deleted %s at generation %s", fullObjectName.toString(), generation);
-          }
-
-          @Override
-          public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) throws IOException {
-            if (errorExtractor.itemNotFound(e)) {
-              // Ignore item-not-found errors. We do not have to delete what we cannot find. This
-              // error typically shows up when we make a request to delete something and the server
-              // receives the request but we get a retry-able error before we get a response.
-              // During a retry, we no longer find the item because the server had deleted
-              // it already.
-              log.debug("deleteObjects(%s) : delete not found", fullObjectName.toString());
-            } else if (errorExtractor.preconditionNotMet(e)
-                && attempt <= MAXIMUM_PRECONDITION_FAILURES_IN_DELETE) {
-              log.info(
-                  "Precondition not met while deleting %s at generation %s. Attempt %s. Retrying.",
-                  fullObjectName.toString(),
-                  generation,
-                  attempt);
-              queueSingleObjectDelete(
-                  fullObjectName, innerExceptions, batchHelper, attempt + 1);
-            } else {
-              innerExceptions.add(wrapException(
-                  new IOException(e.toString()),
-                  String.format("Error deleting, stage 2 with generation %s", generation),
-                  bucketName,
-                  objectName));
-            }
-          }
-        });
+        queueSingleObjectDeleteAtGeneration(fullObjectName, storageObject.getGeneration(),
+            innerExceptions, batchHelper, attempt);
       }
+
       @Override
       public void onFailure(GoogleJsonError googleJsonError, HttpHeaders httpHeaders)
           throws IOException {
@@ -706,6 +760,58 @@ public class GoogleCloudStorageImpl
     });
   }
 
+  /**
+   * Queues a DELETE of {@code fullObjectName} conditioned on {@code generation}; if the
+   * precondition fails, the delete is retried from the GET of queueSingleObjectDelete.
+   */
+  private void queueSingleObjectDeleteAtGeneration(
+      final StorageResourceId fullObjectName,
+      final Long generation,
+      final List<IOException> innerExceptions,
+      final BatchHelper batchHelper,
+      final int attempt) throws IOException {
+    final String bucketName = fullObjectName.getBucketName();
+    final String objectName = fullObjectName.getObjectName();
+    Storage.Objects.Delete deleteObject =
+        gcs.objects().delete(bucketName, objectName)
+            .setIfGenerationMatch(generation);
+
+    batchHelper.queue(deleteObject, new JsonBatchCallback<Void>() {
+      @Override
+      public void onSuccess(Void obj, HttpHeaders responseHeaders) {
+        log.debug(
+            "Successfully deleted %s at generation %s", fullObjectName.toString(), generation);
+      }
+
+      @Override
+      public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) throws IOException {
+        if (errorExtractor.itemNotFound(e)) {
+          // Ignore item-not-found errors. We do not have to delete what we cannot find. This
+          // error typically shows up when we make a request to delete something and the server
+          // receives the request but we get a retry-able error before we get a response.
+          // During a retry, we no longer find the item because the server had deleted
+          // it already.
+          log.debug("deleteObjects(%s) : delete not found", fullObjectName.toString());
+        } else if (errorExtractor.preconditionNotMet(e)
+            && attempt <= MAXIMUM_PRECONDITION_FAILURES_IN_DELETE) {
+          log.info(
+              "Precondition not met while deleting %s at generation %s. Attempt %s. Retrying.",
+              fullObjectName.toString(),
+              generation,
+              attempt);
+          queueSingleObjectDelete(
+              fullObjectName, null, innerExceptions, batchHelper, attempt + 1);
+        } else {
+          innerExceptions.add(wrapException(
+              new IOException(e.toString()),
+              String.format("Error deleting, stage 2 with generation %s", generation),
+              bucketName,
+              objectName));
+        }
+      }
+    });
+  }
+
   /**
    * Validates basic argument constraints like non-null, non-empty Strings, using {@code
    * Preconditions} in addition to checking for src/dst bucket existence and compatibility of bucket
@@ -718,6 +824,19 @@ public class GoogleCloudStorageImpl
   static void validateCopyArguments(String srcBucketName, List<String> srcObjectNames,
       String dstBucketName, List<String> dstObjectNames, GoogleCloudStorage gcsImpl)
       throws IOException {
+    validateCopyArguments(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames, gcsImpl,
+        false);
+  }
+
+  /**
+   * Like {@link #validateCopyArguments(String, List, String, List, GoogleCloudStorage)}, but skips
+   * the bucket existence and compatibility checks if {@code crossBucketCopyAllowed}, as when
+   * copying with objects().rewrite.
+   */
+  static void validateCopyArguments(String srcBucketName, List<String> srcObjectNames,
+      String dstBucketName, List<String> dstObjectNames, GoogleCloudStorage gcsImpl,
+      boolean crossBucketCopyAllowed)
+      throws IOException {
     Preconditions.checkArgument(!Strings.isNullOrEmpty(srcBucketName),
         "srcBucketName must not be null or empty");
     Preconditions.checkArgument(!Strings.isNullOrEmpty(dstBucketName),
@@ -730,7 +849,7 @@ public class GoogleCloudStorageImpl
         "Must supply same number of elements in srcObjectNames and dstObjectNames");
 
     // Avoid copy across locations or storage classes.
-    if (!srcBucketName.equals(dstBucketName)) {
+    if (!crossBucketCopyAllowed && !srcBucketName.equals(dstBucketName)) {
       GoogleCloudStorageItemInfo srcBucketInfo =
           gcsImpl.getItemInfo(new StorageResourceId(srcBucketName));
       if (!srcBucketInfo.exists()) {
@@ -776,7 +895,12 @@ public class GoogleCloudStorageImpl
       final String dstBucketName, List<String> dstObjectNames)
       throws IOException {
     validateCopyArguments(srcBucketName, srcObjectNames,
-        dstBucketName, dstObjectNames, this);
+        dstBucketName, dstObjectNames, this, storageOptions.isCopyWithRewriteEnabled());
+
+    if (storageOptions.isCopyWithRewriteEnabled()) {
+      rewrite(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames);
+      return;
+    }
 
     // Gather FileNotFoundExceptions for individual objects, but only throw a single combined
     // exception at the end.
@@ -786,7 +910,9 @@ public class GoogleCloudStorageImpl
     BatchHelper batchHelper = batchFactory.newBatchHelper(
         httpRequestInitializer,
         gcs,
-        storageOptions.getMaxRequestsPerBatch());
+        storageOptions.getMaxRequestsPerBatch(),
+        storageOptions.getBatchThreads(),
+        batchThreadPool);
 
     for (int i = 0; i < srcObjectNames.size(); i++) {
       final String srcObjectName = srcObjectNames.get(i);
@@ -825,6 +951,89 @@ public class GoogleCloudStorageImpl
     }
   }
 
+  /**
+   * Copies objects with objects().rewrite rather than objects().copy, so that the copy can cross
+   * locations and storage classes, and large objects are copied over several calls instead of one
+   * which may time out. A rewrite which is not done is re-queued with its rewrite token, so the
+   * rewrites of all objects proceed concurrently through the same BatchHelper.
+   */
+  private void rewrite(String srcBucketName, List<String> srcObjectNames,
+      String dstBucketName, List<String> dstObjectNames)
+      throws IOException {
+    // Gather FileNotFoundExceptions for individual objects, but only throw a single combined
+    // exception at the end.
+    List<IOException> innerExceptions = new ArrayList<>();
+
+    BatchHelper batchHelper = batchFactory.newBatchHelper(
+        httpRequestInitializer,
+        gcs,
+        storageOptions.getMaxRequestsPerBatch(),
+        storageOptions.getBatchThreads(),
+        batchThreadPool);
+
+    for (int i = 0; i < srcObjectNames.size(); i++) {
+      queueRewrite(batchHelper, srcBucketName, srcObjectNames.get(i),
+          dstBucketName, dstObjectNames.get(i), null, innerExceptions);
+    }
+
+    // Continuations of incomplete rewrites are queued from callbacks.
+    do {
+      batchHelper.flush();
+    } while (!batchHelper.isEmpty());
+
+    if (innerExceptions.size() > 0) {
+      throw GoogleCloudStorageExceptions.createCompositeException(innerExceptions);
+    }
+  }
+
+  /**
+   * Queues one call of the rewrite of the given object, continuing from {@code rewriteToken} if
+   * non-null; the callback queues the next call until the rewrite is done.
+   */
+  private void queueRewrite(final BatchHelper batchHelper,
+      final String srcBucketName, final String srcObjectName,
+      final String dstBucketName, final String dstObjectName,
+      String rewriteToken, final List<IOException> innerExceptions)
+      throws IOException {
+    ObjectsRewrite rewriteObject = new ObjectsRewrite(
+        gcs, srcBucketName, srcObjectName, dstBucketName, dstObjectName);
+    rewriteObject.setRewriteToken(rewriteToken);
+    if (storageOptions.getMaxBytesRewrittenPerCall() > 0) {
+      rewriteObject.setMaxBytesRewrittenPerCall(storageOptions.getMaxBytesRewrittenPerCall());
+    }
+    batchHelper.queue(rewriteObject, new JsonBatchCallback<ObjectsRewrite.Response>() {
+      @Override
+      public void onSuccess(ObjectsRewrite.Response response, HttpHeaders responseHeaders)
+          throws IOException {
+        if (Boolean.TRUE.equals(response.getDone())) {
+          log.debug("Successfully rewrote %s to %s",
+              StorageResourceId.createReadableString(srcBucketName, srcObjectName),
+              StorageResourceId.createReadableString(dstBucketName, dstObjectName));
+        } else {
+          log.info("Rewrote %s of %s bytes of %s to %s",
+              response.getTotalBytesRewritten(), response.getObjectSize(),
+              StorageResourceId.createReadableString(srcBucketName, srcObjectName),
+              StorageResourceId.createReadableString(dstBucketName, dstObjectName));
+          queueRewrite(batchHelper, srcBucketName, srcObjectName, dstBucketName, dstObjectName,
+              response.getRewriteToken(), innerExceptions);
+        }
+      }
+
+      @Override
+      public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) {
+        if (errorExtractor.itemNotFound(e)) {
+          log.debug("rewrite(%s) : not found",
+              StorageResourceId.createReadableString(srcBucketName, srcObjectName));
+          innerExceptions.add(GoogleCloudStorageExceptions.getFileNotFoundException(
+              srcBucketName, srcObjectName));
+        } else {
+          innerExceptions.add(wrapException(
+              new IOException(e.toString()), "Error copying", srcBucketName, srcObjectName));
+        }
+      }
+    });
+  }
+
   /**
    * Shared helper for actually dispatching buckets().list() API calls and accumulating paginated
    * results; these can then be used to either extract just their names, or to parse into full
@@ -1105,6 +1314,152 @@ public class GoogleCloudStorageImpl
     return objectNames;
   }
 
+  /**
+   * See {@link GoogleCloudStorage#listObjectNamesPage(String, String, String, String)}
+   * for details about expected behavior.
+   */
+  @Override
+  public ListPage<String> listObjectNamesPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    return listObjectNamesPage(bucketName, objectNamePrefix, delimiter, null, null, pageToken);
+  }
+
+  /**
+   * See {@link GoogleCloudStorage#listObjectNamesPage(String, String, String, String, String,
+   * String)} for details about expected behavior.
+   */
+  @Override
+  public ListPage<String> listObjectNamesPage(
+      String bucketName, String objectNamePrefix, String delimiter,
+      String startOffset, String endOffset, String pageToken)
+      throws IOException {
+    log.debug("listObjectNamesPage(%s, %s, %s, %s, %s, %s)",
+        bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+
+    List<String> objectNames = new ArrayList<>();
+    Objects items = listStorageObjectsPage(
+        bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+    if (items == null) {
+      return new ListPage<>(objectNames, null);
+    }
+    if (items.getPrefixes() != null) {
+      objectNames.addAll(items.getPrefixes());
+    }
+    if (items.getItems() != null) {
+      for (StorageObject object : items.getItems()) {
+        objectNames.add(object.getName());
+      }
+    }
+    // GCS returns prefixes and objects each in order; merge them.
+    Collections.sort(objectNames);
+    return new ListPage<>(objectNames, items.getNextPageToken());
+  }
+
+  /**
+   * See {@link GoogleCloudStorage#listObjectInfoPage(String, String, String, String)}
+   * for details about expected behavior.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    return listObjectInfoPage(bucketName, objectNamePrefix, delimiter, null, null, pageToken);
+  }
+
+  /**
+   * See {@link GoogleCloudStorage#listObjectInfoPage(String, String, String, String, String,
+   * String)} for details about expected behavior.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter,
+      String startOffset, String endOffset, String pageToken)
+      throws IOException {
+    log.debug("listObjectInfoPage(%s, %s, %s, %s, %s, %s)",
+        bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+
+    List<GoogleCloudStorageItemInfo> objectInfos = new ArrayList<>();
+    Objects items = listStorageObjectsPage(
+        bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+    if (items == null) {
+      return new ListPage<>(objectInfos, null);
+    }
+    if (items.getItems() != null) {
+      for (StorageObject object : items.getItems()) {
+        objectInfos.add(createItemInfoForStorageObject(
+            new StorageResourceId(bucketName, object.getName()), object));
+      }
+    }
+    if (items.getPrefixes() != null) {
+      addInfosForPrefixes(bucketName, items.getPrefixes(), objectInfos);
+    }
+    // GCS returns prefixes and objects each in order; merge them.
+    Collections.sort(objectInfos, GoogleCloudStorageItemInfo.OBJECT_NAME_COMPARATOR);
+    return new ListPage<>(objectInfos, items.getNextPageToken());
+  }
+
+  /**
+   * Makes a single objects().list call for the page {@code pageToken} of the given listing,
+   * bounded to the range from {@code startOffset} to {@code endOffset} if they are non-null. The
+   * directory object named by {@code objectNamePrefix} itself, if any, is removed from the
+   * returned items, as in listStorageObjectsAndPrefixes.
+   *
+   * @return the page, or null if the bucket does not exist
+   */
+  private Objects listStorageObjectsPage(
+      String bucketName, String objectNamePrefix, String delimiter,
+      String startOffset, String endOffset, String pageToken)
+      throws IOException {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(bucketName),
+        "bucketName must not be null or empty");
+
+    Storage.Objects.List listObject = gcs.objects().list(bucketName);
+    if (delimiter != null) {
+      listObject.setDelimiter(delimiter);
+    }
+    listObject.setMaxResults(storageOptions.getMaxListItemsPerCall());
+    if (!Strings.isNullOrEmpty(objectNamePrefix)) {
+      listObject.setPrefix(objectNamePrefix);
+    }
+    // This version of the API client has no typed setters for the range parameters, so they are
+    // passed as generic query parameters.
+    if (startOffset != null) {
+      listObject.set(START_OFFSET_PARAMETER, startOffset);
+    }
+    if (endOffset != null) {
+      listObject.set(END_OFFSET_PARAMETER, endOffset);
+    }
+    if (pageToken != null) {
+      listObject.setPageToken(pageToken);
+    }
+
+    Objects items;
+    try {
+      items = listObject.execute();
+    } catch (IOException e) {
+      if (errorExtractor.itemNotFound(e)) {
+        log.debug("listStorageObjectsPage(%s, %s, %s, %s, %s, %s): item not found",
+            bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+        return null;
+      }
+      throw wrapException(e, "Error listing", bucketName, objectNamePrefix);
+    }
+
+    boolean objectPrefixEndsWithDelimiter =
+        !Strings.isNullOrEmpty(objectNamePrefix) && objectNamePrefix.endsWith(PATH_DELIMITER);
+    if (objectPrefixEndsWithDelimiter && items.getItems() != null) {
+      List<StorageObject> objects = new ArrayList<>(items.getItems().size());
+      for (StorageObject object : items.getItems()) {
+        if (!object.getName().equals(objectNamePrefix)) {
+          objects.add(object);
+        }
+      }
+      items.setItems(objects);
+    }
+    return items;
+  }
+
   /**
    * See {@link GoogleCloudStorage#listObjectInfo(String, String, String)}
    * for details about expected behavior.
@@ -1145,63 +1500,149 @@ public class GoogleCloudStorageImpl
     }
 
     if (listedPrefixes.size() > 0) {
-      // Send requests to fetch info about the directories associated with each prefix in batch
-      // requests, maxRequestsPerBatch at a time.
+      addInfosForPrefixes(bucketName, listedPrefixes, objectInfos);
+    }
+    return objectInfos;
+  }
+
+  /**
+   * Fetches the infos of the directory objects for {@code listedPrefixes} and appends them to
+   * {@code objectInfos}, repairing missing directory objects if auto-repair is enabled.
+   *
+   * <p>If inferring directories from prefixes is enabled, the infos are instead synthesized from
+   * the prefixes without any requests, and missing directory objects are only repaired if both
+   * auto-repair and background repair are enabled, see {@link #queueBackgroundRepair}.
+   */
+  private void addInfosForPrefixes(String bucketName, List<String> listedPrefixes,
+      List<GoogleCloudStorageItemInfo> objectInfos)
+      throws IOException {
+    if (storageOptions.isInferDirectoriesFromPrefixesEnabled()) {
       List<StorageResourceId> resourceIdsForPrefixes = new ArrayList<>();
       for (String prefix : listedPrefixes) {
-        resourceIdsForPrefixes.add(new StorageResourceId(bucketName, prefix));
+        StorageResourceId prefixId = new StorageResourceId(bucketName, prefix);
+        resourceIdsForPrefixes.add(prefixId);
+        // Same as an inferred directory: size == 0, creationTime == 0,
+        // location == storageClass == null.
+        objectInfos.add(new GoogleCloudStorageItemInfo(prefixId, 0, 0, null, null));
       }
-      List<GoogleCloudStorageItemInfo> prefixInfos = getItemInfos(resourceIdsForPrefixes);
-      List<StorageResourceId> repairList = new ArrayList<>();
-      for (GoogleCloudStorageItemInfo prefixInfo : prefixInfos) {
-        if (prefixInfo.exists()) {
-          objectInfos.add(prefixInfo);
+      if (storageOptions.isAutoRepairImplicitDirectoriesEnabled()
+          && storageOptions.isBackgroundRepairImplicitDirectoriesEnabled()) {
+        queueBackgroundRepair(resourceIdsForPrefixes);
+      }
+      return;
+    }
+
+    // Send requests to fetch info about the directories associated with each prefix in batch
+    // requests, maxRequestsPerBatch at a time.
+    List<StorageResourceId> resourceIdsForPrefixes = new ArrayList<>();
+    for (String prefix : listedPrefixes) {
+      resourceIdsForPrefixes.add(new StorageResourceId(bucketName, prefix));
+    }
+    List<GoogleCloudStorageItemInfo> prefixInfos = getItemInfos(resourceIdsForPrefixes);
+    List<StorageResourceId> repairList = new ArrayList<>();
+    for (GoogleCloudStorageItemInfo prefixInfo : prefixInfos) {
+      if (prefixInfo.exists()) {
+        objectInfos.add(prefixInfo);
+      } else {
+        // This indicates a likely "implicit directory" due to a StorageObject lacking a GHFS-
+        // created parent directory.
+        String errorBase = String.format(
+            "Error retrieving object for a retrieved prefix with resourceId '%s'. ",
+            prefixInfo.getResourceId());
+        if (storageOptions.isAutoRepairImplicitDirectoriesEnabled()) {
+          log.debug(errorBase + "Attempting to repair missing directory.");
+          repairList.add(prefixInfo.getResourceId());
         } else {
-          // This indicates a likely "implicit directory" due to a StorageObject lacking a GHFS-
-          // created parent directory.
-          String errorBase = String.format(
-              "Error retrieving object for a retrieved prefix with resourceId '%s'. ",
-              prefixInfo.getResourceId());
-          if (storageOptions.isAutoRepairImplicitDirectoriesEnabled()) {
-            log.debug(errorBase + "Attempting to repair missing directory.");
-            repairList.add(prefixInfo.getResourceId());
-          } else {
-            log.error(errorBase + "Giving up on retrieving missing directory.");
-          }
+          log.error(errorBase + "Giving up on retrieving missing directory.");
         }
       }
+    }
 
-      // Handle repairs.
-      if (storageOptions.isAutoRepairImplicitDirectoriesEnabled() && !repairList.isEmpty()) {
-        try {
-          log.warn("Repairing batch of %d missing directories.", repairList.size());
-          if (repairList.size() == 1) {
-            createEmptyObject(repairList.get(0));
+    // Handle repairs.
+    if (storageOptions.isAutoRepairImplicitDirectoriesEnabled() && !repairList.isEmpty()) {
+      try {
+        log.warn("Repairing batch of %d missing directories.", repairList.size());
+        if (repairList.size() == 1) {
+          createEmptyObject(repairList.get(0));
+        } else {
+          createEmptyObjects(repairList);
+        }
+
+        // Fetch and append all the repaired metadatas.
+        List<GoogleCloudStorageItemInfo> repairedInfos = getItemInfos(repairList);
+        int numRepaired = 0;
+        for (GoogleCloudStorageItemInfo repairedInfo : repairedInfos) {
+          if (repairedInfo.exists()) {
+            objectInfos.add(repairedInfo);
+            ++numRepaired;
           } else {
-            createEmptyObjects(repairList);
+            log.warn("Somehow the repair for '%s' failed quietly", repairedInfo.getResourceId());
           }
+        }
+        log.warn("Successfully repaired %d/%d implicit directories.",
+            numRepaired, repairList.size());
+      } catch (IOException ioe) {
+        // Don't totally fail the listObjectInfo call, since auto-repair is best-effort
+        // anyways.
+        log.error("Failed to repair some missing directories.", ioe);
+      }
+    }
+  }
 
-          // Fetch and append all the repaired metadatas.
-          List<GoogleCloudStorageItemInfo> repairedInfos = getItemInfos(repairList);
-          int numRepaired = 0;
-          for (GoogleCloudStorageItemInfo repairedInfo : repairedInfos) {
-            if (repairedInfo.exists()) {
-              objectInfos.add(repairedInfo);
-              ++numRepaired;
-            } else {
-              log.warn("Somehow the repair for '%s' failed quietly", repairedInfo.getResourceId());
-            }
-          }
-          log.warn("Successfully repaired %d/%d implicit directories.",
-              numRepaired, repairList.size());
-        } catch (IOException ioe) {
-          // Don't totally fail the listObjectInfo call, since auto-repair is best-effort
-          // anyways.
-          log.error("Failed to repair some missing directories.", ioe);
+  /**
+   * Queues the repair of those of {@code directoryIds} not recently repaired or queued already on
+   * {@link #backgroundRepairThreadPool}. Repair is best-effort, so if the queue is full, or the
+   * instance is being closed, the directories are left to be queued by a later listing.
+   */
+  private void queueBackgroundRepair(List<StorageResourceId> directoryIds) {
+    final List<StorageResourceId> repairIds = new ArrayList<>();
+    for (StorageResourceId directoryId : directoryIds) {
+      if (backgroundRepairedDirectories.putIfAbsent(directoryId, Boolean.TRUE) == null) {
+        repairIds.add(directoryId);
+      }
+    }
+    if (repairIds.isEmpty()) {
+      return;
+    }
+    try {
+      backgroundRepairThreadPool.execute(new Runnable() {
+        @Override
+        public void run() {
+          repairMissingDirectories(repairIds);
+        }
+      });
+    } catch (RejectedExecutionException ree) {
+      log.debug("Skipping repair of %d prefixes: %s", repairIds.size(), ree);
+      backgroundRepairedDirectories.keySet().removeAll(repairIds);
+    }
+  }
+
+  /**
+   * Creates the directory objects among {@code directoryIds} which do not exist. Runs in the
+   * background for listings which infer directories from prefixes, so failures are only logged,
+   * and the directories left to be queued again by a later listing.
+   */
+  private void repairMissingDirectories(List<StorageResourceId> directoryIds) {
+    try {
+      List<StorageResourceId> repairList = new ArrayList<>();
+      for (GoogleCloudStorageItemInfo directoryInfo : getItemInfos(directoryIds)) {
+        if (!directoryInfo.exists()) {
+          repairList.add(directoryInfo.getResourceId());
         }
       }
+      if (repairList.isEmpty()) {
+        return;
+      }
+      log.warn("Repairing batch of %d missing directories in the background.", repairList.size());
+      if (repairList.size() == 1) {
+        createEmptyObject(repairList.get(0));
+      } else {
+        createEmptyObjects(repairList);
+      }
+    } catch (IOException ioe) {
+      log.error("Failed to repair some missing directories.", ioe);
+      backgroundRepairedDirectories.keySet().removeAll(directoryIds);
     }
-    return objectInfos;
   }
 
   /**
@@ -1255,7 +1696,25 @@ public class GoogleCloudStorageImpl
         null,
         decodedMetadata,
         object.getGeneration(),
-        object.getMetageneration());
+        object.getMetageneration(),
+        decodeHash(object.getCrc32c()),
+        decodeHash(object.getMd5Hash()));
+  }
+
+  /**
+   * Decodes a base64-encoded object hash as returned by the GCS API, or returns null if the hash
+   * is absent or malformed.
+   */
+  private static byte[] decodeHash(String encodedHash) {
+    if (encodedHash == null) {
+      return null;
+    }
+    try {
+      return BaseEncoding.base64().decode(encodedHash);
+    } catch (IllegalArgumentException iae) {
+      log.error("Failed to parse base64 encoded hash %s - %s", encodedHash, iae);
+      return null;
+    }
   }
 
   /**
@@ -1284,7 +1743,9 @@ public class GoogleCloudStorageImpl
     BatchHelper batchHelper = batchFactory.newBatchHelper(
         httpRequestInitializer,
         gcs,
-        storageOptions.getMaxRequestsPerBatch());
+        storageOptions.getMaxRequestsPerBatch(),
+        storageOptions.getBatchThreads(),
+        batchThreadPool);
 
     // For each resourceId, we'll either directly add ROOT_INFO, enqueue a Bucket fetch request, or
     // enqueue a StorageObject fetch request.
@@ -1370,7 +1831,9 @@ public class GoogleCloudStorageImpl
     BatchHelper batchHelper = batchFactory.newBatchHelper(
         httpRequestInitializer,
         gcs,
-        storageOptions.getMaxRequestsPerBatch());
+        storageOptions.getMaxRequestsPerBatch(),
+        storageOptions.getBatchThreads(),
+        batchThreadPool);
 
     for (UpdatableItemInfo itemInfo : itemInfoList) {
       Preconditions.checkArgument(!itemInfo.getStorageResourceId().isBucket()
@@ -1487,7 +1950,9 @@ public class GoogleCloudStorageImpl
     // therefore no need to guard against that by setting threadPool to null.
     log.debug("close()");
     threadPool.shutdown();
+    backgroundRepairThreadPool.shutdown();
     manualBatchingThreadPool.shutdown();
+    batchThreadPool.shutdown();
   }
 
   /**
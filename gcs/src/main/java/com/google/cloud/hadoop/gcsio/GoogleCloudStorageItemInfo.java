@@ -19,6 +19,8 @@ package com.google.cloud.hadoop.gcsio;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Map;
 import java.util.Objects;
@@ -31,6 +33,15 @@ public class GoogleCloudStorageItemInfo {
   public static final GoogleCloudStorageItemInfo ROOT_INFO =
       new GoogleCloudStorageItemInfo(StorageResourceId.ROOT, 0, 0, null, null);
 
+  // Orders infos of items in the same bucket by object name, as GCS lists them.
+  public static final Comparator<GoogleCloudStorageItemInfo> OBJECT_NAME_COMPARATOR =
+      new Comparator<GoogleCloudStorageItemInfo>() {
+        @Override
+        public int compare(GoogleCloudStorageItemInfo a, GoogleCloudStorageItemInfo b) {
+          return a.getObjectName().compareTo(b.getObjectName());
+        }
+      };
+
   // Instead of returning null metadata, we'll return this map.
   private static final Map<String, byte[]> EMPTY_METADATA = ImmutableMap.of();
 
@@ -56,6 +67,12 @@ public class GoogleCloudStorageItemInfo {
   private final long contentGeneration;
   private final long metaGeneration;
 
+  // Server-computed CRC32C of the object contents as 4 big-endian bytes; null if not available.
+  private final byte[] crc32c;
+
+  // Server-computed MD5 of the object contents; null if not available (e.g. composite objects).
+  private final byte[] md5Hash;
+
   /**
    * Constructs an instance of GoogleCloudStorageItemInfo.
    *
@@ -93,6 +110,40 @@ public class GoogleCloudStorageItemInfo {
       Map<String, byte[]> metadata,
       long contentGeneration,
       long metaGeneration) {
+    this(
+        resourceId,
+        creationTime,
+        size,
+        location,
+        storageClass,
+        metadata,
+        contentGeneration,
+        metaGeneration,
+        null /* crc32c */,
+        null /* md5Hash */);
+  }
+
+  /**
+   * Constructs an instance of GoogleCloudStorageItemInfo.
+   *
+   * @param resourceId identifies either root, a Bucket, or a StorageObject
+   * @param creationTime Time when object was created (milliseconds since January 1, 1970 UTC).
+   * @param size Size of the given object (number of bytes) or -1 if the object does not exist.
+   * @param metadata User-supplied object metadata for this object.
+   * @param crc32c Big-endian CRC32C of the object contents, or null if not available.
+   * @param md5Hash MD5 of the object contents, or null if not available.
+   */
+  public GoogleCloudStorageItemInfo(
+      StorageResourceId resourceId,
+      long creationTime,
+      long size,
+      String location,
+      String storageClass,
+      Map<String, byte[]> metadata,
+      long contentGeneration,
+      long metaGeneration,
+      byte[] crc32c,
+      byte[] md5Hash) {
     Preconditions.checkArgument(resourceId != null,
         "resourceId must not be null! Use StorageResourceId.ROOT to represent GCS root.");
     this.resourceId = resourceId;
@@ -107,6 +158,8 @@ public class GoogleCloudStorageItemInfo {
     }
     this.contentGeneration = contentGeneration;
     this.metaGeneration = metaGeneration;
+    this.crc32c = crc32c;
+    this.md5Hash = md5Hash;
   }
 
   /**
@@ -209,6 +262,22 @@ public class GoogleCloudStorageItemInfo {
     return metaGeneration;
   }
 
+  /**
+   * Gets the server-computed CRC32C of the object contents, encoded as 4 bytes in big-endian
+   * order, or null if not available.
+   */
+  public byte[] getCrc32c() {
+    return crc32c;
+  }
+
+  /**
+   * Gets the server-computed MD5 hash of the object contents, or null if not available. GCS does
+   * not compute MD5 hashes for composite objects.
+   */
+  public byte[] getMd5Hash() {
+    return md5Hash;
+  }
+
   /**
    * Gets string representation of this instance.
    */
@@ -232,7 +301,9 @@ public class GoogleCloudStorageItemInfo {
           && Objects.equals(location, other.location) 
           && Objects.equals(storageClass, other.storageClass)
           && metaGeneration == other.metaGeneration
-          && contentGeneration == other.contentGeneration;
+          && contentGeneration == other.contentGeneration
+          && Arrays.equals(crc32c, other.crc32c)
+          && Arrays.equals(md5Hash, other.md5Hash);
     }
     return false;
   }
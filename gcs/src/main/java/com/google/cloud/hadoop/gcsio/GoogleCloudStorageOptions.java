@@ -38,11 +38,46 @@ public class GoogleCloudStorageOptions {
    */
   public static final long MAX_REQUESTS_PER_BATCH_DEFAULT = 1000;
 
+  /**
+   * Default setting for maximum number of batch requests executed concurrently by a single
+   * operation such as copy or deleteObjects, and by all such operations together.
+   */
+  public static final int BATCH_THREADS_DEFAULT = 1;
+
   /**
    * Default setting for whether or not to create a marker file when beginning file creation.
    */
   public static final boolean CREATE_EMPTY_MARKER_OBJECT_DEFAULT = false;
 
+  /**
+   * Default setting for whether or not to validate full-object reads against the CRC32C stored
+   * by GCS.
+   */
+  public static final boolean READ_CHECKSUM_ENABLED_DEFAULT = false;
+
+  /**
+   * Default setting for whether or not to copy objects with the rewrite API instead of the copy
+   * API.
+   */
+  public static final boolean COPY_WITH_REWRITE_ENABLED_DEFAULT = false;
+
+  /**
+   * Default limit on the bytes copied by each call of a rewrite; 0 leaves the limit to GCS.
+   */
+  public static final long MAX_BYTES_REWRITTEN_PER_CALL_DEFAULT = 0;
+
+  /**
+   * Default setting for whether or not to list the prefixes returned by a delimited listing as
+   * directories without fetching their directory objects.
+   */
+  public static final boolean INFER_DIRECTORIES_FROM_PREFIXES_DEFAULT = false;
+
+  /**
+   * Default setting for whether or not to repair, in the background, the missing directory
+   * objects of prefixes listed as inferred directories.
+   */
+  public static final boolean BACKGROUND_REPAIR_IMPLICIT_DIRECTORIES_DEFAULT = false;
+
   /**
    * Mutable builder for the GoogleCloudStorageOptions class.
    */
@@ -53,11 +88,18 @@ public class GoogleCloudStorageOptions {
     private String appName = null;
     private long maxListItemsPerCall = MAX_LIST_ITEMS_PER_CALL_DEFAULT;
     private boolean createMarkerObjects = CREATE_EMPTY_MARKER_OBJECT_DEFAULT;
+    private boolean readChecksumEnabled = READ_CHECKSUM_ENABLED_DEFAULT;
+    private boolean copyWithRewriteEnabled = COPY_WITH_REWRITE_ENABLED_DEFAULT;
+    private long maxBytesRewrittenPerCall = MAX_BYTES_REWRITTEN_PER_CALL_DEFAULT;
+    private boolean inferDirectoriesFromPrefixesEnabled = INFER_DIRECTORIES_FROM_PREFIXES_DEFAULT;
+    private boolean backgroundRepairImplicitDirectoriesEnabled =
+        BACKGROUND_REPAIR_IMPLICIT_DIRECTORIES_DEFAULT;
 
     // According to https://developers.google.com/storage/docs/json_api/v1/how-tos/batch, there is a
     // maximum of 1000 requests per batch; it should not generally be necessary to modify this value
     // manually, except possibly for testing purposes.
     private long maxRequestsPerBatch = MAX_REQUESTS_PER_BATCH_DEFAULT;
+    private int batchThreads = BATCH_THREADS_DEFAULT;
 
     private AsyncWriteChannelOptions.Builder writeChannelOptionsBuilder =
         new AsyncWriteChannelOptions.Builder();
@@ -88,11 +130,43 @@ public class GoogleCloudStorageOptions {
       return this;
     }
 
+    public Builder setBatchThreads(int batchThreads) {
+      this.batchThreads = batchThreads;
+      return this;
+    }
+
     public Builder setCreateMarkerObjects(boolean createMarkerObjects) {
       this.createMarkerObjects = createMarkerObjects;
       return this;
     }
 
+    public Builder setReadChecksumEnabled(boolean readChecksumEnabled) {
+      this.readChecksumEnabled = readChecksumEnabled;
+      return this;
+    }
+
+    public Builder setCopyWithRewriteEnabled(boolean copyWithRewriteEnabled) {
+      this.copyWithRewriteEnabled = copyWithRewriteEnabled;
+      return this;
+    }
+
+    public Builder setMaxBytesRewrittenPerCall(long maxBytesRewrittenPerCall) {
+      this.maxBytesRewrittenPerCall = maxBytesRewrittenPerCall;
+      return this;
+    }
+
+    public Builder setInferDirectoriesFromPrefixesEnabled(
+        boolean inferDirectoriesFromPrefixesEnabled) {
+      this.inferDirectoriesFromPrefixesEnabled = inferDirectoriesFromPrefixesEnabled;
+      return this;
+    }
+
+    public Builder setBackgroundRepairImplicitDirectoriesEnabled(
+        boolean backgroundRepairImplicitDirectoriesEnabled) {
+      this.backgroundRepairImplicitDirectoriesEnabled = backgroundRepairImplicitDirectoriesEnabled;
+      return this;
+    }
+
     public Builder setWriteChannelOptionsBuilder(
         AsyncWriteChannelOptions.Builder builder) {
       writeChannelOptionsBuilder = builder;
@@ -110,7 +184,13 @@ public class GoogleCloudStorageOptions {
           appName,
           maxListItemsPerCall,
           maxRequestsPerBatch,
+          batchThreads,
           createMarkerObjects,
+          readChecksumEnabled,
+          copyWithRewriteEnabled,
+          maxBytesRewrittenPerCall,
+          inferDirectoriesFromPrefixesEnabled,
+          backgroundRepairImplicitDirectoriesEnabled,
           writeChannelOptionsBuilder.build());
     }
   }
@@ -125,19 +205,49 @@ public class GoogleCloudStorageOptions {
   private final AsyncWriteChannelOptions writeChannelOptions;
   private final long maxListItemsPerCall;
   private final long maxRequestsPerBatch;
+  private final int batchThreads;
   private final boolean createMarkerFile;
+  private final boolean readChecksumEnabled;
+  private final boolean copyWithRewriteEnabled;
+  private final long maxBytesRewrittenPerCall;
+  private final boolean inferDirectoriesFromPrefixesEnabled;
+  private final boolean backgroundRepairImplicitDirectoriesEnabled;
 
   public GoogleCloudStorageOptions(boolean autoRepairImplicitDirectoriesEnabled,
       String projectId, String appName, long maxListItemsPerCall,
       long maxRequestsPerBatch, boolean createMarkerFile,
       AsyncWriteChannelOptions writeChannelOptions) {
+    this(autoRepairImplicitDirectoriesEnabled, projectId, appName, maxListItemsPerCall,
+        maxRequestsPerBatch, BATCH_THREADS_DEFAULT, createMarkerFile,
+        READ_CHECKSUM_ENABLED_DEFAULT, COPY_WITH_REWRITE_ENABLED_DEFAULT,
+        MAX_BYTES_REWRITTEN_PER_CALL_DEFAULT, INFER_DIRECTORIES_FROM_PREFIXES_DEFAULT,
+        BACKGROUND_REPAIR_IMPLICIT_DIRECTORIES_DEFAULT, writeChannelOptions);
+  }
+
+  /**
+   * Options added since the public constructor above are set only through the Builder, so that
+   * adding another doesn't change the signature of a public constructor.
+   */
+  private GoogleCloudStorageOptions(boolean autoRepairImplicitDirectoriesEnabled,
+      String projectId, String appName, long maxListItemsPerCall,
+      long maxRequestsPerBatch, int batchThreads, boolean createMarkerFile,
+      boolean readChecksumEnabled, boolean copyWithRewriteEnabled,
+      long maxBytesRewrittenPerCall, boolean inferDirectoriesFromPrefixesEnabled,
+      boolean backgroundRepairImplicitDirectoriesEnabled,
+      AsyncWriteChannelOptions writeChannelOptions) {
     this.autoRepairImplicitDirectoriesEnabled = autoRepairImplicitDirectoriesEnabled;
     this.projectId = projectId;
     this.appName = appName;
     this.writeChannelOptions = writeChannelOptions;
     this.maxListItemsPerCall = maxListItemsPerCall;
     this.maxRequestsPerBatch = maxRequestsPerBatch;
+    this.batchThreads = batchThreads;
     this.createMarkerFile = createMarkerFile;
+    this.readChecksumEnabled = readChecksumEnabled;
+    this.copyWithRewriteEnabled = copyWithRewriteEnabled;
+    this.maxBytesRewrittenPerCall = maxBytesRewrittenPerCall;
+    this.inferDirectoriesFromPrefixesEnabled = inferDirectoriesFromPrefixesEnabled;
+    this.backgroundRepairImplicitDirectoriesEnabled = backgroundRepairImplicitDirectoriesEnabled;
   }
 
   public boolean isAutoRepairImplicitDirectoriesEnabled() {
@@ -164,14 +274,45 @@ public class GoogleCloudStorageOptions {
     return maxRequestsPerBatch;
   }
 
+  public int getBatchThreads() {
+    return batchThreads;
+  }
+
   public boolean isMarkerFileCreationEnabled() {
     return createMarkerFile;
   }
 
+  public boolean isReadChecksumEnabled() {
+    return readChecksumEnabled;
+  }
+
+  public boolean isCopyWithRewriteEnabled() {
+    return copyWithRewriteEnabled;
+  }
+
+  public long getMaxBytesRewrittenPerCall() {
+    return maxBytesRewrittenPerCall;
+  }
+
+  public boolean isInferDirectoriesFromPrefixesEnabled() {
+    return inferDirectoriesFromPrefixesEnabled;
+  }
+
+  public boolean isBackgroundRepairImplicitDirectoriesEnabled() {
+    return backgroundRepairImplicitDirectoriesEnabled;
+  }
+
   public void throwIfNotValid() {
     Preconditions.checkArgument(!Strings.isNullOrEmpty(projectId),
         "projectId must not be null or empty");
     Preconditions.checkArgument(!Strings.isNullOrEmpty(appName),
         "appName must not be null or empty");
+    Preconditions.checkArgument(batchThreads > 0,
+        "batchThreads must be positive, got %s", batchThreads);
+    // GCS only accepts a maxBytesRewrittenPerCall which is a multiple of 1 MiB.
+    Preconditions.checkArgument(
+        maxBytesRewrittenPerCall >= 0 && maxBytesRewrittenPerCall % (1024 * 1024) == 0,
+        "maxBytesRewrittenPerCall must be a non-negative multiple of 1048576, got %s",
+        maxBytesRewrittenPerCall);
   }
 }
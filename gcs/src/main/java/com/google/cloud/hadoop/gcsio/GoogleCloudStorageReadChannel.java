@@ -25,10 +25,13 @@ import com.google.api.client.util.Sleeper;
 import com.google.api.services.storage.Storage;
 import com.google.api.services.storage.model.StorageObject;
 import com.google.cloud.hadoop.util.ApiErrorExtractor;
+import com.google.cloud.hadoop.util.ChecksummingChannel;
 import com.google.cloud.hadoop.util.ClientRequestHelper;
+import com.google.cloud.hadoop.util.Crc32c;
 import com.google.cloud.hadoop.util.LogUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.io.BaseEncoding;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -37,6 +40,8 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Pattern;
 import javax.net.ssl.SSLException;
 
@@ -44,13 +49,19 @@ import javax.net.ssl.SSLException;
  * Provides seekable read access to GCS.
  */
 public class GoogleCloudStorageReadChannel
-    implements SeekableReadableByteChannel {
+    implements SeekableReadableByteChannel, ChecksummingChannel {
   // Logger.
   private static LogUtil log = new LogUtil(GoogleCloudStorageReadChannel.class);
 
   // Used to separate elements of a Content-Range
   private static final Pattern SLASH = Pattern.compile("/");
 
+  // Response header in which GCS reports the hashes of the whole object.
+  private static final String HASH_HEADER = "x-goog-hash";
+
+  // Prefix of the CRC32C entry within HASH_HEADER.
+  private static final String CRC32C_HASH_PREFIX = "crc32c=";
+
   // GCS access instance.
   private Storage gcs;
 
@@ -81,6 +92,21 @@ public class GoogleCloudStorageReadChannel
   private long size = -1;
   private boolean isCompressedStream;
 
+  // Running CRC32C of the bytes read so far, used to validate a read of the whole object against
+  // the CRC32C reported by GCS. Only bytes read in a single sequential pass from the start of the
+  // object are checksummed; null if checksumming is disabled or the pass was interrupted by a
+  // seek.
+  private Crc32c crc32c;
+
+  // Number of bytes, starting at offset 0, covered by crc32c.
+  private long checksummedBytes;
+
+  // CRC32C of the whole object as reported by GCS, or null if not yet known.
+  private byte[] expectedCrc32c;
+
+  // Total time spent updating crc32c.
+  private long checksumTimeNanos;
+
   // Maximum number of automatic retries when reading from the underlying channel without making
   // progress; each time at least one byte is successfully read, the counter of attempted retries
   // is reset.
@@ -231,6 +257,20 @@ public class GoogleCloudStorageReadChannel
     this.maxRetries = maxRetries;
   }
 
+  /**
+   * Enables or disables validating a sequential read of the whole object against the CRC32C
+   * stored by GCS. Must be called before the first read.
+   */
+  public void enableChecksum(boolean enableChecksum) {
+    crc32c = enableChecksum ? new Crc32c() : null;
+    checksummedBytes = 0;
+  }
+
+  @Override
+  public long getChecksumTimeNanos() {
+    return checksumTimeNanos;
+  }
+
   /**
    * Reads from this channel and stores read data in the given buffer.
    *
@@ -251,6 +291,8 @@ public class GoogleCloudStorageReadChannel
     // Perform a lazy seek if not done already.
     performLazySeek();
 
+    long startPosition = currentPosition;
+    int startBufferPosition = buffer.position();
     int totalBytesRead = 0;
     int retriesAttempted = 0;
 
@@ -372,10 +414,76 @@ public class GoogleCloudStorageReadChannel
           + "currentPosition: %s, size: %s", currentPosition, size);
       return -1;
     } else {
+      updateChecksum(buffer, startBufferPosition, startPosition, totalBytesRead);
       return totalBytesRead;
     }
   }
 
+  /**
+   * Adds {@code numBytes} bytes just read into {@code buffer} starting at
+   * {@code bufferPosition}, which were read from object offset {@code objectPosition}, to the
+   * running checksum; validates the checksum once the whole object has been read.
+   */
+  private void updateChecksum(
+      ByteBuffer buffer, int bufferPosition, long objectPosition, int numBytes)
+      throws IOException {
+    if (crc32c == null) {
+      return;
+    }
+    if (objectPosition != checksummedBytes || isCompressedStream) {
+      // A seek means the bytes are no longer read in one sequential pass; give up validating.
+      log.debug("Disabling checksum validation of '%s' after non-sequential read at %d",
+          StorageResourceId.createReadableString(bucketName, objectName), objectPosition);
+      crc32c = null;
+      return;
+    }
+
+    ByteBuffer readBytes = buffer.duplicate();
+    readBytes.limit(bufferPosition + numBytes);
+    readBytes.position(bufferPosition);
+    long startTime = System.nanoTime();
+    crc32c.update(readBytes);
+    checksumTimeNanos += System.nanoTime() - startTime;
+    checksummedBytes += numBytes;
+
+    if (checksummedBytes == size) {
+      byte[] actualCrc32c = crc32c.getValueAsBytes();
+      crc32c = null;
+      if (expectedCrc32c != null && !Arrays.equals(expectedCrc32c, actualCrc32c)) {
+        throw new IOException(String.format(
+            "CRC32C mismatch reading %s: computed %s, GCS reported %s",
+            StorageResourceId.createReadableString(bucketName, objectName),
+            BaseEncoding.base64().encode(actualCrc32c),
+            BaseEncoding.base64().encode(expectedCrc32c)));
+      }
+    }
+  }
+
+  /**
+   * Returns the CRC32C found in the given x-goog-hash header values, or null if there is none.
+   */
+  @VisibleForTesting
+  static byte[] parseCrc32c(List<String> hashHeaderValues) {
+    if (hashHeaderValues == null) {
+      return null;
+    }
+    for (String headerValue : hashHeaderValues) {
+      // A single header value may also hold several comma-separated hashes.
+      for (String hash : headerValue.split(",")) {
+        hash = hash.trim();
+        if (hash.startsWith(CRC32C_HASH_PREFIX)) {
+          try {
+            return BaseEncoding.base64().decode(hash.substring(CRC32C_HASH_PREFIX.length()));
+          } catch (IllegalArgumentException iae) {
+            log.error("Failed to parse crc32c from %s: %s", HASH_HEADER, hash);
+            return null;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
   /**
    * Tells whether this channel is open.
    *
@@ -552,6 +660,10 @@ public class GoogleCloudStorageReadChannel
     String contentEncoding = response.getContentEncoding();
     isCompressedStream = (contentEncoding != null && contentEncoding.contains("gzip"));
 
+    if (crc32c != null && expectedCrc32c == null) {
+      expectedCrc32c = parseCrc32c(response.getHeaders().getHeaderStringValues(HASH_HEADER));
+    }
+
     String contentRange = response.getHeaders().getContentRange();
     if (response.getHeaders().getContentLength() != null) {
       size = response.getHeaders().getContentLength() + newPosition;
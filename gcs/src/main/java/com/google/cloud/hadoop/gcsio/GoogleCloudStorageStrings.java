@@ -70,4 +70,19 @@ public class GoogleCloudStorageStrings {
     }
     return objectName;
   }
+
+  /**
+   * Helper which mimics the GCS API behavior for the startOffset and endOffset of a listing,
+   * checking whether {@code objectName}, or the prefix returned by {@link #matchListPrefix} in its
+   * place, lies in the lexicographic range they bound.
+   *
+   * @param objectName The name, or truncated prefix, to check.
+   * @param startOffset The lowest name in the range, inclusive. May be null for no lower bound.
+   * @param endOffset The upper bound of the range, exclusive. May be null for no upper bound.
+   * @return true if {@code objectName} lies in the range.
+   */
+  public static boolean isInListRange(String objectName, String startOffset, String endOffset) {
+    return (startOffset == null || objectName.compareTo(startOffset) >= 0)
+        && (endOffset == null || objectName.compareTo(endOffset) < 0);
+  }
 }
@@ -23,8 +23,11 @@ import com.google.api.services.storage.model.StorageObject;
 import com.google.cloud.hadoop.util.AbstractGoogleAsyncWriteChannel;
 import com.google.cloud.hadoop.util.AsyncWriteChannelOptions;
 import com.google.cloud.hadoop.util.ClientRequestHelper;
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.io.BaseEncoding;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
@@ -33,6 +36,8 @@ import java.util.concurrent.ExecutorService;
  */
 public class GoogleCloudStorageWriteChannel
     extends AbstractGoogleAsyncWriteChannel<Insert, StorageObject> {
+  // Logger.
+  private static final LogUtil log = new LogUtil(GoogleCloudStorageWriteChannel.class);
 
   private final Storage gcs;
   private final String bucketName;
@@ -77,4 +82,41 @@ public class GoogleCloudStorageWriteChannel
     writeConditions.apply(insert);
     return insert;
   }
+
+  /**
+   * If checksumming is enabled, validates the CRC32C computed while writing against the CRC32C
+   * GCS computed for the stored object. On a mismatch the corrupt generation of the object is
+   * deleted and an IOException is thrown.
+   * <p>
+   * The data of a resumable upload is streamed before its length, let alone its CRC32C, is
+   * known, so the CRC32C can't be sent for GCS to check before the object is committed. The
+   * corrupt generation is thus briefly visible and has already replaced any previous generation,
+   * which only survives its deletion in a bucket with object versioning.
+   */
+  @Override
+  public void handleResponse(StorageObject response) throws IOException {
+    byte[] localCrc32c = getCrc32c();
+    if (localCrc32c == null || response == null || response.getCrc32c() == null) {
+      return;
+    }
+    byte[] serverCrc32c = BaseEncoding.base64().decode(response.getCrc32c());
+    if (Arrays.equals(localCrc32c, serverCrc32c)) {
+      return;
+    }
+
+    String readableName = StorageResourceId.createReadableString(bucketName, objectName);
+    log.error("CRC32C mismatch uploading %s: computed %s, GCS reported %s; deleting generation %s",
+        readableName, BaseEncoding.base64().encode(localCrc32c), response.getCrc32c(),
+        response.getGeneration());
+    try {
+      Storage.Objects.Delete deleteObject = gcs.objects().delete(bucketName, objectName);
+      deleteObject.setIfGenerationMatch(response.getGeneration());
+      deleteObject.execute();
+    } catch (IOException ioe) {
+      log.error(String.format("Failed to delete corrupt object %s", readableName), ioe);
+    }
+    throw new IOException(String.format(
+        "CRC32C mismatch uploading %s: computed %s, GCS reported %s", readableName,
+        BaseEncoding.base64().encode(localCrc32c), response.getCrc32c()));
+  }
 }
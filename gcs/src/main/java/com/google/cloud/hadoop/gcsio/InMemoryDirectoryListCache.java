@@ -17,12 +17,33 @@
 package com.google.cloud.hadoop.gcsio;
 
 import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * InMemoryDirectoryListCache provides in-memory accounting of full paths for directories and files
@@ -46,28 +67,118 @@ import java.util.Set;
  * 2. Cross-client 'delete' followed by 'list' will be worse than pure-GCS.
  * 3. Same-client 'delete' followed by 'list' is unchanged with respect to eventual consistency.
  * <p>
- * This class is thread-safe.
+ * This class is thread-safe. Lookups and listings don't take the cache-wide lock, so they never
+ * block each other; objects are kept sorted by name so that a listing only visits the entries
+ * under its prefix. Expired entries are removed when a listing comes across them, and otherwise
+ * by a background sweep which runs every {@link #SWEEP_INTERVAL_MILLIS} milliseconds.
+ * <p>
+ * If the Config sets a maximum number of entries or bytes, adding an object which exceeds either
+ * evicts the least recently used objects until the cache is back down to
+ * {@link #EVICTION_TARGET_RATIO} of the limit; a bucket left empty by eviction is evicted too.
+ * <p>
+ * The cache can be saved to a local snapshot with {@link #writeSnapshot} and restored with
+ * {@link #loadSnapshot}, so that a short-lived process can start with the entries of the one
+ * which ran before it. Users sharing an instance, such as the filesystems of a process sharing
+ * the singleton, should use {@link #openSnapshot} and {@link #closeSnapshot} instead, which
+ * restore the snapshot only once and save it only once the last of them is done.
  */
 public class InMemoryDirectoryListCache extends DirectoryListCache {
   private static final LogUtil log = new LogUtil(InMemoryDirectoryListCache.class);
 
+  // Number of milliseconds between background sweeps for expired entries and infos.
+  public static final long SWEEP_INTERVAL_MILLIS = 60 * 1000L;
+
+  // Fraction of the configured maxEntries and maxBytes to which eviction shrinks the cache, so
+  // that the cost of an eviction is spread over many additions.
+  public static final double EVICTION_TARGET_RATIO = 0.9;
+
+  // Marks the start of a snapshot written by writeSnapshot(): "GCSSNAP" and its version.
+  private static final long SNAPSHOT_MAGIC = 0x474353534e415001L;
+
+  // Daemon thread shared by all instances to sweep them for expired entries.
+  private static final ScheduledExecutorService sweepExecutor =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("gcs-directory-list-cache-sweeper-%d")
+              .setDaemon(true)
+              .build());
+
   // The shared singleton instance of DirectoryListCache.
   private static final InMemoryDirectoryListCache singletonInstance =
       new InMemoryDirectoryListCache();
 
   // Mapping from bucketName to data structure which holds both the CacheEntry corresponding to
   // the bucket itself as well as mappings to CacheEntry values for StorageObjects residing in
-  // the bucket. Existence of CacheEntrys is solely handled through synchronized methods of
-  // DirectoryListCache. However, the handling of GoogleCloudStorageItemInfos within each CacheEntry
-  // is synchronized only by the CacheEntry itself; therefore inner itemInfos may change outside
-  // of a DirectoryListCache method.
-  private final Map<String, CachedBucket> bucketLookup = new HashMap<>();
+  // the bucket. Buckets are only added and removed while holding the cache's lock, so that an
+  // object is never added to a CachedBucket which is concurrently being removed; objects are
+  // removed from their CachedBucket without it. The handling of GoogleCloudStorageItemInfos
+  // within each CacheEntry is synchronized only by the CacheEntry itself; therefore inner
+  // itemInfos may change outside of a DirectoryListCache method.
+  private final ConcurrentMap<String, CachedBucket> bucketLookup = new ConcurrentHashMap<>();
+
+  // Source of the sequence numbers recorded by each access to a CacheEntry.
+  private final AtomicLong accessSequence = new AtomicLong();
+
+  // Number of StorageObject entries evicted to stay within the configured size limits.
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  // Number of users which have opened each snapshot restored into this cache with
+  // openSnapshot() and not closed it yet, keyed by absolute path; guarded by itself.
+  private final Map<Path, Integer> snapshotUsers = new HashMap<>();
+
+  // Whether the shutdown hook saving snapshots which are still open has been added.
+  private boolean snapshotShutdownHookAdded;
+
+  // StorageObject entries in the order in which they were added, or last given a second chance,
+  // from which maybeEvict() takes the entries to evict; guarded by the cache's lock. Records of
+  // entries since removed by other means are dropped as maybeEvict() reaches them, or by
+  // maybeCompactEvictionQueue().
+  private final ArrayDeque<EvictionRecord> evictionQueue = new ArrayDeque<>();
 
   /**
    * Callers should usually only obtain an instance via {@link #getInstance()} so that cache
    * info is shared process-wide, but instances can be created for temporary caches.
    */
   public InMemoryDirectoryListCache() {
+    scheduleSweeps(this);
+  }
+
+  /**
+   * Periodically sweeps {@code cache} until it is garbage-collected.
+   */
+  private static void scheduleSweeps(InMemoryDirectoryListCache cache) {
+    SweepTask sweepTask = new SweepTask(cache);
+    sweepTask.future = sweepExecutor.scheduleWithFixedDelay(
+        sweepTask, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Sweeps a cache for expired entries. Only holds a weak reference to the cache, and cancels
+   * itself once the cache is gone, so that temporary caches don't live forever.
+   */
+  private static class SweepTask implements Runnable {
+    private final WeakReference<InMemoryDirectoryListCache> cacheReference;
+    private volatile ScheduledFuture<?> future;
+
+    SweepTask(InMemoryDirectoryListCache cache) {
+      cacheReference = new WeakReference<>(cache);
+    }
+
+    @Override
+    public void run() {
+      InMemoryDirectoryListCache cache = cacheReference.get();
+      if (cache == null) {
+        if (future != null) {
+          future.cancel(false);
+        }
+        return;
+      }
+      try {
+        cache.sweepExpiredEntries();
+      } catch (RuntimeException e) {
+        log.error("Failed to sweep DirectoryListCache for expired entries", e);
+      }
+    }
   }
 
   /**
@@ -109,15 +220,137 @@ public class InMemoryDirectoryListCache extends DirectoryListCache {
       bucketLookup.put(resourceId.getBucketName(), resourceBucket);
     }
 
+    recordAccess(resourceBucket);
     if (resourceId.isStorageObject()) {
-      return resourceBucket.put(resourceId);
+      boolean isNewEntry = resourceBucket.get(resourceId) == null;
+      CacheEntry objectEntry = resourceBucket.put(resourceId);
+      recordAccess(objectEntry);
+      if (isNewEntry) {
+        enqueueForEviction(resourceBucket, objectEntry);
+      }
+      maybeEvict();
+      return objectEntry;
     } else {
       return resourceBucket;
     }
   }
 
+  /**
+   * Marks {@code entry} as the most recently used one.
+   */
+  private void recordAccess(CacheEntry entry) {
+    entry.setAccessSequence(accessSequence.incrementAndGet());
+  }
+
+  /**
+   * A StorageObject entry in the evictionQueue, with its access sequence number as of when it was
+   * queued, so that an entry accessed since can be told apart.
+   */
+  private static class EvictionRecord {
+    final CachedBucket bucket;
+    final CacheEntry entry;
+    final long queuedAccessSequence;
+
+    EvictionRecord(CachedBucket bucket, CacheEntry entry) {
+      this.bucket = bucket;
+      this.entry = entry;
+      this.queuedAccessSequence = entry.getAccessSequence();
+    }
+  }
+
+  /**
+   * Returns true if the entry of {@code record} is still cached.
+   */
+  private boolean isCached(EvictionRecord record) {
+    return bucketLookup.get(record.bucket.getName()) == record.bucket
+        && record.bucket.get(record.entry.getResourceId()) == record.entry;
+  }
+
+  /**
+   * Adds a new StorageObject entry to the tail of the evictionQueue. Must be called while holding
+   * the cache's lock.
+   */
+  private void enqueueForEviction(CachedBucket bucket, CacheEntry objectEntry) {
+    evictionQueue.add(new EvictionRecord(bucket, objectEntry));
+    maybeCompactEvictionQueue();
+  }
+
+  /**
+   * Drops the records of entries no longer cached from the evictionQueue once they make up most
+   * of it, so that the queue stays proportional to the cache however entries are removed; the
+   * occasional pass is paid for by the additions since the last one. Must be called while holding
+   * the cache's lock.
+   */
+  private void maybeCompactEvictionQueue() {
+    if (evictionQueue.size() <= 1024 || evictionQueue.size() <= 2L * getInternalNumObjects()) {
+      return;
+    }
+    Iterator<EvictionRecord> records = evictionQueue.iterator();
+    while (records.hasNext()) {
+      if (!isCached(records.next())) {
+        records.remove();
+      }
+    }
+  }
+
+  /**
+   * Evicts approximately the least recently used StorageObject entries if the cache exceeds the
+   * configured maxEntries or maxBytes. Must be called while holding the cache's lock.
+   * <p>
+   * Entries are taken from the head of the evictionQueue, oldest first. An entry accessed since
+   * it was queued is given a second chance at the tail instead of being evicted, as in the CLOCK
+   * algorithm, so that each eviction costs constant amortized time and accesses, which only
+   * record a sequence number, need no lock.
+   */
+  private void maybeEvict() {
+    long maxEntries = cacheConfig.getMaxEntries();
+    long maxBytes = cacheConfig.getMaxBytes();
+    long numObjects = getInternalNumObjects();
+    long numBytes = getEstimatedSizeBytes();
+    if ((maxEntries <= 0 || numObjects <= maxEntries) && (maxBytes <= 0 || numBytes <= maxBytes)) {
+      return;
+    }
+    long targetEntries =
+        maxEntries > 0 ? (long) (maxEntries * EVICTION_TARGET_RATIO) : Long.MAX_VALUE;
+    long targetBytes = maxBytes > 0 ? (long) (maxBytes * EVICTION_TARGET_RATIO) : Long.MAX_VALUE;
+
+    long numEvicted = 0;
+    // Bounds the second chances given, so that concurrent accesses can't keep eviction going.
+    long secondChancesLeft = evictionQueue.size();
+    Set<CachedBucket> evictedFromBuckets = new HashSet<>();
+    while ((numObjects > targetEntries || numBytes > targetBytes) && !evictionQueue.isEmpty()) {
+      EvictionRecord record = evictionQueue.poll();
+      if (!isCached(record)) {
+        continue;
+      }
+      if (record.entry.getAccessSequence() != record.queuedAccessSequence
+          && secondChancesLeft > 0) {
+        --secondChancesLeft;
+        evictionQueue.add(new EvictionRecord(record.bucket, record.entry));
+        continue;
+      }
+      if (record.bucket.removeEntry(record.entry)) {
+        ++numEvicted;
+        --numObjects;
+        numBytes -= CachedBucket.estimateObjectEntryBytes(
+            record.entry.getResourceId().getObjectName());
+        evictedFromBuckets.add(record.bucket);
+      }
+    }
+
+    // Evict whole buckets whose objects were all evicted.
+    for (CachedBucket bucket : evictedFromBuckets) {
+      if (bucket.getNumObjects() == 0) {
+        bucketLookup.remove(bucket.getName(), bucket);
+      }
+    }
+    evictionCount.addAndGet(numEvicted);
+    log.debug("Evicted %d CacheEntries, leaving %d entries using about %d bytes",
+        numEvicted, numObjects, numBytes);
+  }
+
   @Override
-  public synchronized CacheEntry getCacheEntry(StorageResourceId resourceId) {
+  public CacheEntry getCacheEntry(StorageResourceId resourceId) {
     validateResourceId(resourceId);
 
     CachedBucket bucket = bucketLookup.get(resourceId.getBucketName());
@@ -125,8 +358,13 @@ public class InMemoryDirectoryListCache extends DirectoryListCache {
       return null;
     }
 
+    recordAccess(bucket);
     if (resourceId.isStorageObject()) {
-      return bucket.get(resourceId);
+      CacheEntry objectEntry = bucket.get(resourceId);
+      if (objectEntry != null) {
+        recordAccess(objectEntry);
+      }
+      return objectEntry;
     } else {
       return bucket;
     }
@@ -160,45 +398,45 @@ public class InMemoryDirectoryListCache extends DirectoryListCache {
     }
   }
 
+  /**
+   * Removes {@code bucket} if it is empty and expired. Since objects are only added to a
+   * CachedBucket while holding the cache's lock, the bucket is certain to still be empty when
+   * it is removed from the bucketLookup.
+   */
+  private synchronized void maybeRemoveExpiredBucket(CachedBucket bucket) {
+    if (bucket.getNumObjects() == 0
+        && isCacheEntryExpired(bucket)
+        && bucketLookup.remove(bucket.getName(), bucket)) {
+      log.debug("Removing empty expired CachedBucket: '%s'", bucket.getName());
+    }
+  }
+
   @Override
-  public synchronized List<CacheEntry> getBucketList() {
+  public List<CacheEntry> getBucketList() {
     log.debug("getBucketList()");
     List<CacheEntry> bucketEntries = new ArrayList<>();
-    List<CachedBucket> expiredBuckets = new ArrayList<>();
     for (CachedBucket bucket : bucketLookup.values()) {
       maybeInvalidateExpiredInfo(bucket);
 
       if (isCacheEntryExpired(bucket)) {
-        // Keep a list of expired buckets to handle after the loop. We may not be able to garbage-
-        // collect it because of inner StorageObjects, but we at least won't list it anymore.
-        expiredBuckets.add(bucket);
+        // We may not be able to garbage-collect an expired bucket because of inner
+        // StorageObjects, but we at least won't list it anymore.
+        maybeRemoveExpiredBucket(bucket);
       } else {
         bucketEntries.add(bucket);
       }
     }
-
-    // Handle bucket expiration; we'll only remove the bucket if it's empty. Since each
-    // CachedBucket is only modified within synchronized methods of DirectoryListCache, we are
-    // certain the CachedBucket is still empty when we remove it from the bucketLookup if it
-    // returns getNumObjects() == 0 immediately prior.
-    for (CachedBucket expiredBucket : expiredBuckets) {
-      if (expiredBucket.getNumObjects() == 0) {
-        log.debug("Removing empty expired CachedBucket: '%s'", expiredBucket.getName());
-        bucketLookup.remove(expiredBucket.getName());
-      }
-    }
-
     return bucketEntries;
   }
 
   @Override
-  public synchronized List<CacheEntry> getRawBucketList() {
+  public List<CacheEntry> getRawBucketList() {
     log.debug("getRawBucketList()");
     return new ArrayList<CacheEntry>(bucketLookup.values());
   }
 
   @Override
-  public synchronized List<CacheEntry> getObjectList(
+  public List<CacheEntry> getObjectList(
       String bucketName, String objectNamePrefix, String delimiter, Set<String> returnedPrefixes) {
     log.debug("getObjectList(%s, %s, %s)", bucketName, objectNamePrefix, delimiter);
     CachedBucket bucket = bucketLookup.get(bucketName);
@@ -206,58 +444,438 @@ public class InMemoryDirectoryListCache extends DirectoryListCache {
       return null;
     }
 
+    recordAccess(bucket);
+
+    // Only objects whose names start with the prefix can match, and those are contiguous in
+    // the bucket's sorted objects, starting at the prefix itself.
+    String scanPrefix = objectNamePrefix == null ? "" : objectNamePrefix;
     List<CacheEntry> matchingObjectEntries = new ArrayList<>();
     boolean removedExpiredEntries = false;
-    for (CacheEntry objectEntry : bucket.getObjectList()) {
+    Iterator<CacheEntry> objectEntries = bucket.getObjectsFrom(scanPrefix).values().iterator();
+    while (objectEntries.hasNext()) {
+      CacheEntry objectEntry = objectEntries.next();
+      String objectName = objectEntry.getResourceId().getObjectName();
+      if (!objectName.startsWith(scanPrefix)) {
+        break;
+      }
       maybeInvalidateExpiredInfo(objectEntry);
 
       if (isCacheEntryExpired(objectEntry)) {
-        // We can remove items from the bucket mid-iteration because we are iterating over a
-        // *copy* of the bucket contents.
         log.debug("Removing expired CacheEntry: '%s'", objectEntry.getResourceId());
-        bucket.remove(objectEntry.getResourceId());
+        bucket.removeEntry(objectEntry);
         removedExpiredEntries = true;
-      } else {
-        String objectName = objectEntry.getResourceId().getObjectName();
-        String matchedName = GoogleCloudStorageStrings.matchListPrefix(
-            objectNamePrefix, delimiter, objectName);
-        // We get a non-null matchedName if either an implicit 'prefix' matches or if it's an
-        // exact match.
-        if (matchedName != null) {
-          if (objectName.equals(matchedName)) {
-            // Exact match.
-            matchingObjectEntries.add(objectEntry);
-          } else if (returnedPrefixes != null) {
-            // Prefix match; only need to populate the container if the caller actually provided
-            // a non-null container.
+        continue;
+      }
+
+      String matchedName = GoogleCloudStorageStrings.matchListPrefix(
+          objectNamePrefix, delimiter, objectName);
+      // We get a non-null matchedName if either an implicit 'prefix' matches or if it's an
+      // exact match.
+      if (matchedName != null) {
+        if (objectName.equals(matchedName)) {
+          // Exact match.
+          recordAccess(objectEntry);
+          matchingObjectEntries.add(objectEntry);
+        } else {
+          // Prefix match; only need to populate the container if the caller actually provided
+          // a non-null container.
+          if (returnedPrefixes != null) {
             returnedPrefixes.add(matchedName);
           }
+          // Every other object under the matched prefix would only yield the same prefix, so
+          // skip straight past them.
+          String nameAfterPrefix = getFirstNameAfterPrefix(matchedName);
+          if (nameAfterPrefix != null) {
+            objectEntries = bucket.getObjectsFrom(nameAfterPrefix).values().iterator();
+          }
         }
       }
     }
 
     // Proactively remove the entire entry for the bucket if our iteration caused it to be empty
     // and the CachedBucket is itself expired.
-    if (removedExpiredEntries
-        && bucket.getNumObjects() == 0
-        && isCacheEntryExpired(bucket)) {
-      log.debug("Removing empty expired CachedBucket: '%s'", bucket.getName());
-      bucketLookup.remove(bucket.getName());
+    if (removedExpiredEntries) {
+      maybeRemoveExpiredBucket(bucket);
     }
     return matchingObjectEntries;
   }
 
+  /**
+   * Returns the smallest name which is greater than every name starting with {@code prefix}, or
+   * null if there is none.
+   */
+  private static String getFirstNameAfterPrefix(String prefix) {
+    char lastChar = prefix.charAt(prefix.length() - 1);
+    if (lastChar == Character.MAX_VALUE) {
+      return null;
+    }
+    return prefix.substring(0, prefix.length() - 1) + (char) (lastChar + 1);
+  }
+
+  /**
+   * Removes all expired entries and clears all expired infos, including those which listings
+   * haven't come across. Called periodically from a background thread.
+   */
+  @VisibleForTesting
+  void sweepExpiredEntries() {
+    int numRemoved = 0;
+    for (CachedBucket bucket : bucketLookup.values()) {
+      for (CacheEntry objectEntry : bucket.getObjectsFrom("").values()) {
+        maybeInvalidateExpiredInfo(objectEntry);
+        if (isCacheEntryExpired(objectEntry)) {
+          bucket.removeEntry(objectEntry);
+          ++numRemoved;
+        }
+      }
+      maybeInvalidateExpiredInfo(bucket);
+      maybeRemoveExpiredBucket(bucket);
+    }
+    if (numRemoved > 0) {
+      log.debug("Swept %d expired CacheEntries", numRemoved);
+    }
+  }
+
+  /**
+   * Writes every entry, along with its creation time and any cached GoogleCloudStorageItemInfo
+   * and the time that info was obtained, to a snapshot at {@code snapshotPath} which
+   * {@link #loadSnapshot} can later restore. The snapshot is written to a temporary file first
+   * and then moved into place, so that a concurrent reader never sees a partial snapshot.
+   */
+  public void writeSnapshot(Path snapshotPath) throws IOException {
+    Path snapshotDirectory = snapshotPath.toAbsolutePath().getParent();
+    Files.createDirectories(snapshotDirectory);
+    Path tempPath = Files.createTempFile(
+        snapshotDirectory, snapshotPath.getFileName().toString(), ".tmp");
+    int numEntries = 0;
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+        out.writeLong(SNAPSHOT_MAGIC);
+        out.writeLong(clock.currentTimeMillis());
+        List<CachedBucket> buckets = new ArrayList<>(bucketLookup.values());
+        out.writeInt(buckets.size());
+        for (CachedBucket bucket : buckets) {
+          writeSnapshotEntry(out, bucket);
+          List<CacheEntry> objectEntries = bucket.getObjectList();
+          out.writeInt(objectEntries.size());
+          for (CacheEntry objectEntry : objectEntries) {
+            writeSnapshotEntry(out, objectEntry);
+          }
+          numEntries += 1 + objectEntries.size();
+        }
+      }
+      Files.move(tempPath, snapshotPath,
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempPath);
+    }
+    log.debug("Wrote %d entries to snapshot '%s'", numEntries, snapshotPath);
+  }
+
+  /**
+   * Restores the entries of the snapshot at {@code snapshotPath}, unless it doesn't exist or was
+   * written more than {@code maxSnapshotAgeMillis} ago. Expired entries are skipped, cached
+   * infos older than the Config's maxInfoAgeMillis are dropped, and entries already in this
+   * cache are left alone. Nothing is restored if the snapshot can't be read in full.
+   *
+   * @return The number of entries restored.
+   */
+  public int loadSnapshot(Path snapshotPath, long maxSnapshotAgeMillis) throws IOException {
+    if (!Files.exists(snapshotPath)) {
+      log.debug("No snapshot at '%s'", snapshotPath);
+      return 0;
+    }
+
+    // Read the whole snapshot before restoring any of it.
+    List<CachedBucket> snapshotBuckets = new ArrayList<>();
+    List<List<CacheEntry>> snapshotObjects = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+      if (in.readLong() != SNAPSHOT_MAGIC) {
+        throw new IOException(String.format("'%s' is not a cache snapshot", snapshotPath));
+      }
+      long snapshotAgeMillis = clock.currentTimeMillis() - in.readLong();
+      if (snapshotAgeMillis > maxSnapshotAgeMillis) {
+        log.debug("Ignoring snapshot '%s' written %d ms ago", snapshotPath, snapshotAgeMillis);
+        return 0;
+      }
+      int numBuckets = in.readInt();
+      for (int i = 0; i < numBuckets; ++i) {
+        CachedBucket bucket = (CachedBucket) readSnapshotEntry(in, null);
+        int numObjects = in.readInt();
+        List<CacheEntry> objectEntries = new ArrayList<>(numObjects);
+        for (int j = 0; j < numObjects; ++j) {
+          objectEntries.add(readSnapshotEntry(in, bucket.getName()));
+        }
+        snapshotBuckets.add(bucket);
+        snapshotObjects.add(objectEntries);
+      }
+    }
+
+    int numRestored = 0;
+    synchronized (this) {
+      for (int i = 0; i < snapshotBuckets.size(); ++i) {
+        CachedBucket snapshotBucket = snapshotBuckets.get(i);
+        List<CacheEntry> liveObjects = new ArrayList<>();
+        for (CacheEntry objectEntry : snapshotObjects.get(i)) {
+          if (!isCacheEntryExpired(objectEntry)) {
+            liveObjects.add(objectEntry);
+          }
+        }
+        // Like getBucketList(), only drop an expired bucket if it has no objects.
+        if (liveObjects.isEmpty() && isCacheEntryExpired(snapshotBucket)) {
+          continue;
+        }
+
+        CachedBucket bucket = bucketLookup.get(snapshotBucket.getName());
+        if (bucket == null) {
+          bucket = snapshotBucket;
+          bucketLookup.put(bucket.getName(), bucket);
+          recordAccess(bucket);
+          ++numRestored;
+        }
+        for (CacheEntry objectEntry : liveObjects) {
+          if (bucket.putEntryIfAbsent(objectEntry)) {
+            recordAccess(objectEntry);
+            enqueueForEviction(bucket, objectEntry);
+            ++numRestored;
+          }
+        }
+      }
+      maybeEvict();
+    }
+    log.debug("Restored %d entries from snapshot '%s'", numRestored, snapshotPath);
+    return numRestored;
+  }
+
+  /**
+   * Opens the snapshot at {@code snapshotPath} on behalf of one of the users of this cache. Only
+   * the first opening of a snapshot restores it, as {@link #loadSnapshot} would: by the time
+   * another user opens it, restoring it again would bring back entries which this cache has
+   * since removed. The snapshot is saved once every user has closed it with
+   * {@link #closeSnapshot}, or when the JVM shuts down before then.
+   *
+   * @return The number of entries restored.
+   */
+  public int openSnapshot(Path snapshotPath, long maxSnapshotAgeMillis) throws IOException {
+    Path snapshotKey = snapshotPath.toAbsolutePath().normalize();
+    synchronized (snapshotUsers) {
+      maybeAddSnapshotShutdownHook();
+      Integer numUsers = snapshotUsers.get(snapshotKey);
+      snapshotUsers.put(snapshotKey, numUsers == null ? 1 : numUsers + 1);
+      if (numUsers != null) {
+        log.debug("Snapshot '%s' was already restored", snapshotPath);
+        return 0;
+      }
+      // Restore while holding the lock so that no user closes the snapshot before it is loaded.
+      return loadSnapshot(snapshotPath, maxSnapshotAgeMillis);
+    }
+  }
+
+  /**
+   * Closes the snapshot at {@code snapshotPath} on behalf of one of the users which opened it
+   * with {@link #openSnapshot}, saving it if no other user still has it open.
+   */
+  public void closeSnapshot(Path snapshotPath) throws IOException {
+    Path snapshotKey = snapshotPath.toAbsolutePath().normalize();
+    synchronized (snapshotUsers) {
+      Integer numUsers = snapshotUsers.get(snapshotKey);
+      if (numUsers == null || numUsers == 0) {
+        // Already saved by the shutdown hook.
+        log.debug("Snapshot '%s' is not open", snapshotPath);
+        return;
+      }
+      snapshotUsers.put(snapshotKey, numUsers - 1);
+      if (numUsers == 1) {
+        writeSnapshot(snapshotPath);
+      }
+    }
+  }
+
+  /**
+   * Makes sure that snapshots still open when the JVM shuts down are saved. Must be called while
+   * holding the lock on snapshotUsers.
+   */
+  private void maybeAddSnapshotShutdownHook() {
+    if (snapshotShutdownHookAdded) {
+      return;
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        saveOpenSnapshots();
+      }
+    }, "gcs-directory-list-cache-snapshot-saver"));
+    snapshotShutdownHookAdded = true;
+  }
+
+  /**
+   * Saves every snapshot which is still open, as though all of its users had closed it.
+   */
+  private void saveOpenSnapshots() {
+    synchronized (snapshotUsers) {
+      for (Map.Entry<Path, Integer> snapshot : snapshotUsers.entrySet()) {
+        if (snapshot.getValue() > 0) {
+          snapshot.setValue(0);
+          try {
+            writeSnapshot(snapshot.getKey());
+          } catch (IOException ioe) {
+            log.warn("Failed to save snapshot '%s' at shutdown: %s", snapshot.getKey(), ioe);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the name, creation time and cached info of {@code entry}.
+   */
+  private static void writeSnapshotEntry(DataOutputStream out, CacheEntry entry)
+      throws IOException {
+    StorageResourceId resourceId = entry.getResourceId();
+    out.writeUTF(resourceId.isStorageObject()
+        ? resourceId.getObjectName() : resourceId.getBucketName());
+    out.writeLong(entry.getCreationTimeMillis());
+
+    GoogleCloudStorageItemInfo itemInfo;
+    long itemInfoUpdateTimeMillis;
+    synchronized (entry) {
+      itemInfo = entry.getItemInfo();
+      itemInfoUpdateTimeMillis = entry.getItemInfoUpdateTimeMillis();
+    }
+    out.writeBoolean(itemInfo != null);
+    if (itemInfo != null) {
+      out.writeLong(itemInfoUpdateTimeMillis);
+      out.writeLong(itemInfo.getCreationTime());
+      out.writeLong(itemInfo.getSize());
+      writeNullableString(out, itemInfo.getLocation());
+      writeNullableString(out, itemInfo.getStorageClass());
+      Map<String, byte[]> metadata = itemInfo.getMetadata();
+      out.writeInt(metadata.size());
+      for (Map.Entry<String, byte[]> metadataEntry : metadata.entrySet()) {
+        out.writeUTF(metadataEntry.getKey());
+        writeNullableBytes(out, metadataEntry.getValue());
+      }
+      out.writeLong(itemInfo.getContentGeneration());
+      out.writeLong(itemInfo.getMetaGeneration());
+      writeNullableBytes(out, itemInfo.getCrc32c());
+      writeNullableBytes(out, itemInfo.getMd5Hash());
+    }
+  }
+
+  /**
+   * Reads an entry written by writeSnapshotEntry; a CachedBucket if {@code bucketName} is null,
+   * otherwise a StorageObject entry residing in {@code bucketName}.
+   */
+  private CacheEntry readSnapshotEntry(DataInputStream in, String bucketName)
+      throws IOException {
+    String name = in.readUTF();
+    long creationTimeMillis = in.readLong();
+    StorageResourceId resourceId;
+    CacheEntry entry;
+    if (bucketName == null) {
+      resourceId = new StorageResourceId(name);
+      entry = new CachedBucket(name, creationTimeMillis);
+    } else {
+      resourceId = new StorageResourceId(bucketName, name);
+      entry = new CacheEntry(resourceId, creationTimeMillis);
+    }
+
+    if (in.readBoolean()) {
+      long itemInfoUpdateTimeMillis = in.readLong();
+      long itemCreationTime = in.readLong();
+      long size = in.readLong();
+      String location = readNullableString(in);
+      String storageClass = readNullableString(in);
+      int numMetadataEntries = in.readInt();
+      Map<String, byte[]> metadata = new HashMap<>();
+      for (int i = 0; i < numMetadataEntries; ++i) {
+        String key = in.readUTF();
+        metadata.put(key, readNullableBytes(in));
+      }
+      long contentGeneration = in.readLong();
+      long metaGeneration = in.readLong();
+      byte[] crc32c = readNullableBytes(in);
+      byte[] md5Hash = readNullableBytes(in);
+
+      // Infos which would already have been cleared on access are dropped.
+      if (clock.currentTimeMillis() - itemInfoUpdateTimeMillis
+          <= cacheConfig.getMaxInfoAgeMillis()) {
+        entry.restoreItemInfo(new GoogleCloudStorageItemInfo(resourceId, itemCreationTime, size,
+            location, storageClass, metadata, contentGeneration, metaGeneration, crc32c, md5Hash),
+            itemInfoUpdateTimeMillis);
+      }
+    }
+    return entry;
+  }
+
+  private static void writeNullableString(DataOutputStream out, String value)
+      throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readNullableString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeNullableBytes(DataOutputStream out, byte[] value) throws IOException {
+    out.writeInt(value == null ? -1 : value.length);
+    if (value != null) {
+      out.write(value);
+    }
+  }
+
+  private static byte[] readNullableBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] value = new byte[length];
+    in.readFully(value);
+    return value;
+  }
+
   @Override
-  public synchronized int getInternalNumBuckets() {
+  public int getInternalNumBuckets() {
     return bucketLookup.size();
   }
 
   @Override
-  public synchronized int getInternalNumObjects() {
+  public int getInternalNumObjects() {
     int objectCount = 0;
     for (CachedBucket bucket : bucketLookup.values()) {
       objectCount += bucket.getNumObjects();
     }
     return objectCount;
   }
+
+  /**
+   * Returns the approximate number of bytes of memory used by the cached StorageObject entries.
+   */
+  public long getEstimatedSizeBytes() {
+    long numBytes = 0;
+    for (CachedBucket bucket : bucketLookup.values()) {
+      numBytes += bucket.getEstimatedObjectBytes();
+    }
+    return numBytes;
+  }
+
+  /**
+   * Returns the number of StorageObject entries evicted to stay within the configured maxEntries
+   * and maxBytes.
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "InMemoryDirectoryListCache{buckets=%d, objects=%d, estimatedBytes=%d, evictions=%d}",
+        getInternalNumBuckets(), getInternalNumObjects(), getEstimatedSizeBytes(),
+        getEvictionCount());
+  }
 }
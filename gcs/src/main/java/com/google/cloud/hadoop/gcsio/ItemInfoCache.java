@@ -0,0 +1,201 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of GoogleCloudStorageItemInfos keyed by StorageResourceId, used by
+ * CacheSupplementedGoogleCloudStorage to serve getItemInfo without a request. Infos of existing
+ * items are kept for {@code ttlMillis}; not-found infos are kept separately for
+ * {@code negativeTtlMillis}, usually much shorter, so that repeated checks for a path which does
+ * not exist yet are also served from the cache. Either TTL may be 0 to disable that half.
+ *
+ * <p>The cache only sees changes made through the same GoogleCloudStorage instance; changes made
+ * by other clients become visible once the cached info expires. An info fetched while such a
+ * change was made may predate it, so infos are cached with {@link #put(GoogleCloudStorageItemInfo,
+ * long)} only if nothing was invalidated since the epoch read before fetching them.
+ */
+public class ItemInfoCache {
+  // Infos of items which exist.
+  private final Cache<StorageResourceId, GoogleCloudStorageItemInfo> foundInfos;
+
+  // Infos of items which were not found.
+  private final Cache<StorageResourceId, GoogleCloudStorageItemInfo> notFoundInfos;
+
+  private final long ttlMillis;
+  private final long negativeTtlMillis;
+
+  // Incremented by every invalidation, before the invalidated infos are removed.
+  private final AtomicLong invalidationEpoch = new AtomicLong();
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * @param maxEntries maximum number of infos kept by each of the found and not-found halves
+   * @param ttlMillis how long the info of an existing item is served from the cache
+   * @param negativeTtlMillis how long a not-found info is served from the cache
+   */
+  public ItemInfoCache(long maxEntries, long ttlMillis, long negativeTtlMillis) {
+    this(maxEntries, ttlMillis, negativeTtlMillis, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  ItemInfoCache(long maxEntries, long ttlMillis, long negativeTtlMillis, Ticker ticker) {
+    Preconditions.checkArgument(maxEntries > 0, "maxEntries must be positive, got %s", maxEntries);
+    Preconditions.checkArgument(ttlMillis >= 0, "ttlMillis must not be negative, got %s",
+        ttlMillis);
+    Preconditions.checkArgument(negativeTtlMillis >= 0,
+        "negativeTtlMillis must not be negative, got %s", negativeTtlMillis);
+    this.ttlMillis = ttlMillis;
+    this.negativeTtlMillis = negativeTtlMillis;
+    foundInfos = newCache(maxEntries, ttlMillis, ticker);
+    notFoundInfos = newCache(maxEntries, negativeTtlMillis, ticker);
+  }
+
+  private static Cache<StorageResourceId, GoogleCloudStorageItemInfo> newCache(
+      long maxEntries, long ttlMillis, Ticker ticker) {
+    return CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .ticker(ticker)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns the cached info of {@code resourceId}, or null if there is none.
+   */
+  public GoogleCloudStorageItemInfo get(StorageResourceId resourceId) {
+    GoogleCloudStorageItemInfo itemInfo = foundInfos.getIfPresent(resourceId);
+    if (itemInfo == null) {
+      itemInfo = notFoundInfos.getIfPresent(resourceId);
+    }
+    (itemInfo == null ? missCount : hitCount).incrementAndGet();
+    return itemInfo;
+  }
+
+  /**
+   * Caches {@code itemInfo}, replacing any info cached for the same item.
+   */
+  public void put(GoogleCloudStorageItemInfo itemInfo) {
+    StorageResourceId resourceId = itemInfo.getResourceId();
+    remove(resourceId);
+    if (itemInfo.exists()) {
+      if (ttlMillis > 0) {
+        foundInfos.put(resourceId, itemInfo);
+      }
+    } else if (negativeTtlMillis > 0) {
+      notFoundInfos.put(resourceId, itemInfo);
+    }
+  }
+
+  /**
+   * Caches {@code itemInfo} like {@link #put(GoogleCloudStorageItemInfo)}, unless an info was
+   * invalidated since {@code epoch}, in which case {@code itemInfo} may predate the change which
+   * led to the invalidation and is dropped.
+   *
+   * @param epoch the value of {@link #getInvalidationEpoch} read before {@code itemInfo} was
+   *     fetched
+   * @return whether {@code itemInfo} was cached
+   */
+  public boolean put(GoogleCloudStorageItemInfo itemInfo, long epoch) {
+    if (invalidationEpoch.get() != epoch) {
+      return false;
+    }
+    put(itemInfo);
+    // An invalidation between the check and the put may have run before the put; undo it.
+    if (invalidationEpoch.get() != epoch) {
+      remove(itemInfo.getResourceId());
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the current invalidation epoch, to be read before fetching infos which are then
+   * cached with {@link #put(GoogleCloudStorageItemInfo, long)}.
+   */
+  public long getInvalidationEpoch() {
+    return invalidationEpoch.get();
+  }
+
+  /**
+   * Removes any info cached for {@code resourceId}, e.g. because the item was just created or
+   * deleted.
+   */
+  public void invalidate(StorageResourceId resourceId) {
+    invalidationEpoch.incrementAndGet();
+    remove(resourceId);
+  }
+
+  /**
+   * Removes every cached info.
+   */
+  public void invalidateAll() {
+    invalidationEpoch.incrementAndGet();
+    foundInfos.invalidateAll();
+    notFoundInfos.invalidateAll();
+  }
+
+  private void remove(StorageResourceId resourceId) {
+    foundInfos.invalidate(resourceId);
+    notFoundInfos.invalidate(resourceId);
+  }
+
+  /**
+   * Returns the number of infos currently cached, including expired ones not yet cleaned up.
+   */
+  public long size() {
+    return foundInfos.size() + notFoundInfos.size();
+  }
+
+  /**
+   * Returns the number of get calls which returned a cached info.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of get calls which found no cached info.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns the number of infos dropped because they expired or the cache was full.
+   */
+  public long getEvictionCount() {
+    return foundInfos.stats().evictionCount() + notFoundInfos.stats().evictionCount();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ItemInfoCache{size=%d, hits=%d, misses=%d, evictions=%d}",
+        size(), getHitCount(), getMissCount(), getEvictionCount());
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+
+/**
+ * A single page of results of a paginated list operation, along with the token with which to
+ * request the following page.
+ */
+public class ListPage<T> {
+  private final List<T> items;
+  private final String nextPageToken;
+
+  /**
+   * @param items the items in this page
+   * @param nextPageToken token with which to request the next page, or null if this is the last
+   */
+  public ListPage(List<T> items, String nextPageToken) {
+    Preconditions.checkArgument(items != null, "items must not be null");
+    this.items = items;
+    this.nextPageToken = nextPageToken;
+  }
+
+  /**
+   * Gets the items in this page.
+   */
+  public List<T> getItems() {
+    return items;
+  }
+
+  /**
+   * Gets the token with which to request the next page, or null if this is the last page.
+   */
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+}
@@ -0,0 +1,836 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * LogStructuredDirectoryListCache provides the same cross-process list consistency as
+ * FileSystemBackedDirectoryListCache, for all processes configured with the same local base
+ * directory, but without mirroring each GCS object as a local file: each bucket's entries are
+ * kept in a single append-only log file, {@code <basePath>/<bucketName>.log}, whose records each
+ * add or remove one entry.
+ * <p>
+ * Every process keeps a sorted in-memory index of each bucket it has used, built from that
+ * bucket's log. Before each operation, a process takes an exclusive lock on the log file and
+ * reads, through a memory mapping, only the records appended since its last operation; lookups
+ * and listings are then answered from the index, and additions and removals are appended to the
+ * log. A put thus costs a single write, and a listing visits only the entries under its prefix.
+ * <p>
+ * Once most of a log consists of records for entries which have since been removed, the log is
+ * compacted: the current entries are written to a new file, which is then atomically renamed over
+ * the old log, so that a crash leaves either the old or the new log intact and no reader sees a
+ * mixture of both. Processes still holding the old file find, once granted its lock, that it is
+ * no longer the file at the log's path, and reopen the log; the new log carries a new generation
+ * number in its header so that they know to rebuild their index from scratch. Telling the files
+ * apart relies on the file keys, such as inode numbers, reported by the local filesystem.
+ * <p>
+ * Like FileSystemBackedDirectoryListCache, this cache doesn't hold GoogleCloudStorageItemInfos,
+ * and adds entries for the implicit parent directories of each added object.
+ * <p>
+ * This class is thread-safe.
+ */
+public class LogStructuredDirectoryListCache extends DirectoryListCache {
+  private static final LogUtil log = new LogUtil(LogStructuredDirectoryListCache.class);
+
+  // Suffix of the name of each bucket's log file.
+  static final String LOG_FILE_SUFFIX = ".log";
+
+  // Suffix of the name of the temporary file to which a log is rewritten before it replaces it.
+  static final String REWRITE_FILE_SUFFIX = ".rewrite";
+
+  // Minimum size of a log before it is considered for compaction.
+  static final long MIN_COMPACTION_BYTES = 64 * 1024L;
+
+  // Marks the start of a log file: "GCSL".
+  private static final int LOG_MAGIC = 0x4743534c;
+
+  // A log starts with its magic number and generation.
+  private static final int HEADER_BYTES = 4 + 8;
+
+  // Each record has a type, a timestamp and the length of the UTF-8 objectName which follows it;
+  // the bucket itself is recorded with an empty objectName.
+  private static final int RECORD_HEADER_BYTES = 1 + 8 + 4;
+  private static final byte RECORD_PUT = 1;
+  private static final byte RECORD_REMOVE = 2;
+
+  // FileLocks are held on behalf of the whole JVM, so threads and instances in the same process
+  // must additionally agree on a monitor per log file.
+  private static final ConcurrentMap<Path, Object> processLocks = new ConcurrentHashMap<>();
+
+  private static final Random generationRandom = new SecureRandom();
+
+  // The directory holding the log of each bucket.
+  private final Path basePath;
+
+  // This process's view of the log of each bucket used so far.
+  private final ConcurrentMap<String, BucketLog> bucketLogs = new ConcurrentHashMap<>();
+
+  /**
+   * An operation performed on the index of a BucketLog while holding its locks.
+   */
+  private interface BucketLogOperation<T> {
+    T run(BucketLog bucketLog) throws IOException;
+  }
+
+  /**
+   * This process's view of the log of one bucket: a channel on the log file, the position up to
+   * which its records have been applied, and the resulting index. Only accessed while holding
+   * the log's locks, other than by close().
+   */
+  private class BucketLog {
+    private final String bucketName;
+    private final Path logPath;
+    private FileChannel channel;
+
+    // File key of the file open in channel, or null if the filesystem doesn't provide file keys.
+    private Object channelFileKey;
+
+    // The lock held on channel while an operation is running.
+    private FileLock fileLock;
+
+    // Generation of the log from which the index was built.
+    private long generation;
+
+    // Position in the log up to which records have been applied to the index.
+    private long readOffset;
+
+    // Creation time of the bucket's entry, or null if it has none.
+    private Long bucketCreationTime;
+
+    // Creation time of each cached object, keyed and sorted by objectName.
+    private final TreeMap<String, Long> objectCreationTimes = new TreeMap<>();
+
+    // Number of bytes of the log taken up by the records of current entries.
+    private long liveBytes;
+
+    BucketLog(String bucketName, Path logPath) {
+      this.bucketName = bucketName;
+      this.logPath = logPath;
+    }
+
+    /**
+     * Opens the log file, creating it if needed, and takes the exclusive lock on it. Since
+     * compaction replaces the log file, the file open may have been replaced by the time its
+     * lock is granted, in which case the replacement is opened and locked instead.
+     */
+    void lock() throws IOException {
+      while (true) {
+        open();
+        fileLock = channel.lock();
+        if (channelFileKey == null || channelFileKey.equals(readFileKey(logPath))) {
+          return;
+        }
+        log.debug("Reopening cache log '%s' which was replaced", logPath);
+        closeChannel();
+      }
+    }
+
+    /**
+     * Releases the lock taken by lock().
+     */
+    void unlock() throws IOException {
+      if (fileLock != null) {
+        if (fileLock.isValid()) {
+          fileLock.release();
+        }
+        fileLock = null;
+      }
+    }
+
+    /**
+     * Opens the log file, creating it if needed, making sure that channelFileKey identifies the
+     * file actually opened even if the log is replaced meanwhile.
+     */
+    private void open() throws IOException {
+      while (channel == null) {
+        Object expectedFileKey = readFileKey(logPath);
+        FileChannel newChannel = FileChannel.open(logPath,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Object fileKey = readFileKey(logPath);
+        if (fileKey == null ? expectedFileKey == null : fileKey.equals(expectedFileKey)) {
+          channel = newChannel;
+          channelFileKey = fileKey;
+        } else {
+          // The log was created or replaced while we were opening it; try again.
+          newChannel.close();
+        }
+      }
+    }
+
+    /**
+     * Closes the channel on the log file, if open, releasing any lock held on it; the log is
+     * reopened by the next operation.
+     */
+    void closeChannel() throws IOException {
+      fileLock = null;
+      channelFileKey = null;
+      if (channel != null) {
+        FileChannel oldChannel = channel;
+        channel = null;
+        oldChannel.close();
+      }
+    }
+
+    /**
+     * Applies the records appended to the log since the last call; rebuilds the index if the
+     * log was compacted or cleared in the meantime.
+     */
+    void catchUp() throws IOException {
+      long size = channel.size();
+      if (size < HEADER_BYTES) {
+        rewrite(new ArrayList<ByteBuffer>());
+        return;
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+        // Keep reading until the header is complete.
+      }
+      header.flip();
+      if (header.remaining() < HEADER_BYTES || header.getInt() != LOG_MAGIC) {
+        log.warn("Discarding unrecognized cache log '%s'", logPath);
+        rewrite(new ArrayList<ByteBuffer>());
+        return;
+      }
+      long fileGeneration = header.getLong();
+      if (fileGeneration != generation || size < readOffset) {
+        log.debug("Rebuilding index of '%s' for generation %d", logPath, fileGeneration);
+        resetIndex();
+        generation = fileGeneration;
+        readOffset = HEADER_BYTES;
+      }
+      if (size == readOffset) {
+        return;
+      }
+
+      MappedByteBuffer records =
+          channel.map(FileChannel.MapMode.READ_ONLY, readOffset, size - readOffset);
+      while (records.remaining() >= RECORD_HEADER_BYTES) {
+        int recordStart = records.position();
+        byte type = records.get();
+        long timestamp = records.getLong();
+        int nameLength = records.getInt();
+        if ((type != RECORD_PUT && type != RECORD_REMOVE)
+            || nameLength < 0 || nameLength > records.remaining()) {
+          records.position(recordStart);
+          break;
+        }
+        byte[] nameBytes = new byte[nameLength];
+        records.get(nameBytes);
+        apply(type, timestamp, new String(nameBytes, StandardCharsets.UTF_8));
+      }
+      long validEnd = readOffset + records.position();
+      if (validEnd < size) {
+        // Only a writer which died mid-append can leave a partial record, since appends happen
+        // under the exclusive lock which we now hold.
+        log.warn("Truncating partial record at offset %d of cache log '%s'", validEnd, logPath);
+        channel.truncate(validEnd);
+      }
+      readOffset = validEnd;
+    }
+
+    private void resetIndex() {
+      bucketCreationTime = null;
+      objectCreationTimes.clear();
+      liveBytes = 0;
+    }
+
+    /**
+     * Applies one record to the index.
+     */
+    private void apply(byte type, long timestamp, String objectName) {
+      if (type == RECORD_PUT) {
+        if (objectName.isEmpty()) {
+          if (bucketCreationTime == null) {
+            bucketCreationTime = timestamp;
+            liveBytes += recordBytes(objectName);
+          }
+        } else if (!objectCreationTimes.containsKey(objectName)) {
+          objectCreationTimes.put(objectName, timestamp);
+          liveBytes += recordBytes(objectName);
+        }
+      } else {
+        if (objectName.isEmpty()) {
+          if (bucketCreationTime != null) {
+            bucketCreationTime = null;
+            liveBytes -= recordBytes(objectName);
+          }
+        } else if (objectCreationTimes.remove(objectName) != null) {
+          liveBytes -= recordBytes(objectName);
+        }
+      }
+    }
+
+    /**
+     * Appends {@code records} to the log and applies them to the index; must follow catchUp().
+     */
+    void append(List<ByteBuffer> records) throws IOException {
+      if (records.isEmpty()) {
+        return;
+      }
+      long writeOffset = readOffset;
+      for (ByteBuffer record : records) {
+        ByteBuffer toWrite = record.duplicate();
+        while (toWrite.hasRemaining()) {
+          writeOffset += channel.write(toWrite, writeOffset);
+        }
+        applyRecord(record);
+      }
+      readOffset = writeOffset;
+      maybeCompact();
+    }
+
+    private void applyRecord(ByteBuffer record) {
+      ByteBuffer buffer = record.duplicate();
+      byte type = buffer.get();
+      long timestamp = buffer.getLong();
+      byte[] nameBytes = new byte[buffer.getInt()];
+      buffer.get(nameBytes);
+      apply(type, timestamp, new String(nameBytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compacts the log if most of it is taken up by records of removed entries.
+     */
+    private void maybeCompact() throws IOException {
+      long recordBytes = readOffset - HEADER_BYTES;
+      if (recordBytes >= MIN_COMPACTION_BYTES && recordBytes - liveBytes > liveBytes) {
+        compact();
+      }
+    }
+
+    /**
+     * Rewrites the log to hold only records of current entries.
+     */
+    void compact() throws IOException {
+      log.debug("Compacting cache log '%s' of %d bytes holding %d live bytes",
+          logPath, readOffset, liveBytes);
+      List<ByteBuffer> records = new ArrayList<>();
+      if (bucketCreationTime != null) {
+        records.add(createRecord(RECORD_PUT, bucketCreationTime, ""));
+      }
+      for (Map.Entry<String, Long> object : objectCreationTimes.entrySet()) {
+        records.add(createRecord(RECORD_PUT, object.getValue(), object.getKey()));
+      }
+      rewrite(records);
+    }
+
+    /**
+     * Replaces the log with a new generation holding {@code records}, and rebuilds the index
+     * from them; must be called while holding the lock. The new log is written to a temporary
+     * file, locked, and atomically renamed over the old one, after which the old file is closed.
+     */
+    private void rewrite(List<ByteBuffer> records) throws IOException {
+      long newGeneration = generationRandom.nextLong();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(LOG_MAGIC).putLong(newGeneration).flip();
+
+      Path rewritePath = Files.createTempFile(
+          basePath, bucketName + LOG_FILE_SUFFIX + ".", REWRITE_FILE_SUFFIX);
+      FileChannel newChannel = null;
+      long writeOffset = 0;
+      try {
+        newChannel = FileChannel.open(
+            rewritePath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Whoever opens the new log once it's in place must wait until we're done with it.
+        FileLock newLock = newChannel.lock();
+        while (header.hasRemaining()) {
+          writeOffset += newChannel.write(header, writeOffset);
+        }
+        for (ByteBuffer record : records) {
+          ByteBuffer toWrite = record.duplicate();
+          while (toWrite.hasRemaining()) {
+            writeOffset += newChannel.write(toWrite, writeOffset);
+          }
+        }
+        newChannel.force(false);
+        Object newFileKey = readFileKey(rewritePath);
+        Files.move(rewritePath, logPath,
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // Closing the old log releases its lock, letting anyone waiting on it find the new log.
+        FileChannel oldChannel = channel;
+        channel = newChannel;
+        channelFileKey = newFileKey;
+        fileLock = newLock;
+        newChannel = null;
+        try {
+          oldChannel.close();
+        } catch (IOException ioe) {
+          log.warn("Failed to close replaced cache log '%s': %s", logPath, ioe);
+        }
+      } finally {
+        if (newChannel != null) {
+          newChannel.close();
+          Files.deleteIfExists(rewritePath);
+        }
+      }
+
+      resetIndex();
+      for (ByteBuffer record : records) {
+        applyRecord(record);
+      }
+      generation = newGeneration;
+      readOffset = writeOffset;
+    }
+  }
+
+  /**
+   * @param basePathStr The absolute path of the directory in which to keep the bucket logs;
+   *     created if it doesn't exist.
+   */
+  public LogStructuredDirectoryListCache(String basePathStr) {
+    Preconditions.checkArgument(
+        !Strings.isNullOrEmpty(basePathStr), "basePathStr '%s' can't be null/empty!", basePathStr);
+    basePath = Paths.get(basePathStr).normalize();
+    Preconditions.checkArgument(
+        basePath.isAbsolute(), "basePathStr '%s' must be absolute!", basePathStr);
+
+    if (!basePath.toFile().exists()) {
+      log.info("Creating '%s' with createDirectories()...", basePath);
+      try {
+        Files.createDirectories(basePath);
+      } catch (IOException ioe) {
+        Throwables.propagate(ioe);
+      }
+    }
+    Preconditions.checkArgument(
+        basePath.toFile().isDirectory(), "basePathStr '%s' must be a directory!", basePathStr);
+  }
+
+  /**
+   * Since the authoritative entries live in the logs, CacheEntries are not shared references.
+   */
+  @Override
+  public boolean supportsCacheEntryByReference() {
+    return false;
+  }
+
+  /**
+   * Like FileSystemBackedDirectoryListCache, entries are added for the implicit parent
+   * directories of each added object.
+   */
+  @Override
+  public boolean containsEntriesForImplicitDirectories() {
+    return true;
+  }
+
+  /**
+   * Returns the path of the log of {@code bucketName}, making sure it can't escape the basePath.
+   */
+  @VisibleForTesting
+  Path getLogPath(String bucketName) {
+    Path logPath = basePath.resolve(bucketName + LOG_FILE_SUFFIX);
+    Preconditions.checkArgument(basePath.equals(logPath.getParent())
+        && logPath.normalize().equals(logPath),
+        "Bucket name '%s' must not contain path separators or relative components", bucketName);
+    return logPath;
+  }
+
+  /**
+   * Runs {@code operation} on the up-to-date log of {@code bucketName} while holding its locks.
+   * If the bucket has no log yet, one is only created if {@code createIfMissing} is true;
+   * otherwise null is returned without running {@code operation}.
+   */
+  private <T> T withBucketLog(
+      String bucketName, boolean createIfMissing, BucketLogOperation<T> operation)
+      throws IOException {
+    Path logPath = getLogPath(bucketName);
+    BucketLog bucketLog = bucketLogs.get(bucketName);
+    if (bucketLog == null) {
+      if (!createIfMissing && !Files.exists(logPath)) {
+        return null;
+      }
+      BucketLog newLog = new BucketLog(bucketName, logPath);
+      bucketLog = bucketLogs.putIfAbsent(bucketName, newLog);
+      if (bucketLog == null) {
+        bucketLog = newLog;
+      }
+    }
+
+    Object processLock = processLocks.get(logPath);
+    if (processLock == null) {
+      Object newLock = new Object();
+      processLock = processLocks.putIfAbsent(logPath, newLock);
+      if (processLock == null) {
+        processLock = newLock;
+      }
+    }
+
+    synchronized (processLock) {
+      // Both this instance's threads and other instances in this process use processLock.
+      synchronized (bucketLog) {
+        bucketLog.lock();
+        try {
+          bucketLog.catchUp();
+          return operation.run(bucketLog);
+        } finally {
+          bucketLog.unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the file key of the file at {@code path}, or null if it doesn't exist or the
+   * filesystem doesn't provide file keys.
+   */
+  private static Object readFileKey(Path path) throws IOException {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    } catch (NoSuchFileException nsfe) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the number of bytes taken up by the record of {@code objectName}.
+   */
+  private static int recordBytes(String objectName) {
+    return RECORD_HEADER_BYTES + objectName.getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  private static ByteBuffer createRecord(byte type, long timestamp, String objectName) {
+    byte[] nameBytes = objectName.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + nameBytes.length);
+    record.put(type).putLong(timestamp).putInt(nameBytes.length).put(nameBytes).flip();
+    return record;
+  }
+
+  /**
+   * Returns the names of the implicit parent directories of {@code objectName}, outermost first.
+   */
+  private static List<String> getParentDirectoryNames(String objectName) {
+    List<String> parentNames = new ArrayList<>();
+    int index = objectName.indexOf(GoogleCloudStorage.PATH_DELIMITER);
+    while (index >= 0 && index < objectName.length() - 1) {
+      parentNames.add(objectName.substring(0, index + 1));
+      index = objectName.indexOf(GoogleCloudStorage.PATH_DELIMITER, index + 1);
+    }
+    return parentNames;
+  }
+
+  @Override
+  public CacheEntry putResourceId(final StorageResourceId resourceId) throws IOException {
+    log.debug("putResourceId(%s)", resourceId);
+    validateResourceId(resourceId);
+    return withBucketLog(resourceId.getBucketName(), true, new BucketLogOperation<CacheEntry>() {
+      @Override
+      public CacheEntry run(BucketLog bucketLog) throws IOException {
+        long currentTime = clock.currentTimeMillis();
+        List<ByteBuffer> records = new ArrayList<>();
+        if (bucketLog.bucketCreationTime == null) {
+          records.add(createRecord(RECORD_PUT, currentTime, ""));
+        }
+        if (resourceId.isStorageObject()) {
+          String objectName = resourceId.getObjectName();
+          for (String parentName : getParentDirectoryNames(objectName)) {
+            if (!bucketLog.objectCreationTimes.containsKey(parentName)) {
+              records.add(createRecord(RECORD_PUT, currentTime, parentName));
+            }
+          }
+          if (!bucketLog.objectCreationTimes.containsKey(objectName)) {
+            records.add(createRecord(RECORD_PUT, currentTime, objectName));
+          }
+          bucketLog.append(records);
+          return new CacheEntry(resourceId, bucketLog.objectCreationTimes.get(objectName));
+        } else {
+          bucketLog.append(records);
+          return new CacheEntry(resourceId, bucketLog.bucketCreationTime);
+        }
+      }
+    });
+  }
+
+  @Override
+  public CacheEntry getCacheEntry(final StorageResourceId resourceId) throws IOException {
+    log.debug("getCacheEntry(%s)", resourceId);
+    validateResourceId(resourceId);
+    return withBucketLog(resourceId.getBucketName(), false, new BucketLogOperation<CacheEntry>() {
+      @Override
+      public CacheEntry run(BucketLog bucketLog) {
+        Long creationTime = resourceId.isStorageObject()
+            ? bucketLog.objectCreationTimes.get(resourceId.getObjectName())
+            : bucketLog.bucketCreationTime;
+        return creationTime == null ? null : new CacheEntry(resourceId, creationTime);
+      }
+    });
+  }
+
+  @Override
+  public void removeResourceId(final StorageResourceId resourceId) throws IOException {
+    log.debug("removeResourceId(%s)", resourceId);
+    validateResourceId(resourceId);
+    withBucketLog(resourceId.getBucketName(), false, new BucketLogOperation<Void>() {
+      @Override
+      public Void run(BucketLog bucketLog) throws IOException {
+        if (resourceId.isStorageObject()) {
+          String objectName = resourceId.getObjectName();
+          if (bucketLog.objectCreationTimes.containsKey(objectName)) {
+            List<ByteBuffer> records = new ArrayList<>();
+            records.add(createRecord(RECORD_REMOVE, clock.currentTimeMillis(), objectName));
+            bucketLog.append(records);
+          }
+        } else {
+          // Removing a bucket removes everything in it.
+          log.debug("Clearing cache log for bucket '%s'", resourceId);
+          bucketLog.rewrite(new ArrayList<ByteBuffer>());
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Returns the names of the buckets which have a log.
+   */
+  private List<String> getLoggedBucketNames() {
+    List<String> bucketNames = new ArrayList<>();
+    File[] logFiles = basePath.toFile().listFiles();
+    if (logFiles != null) {
+      for (File logFile : logFiles) {
+        String fileName = logFile.getName();
+        if (logFile.isFile() && fileName.endsWith(LOG_FILE_SUFFIX)
+            && fileName.length() > LOG_FILE_SUFFIX.length()) {
+          bucketNames.add(fileName.substring(0, fileName.length() - LOG_FILE_SUFFIX.length()));
+        }
+      }
+    }
+    return bucketNames;
+  }
+
+  @Override
+  public List<CacheEntry> getBucketList() throws IOException {
+    log.debug("getBucketList()");
+    List<CacheEntry> bucketEntries = new ArrayList<>();
+    for (final String bucketName : getLoggedBucketNames()) {
+      CacheEntry bucketEntry = withBucketLog(bucketName, false,
+          new BucketLogOperation<CacheEntry>() {
+            @Override
+            public CacheEntry run(BucketLog bucketLog) throws IOException {
+              if (bucketLog.bucketCreationTime == null) {
+                return null;
+              }
+              CacheEntry entry = new CacheEntry(
+                  new StorageResourceId(bucketName), bucketLog.bucketCreationTime);
+              if (!isCacheEntryExpired(entry)) {
+                return entry;
+              }
+              // We won't list an expired bucket, but can only remove it once it's empty.
+              if (bucketLog.objectCreationTimes.isEmpty()) {
+                log.debug("Removing empty expired bucket '%s'", bucketName);
+                List<ByteBuffer> records = new ArrayList<>();
+                records.add(createRecord(RECORD_REMOVE, clock.currentTimeMillis(), ""));
+                bucketLog.append(records);
+              }
+              return null;
+            }
+          });
+      if (bucketEntry != null) {
+        bucketEntries.add(bucketEntry);
+      }
+    }
+    return bucketEntries;
+  }
+
+  @Override
+  public List<CacheEntry> getRawBucketList() throws IOException {
+    log.debug("getRawBucketList()");
+    List<CacheEntry> bucketEntries = new ArrayList<>();
+    for (final String bucketName : getLoggedBucketNames()) {
+      CacheEntry bucketEntry = withBucketLog(bucketName, false,
+          new BucketLogOperation<CacheEntry>() {
+            @Override
+            public CacheEntry run(BucketLog bucketLog) {
+              return bucketLog.bucketCreationTime == null
+                  ? null
+                  : new CacheEntry(new StorageResourceId(bucketName),
+                      bucketLog.bucketCreationTime);
+            }
+          });
+      if (bucketEntry != null) {
+        bucketEntries.add(bucketEntry);
+      }
+    }
+    return bucketEntries;
+  }
+
+  @Override
+  public List<CacheEntry> getObjectList(
+      final String bucketName, final String objectNamePrefix, final String delimiter,
+      final Set<String> returnedPrefixes)
+      throws IOException {
+    log.debug("getObjectList(%s, %s, %s)", bucketName, objectNamePrefix, delimiter);
+    return withBucketLog(bucketName, false, new BucketLogOperation<List<CacheEntry>>() {
+      @Override
+      public List<CacheEntry> run(BucketLog bucketLog) throws IOException {
+        if (bucketLog.bucketCreationTime == null) {
+          return null;
+        }
+
+        // Only objects whose names start with the prefix can match, and those are contiguous
+        // in the sorted index, starting at the prefix itself.
+        String scanPrefix = objectNamePrefix == null ? "" : objectNamePrefix;
+        List<CacheEntry> matchingObjectEntries = new ArrayList<>();
+        List<ByteBuffer> removeRecords = new ArrayList<>();
+        long currentTime = clock.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> objects =
+            bucketLog.objectCreationTimes.tailMap(scanPrefix, true).entrySet().iterator();
+        while (objects.hasNext()) {
+          Map.Entry<String, Long> object = objects.next();
+          String objectName = object.getKey();
+          if (!objectName.startsWith(scanPrefix)) {
+            break;
+          }
+          CacheEntry objectEntry = new CacheEntry(
+              new StorageResourceId(bucketName, objectName), object.getValue());
+          if (isCacheEntryExpired(objectEntry)) {
+            log.debug("Removing expired entry '%s'", objectEntry.getResourceId());
+            removeRecords.add(createRecord(RECORD_REMOVE, currentTime, objectName));
+            continue;
+          }
+
+          String matchedName = GoogleCloudStorageStrings.matchListPrefix(
+              objectNamePrefix, delimiter, objectName);
+          if (matchedName != null) {
+            if (objectName.equals(matchedName)) {
+              matchingObjectEntries.add(objectEntry);
+            } else {
+              if (returnedPrefixes != null) {
+                returnedPrefixes.add(matchedName);
+              }
+              // Every other object under the matched prefix would only yield the same prefix,
+              // so skip straight past them.
+              String nameAfterPrefix = getFirstNameAfterPrefix(matchedName);
+              if (nameAfterPrefix != null) {
+                objects = bucketLog.objectCreationTimes.tailMap(nameAfterPrefix, true)
+                    .entrySet().iterator();
+              }
+            }
+          }
+        }
+
+        // Proactively remove the bucket's own entry if our iteration caused it to be empty and
+        // it is itself expired.
+        if (!removeRecords.isEmpty()) {
+          bucketLog.append(removeRecords);
+          if (bucketLog.objectCreationTimes.isEmpty() && isCacheEntryExpired(
+              new CacheEntry(new StorageResourceId(bucketName), bucketLog.bucketCreationTime))) {
+            List<ByteBuffer> records = new ArrayList<>();
+            records.add(createRecord(RECORD_REMOVE, currentTime, ""));
+            bucketLog.append(records);
+          }
+        }
+        return matchingObjectEntries;
+      }
+    });
+  }
+
+  /**
+   * Returns the smallest name which is greater than every name starting with {@code prefix}, or
+   * null if there is none.
+   */
+  private static String getFirstNameAfterPrefix(String prefix) {
+    char lastChar = prefix.charAt(prefix.length() - 1);
+    if (lastChar == Character.MAX_VALUE) {
+      return null;
+    }
+    return prefix.substring(0, prefix.length() - 1) + (char) (lastChar + 1);
+  }
+
+  /**
+   * Compacts the log of {@code bucketName}, if it has one, regardless of how much of it is
+   * taken up by records of removed entries.
+   */
+  public void compact(String bucketName) throws IOException {
+    withBucketLog(bucketName, false, new BucketLogOperation<Void>() {
+      @Override
+      public Void run(BucketLog bucketLog) throws IOException {
+        bucketLog.compact();
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Closes the log files opened so far; a later operation reopens the log it needs.
+   */
+  @Override
+  public void close() {
+    for (BucketLog bucketLog : bucketLogs.values()) {
+      synchronized (bucketLog) {
+        try {
+          bucketLog.closeChannel();
+        } catch (IOException ioe) {
+          log.warn("Failed to close cache log '%s': %s", bucketLog.logPath, ioe);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getInternalNumBuckets() throws IOException {
+    return getRawBucketList().size();
+  }
+
+  @Override
+  public int getInternalNumObjects() throws IOException {
+    int objectCount = 0;
+    for (String bucketName : getLoggedBucketNames()) {
+      Integer numObjects = withBucketLog(bucketName, false, new BucketLogOperation<Integer>() {
+        @Override
+        public Integer run(BucketLog bucketLog) {
+          return bucketLog.objectCreationTimes.size();
+        }
+      });
+      if (numObjects != null) {
+        objectCount += numObjects;
+      }
+    }
+    return objectCount;
+  }
+}
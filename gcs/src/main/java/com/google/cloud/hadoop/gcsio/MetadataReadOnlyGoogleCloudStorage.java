@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -136,6 +137,12 @@ public class MetadataReadOnlyGoogleCloudStorage
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void copy(String srcBucketName, List<String> srcObjectNames,
       String dstBucketName, List<String> dstObjectNames)
@@ -175,6 +182,68 @@ public class MetadataReadOnlyGoogleCloudStorage
         ITEM_INFO_TO_NAME);
   }
 
+  /**
+   * Returns all matching names from the metadata cache as a single page.
+   */
+  @Override
+  public ListPage<String> listObjectNamesPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    return listObjectNamesPage(bucketName, objectNamePrefix, delimiter, null, null, pageToken);
+  }
+
+  /**
+   * Returns all matching names in the given range from the metadata cache as a single page.
+   */
+  @Override
+  public ListPage<String> listObjectNamesPage(
+      String bucketName, String objectNamePrefix, String delimiter,
+      String startOffset, String endOffset, String pageToken)
+      throws IOException {
+    log.debug("listObjectNamesPage(%s, %s, %s, %s, %s, %s)",
+        bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+    List<String> objectNames = new ArrayList<>();
+    for (String objectName : listObjectNames(bucketName, objectNamePrefix, delimiter)) {
+      if (GoogleCloudStorageStrings.isInListRange(objectName, startOffset, endOffset)) {
+        objectNames.add(objectName);
+      }
+    }
+    Collections.sort(objectNames);
+    return new ListPage<>(objectNames, null);
+  }
+
+  /**
+   * Returns all matching infos from the metadata cache as a single page.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    return listObjectInfoPage(bucketName, objectNamePrefix, delimiter, null, null, pageToken);
+  }
+
+  /**
+   * Returns all matching infos in the given range from the metadata cache as a single page.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter,
+      String startOffset, String endOffset, String pageToken)
+      throws IOException {
+    log.debug("listObjectInfoPage(%s, %s, %s, %s, %s, %s)",
+        bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+    List<GoogleCloudStorageItemInfo> objectInfos = new ArrayList<>();
+    for (GoogleCloudStorageItemInfo objectInfo
+        : listObjectInfo(bucketName, objectNamePrefix, delimiter)) {
+      if (GoogleCloudStorageStrings.isInListRange(
+          objectInfo.getObjectName(), startOffset, endOffset)) {
+        objectInfos.add(objectInfo);
+      }
+    }
+    Collections.sort(objectInfos, GoogleCloudStorageItemInfo.OBJECT_NAME_COMPARATOR);
+    return new ListPage<>(objectInfos, null);
+  }
+
   /**
    * Uses shared prefix-matching logic to filter entries from the metadata cache. For implicit
    * prefix matches with no corresponding real directory object, adds a fake directory object
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonString;
+import com.google.api.client.util.Key;
+import com.google.api.services.storage.Storage;
+import com.google.api.services.storage.StorageRequest;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.base.Preconditions;
+
+/**
+ * An objects().rewrite request of the GCS JSON API, which the bundled Storage client library
+ * predates. A rewrite copies an object server-side like objects().copy, but also across
+ * locations and storage classes, and may return before the copy is complete along with a
+ * rewrite token with which to continue it.
+ */
+public class ObjectsRewrite extends StorageRequest<ObjectsRewrite.Response> {
+  private static final String REST_PATH =
+      "b/{sourceBucket}/o/{sourceObject}/rewriteTo/b/{destinationBucket}/o/{destinationObject}";
+
+  @Key
+  private String sourceBucket;
+
+  @Key
+  private String sourceObject;
+
+  @Key
+  private String destinationBucket;
+
+  @Key
+  private String destinationObject;
+
+  @Key
+  private String rewriteToken;
+
+  @Key
+  private Long maxBytesRewrittenPerCall;
+
+  public ObjectsRewrite(Storage gcs, String sourceBucket, String sourceObject,
+      String destinationBucket, String destinationObject) {
+    super(gcs, "POST", REST_PATH, null, Response.class);
+    this.sourceBucket = Preconditions.checkNotNull(sourceBucket);
+    this.sourceObject = Preconditions.checkNotNull(sourceObject);
+    this.destinationBucket = Preconditions.checkNotNull(destinationBucket);
+    this.destinationObject = Preconditions.checkNotNull(destinationObject);
+  }
+
+  public String getRewriteToken() {
+    return rewriteToken;
+  }
+
+  /**
+   * Sets the token returned by the previous call of an incomplete rewrite, to continue it.
+   */
+  public ObjectsRewrite setRewriteToken(String rewriteToken) {
+    this.rewriteToken = rewriteToken;
+    return this;
+  }
+
+  public Long getMaxBytesRewrittenPerCall() {
+    return maxBytesRewrittenPerCall;
+  }
+
+  /**
+   * Limits the bytes copied by this call; must be a multiple of 1 MiB.
+   */
+  public ObjectsRewrite setMaxBytesRewrittenPerCall(Long maxBytesRewrittenPerCall) {
+    this.maxBytesRewrittenPerCall = maxBytesRewrittenPerCall;
+    return this;
+  }
+
+  /**
+   * The result of a single objects().rewrite call.
+   */
+  public static class Response extends GenericJson {
+    @Key
+    @JsonString
+    private Long totalBytesRewritten;
+
+    @Key
+    @JsonString
+    private Long objectSize;
+
+    @Key
+    private Boolean done;
+
+    @Key
+    private String rewriteToken;
+
+    @Key
+    private StorageObject resource;
+
+    public Long getTotalBytesRewritten() {
+      return totalBytesRewritten;
+    }
+
+    public Response setTotalBytesRewritten(Long totalBytesRewritten) {
+      this.totalBytesRewritten = totalBytesRewritten;
+      return this;
+    }
+
+    public Long getObjectSize() {
+      return objectSize;
+    }
+
+    public Response setObjectSize(Long objectSize) {
+      this.objectSize = objectSize;
+      return this;
+    }
+
+    public Boolean getDone() {
+      return done;
+    }
+
+    public Response setDone(Boolean done) {
+      this.done = done;
+      return this;
+    }
+
+    /**
+     * Gets the token with which to continue the rewrite, if it is not done.
+     */
+    public String getRewriteToken() {
+      return rewriteToken;
+    }
+
+    public Response setRewriteToken(String rewriteToken) {
+      this.rewriteToken = rewriteToken;
+      return this;
+    }
+
+    /**
+     * Gets the destination object, once the rewrite is done.
+     */
+    public StorageObject getResource() {
+      return resource;
+    }
+
+    public Response setResource(StorageObject resource) {
+      this.resource = resource;
+      return this;
+    }
+  }
+}
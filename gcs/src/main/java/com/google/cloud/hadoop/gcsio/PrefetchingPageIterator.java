@@ -0,0 +1,147 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates over the items of a paginated listing, one page at a time. While the items of a page
+ * are being consumed, the following page is fetched in the background, so that only about two
+ * pages are held in memory and the caller rarely waits on a listing request.
+ *
+ * @param <T> type of the listed items
+ */
+public abstract class PrefetchingPageIterator<T> {
+  private final ExecutorService prefetchExecutor;
+
+  // Items of the current page not yet returned.
+  private Iterator<T> currentItems;
+
+  // The page being fetched in the background, or null if the current page is the last.
+  private Future<ListPage<T>> nextPage;
+
+  /**
+   * @param firstPage the first page of the listing, already fetched by the caller so that errors
+   *     such as a missing directory surface when the listing is started
+   * @param prefetchExecutor executor with which to fetch the following pages
+   */
+  protected PrefetchingPageIterator(ListPage<T> firstPage, ExecutorService prefetchExecutor) {
+    Preconditions.checkArgument(firstPage != null, "firstPage must not be null");
+    Preconditions.checkArgument(prefetchExecutor != null, "prefetchExecutor must not be null");
+    this.prefetchExecutor = prefetchExecutor;
+    startPage(firstPage);
+  }
+
+  /**
+   * Fetches the page of the listing identified by {@code pageToken}; called on a thread of the
+   * prefetch executor.
+   */
+  protected abstract ListPage<T> fetchPage(String pageToken)
+      throws IOException;
+
+  /**
+   * Returns true if there are more items, waiting for the following page if necessary.
+   *
+   * @throws IOException if fetching the following page failed, in which case the listing is
+   *     closed
+   * @throws InterruptedIOException if interrupted while waiting, in which case the interrupt
+   *     flag is restored and the listing is closed
+   */
+  public boolean hasNext()
+      throws IOException {
+    try {
+      // Skip over empty pages, which a listing may return while it continues.
+      while (!currentItems.hasNext() && nextPage != null) {
+        startPage(awaitNextPage());
+      }
+    } catch (IOException ioe) {
+      close();
+      throw ioe;
+    }
+    return currentItems.hasNext();
+  }
+
+  /**
+   * Returns the next item, waiting for the following page if necessary.
+   *
+   * @throws NoSuchElementException if there are no more items
+   * @throws IOException if fetching the following page failed
+   */
+  public T next()
+      throws IOException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return currentItems.next();
+  }
+
+  /**
+   * Abandons the listing, cancelling the fetch of the following page if one is in progress.
+   * Consumers which may stop before the listing is exhausted should close it in a finally block.
+   */
+  public void close() {
+    if (nextPage != null) {
+      nextPage.cancel(true);
+      nextPage = null;
+    }
+    currentItems = Collections.emptyIterator();
+  }
+
+  /**
+   * Makes {@code page} the current page and starts fetching the one after it, if any.
+   */
+  private void startPage(ListPage<T> page) {
+    currentItems = page.getItems().iterator();
+    final String pageToken = page.getNextPageToken();
+    if (pageToken == null) {
+      nextPage = null;
+    } else {
+      nextPage = prefetchExecutor.submit(new Callable<ListPage<T>>() {
+        @Override
+        public ListPage<T> call() throws IOException {
+          return fetchPage(pageToken);
+        }
+      });
+    }
+  }
+
+  private ListPage<T> awaitNextPage()
+      throws IOException {
+    try {
+      return nextPage.get();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException iioe = new InterruptedIOException("Interrupted awaiting listing page");
+      iioe.initCause(ie);
+      throw iioe;
+    } catch (ExecutionException ee) {
+      nextPage = null;
+      if (ee.getCause() instanceof IOException) {
+        throw (IOException) ee.getCause();
+      }
+      throw new IOException(ee.getCause());
+    }
+  }
+}
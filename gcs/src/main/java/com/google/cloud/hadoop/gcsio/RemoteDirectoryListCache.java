@@ -0,0 +1,512 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * RemoteDirectoryListCache is a DirectoryListCache whose entries are held by a
+ * DirectoryListCacheServer shared by every process of a cluster, so that each of them sees the
+ * others' list-after-write updates without sharing a filesystem.
+ * <p>
+ * All threads using an instance share a single connection to the server. Requests are queued
+ * and sent by a writer thread, which sends everything queued so far in one write, and their
+ * responses are read back in order by a reader thread; a caller thus never waits for another
+ * caller's round trip before sending its own request. If the connection fails, every request
+ * in flight fails with an IOException and the next request opens a new connection.
+ * <p>
+ * Expiration of entries is decided by the server, according to the Config of the cache it
+ * serves; the Config of this instance only governs the handling of the entries it returns.
+ * Like FileSystemBackedDirectoryListCache, this cache doesn't hold
+ * GoogleCloudStorageItemInfos.
+ */
+public class RemoteDirectoryListCache extends DirectoryListCache implements Closeable {
+  private static final LogUtil log = new LogUtil(RemoteDirectoryListCache.class);
+
+  // Maximum time to wait for the response to a request before giving up on the connection.
+  static final long REQUEST_TIMEOUT_MILLIS = 30 * 1000L;
+
+  // Maximum time to wait for a connection to the server to be established.
+  static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+  private final String host;
+  private final int port;
+
+  // The connection in use, or null if there is none yet.
+  private Connection connection;
+
+  /**
+   * A request awaiting its response.
+   */
+  private abstract static class PendingRequest<T> {
+    final SettableFuture<T> result = SettableFuture.create();
+
+    /**
+     * Writes the opcode and arguments of this request.
+     */
+    abstract void writeRequest(DataOutputStream out) throws IOException;
+
+    /**
+     * Reads the result following a successful status.
+     */
+    abstract T readResponse(DataInputStream in) throws IOException;
+  }
+
+  /**
+   * The result of a getObjectList request.
+   */
+  private static class ObjectListing {
+    // Null if the bucket doesn't exist.
+    List<CacheEntry> objectEntries;
+    final List<String> prefixes = new ArrayList<>();
+  }
+
+  /**
+   * A connection to the server, with the threads writing its requests and reading its responses.
+   */
+  private class Connection {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    // Requests not yet written, then requests written whose response has yet to be read.
+    private final BlockingQueue<PendingRequest<?>> unsentRequests = new LinkedBlockingQueue<>();
+    private final BlockingQueue<PendingRequest<?>> sentRequests = new LinkedBlockingQueue<>();
+
+    // The reason this connection stopped working, or null if it still works.
+    private IOException failure;
+
+    // Interrupted once the connection fails, since it may be waiting for requests.
+    private final Thread writerThread;
+
+    Connection() throws IOException {
+      socket = new Socket();
+      try {
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeLong(DirectoryListCacheProtocol.MAGIC);
+      } catch (IOException ioe) {
+        socket.close();
+        throw ioe;
+      }
+      writerThread = startThread("writer", new Runnable() {
+        @Override
+        public void run() {
+          writeRequests();
+        }
+      });
+      startThread("reader", new Runnable() {
+        @Override
+        public void run() {
+          readResponses();
+        }
+      });
+    }
+
+    private Thread startThread(String role, Runnable runnable) {
+      Thread thread = new Thread(
+          runnable, String.format("gcs-directory-list-cache-%s-%s:%d", role, host, port));
+      thread.setDaemon(true);
+      thread.start();
+      return thread;
+    }
+
+    synchronized IOException getFailure() {
+      return failure;
+    }
+
+    boolean isFailed() {
+      return getFailure() != null;
+    }
+
+    /**
+     * Queues {@code request} for sending.
+     */
+    synchronized void submit(PendingRequest<?> request) throws IOException {
+      if (failure != null) {
+        throw new IOException("Connection to directory list cache server failed", failure);
+      }
+      unsentRequests.add(request);
+    }
+
+    /**
+     * Marks this connection as failed and fails every request in flight; only the first
+     * failure is kept.
+     */
+    void fail(IOException cause) {
+      synchronized (this) {
+        if (failure == null) {
+          log.warn("Connection to directory list cache server %s:%d failed: %s",
+              host, port, cause);
+          failure = cause;
+        }
+      }
+      try {
+        socket.close();
+      } catch (IOException ioe) {
+        log.debug("Failed to close socket: %s", ioe);
+      }
+      if (Thread.currentThread() != writerThread) {
+        writerThread.interrupt();
+      }
+      // Requests submitted before the failure was recorded are in one of the queues by now.
+      List<PendingRequest<?>> abandoned = new ArrayList<>();
+      sentRequests.drainTo(abandoned);
+      unsentRequests.drainTo(abandoned);
+      for (PendingRequest<?> request : abandoned) {
+        request.result.setException(
+            new IOException("Connection to directory list cache server failed", cause));
+      }
+    }
+
+    private void writeRequests() {
+      List<PendingRequest<?>> batch = new ArrayList<>();
+      // Number of requests of the batch moved to sentRequests so far.
+      int numSent = 0;
+      try {
+        while (!isFailed()) {
+          batch.add(unsentRequests.take());
+          unsentRequests.drainTo(batch);
+          for (PendingRequest<?> request : batch) {
+            // Queue the request for its response before the server can possibly answer it.
+            sentRequests.add(request);
+            ++numSent;
+            request.writeRequest(out);
+          }
+          out.flush();
+          batch.clear();
+          numSent = 0;
+        }
+      } catch (IOException | RuntimeException e) {
+        fail(e instanceof IOException ? (IOException) e : new IOException(e));
+      } catch (InterruptedException ie) {
+        fail(new IOException("Interrupted writing requests", ie));
+      }
+      // Fail anything this thread queued after another thread already recorded a failure, and
+      // the rest of the batch it was writing, which never made it into either queue.
+      fail(getFailure());
+      for (PendingRequest<?> request : batch.subList(numSent, batch.size())) {
+        request.result.setException(
+            new IOException("Connection to directory list cache server failed", getFailure()));
+      }
+    }
+
+    private void readResponses() {
+      try {
+        while (!isFailed()) {
+          byte status = in.readByte();
+          PendingRequest<?> request = sentRequests.poll();
+          if (request == null) {
+            throw new IOException("Received a response to no request");
+          }
+          if (status == DirectoryListCacheProtocol.STATUS_OK) {
+            completeRequest(request, in);
+          } else {
+            request.result.setException(new IOException(in.readUTF()));
+          }
+        }
+      } catch (IOException ioe) {
+        fail(ioe);
+      }
+    }
+
+    private <T> void completeRequest(PendingRequest<T> request, DataInputStream in)
+        throws IOException {
+      request.result.set(request.readResponse(in));
+    }
+
+    void close() {
+      IOException closed = new IOException("Connection closed");
+      synchronized (this) {
+        if (failure == null) {
+          failure = closed;
+        }
+      }
+      fail(closed);
+    }
+  }
+
+  /**
+   * @param host The host of the DirectoryListCacheServer.
+   * @param port The port of the DirectoryListCacheServer.
+   */
+  public RemoteDirectoryListCache(String host, int port) {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(host), "host must not be null or empty");
+    Preconditions.checkArgument(port > 0 && port < 65536, "port must be valid, got %s", port);
+    this.host = host;
+    this.port = port;
+  }
+
+  /**
+   * Creates a RemoteDirectoryListCache for the server at {@code address}, of the form
+   * "host:port" or "host", which uses DirectoryListCacheServer.DEFAULT_PORT.
+   */
+  public static RemoteDirectoryListCache fromAddress(String address) {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(address),
+        "Directory list cache server address must not be null or empty");
+    int colonIndex = address.lastIndexOf(':');
+    if (colonIndex < 0) {
+      return new RemoteDirectoryListCache(address, DirectoryListCacheServer.DEFAULT_PORT);
+    }
+    int port;
+    try {
+      port = Integer.parseInt(address.substring(colonIndex + 1));
+    } catch (NumberFormatException nfe) {
+      throw new IllegalArgumentException(String.format(
+          "Invalid port in directory list cache server address '%s'", address), nfe);
+    }
+    return new RemoteDirectoryListCache(address.substring(0, colonIndex), port);
+  }
+
+  /**
+   * Entries are held by the server, so CacheEntries are not shared references.
+   */
+  @Override
+  public boolean supportsCacheEntryByReference() {
+    return false;
+  }
+
+  /**
+   * The server holds its entries in an InMemoryDirectoryListCache, which doesn't add entries for
+   * implicit directories.
+   */
+  @Override
+  public boolean containsEntriesForImplicitDirectories() {
+    return false;
+  }
+
+  /**
+   * Closes the connection to the server, if any; a later request opens a new one.
+   */
+  @Override
+  public synchronized void close() {
+    if (connection != null) {
+      connection.close();
+      connection = null;
+    }
+  }
+
+  private synchronized Connection getConnection() throws IOException {
+    if (connection == null || connection.isFailed()) {
+      log.debug("Connecting to directory list cache server %s:%d", host, port);
+      connection = new Connection();
+    }
+    return connection;
+  }
+
+  /**
+   * Sends {@code request} and waits for its result.
+   */
+  private <T> T execute(PendingRequest<T> request) throws IOException {
+    Connection requestConnection = getConnection();
+    requestConnection.submit(request);
+    try {
+      return request.result.get(REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted awaiting directory list cache server", ie);
+    } catch (TimeoutException te) {
+      IOException ioe = new IOException(String.format(
+          "Timed out after %d ms awaiting directory list cache server", REQUEST_TIMEOUT_MILLIS));
+      requestConnection.fail(ioe);
+      throw ioe;
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof IOException) {
+        throw (IOException) ee.getCause();
+      } else if (ee.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ee.getCause();
+      }
+      throw new IOException(ee.getCause());
+    }
+  }
+
+  @Override
+  public CacheEntry putResourceId(final StorageResourceId resourceId) throws IOException {
+    log.debug("putResourceId(%s)", resourceId);
+    validateResourceId(resourceId);
+    return execute(new PendingRequest<CacheEntry>() {
+      @Override
+      void writeRequest(DataOutputStream out) throws IOException {
+        out.writeByte(DirectoryListCacheProtocol.OP_PUT);
+        DirectoryListCacheProtocol.writeResourceId(out, resourceId);
+      }
+
+      @Override
+      CacheEntry readResponse(DataInputStream in) throws IOException {
+        return new CacheEntry(resourceId, in.readLong());
+      }
+    });
+  }
+
+  @Override
+  public CacheEntry getCacheEntry(final StorageResourceId resourceId) throws IOException {
+    log.debug("getCacheEntry(%s)", resourceId);
+    validateResourceId(resourceId);
+    return execute(new PendingRequest<CacheEntry>() {
+      @Override
+      void writeRequest(DataOutputStream out) throws IOException {
+        out.writeByte(DirectoryListCacheProtocol.OP_GET);
+        DirectoryListCacheProtocol.writeResourceId(out, resourceId);
+      }
+
+      @Override
+      CacheEntry readResponse(DataInputStream in) throws IOException {
+        boolean exists = in.readBoolean();
+        long creationTime = in.readLong();
+        return exists ? new CacheEntry(resourceId, creationTime) : null;
+      }
+    });
+  }
+
+  @Override
+  public void removeResourceId(final StorageResourceId resourceId) throws IOException {
+    log.debug("removeResourceId(%s)", resourceId);
+    validateResourceId(resourceId);
+    execute(new PendingRequest<Void>() {
+      @Override
+      void writeRequest(DataOutputStream out) throws IOException {
+        out.writeByte(DirectoryListCacheProtocol.OP_REMOVE);
+        DirectoryListCacheProtocol.writeResourceId(out, resourceId);
+      }
+
+      @Override
+      Void readResponse(DataInputStream in) {
+        return null;
+      }
+    });
+  }
+
+  private List<CacheEntry> listBuckets(final byte opcode) throws IOException {
+    return execute(new PendingRequest<List<CacheEntry>>() {
+      @Override
+      void writeRequest(DataOutputStream out) throws IOException {
+        out.writeByte(opcode);
+      }
+
+      @Override
+      List<CacheEntry> readResponse(DataInputStream in) throws IOException {
+        int numBuckets = in.readInt();
+        List<CacheEntry> bucketEntries = new ArrayList<>(numBuckets);
+        for (int i = 0; i < numBuckets; ++i) {
+          StorageResourceId bucketId = new StorageResourceId(in.readUTF());
+          bucketEntries.add(new CacheEntry(bucketId, in.readLong()));
+        }
+        return bucketEntries;
+      }
+    });
+  }
+
+  @Override
+  public List<CacheEntry> getBucketList() throws IOException {
+    log.debug("getBucketList()");
+    return listBuckets(DirectoryListCacheProtocol.OP_LIST_BUCKETS);
+  }
+
+  @Override
+  public List<CacheEntry> getRawBucketList() throws IOException {
+    log.debug("getRawBucketList()");
+    return listBuckets(DirectoryListCacheProtocol.OP_LIST_RAW_BUCKETS);
+  }
+
+  @Override
+  public List<CacheEntry> getObjectList(
+      final String bucketName, final String objectNamePrefix, final String delimiter,
+      final Set<String> returnedPrefixes)
+      throws IOException {
+    log.debug("getObjectList(%s, %s, %s)", bucketName, objectNamePrefix, delimiter);
+    ObjectListing listing = execute(new PendingRequest<ObjectListing>() {
+      @Override
+      void writeRequest(DataOutputStream out) throws IOException {
+        out.writeByte(DirectoryListCacheProtocol.OP_LIST_OBJECTS);
+        out.writeUTF(bucketName);
+        DirectoryListCacheProtocol.writeNullableString(out, objectNamePrefix);
+        DirectoryListCacheProtocol.writeNullableString(out, delimiter);
+        out.writeBoolean(returnedPrefixes != null);
+      }
+
+      @Override
+      ObjectListing readResponse(DataInputStream in) throws IOException {
+        ObjectListing listing = new ObjectListing();
+        if (!in.readBoolean()) {
+          return listing;
+        }
+        int numObjects = in.readInt();
+        listing.objectEntries = new ArrayList<>(numObjects);
+        for (int i = 0; i < numObjects; ++i) {
+          StorageResourceId objectId = new StorageResourceId(bucketName, in.readUTF());
+          listing.objectEntries.add(new CacheEntry(objectId, in.readLong()));
+        }
+        int numPrefixes = in.readInt();
+        for (int i = 0; i < numPrefixes; ++i) {
+          listing.prefixes.add(in.readUTF());
+        }
+        return listing;
+      }
+    });
+    // Only the caller's thread touches returnedPrefixes.
+    if (returnedPrefixes != null) {
+      returnedPrefixes.addAll(listing.prefixes);
+    }
+    return listing.objectEntries;
+  }
+
+  private int getCount(final byte opcode) throws IOException {
+    return execute(new PendingRequest<Integer>() {
+      @Override
+      void writeRequest(DataOutputStream out) throws IOException {
+        out.writeByte(opcode);
+      }
+
+      @Override
+      Integer readResponse(DataInputStream in) throws IOException {
+        return in.readInt();
+      }
+    });
+  }
+
+  @Override
+  public int getInternalNumBuckets() throws IOException {
+    return getCount(DirectoryListCacheProtocol.OP_NUM_BUCKETS);
+  }
+
+  @Override
+  public int getInternalNumObjects() throws IOException {
+    return getCount(DirectoryListCacheProtocol.OP_NUM_OBJECTS);
+  }
+}
@@ -0,0 +1,328 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A paginated listing split into shards, which list contiguous ranges of the listing in
+ * ascending order and are each paged through concurrently on a thread of their own. A page token
+ * only leads from one page to the next, so a single listing is inherently serial; splitting it
+ * into independent ranges lets a listing of a large directory proceed as many pages at a time as
+ * there are shards.
+ * <p>
+ * Each shard lists ahead of its consumer into a queue of at most {@code maxBufferedPages} pages,
+ * so that memory stays bounded however far ahead of the consumer a shard gets. The shards are
+ * consumed either in order, stitched back into the complete listing, or independently, by
+ * consumers which don't depend on the order of the whole listing.
+ * <p>
+ * A shard whose queue stays full for {@code parkTimeoutMillis} parks the page it holds and
+ * gives up its thread, resuming only once its consumer has taken every queued page, so that a
+ * consumer which stops without closing its iterator, as callers of Hadoop's RemoteIterator may,
+ * doesn't leave fetch threads blocked until the filesystem closes.
+ *
+ * @param <T> type of the listed items
+ */
+abstract class ShardedPageListing<T> {
+  // Page token of the pages returned by the iterators of this listing, whose following pages
+  // are taken from the queues of the shards rather than fetched by token.
+  private static final String QUEUED_PAGE_TOKEN = "queued";
+
+  /**
+   * A page of a shard, or the error with which the shard failed.
+   */
+  private static class ShardPage<T> {
+    final ListPage<T> page;
+    final IOException error;
+
+    ShardPage(ListPage<T> page, IOException error) {
+      this.page = page;
+      this.error = error;
+    }
+  }
+
+  /**
+   * The fetching state of a shard, guarded by itself.
+   */
+  private static class ShardFetch<T> {
+    // The task fetching pages into the queue, or null if it isn't running.
+    Future<?> task;
+
+    // The page which the fetch held when it parked, or null if it isn't parked.
+    ShardPage<T> parkedPage;
+
+    // Whether the shard was abandoned, after which it is never resumed.
+    boolean cancelled;
+  }
+
+  private final List<BlockingQueue<ShardPage<T>>> shardPages;
+  private final List<ShardFetch<T>> shardFetches;
+  private final ExecutorService fetchExecutor;
+  private final long parkTimeoutMillis;
+
+  /**
+   * @param firstPage the first page of shard 0, already fetched by the caller so that errors
+   *     such as a missing directory surface when the listing is started; its page token, if any,
+   *     is passed to {@link #fetchPage} to continue shard 0
+   * @param shardCount number of shards
+   * @param maxBufferedPages maximum number of pages each shard lists ahead of its consumer
+   * @param parkTimeoutMillis time for which a shard waits for room in its queue before parking
+   * @param fetchExecutor executor with which to fetch the pages of the shards
+   */
+  protected ShardedPageListing(ListPage<T> firstPage, int shardCount, int maxBufferedPages,
+      long parkTimeoutMillis, ExecutorService fetchExecutor) {
+    Preconditions.checkArgument(firstPage != null, "firstPage must not be null");
+    Preconditions.checkArgument(shardCount > 0, "shardCount must be positive, got %s", shardCount);
+    Preconditions.checkArgument(
+        maxBufferedPages > 0, "maxBufferedPages must be positive, got %s", maxBufferedPages);
+    Preconditions.checkArgument(
+        parkTimeoutMillis > 0, "parkTimeoutMillis must be positive, got %s", parkTimeoutMillis);
+    Preconditions.checkArgument(fetchExecutor != null, "fetchExecutor must not be null");
+    List<BlockingQueue<ShardPage<T>>> queues = new ArrayList<>(shardCount);
+    for (int shard = 0; shard < shardCount; ++shard) {
+      queues.add(new ArrayBlockingQueue<ShardPage<T>>(maxBufferedPages));
+    }
+    this.shardPages = Collections.unmodifiableList(queues);
+    this.fetchExecutor = fetchExecutor;
+    this.parkTimeoutMillis = parkTimeoutMillis;
+    queues.get(0).add(new ShardPage<>(firstPage, null));
+
+    List<ShardFetch<T>> fetches = new ArrayList<>(shardCount);
+    for (int shard = 0; shard < shardCount; ++shard) {
+      fetches.add(new ShardFetch<T>());
+    }
+    this.shardFetches = Collections.unmodifiableList(fetches);
+    for (int shard = 0; shard < shardCount; ++shard) {
+      if (shard > 0 || firstPage.getNextPageToken() != null) {
+        String pageToken = shard == 0 ? firstPage.getNextPageToken() : null;
+        ShardFetch<T> fetch = fetches.get(shard);
+        synchronized (fetch) {
+          fetch.task = fetchExecutor.submit(newShardFetch(shard, pageToken, null));
+        }
+      }
+    }
+  }
+
+  /**
+   * Fetches the page of shard {@code shard} identified by {@code pageToken}, or the first page of
+   * the shard if {@code pageToken} is null; called on a thread of the fetch executor. A page
+   * without a following page token ends the shard.
+   */
+  protected abstract ListPage<T> fetchPage(int shard, String pageToken)
+      throws IOException;
+
+  /**
+   * Returns the number of shards.
+   */
+  int getShardCount() {
+    return shardPages.size();
+  }
+
+  /**
+   * Returns an iterator over the items of every shard in turn, which is the complete listing in
+   * order; closing it abandons every shard.
+   */
+  PrefetchingPageIterator<T> iterator(ExecutorService prefetchExecutor) {
+    return new PrefetchingPageIterator<T>(
+        new ListPage<>(ImmutableList.<T>of(), QUEUED_PAGE_TOKEN), prefetchExecutor) {
+      // The shard whose pages are returned next.
+      private int shard;
+
+      @Override
+      protected ListPage<T> fetchPage(String pageToken)
+          throws IOException {
+        ListPage<T> page = takePage(shard);
+        if (page.getNextPageToken() == null) {
+          ++shard;
+        }
+        return new ListPage<>(
+            page.getItems(), shard < getShardCount() ? QUEUED_PAGE_TOKEN : null);
+      }
+
+      @Override
+      public void close() {
+        super.close();
+        ShardedPageListing.this.close();
+      }
+    };
+  }
+
+  /**
+   * Returns an iterator over the items of shard {@code shard} only; closing it abandons the
+   * shard.
+   */
+  PrefetchingPageIterator<T> shardIterator(final int shard, ExecutorService prefetchExecutor) {
+    Preconditions.checkElementIndex(shard, getShardCount());
+    return new PrefetchingPageIterator<T>(
+        new ListPage<>(ImmutableList.<T>of(), QUEUED_PAGE_TOKEN), prefetchExecutor) {
+      @Override
+      protected ListPage<T> fetchPage(String pageToken)
+          throws IOException {
+        ListPage<T> page = takePage(shard);
+        return new ListPage<>(
+            page.getItems(), page.getNextPageToken() != null ? QUEUED_PAGE_TOKEN : null);
+      }
+
+      @Override
+      public void close() {
+        super.close();
+        cancelShard(shard);
+      }
+    };
+  }
+
+  /**
+   * Abandons every shard, cancelling their fetches.
+   */
+  void close() {
+    for (int shard = 0; shard < getShardCount(); ++shard) {
+      cancelShard(shard);
+    }
+  }
+
+  private void cancelShard(int shard) {
+    ShardFetch<T> fetch = shardFetches.get(shard);
+    synchronized (fetch) {
+      fetch.cancelled = true;
+      fetch.parkedPage = null;
+      if (fetch.task != null) {
+        fetch.task.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Waits for and removes the next page of shard {@code shard}, first resuming the shard if it
+   * parked and its queue has been drained.
+   *
+   * @throws IOException if fetching the page failed
+   */
+  private ListPage<T> takePage(int shard)
+      throws IOException {
+    BlockingQueue<ShardPage<T>> queue = shardPages.get(shard);
+    ShardPage<T> shardPage;
+    try {
+      shardPage = queue.poll();
+      if (shardPage == null) {
+        // A shard only parks once its queue is full, so if it hasn't parked by now, its fetch is
+        // still running and will fill the queue.
+        resumeShard(shard);
+        shardPage = queue.take();
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted awaiting listing page", ie);
+    }
+    if (shardPage.error != null) {
+      throw shardPage.error;
+    }
+    return shardPage.page;
+  }
+
+  /**
+   * Restarts the fetch of shard {@code shard} from the page it parked with, if it is parked.
+   */
+  private void resumeShard(int shard)
+      throws IOException {
+    ShardFetch<T> fetch = shardFetches.get(shard);
+    synchronized (fetch) {
+      if (fetch.parkedPage != null && !fetch.cancelled) {
+        ShardPage<T> parkedPage = fetch.parkedPage;
+        fetch.parkedPage = null;
+        try {
+          fetch.task = fetchExecutor.submit(newShardFetch(shard, null, parkedPage));
+        } catch (RejectedExecutionException ree) {
+          throw new IOException("Failed to resume listing shard", ree);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds {@code shardPage} to the queue of shard {@code shard}, waiting up to parkTimeoutMillis
+   * for room.
+   *
+   * @return false if the shard parked with the page instead, in which case its fetch must stop
+   */
+  private boolean offerPage(int shard, ShardPage<T> shardPage)
+      throws InterruptedException {
+    BlockingQueue<ShardPage<T>> queue = shardPages.get(shard);
+    if (queue.offer(shardPage, parkTimeoutMillis, TimeUnit.MILLISECONDS)) {
+      return true;
+    }
+    ShardFetch<T> fetch = shardFetches.get(shard);
+    synchronized (fetch) {
+      // Check again while holding the lock, which takePage() takes to resume a parked shard.
+      if (queue.offer(shardPage)) {
+        return true;
+      }
+      if (!fetch.cancelled) {
+        fetch.parkedPage = shardPage;
+      }
+      fetch.task = null;
+      return false;
+    }
+  }
+
+  /**
+   * Returns a task which fetches the pages of shard {@code shard} into its queue, until the shard
+   * ends, fails, parks or is cancelled. The fetch starts by adding {@code parkedPage}, if not
+   * null, and following it, or else by fetching the page of {@code firstPageToken}.
+   */
+  private Runnable newShardFetch(
+      final int shard, final String firstPageToken, final ShardPage<T> parkedPage) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        ShardPage<T> shardPage = parkedPage;
+        String pageToken = firstPageToken;
+        try {
+          while (true) {
+            if (shardPage == null) {
+              try {
+                shardPage = new ShardPage<>(fetchPage(shard, pageToken), null);
+              } catch (IOException | RuntimeException e) {
+                IOException error =
+                    e instanceof IOException ? (IOException) e : new IOException(e);
+                shardPage = new ShardPage<>(null, error);
+              }
+            }
+            if (!offerPage(shard, shardPage)
+                || shardPage.error != null || shardPage.page.getNextPageToken() == null) {
+              return;
+            }
+            pageToken = shardPage.page.getNextPageToken();
+            shardPage = null;
+          }
+        } catch (InterruptedException ie) {
+          // The shard was abandoned.
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+}
@@ -159,6 +159,13 @@ public class ThrottledGoogleCloudStorage implements GoogleCloudStorage {
     wrappedGcs.deleteObjects(fullObjectNames);
   }
 
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    throttle(StorageOperation.DELETE_OBJECTS, fullObjectNames.size());
+    wrappedGcs.deleteObjects(fullObjectNames, generations);
+  }
+
   @Override
   public void copy(String srcBucketName, List<String> srcObjectNames,
       String dstBucketName, List<String> dstObjectNames) throws IOException {
@@ -195,6 +202,44 @@ public class ThrottledGoogleCloudStorage implements GoogleCloudStorage {
         bucketName, objectNamePrefix, delimiter, maxResults);
   }
 
+  @Override
+  public ListPage<String> listObjectNamesPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    throttle(StorageOperation.LIST_OBJECTS);
+    return wrappedGcs.listObjectNamesPage(
+        bucketName, objectNamePrefix, delimiter, pageToken);
+  }
+
+  @Override
+  public ListPage<String> listObjectNamesPage(String bucketName,
+      String objectNamePrefix, String delimiter, String startOffset, String endOffset,
+      String pageToken)
+      throws IOException {
+    throttle(StorageOperation.LIST_OBJECTS);
+    return wrappedGcs.listObjectNamesPage(
+        bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    throttle(StorageOperation.LIST_OBJECTS);
+    return wrappedGcs.listObjectInfoPage(
+        bucketName, objectNamePrefix, delimiter, pageToken);
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String startOffset, String endOffset,
+      String pageToken)
+      throws IOException {
+    throttle(StorageOperation.LIST_OBJECTS);
+    return wrappedGcs.listObjectInfoPage(
+        bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+  }
+
   @Override
   public List<GoogleCloudStorageItemInfo> listObjectInfo(String bucketName,
       String objectNamePrefix, String delimiter)
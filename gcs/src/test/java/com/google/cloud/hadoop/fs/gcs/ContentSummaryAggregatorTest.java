@@ -0,0 +1,120 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.cloud.hadoop.gcsio.FileInfo;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageItemInfo;
+import com.google.cloud.hadoop.gcsio.StorageResourceId;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+/**
+ * UnitTests for ContentSummaryAggregator class.
+ */
+@RunWith(JUnit4.class)
+public class ContentSummaryAggregatorTest {
+  private static final String BUCKET_NAME = "foo-bucket";
+
+  private static final String[] LOGS_NAMES = {
+      "logs/2015/",
+      "logs/2015/01/a",
+      "logs/2015/01/b",
+      "logs/2015/02/a",
+      "logs/2016/",
+      "logs/2016/empty/",
+      "logs/file",
+      "logs/z/y/x/w"};
+
+  private static ContentSummaryAggregator aggregate(String objectName, String... listedNames) {
+    ContentSummaryAggregator aggregator = new ContentSummaryAggregator(objectName);
+    for (String listedName : listedNames) {
+      long size = listedName.endsWith("/") ? 0 : 10;
+      aggregator.add(FileInfo.fromItemInfo(new GoogleCloudStorageItemInfo(
+          new StorageResourceId(BUCKET_NAME, listedName), 1234, size, null, null)));
+    }
+    return aggregator;
+  }
+
+  private static ContentSummary summarize(String objectName, String... listedNames) {
+    return aggregate(objectName, listedNames).getContentSummary();
+  }
+
+  private static void assertSummaryEquals(ContentSummary expected, ContentSummary actual) {
+    assertEquals(expected.getLength(), actual.getLength());
+    assertEquals(expected.getFileCount(), actual.getFileCount());
+    assertEquals(expected.getDirectoryCount(), actual.getDirectoryCount());
+  }
+
+  @Test
+  public void testCountsDirectoryObjectsAndImplicitDirectories() {
+    ContentSummary summary = summarize("logs", LOGS_NAMES);
+    assertEquals(50, summary.getLength());
+    assertEquals(5, summary.getFileCount());
+    // logs/ itself, 2015/, 2015/01/, 2015/02/, 2016/, 2016/empty/, z/, z/y/, z/y/x/.
+    assertEquals(9, summary.getDirectoryCount());
+  }
+
+  @Test
+  public void testBucketAndEmptyDirectory() {
+    ContentSummary summary = summarize("", "a", "b/c");
+    assertEquals(20, summary.getLength());
+    assertEquals(2, summary.getFileCount());
+    assertEquals(2, summary.getDirectoryCount());
+
+    summary = summarize("empty/");
+    assertEquals(0, summary.getLength());
+    assertEquals(0, summary.getFileCount());
+    assertEquals(1, summary.getDirectoryCount());
+  }
+
+  @Test
+  public void testFile() {
+    ContentSummary summary = summarize("logs/file", "logs/file");
+    assertEquals(10, summary.getLength());
+    assertEquals(1, summary.getFileCount());
+    assertEquals(0, summary.getDirectoryCount());
+  }
+
+  @Test
+  public void testAddAllMatchesSingleAggregator() {
+    ContentSummary expected = summarize("logs", LOGS_NAMES);
+    for (int first = 0; first <= LOGS_NAMES.length; ++first) {
+      for (int second = first; second <= LOGS_NAMES.length; ++second) {
+        ContentSummaryAggregator aggregator =
+            aggregate("logs", Arrays.copyOfRange(LOGS_NAMES, 0, first));
+        aggregator.addAll(aggregate("logs", Arrays.copyOfRange(LOGS_NAMES, first, second)));
+        aggregator.addAll(
+            aggregate("logs", Arrays.copyOfRange(LOGS_NAMES, second, LOGS_NAMES.length)));
+        assertSummaryEquals(expected, aggregator.getContentSummary());
+      }
+    }
+  }
+
+  @Test
+  public void testAddAllOfFile() {
+    ContentSummaryAggregator aggregator = aggregate("logs/file");
+    aggregator.addAll(aggregate("logs/file", "logs/file"));
+    assertSummaryEquals(summarize("logs/file", "logs/file"), aggregator.getContentSummary());
+  }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.google.cloud.hadoop.gcsio.FileInfo;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageItemInfo;
+import com.google.cloud.hadoop.gcsio.ListPage;
+import com.google.cloud.hadoop.gcsio.PrefetchingPageIterator;
+import com.google.cloud.hadoop.gcsio.StorageResourceId;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * UnitTests for FlatGlobMatcher class.
+ */
+@RunWith(JUnit4.class)
+public class FlatGlobMatcherTest {
+  private static final String BUCKET_NAME = "foo-bucket";
+  private static final long CREATION_TIME = 1234;
+
+  private static PrefetchingPageIterator<FileInfo> listObjects(String... objectNames) {
+    List<FileInfo> infos = new ArrayList<>();
+    for (String objectName : objectNames) {
+      infos.add(FileInfo.fromItemInfo(new GoogleCloudStorageItemInfo(
+          new StorageResourceId(BUCKET_NAME, objectName), CREATION_TIME, 0, null, null)));
+    }
+    return new PrefetchingPageIterator<FileInfo>(
+        new ListPage<>(infos, null), MoreExecutors.sameThreadExecutor()) {
+      @Override
+      protected ListPage<FileInfo> fetchPage(String pageToken) {
+        throw new IllegalStateException("There is only one page");
+      }
+    };
+  }
+
+  private static List<String> match(String pattern, String... objectNames) throws IOException {
+    List<String> matchedNames = new ArrayList<>();
+    for (FileInfo info : FlatGlobMatcher.compile(BUCKET_NAME, pattern)
+        .match(listObjects(objectNames))) {
+      matchedNames.add(info.getItemInfo().getObjectName());
+    }
+    return matchedNames;
+  }
+
+  @Test
+  public void testCompileRejectsPatternsSpanningComponents() {
+    assertNull(FlatGlobMatcher.compile(BUCKET_NAME, "/logs/{2015/01,2016}/*"));
+    assertNull(FlatGlobMatcher.compile(BUCKET_NAME, "/logs//*"));
+    assertNotNull(FlatGlobMatcher.compile(BUCKET_NAME, "/logs/{2015-01,2016}/*"));
+    assertNotNull(FlatGlobMatcher.compile(BUCKET_NAME, "/logs/\\{a/*"));
+  }
+
+  @Test
+  public void testMatchesFilesAndDirectoriesAtPatternDepth() throws IOException {
+    String[] objectNames = {
+        "logs/",
+        "logs/2015-01/",
+        "logs/2015-01/a/part-0",
+        "logs/2015-01/a/part-1",
+        "logs/2015-01/b/x",
+        "logs/2015-02/c/part-0",
+        "logs/2016-01/d/part-0",
+        "logs/file",
+    };
+
+    assertEquals(
+        ImmutableList.of("logs/2015-01/a/", "logs/2015-01/b/", "logs/2015-02/c/"),
+        match("/logs/2015-*/*", objectNames));
+    assertEquals(
+        ImmutableList.of("logs/2015-01/a/part-0", "logs/2015-02/c/part-0"),
+        match("/logs/2015-*/*/part-0", objectNames));
+    assertEquals(
+        ImmutableList.of("logs/2015-01/", "logs/2016-01/", "logs/file"),
+        match("/logs/{2015-01,2016-01,file}", objectNames));
+    assertEquals(ImmutableList.of(), match("/logs/2017-*/*", objectNames));
+  }
+
+  @Test
+  public void testImplicitDirectoriesHaveNoCreationTime() throws IOException {
+    List<FileInfo> matches = FlatGlobMatcher.compile(BUCKET_NAME, "/a/*")
+        .match(listObjects("a/b/", "a/b/c", "a/d/e"));
+    assertEquals(2, matches.size());
+    // The directory object is returned, rather than being inferred from its child.
+    assertEquals("a/b/", matches.get(0).getItemInfo().getObjectName());
+    assertEquals(CREATION_TIME, matches.get(0).getItemInfo().getCreationTime());
+    assertEquals("a/d/", matches.get(1).getItemInfo().getObjectName());
+    assertEquals(0, matches.get(1).getItemInfo().getCreationTime());
+  }
+
+  @Test
+  public void testExpandPrefixes() {
+    assertEquals(ImmutableList.of("logs/2015-01/", "logs/2015-02/", "logs/2015-03/"),
+        FlatGlobMatcher.expandPrefixes("/logs/{2015-01,2015-02,2015-03}/*/part-*", 16));
+    assertEquals(ImmutableList.of("part-0", "part-1", "part-2", "part-x"),
+        FlatGlobMatcher.expandPrefixes("part-[0-2x]*", 16));
+    // Expansion continues through literal alternatives, stops at other wildcards, and skips
+    // prefixes which are already listed as part of a shorter one.
+    assertEquals(ImmutableList.of("a/b", "a/c1", "a/c2", "d"),
+        FlatGlobMatcher.expandPrefixes("{a/{b*,c[12]},d,d?}", 16));
+    assertEquals(ImmutableList.of("logs/"), FlatGlobMatcher.expandPrefixes("logs/*", 16));
+    assertEquals(ImmutableList.of("a{b"), FlatGlobMatcher.expandPrefixes("a\\{b", 16));
+    assertEquals(ImmutableList.of("logs/"), FlatGlobMatcher.expandPrefixes("logs/[^a]", 16));
+  }
+
+  @Test
+  public void testExpandPrefixesBeyondFanOut() {
+    assertNull(FlatGlobMatcher.expandPrefixes("/logs/{a,b,c}/[0-9]*", 16));
+    assertNull(FlatGlobMatcher.expandPrefixes("/logs/[a-z]*", 16));
+    assertNull(FlatGlobMatcher.expandPrefixes("/logs/*", 0));
+  }
+
+  @Test
+  public void testGetRange() {
+    assertEquals("logs/part-0003", FlatGlobMatcher.getRangeStart("/logs/part-000[3-5]*"));
+    assertEquals("logs/part-0006", FlatGlobMatcher.getRangeEnd("/logs/part-000[3-5]*"));
+    assertEquals("logs/2015-01/", FlatGlobMatcher.getRangeStart("logs/{2015-02,2015-01/}*"));
+    assertEquals("logs/2015-03", FlatGlobMatcher.getRangeEnd("logs/{2015-02,2015-01/}*"));
+    // Too many prefixes to expand by default, so listed as one range instead.
+    assertNull(FlatGlobMatcher.expandPrefixes("part-[0-9][0-9][0-5]*", 16));
+    assertEquals("part-0", FlatGlobMatcher.getRangeStart("part-[0-9][0-9][0-5]*"));
+    assertEquals("part-:", FlatGlobMatcher.getRangeEnd("part-[0-9][0-9][0-5]*"));
+    // Directories matching the pattern are followed by their descendants.
+    assertEquals("logs/", FlatGlobMatcher.getRangeStart("logs/*"));
+    assertEquals("logs0", FlatGlobMatcher.getRangeEnd("logs/*"));
+    assertEquals("logs/a", FlatGlobMatcher.getRangeStart("logs/a"));
+    assertEquals("logs/b", FlatGlobMatcher.getRangeEnd("logs/a"));
+    assertEquals("logs/", FlatGlobMatcher.getRangeStart("logs/[^a]"));
+    assertEquals("logs0", FlatGlobMatcher.getRangeEnd("logs/[^a]"));
+    // Unbounded ranges.
+    assertEquals("", FlatGlobMatcher.getRangeStart("*"));
+    assertNull(FlatGlobMatcher.getRangeEnd("*"));
+    assertNull(FlatGlobMatcher.getRangeEnd("{a,*}"));
+    assertEquals("\u00e9", FlatGlobMatcher.getRangeStart("\u00e9*"));
+    assertNull(FlatGlobMatcher.getRangeEnd("\u00e9*"));
+  }
+}
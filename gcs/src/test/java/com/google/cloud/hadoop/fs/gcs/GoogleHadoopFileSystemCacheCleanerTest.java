@@ -0,0 +1,152 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.util.Clock;
+import com.google.cloud.hadoop.gcsio.FileSystemBackedDirectoryListCache;
+import com.google.cloud.hadoop.gcsio.StorageResourceId;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * UnitTests for GoogleHadoopFileSystemCacheCleaner class.
+ */
+@RunWith(JUnit4.class)
+public class GoogleHadoopFileSystemCacheCleanerTest {
+  private static final long MAX_ENTRY_AGE = 10000;
+  private static final long BASE_TIME = 123000;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Clock cacheClock;
+  private FileSystemBackedDirectoryListCache cache;
+  private Path checkpointPath;
+
+  @Before
+  public void setUp() throws IOException {
+    cache = new FileSystemBackedDirectoryListCache(tempFolder.newFolder("cache").toString());
+    cache.getMutableConfig().setMaxEntryAgeMillis(MAX_ENTRY_AGE);
+    cacheClock = mock(Clock.class);
+    when(cacheClock.currentTimeMillis()).thenReturn(BASE_TIME);
+    cache.setClock(cacheClock);
+    checkpointPath = tempFolder.getRoot().toPath().resolve("checkpoint");
+  }
+
+  private GoogleHadoopFileSystemCacheCleaner createCleaner(
+      int numThreads, long timeBudgetMillis, Clock clock) {
+    GoogleHadoopFileSystemCacheCleaner cleaner =
+        new GoogleHadoopFileSystemCacheCleaner(cache, numThreads, timeBudgetMillis, checkpointPath);
+    cleaner.setClock(clock);
+    return cleaner;
+  }
+
+  private static Clock clockAt(long time) {
+    Clock clock = mock(Clock.class);
+    when(clock.currentTimeMillis()).thenReturn(time);
+    return clock;
+  }
+
+  @Test
+  public void testRemovesExpiredEntriesAndSkipsFreshSubtrees() throws IOException {
+    cache.putResourceId(new StorageResourceId("bucket", "dir/old.txt"));
+    cache.putResourceId(new StorageResourceId("bucket", "old.txt"));
+    when(cacheClock.currentTimeMillis()).thenReturn(BASE_TIME + 5000);
+    cache.putResourceId(new StorageResourceId("bucket", "dir/new.txt"));
+    cache.putResourceId(new StorageResourceId("new-bucket", "dir/new.txt"));
+
+    GoogleHadoopFileSystemCacheCleaner cleaner =
+        createCleaner(4, 0, clockAt(BASE_TIME + MAX_ENTRY_AGE + 1000));
+    assertTrue(cleaner.clean());
+
+    assertNull(cache.getCacheEntry(new StorageResourceId("bucket", "dir/old.txt")));
+    assertNull(cache.getCacheEntry(new StorageResourceId("bucket", "old.txt")));
+    // The expired directory and bucket still hold a fresh object.
+    assertNotNull(cache.getCacheEntry(new StorageResourceId("bucket", "dir/")));
+    assertNotNull(cache.getCacheEntry(new StorageResourceId("bucket", "dir/new.txt")));
+    assertNotNull(cache.getCacheEntry(new StorageResourceId("new-bucket", "dir/new.txt")));
+
+    // Both buckets, plus dir/, dir/old.txt, dir/new.txt and old.txt; nothing in new-bucket.
+    assertEquals(6, cleaner.getNumEntriesScanned());
+    assertEquals(2, cleaner.getNumEntriesRemoved());
+  }
+
+  @Test
+  public void testRemovesEmptiedDirectoriesAndBuckets() throws IOException {
+    cache.putResourceId(new StorageResourceId("bucket", "a/b/c.txt"));
+    cache.putResourceId(new StorageResourceId("bucket", "d.txt"));
+    cache.putResourceId(new StorageResourceId("other-bucket", "e.txt"));
+
+    GoogleHadoopFileSystemCacheCleaner cleaner =
+        createCleaner(4, 0, clockAt(BASE_TIME + MAX_ENTRY_AGE + 1000));
+    assertTrue(cleaner.clean());
+
+    assertEquals(0, cache.getInternalNumBuckets());
+    assertEquals(7, cleaner.getNumEntriesRemoved());
+    assertFalse(Files.exists(checkpointPath));
+  }
+
+  @Test
+  public void testTimeBudgetCheckpointsAndResumes() throws IOException {
+    cache.putResourceId(new StorageResourceId("bucket", "a.txt"));
+    cache.putResourceId(new StorageResourceId("bucket", "b.txt"));
+    cache.putResourceId(new StorageResourceId("bucket", "c.txt"));
+    long cleanTime = BASE_TIME + MAX_ENTRY_AGE + 1000;
+
+    // The clock is read once when starting, then before each unit; time runs out after the
+    // first unit.
+    Clock clock = mock(Clock.class);
+    when(clock.currentTimeMillis()).thenReturn(cleanTime, cleanTime, cleanTime + 2);
+    GoogleHadoopFileSystemCacheCleaner cleaner = createCleaner(1, 1, clock);
+    assertFalse(cleaner.clean());
+
+    assertEquals(1, cleaner.getNumEntriesRemoved());
+    assertNull(cache.getCacheEntry(new StorageResourceId("bucket", "a.txt")));
+    assertNotNull(cache.getCacheEntry(new StorageResourceId("bucket", "b.txt")));
+    assertEquals("bucket/b.txt",
+        new String(Files.readAllBytes(checkpointPath), StandardCharsets.UTF_8));
+
+    // Entries before the checkpoint aren't visited again until a run completes.
+    cache.putResourceId(new StorageResourceId("bucket", "a.txt"));
+    cleaner = createCleaner(1, 0, clockAt(cleanTime));
+    assertTrue(cleaner.clean());
+
+    assertEquals(2, cleaner.getNumEntriesRemoved());
+    assertNotNull(cache.getCacheEntry(new StorageResourceId("bucket", "a.txt")));
+    assertNull(cache.getCacheEntry(new StorageResourceId("bucket", "b.txt")));
+    assertNull(cache.getCacheEntry(new StorageResourceId("bucket", "c.txt")));
+    assertFalse(Files.exists(checkpointPath));
+  }
+}
@@ -21,6 +21,7 @@ import com.google.cloud.hadoop.testing.CredentialConfigurationUtil;
 import com.google.cloud.hadoop.util.HadoopCredentialConfiguration;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -500,6 +501,28 @@ public class GoogleHadoopFileSystemIntegrationTest
     }
   }
 
+  @Test
+  public void testGetContentSummary() throws IOException {
+    ghfs.mkdirs(new Path("/summary/subdirectory1"));
+    ghfs.mkdirs(new Path("/summary/subdirectory2/empty"));
+
+    byte[] data = new byte[10];
+    createFile(new Path("/summary/file"), data);
+    createFile(new Path("/summary/subdirectory1/file1"), data);
+    createFile(new Path("/summary/subdirectory1/file2"), data);
+    createFile(new Path("/summary/subdirectory3/nested/file"), data);
+
+    ContentSummary summary = ghfs.getContentSummary(new Path("/summary"));
+    Assert.assertEquals(40, summary.getLength());
+    Assert.assertEquals(4, summary.getFileCount());
+    Assert.assertEquals(6, summary.getDirectoryCount());
+
+    summary = ghfs.getContentSummary(new Path("/summary/subdirectory1/file1"));
+    Assert.assertEquals(10, summary.getLength());
+    Assert.assertEquals(1, summary.getFileCount());
+    Assert.assertEquals(0, summary.getDirectoryCount());
+  }
+
   @Test
   public void testGlobStatus() throws IOException {
     ghfs.mkdirs(new Path("/directory1"));
@@ -532,5 +555,23 @@ public class GoogleHadoopFileSystemIntegrationTest
     Assert.assertEquals(2, subDirectory2Files.length);
     Assert.assertEquals("file1", subDirectory2Files[0].getPath().getName());
     Assert.assertEquals("file2", subDirectory2Files[1].getPath().getName());
+
+    FileStatus[] braceFiles = ghfs.globStatus(new Path("/directory1/subdirectory{1,2}/file1"));
+    Assert.assertEquals(2, braceFiles.length);
+    Assert.assertEquals("subdirectory1", braceFiles[0].getPath().getParent().getName());
+    Assert.assertEquals("subdirectory2", braceFiles[1].getPath().getParent().getName());
+
+    FileStatus[] characterClassFiles =
+        ghfs.globStatus(new Path("/directory1/subdirectory[2-9]/f*"));
+    Assert.assertEquals(2, characterClassFiles.length);
+    Assert.assertEquals("file1", characterClassFiles[0].getPath().getName());
+    Assert.assertEquals("file2", characterClassFiles[1].getPath().getName());
+
+    // Beyond fs.gs.glob.flatlist.max.prefixes, a single range of names is listed instead.
+    FileStatus[] wideCharacterClassFiles =
+        ghfs.globStatus(new Path("/directory1/subdirectory[2-9a-z]/f*"));
+    Assert.assertEquals(2, wideCharacterClassFiles.length);
+    Assert.assertEquals("file1", wideCharacterClassFiles[0].getPath().getName());
+    Assert.assertEquals("file2", wideCharacterClassFiles[1].getPath().getName());
   }
 }
@@ -14,8 +14,16 @@
 
 package com.google.cloud.hadoop.fs.gcs;
 
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageFileSystem;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageFileSystemOptions;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageOptions;
+import com.google.cloud.hadoop.gcsio.InMemoryGoogleCloudStorage;
 import com.google.cloud.hadoop.gcsio.MethodOutcome;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.junit.AfterClass;
@@ -26,6 +34,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.IOException;
+import java.net.URI;
 import java.net.URISyntaxException;
 
 /**
@@ -60,6 +69,66 @@ public class GoogleHadoopFileSystemTest
         GoogleHadoopFileSystemBase.UNKNOWN_VERSION.equals(GoogleHadoopFileSystemBase.VERSION));
   }
 
+  /**
+   * Validates that fs.gs.checksum.type is parsed regardless of case.
+   */
+  @Test
+  public void testGetChecksumType() {
+    Configuration config = new Configuration();
+    Assert.assertEquals(GoogleHadoopFileChecksum.Type.NONE,
+        GoogleHadoopFileSystemBase.getChecksumType(config));
+    config.set(GoogleHadoopFileSystemBase.GCS_FILE_CHECKSUM_TYPE_KEY, "crc32c");
+    Assert.assertEquals(GoogleHadoopFileChecksum.Type.CRC32C,
+        GoogleHadoopFileSystemBase.getChecksumType(config));
+    config.set(GoogleHadoopFileSystemBase.GCS_FILE_CHECKSUM_TYPE_KEY, " Composite_CRC32C ");
+    Assert.assertEquals(GoogleHadoopFileChecksum.Type.COMPOSITE_CRC32C,
+        GoogleHadoopFileSystemBase.getChecksumType(config));
+
+    config.set(GoogleHadoopFileSystemBase.GCS_FILE_CHECKSUM_TYPE_KEY, "sha1");
+    try {
+      GoogleHadoopFileSystemBase.getChecksumType(config);
+      Assert.fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException iae) {
+      Assert.assertTrue(iae.getMessage(),
+          iae.getMessage().contains(GoogleHadoopFileSystemBase.GCS_FILE_CHECKSUM_TYPE_KEY));
+      Assert.assertTrue(iae.getMessage(), iae.getMessage().contains("CRC32C"));
+    }
+  }
+
+  /**
+   * Validates getContentSummary() of a directory whose flat listing is split into shards.
+   */
+  @Test
+  public void testGetContentSummarySharded()
+      throws IOException, URISyntaxException {
+    GoogleCloudStorageFileSystem shardedGcsFs = new GoogleCloudStorageFileSystem(
+        new InMemoryGoogleCloudStorage(
+            GoogleCloudStorageOptions.newBuilder().setMaxListItemsPerCall(2).build()),
+        GoogleCloudStorageFileSystemOptions.newBuilder().setListShards(4).build());
+    GoogleHadoopFileSystem shardedGhfs = new GoogleHadoopFileSystem(shardedGcsFs);
+    Configuration config = new Configuration();
+    config.set(GoogleHadoopFileSystemBase.GCS_SYSTEM_BUCKET_KEY, "fake-test-system-bucket");
+    config.setBoolean(GoogleHadoopFileSystemBase.GCS_CREATE_SYSTEM_BUCKET_KEY, true);
+    shardedGhfs.initialize(new URI("gs:/"), config);
+
+    byte[] data = new byte[10];
+    for (String name : new String[] {"0", "5", "A", "M", "a", "k", "z"}) {
+      try (FSDataOutputStream output = shardedGhfs.create(new Path("/sharded/" + name + "/file"))) {
+        output.write(data);
+      }
+    }
+    try (FSDataOutputStream output = shardedGhfs.create(new Path("/sharded/r/s/t"))) {
+      output.write(data);
+    }
+    shardedGhfs.mkdirs(new Path("/sharded/e/empty"));
+
+    ContentSummary summary = shardedGhfs.getContentSummary(new Path("/sharded"));
+    Assert.assertEquals(80, summary.getLength());
+    Assert.assertEquals(8, summary.getFileCount());
+    Assert.assertEquals(12, summary.getDirectoryCount());
+    shardedGhfs.close();
+  }
+
   // -----------------------------------------------------------------
   // Tests that exercise behavior defined in HdfsBehavior.
   // -----------------------------------------------------------------
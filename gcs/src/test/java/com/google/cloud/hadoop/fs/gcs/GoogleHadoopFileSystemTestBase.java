@@ -17,11 +17,14 @@ package com.google.cloud.hadoop.fs.gcs;
 import com.google.cloud.hadoop.gcsio.GoogleCloudStorageFileSystem;
 import com.google.cloud.hadoop.gcsio.GoogleCloudStorageFileSystemIntegrationTest;
 import com.google.cloud.hadoop.gcsio.GoogleCloudStorageIntegrationHelper;
+import com.google.cloud.hadoop.util.Crc32c;
 import com.google.cloud.hadoop.util.HadoopVersionInfo;
 import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.junit.AfterClass;
@@ -31,10 +34,12 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -472,6 +477,53 @@ public abstract class GoogleHadoopFileSystemTestBase
     }
   }
 
+  /**
+   * Validates getFileChecksum() for each supported checksum type.
+   */
+  @Test
+  public void testGetFileChecksum()
+      throws IOException {
+    GoogleHadoopFileSystemBase myghfs = (GoogleHadoopFileSystemBase) ghfs;
+    URI tempFileUri = GoogleCloudStorageFileSystemIntegrationTest.getTempFilePath();
+    Path tempFilePath = ghfsHelper.castAsHadoopPath(tempFileUri);
+    String text = "Hello World!";
+    ghfsHelper.writeFile(tempFilePath, text, 1, false);
+    byte[] contents = text.getBytes(StandardCharsets.UTF_8);
+
+    try {
+      // Default is NONE.
+      Assert.assertNull(ghfs.getFileChecksum(tempFilePath));
+
+      myghfs.setChecksumType(GoogleHadoopFileChecksum.Type.CRC32C);
+      FileChecksum crc32c = ghfs.getFileChecksum(tempFilePath);
+      Assert.assertEquals("CRC32C", crc32c.getAlgorithmName());
+      Assert.assertArrayEquals(Crc32c.computeAsBytes(contents), crc32c.getBytes());
+
+      myghfs.setChecksumType(GoogleHadoopFileChecksum.Type.MD5);
+      FileChecksum md5 = ghfs.getFileChecksum(tempFilePath);
+      Assert.assertEquals("MD5", md5.getAlgorithmName());
+      Assert.assertArrayEquals(Hashing.md5().hashBytes(contents).asBytes(), md5.getBytes());
+
+      myghfs.setChecksumType(GoogleHadoopFileChecksum.Type.COMPOSITE_CRC32C);
+      FileChecksum compositeCrc = ghfs.getFileChecksum(tempFilePath);
+      Assert.assertEquals("COMPOSITE-CRC32C", compositeCrc.getAlgorithmName());
+      Assert.assertArrayEquals(crc32c.getBytes(), compositeCrc.getBytes());
+      Assert.assertFalse(compositeCrc.equals(crc32c));
+
+      // Directories have no checksum.
+      Assert.assertNull(ghfs.getFileChecksum(tempFilePath.getParent()));
+
+      try {
+        ghfs.getFileChecksum(new Path(tempFilePath.getParent(), "does-not-exist"));
+        Assert.fail("Expected FileNotFoundException");
+      } catch (FileNotFoundException fnfe) {
+        // Expected.
+      }
+    } finally {
+      myghfs.setChecksumType(GoogleHadoopFileChecksum.Type.NONE);
+    }
+  }
+
   @Test
   public void testIncludedParentPathPredicates() {
     Configuration configuration = new Configuration();
@@ -14,13 +14,21 @@
 
 package com.google.cloud.hadoop.fs.gcs.hcfs;
 
+import com.google.cloud.hadoop.fs.gcs.GoogleHadoopFileSystemBase;
 import com.google.cloud.hadoop.fs.gcs.GoogleHadoopFileSystemTestHelper;
+import com.google.common.collect.ImmutableSet;
 
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystemContractBaseTest;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.junit.Before;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Runs the Hadoop tests in FileSystemContractBaseTest over the GoogleHadoopFileSystem.
@@ -67,4 +75,62 @@ public class GoogleHadoopFileSystemContract2Test
   @Override
   public void testListStatusThrowsExceptionForNonExistentFile() throws Exception  {
   }
+
+  /**
+   * Tests that the incremental listing methods list the same paths as listStatus, and that a
+   * recursive listFiles lists every file in the tree.
+   */
+  public void testIncrementalListingMatchesListStatus() throws Exception {
+    Path dir = path("/test/hadoop/incremental");
+    fs.mkdirs(new Path(dir, "subdir"));
+    createFile(new Path(dir, "file1"));
+    createFile(new Path(dir, "file2"));
+    createFile(new Path(dir, "subdir/file3"));
+
+    Set<Path> expectedPaths = new HashSet<>();
+    for (FileStatus status : fs.listStatus(dir)) {
+      expectedPaths.add(status.getPath());
+    }
+    assertEquals(3, expectedPaths.size());
+
+    Set<Path> locatedPaths = new HashSet<>();
+    RemoteIterator<LocatedFileStatus> located = fs.listLocatedStatus(dir);
+    while (located.hasNext()) {
+      LocatedFileStatus status = located.next();
+      assertEquals(status.isFile(), status.getBlockLocations() != null);
+      locatedPaths.add(status.getPath());
+    }
+    assertEquals(expectedPaths, locatedPaths);
+
+    Set<Path> iteratedPaths = new HashSet<>();
+    RemoteIterator<FileStatus> statuses =
+        ((GoogleHadoopFileSystemBase) fs).listStatusIterator(dir);
+    while (statuses.hasNext()) {
+      iteratedPaths.add(statuses.next().getPath());
+    }
+    assertEquals(expectedPaths, iteratedPaths);
+
+    Set<Path> files = new HashSet<>();
+    RemoteIterator<LocatedFileStatus> recursiveFiles = fs.listFiles(dir, true);
+    while (recursiveFiles.hasNext()) {
+      files.add(recursiveFiles.next().getPath());
+    }
+    assertEquals(ImmutableSet.of(
+        fs.makeQualified(new Path(dir, "file1")),
+        fs.makeQualified(new Path(dir, "file2")),
+        fs.makeQualified(new Path(dir, "subdir/file3"))), files);
+
+    try {
+      fs.listLocatedStatus(path("/test/hadoop/missing"));
+      fail("Expected FileNotFoundException");
+    } catch (FileNotFoundException fnfe) {
+      // Expected.
+    }
+    try {
+      fs.listFiles(path("/test/hadoop/missing"), true);
+      fail("Expected FileNotFoundException");
+    } catch (FileNotFoundException fnfe) {
+      // Expected.
+    }
+  }
 }
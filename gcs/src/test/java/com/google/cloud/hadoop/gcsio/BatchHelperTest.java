@@ -0,0 +1,198 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.storage.Storage;
+import com.google.api.services.storage.model.StorageObject;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Unit tests for BatchHelper, run against a fake transport which answers every batch request
+ * with a successful response for each request it contains.
+ */
+@RunWith(JUnit4.class)
+public class BatchHelperTest {
+  private static final String BOUNDARY = "batch_boundary";
+  private static final Pattern OBJECT_PATH = Pattern.compile("GET \\S*/b/bucket/o/([^\\s?]+)");
+
+  // Number of batch HTTP requests executing at once, and the most ever seen at once.
+  private final AtomicInteger activeBatches = new AtomicInteger();
+  private final AtomicInteger maxActiveBatches = new AtomicInteger();
+  private final AtomicInteger batchCount = new AtomicInteger();
+
+  private ExecutorService executor;
+  private Storage gcs;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+    MockHttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            return executeBatch(getContentAsString());
+          }
+        };
+      }
+    };
+    gcs = new Storage.Builder(transport, JacksonFactory.getDefaultInstance(), null)
+        .setApplicationName("BatchHelperTest")
+        .build();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Answers each objects().get in {@code requestContent} with an object of the requested name.
+   */
+  private LowLevelHttpResponse executeBatch(String requestContent) {
+    batchCount.incrementAndGet();
+    int active = activeBatches.incrementAndGet();
+    synchronized (maxActiveBatches) {
+      maxActiveBatches.set(Math.max(maxActiveBatches.get(), active));
+    }
+    try {
+      // Give other batches a chance to run concurrently.
+      Thread.sleep(20);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+
+    StringBuilder responseContent = new StringBuilder();
+    Matcher matcher = OBJECT_PATH.matcher(requestContent);
+    while (matcher.find()) {
+      String body = "{\"bucket\":\"bucket\",\"name\":\"" + matcher.group(1) + "\"}";
+      responseContent
+          .append("--").append(BOUNDARY).append("\r\n")
+          .append("Content-Type: application/http\r\n\r\n")
+          .append("HTTP/1.1 200 OK\r\n")
+          .append("Content-Type: application/json; charset=UTF-8\r\n")
+          .append("Content-Length: ").append(body.length()).append("\r\n\r\n")
+          .append(body).append("\r\n");
+    }
+    responseContent.append("--").append(BOUNDARY).append("--\r\n");
+    activeBatches.decrementAndGet();
+    return new MockLowLevelHttpResponse()
+        .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+        .setContent(responseContent.toString());
+  }
+
+  /**
+   * Queues a get of {@code objectName}; for names starting with "first" the callback queues a
+   * get of the corresponding "second" object, as deleteObjects does for its second stage.
+   */
+  private void queueGet(final BatchHelper batchHelper, String objectName,
+      final List<String> fetchedNames) throws IOException {
+    batchHelper.queue(gcs.objects().get("bucket", objectName),
+        new JsonBatchCallback<StorageObject>() {
+          @Override
+          public void onSuccess(StorageObject object, HttpHeaders responseHeaders)
+              throws IOException {
+            // Deliberately not thread-safe; BatchHelper must serialize callbacks.
+            fetchedNames.add(object.getName());
+            if (object.getName().startsWith("first")) {
+              queueGet(batchHelper, object.getName().replace("first", "second"), fetchedNames);
+            }
+          }
+
+          @Override
+          public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) {
+            Assert.fail(e.toString());
+          }
+        });
+  }
+
+  private List<String> runGets(BatchHelper batchHelper, int numObjects) throws IOException {
+    List<String> fetchedNames = new ArrayList<>();
+    for (int i = 0; i < numObjects; i++) {
+      queueGet(batchHelper, "first" + i, fetchedNames);
+    }
+    do {
+      batchHelper.flush();
+    } while (!batchHelper.isEmpty());
+    return fetchedNames;
+  }
+
+  private static void assertAllFetched(int numObjects, List<String> fetchedNames) {
+    Assert.assertEquals(2 * numObjects, fetchedNames.size());
+    for (int i = 0; i < numObjects; i++) {
+      Assert.assertTrue(fetchedNames.contains("first" + i));
+      Assert.assertTrue(fetchedNames.contains("second" + i));
+    }
+  }
+
+  @Test
+  public void testSerialBatches() throws IOException {
+    BatchHelper batchHelper = new BatchHelper.Factory().newBatchHelper(null, gcs, 5);
+    List<String> fetchedNames = runGets(batchHelper, 20);
+
+    assertAllFetched(20, fetchedNames);
+    Assert.assertEquals(1, maxActiveBatches.get());
+  }
+
+  @Test
+  public void testConcurrentBatches() throws IOException {
+    BatchHelper batchHelper =
+        new BatchHelper.Factory().newBatchHelper(null, gcs, 5, 3, executor);
+    List<String> fetchedNames = runGets(batchHelper, 40);
+
+    assertAllFetched(40, fetchedNames);
+    Assert.assertTrue(batchHelper.isEmpty());
+    Assert.assertTrue("Expected concurrent batches, max was " + maxActiveBatches.get(),
+        maxActiveBatches.get() > 1);
+    Assert.assertTrue("Expected at most 3 concurrent batches, max was " + maxActiveBatches.get(),
+        maxActiveBatches.get() <= 3);
+    // Second-stage requests are only sent as partial batches once nothing else is in flight.
+    Assert.assertTrue("Too many batches: " + batchCount.get(), batchCount.get() <= 16 + 2);
+  }
+
+  @Test
+  public void testConcurrentBatchesWithoutExecutorRunSerially() throws IOException {
+    BatchHelper batchHelper = new BatchHelper.Factory().newBatchHelper(null, gcs, 5, 3, null);
+    List<String> fetchedNames = runGets(batchHelper, 20);
+
+    assertAllFetched(20, fetchedNames);
+    Assert.assertEquals(1, maxActiveBatches.get());
+  }
+}
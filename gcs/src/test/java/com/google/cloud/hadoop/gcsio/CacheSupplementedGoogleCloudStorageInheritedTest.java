@@ -37,7 +37,8 @@ public class CacheSupplementedGoogleCloudStorageInheritedTest
   public static Collection<Object[]> getConstructorArguments() throws IOException {
     return Arrays.asList(new Object[][]{
         {DirectoryListCache.Type.FILESYSTEM_BACKED},
-        {DirectoryListCache.Type.IN_MEMORY}
+        {DirectoryListCache.Type.IN_MEMORY},
+        {DirectoryListCache.Type.LOG_STRUCTURED}
     });
   }
 
@@ -47,7 +48,7 @@ public class CacheSupplementedGoogleCloudStorageInheritedTest
   private final DirectoryListCache.Type cacheType;
 
   // The File corresponding to the temporary basePath of the testInstance if cacheType is
-  // FILESYSTEM_BACKED.
+  // FILESYSTEM_BACKED or LOG_STRUCTURED.
   private File basePathFile = null;
 
   /**
@@ -59,6 +60,30 @@ public class CacheSupplementedGoogleCloudStorageInheritedTest
     this.cacheType = cacheType;
   }
 
+  /**
+   * Creates a fresh temporary directory for a cache backed by the local filesystem, named after
+   * the {@code options} in use.
+   */
+  private File newCacheFolder(GoogleCloudStorageOptions options) {
+    String folderName = options.isAutoRepairImplicitDirectoriesEnabled()
+        ? "gcs_metadata" : "gcs_metadata_no_auto";
+    if (options.isReadChecksumEnabled()) {
+      folderName += "_read_checksum";
+    }
+    if (options.isCopyWithRewriteEnabled()) {
+      folderName += "_rewrite";
+    }
+    if (options.isInferDirectoriesFromPrefixesEnabled()) {
+      folderName += "_infer_directories";
+    }
+    try {
+      basePathFile = tempDirectoryProvider.newFolder(folderName);
+    } catch (IOException ioe) {
+      Throwables.propagate(ioe);
+    }
+    return basePathFile;
+  }
+
   /**
    * Simply overriding the createTestInstance() method of the base class runs all the unittests in
    * GoogleCloudStorageTest against a CacheSupplementedGoogleCloudStorage instance. For extended
@@ -77,15 +102,13 @@ public class CacheSupplementedGoogleCloudStorageInheritedTest
         break;
       }
       case FILESYSTEM_BACKED: {
-        try {
-          String folderName = options.isAutoRepairImplicitDirectoriesEnabled()
-              ? "gcs_metadata" : "gcs_metadata_no_auto";
-          basePathFile = tempDirectoryProvider.newFolder(folderName);
-          resourceCache =
-              new FileSystemBackedDirectoryListCache(basePathFile.toString());
-        } catch (IOException ioe) {
-          Throwables.propagate(ioe);
-        }
+        resourceCache =
+            new FileSystemBackedDirectoryListCache(newCacheFolder(options).toString());
+        break;
+      }
+      case LOG_STRUCTURED: {
+        resourceCache =
+            new LogStructuredDirectoryListCache(newCacheFolder(options).toString());
         break;
       }
       default:
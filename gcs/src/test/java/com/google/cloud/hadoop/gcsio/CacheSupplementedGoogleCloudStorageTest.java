@@ -36,6 +36,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -360,6 +362,62 @@ public class CacheSupplementedGoogleCloudStorageTest {
         eq(GoogleCloudStorage.MAX_RESULTS_UNLIMITED));
   }
 
+  @Test
+  public void testListObjectNamesPage()
+      throws IOException {
+    String bucketName = "bucket1";
+    String prefix = "foo/";
+    when(mockGcsDelegate.listObjectNamesPage(eq(bucketName), eq(prefix), eq((String) null),
+          eq((String) null), eq((String) null), eq((String) null)))
+        .thenReturn(new ListPage<String>(ImmutableList.of("foo/b", "foo/d"), "token1"));
+    when(mockGcsDelegate.listObjectNamesPage(eq(bucketName), eq(prefix), eq((String) null),
+          eq((String) null), eq((String) null), eq("token1")))
+        .thenReturn(new ListPage<String>(ImmutableList.of("foo/f"), null));
+
+    // Each cached entry is supplemented into the single page whose name range covers it.
+    cache.putResourceId(new StorageResourceId(bucketName, "foo/a"));
+    cache.putResourceId(new StorageResourceId(bucketName, "foo/c"));
+    cache.putResourceId(new StorageResourceId(bucketName, "foo/e"));
+    cache.putResourceId(new StorageResourceId(bucketName, "foo/g"));
+
+    ListPage<String> firstPage = gcs.listObjectNamesPage(bucketName, prefix, null, null);
+    assertEquals(ImmutableList.of("foo/a", "foo/b", "foo/c", "foo/d"), firstPage.getItems());
+    assertNotNull(firstPage.getNextPageToken());
+
+    ListPage<String> secondPage =
+        gcs.listObjectNamesPage(bucketName, prefix, null, firstPage.getNextPageToken());
+    assertEquals(ImmutableList.of("foo/e", "foo/f", "foo/g"), secondPage.getItems());
+    assertNull(secondPage.getNextPageToken());
+
+    verify(mockGcsDelegate).listObjectNamesPage(eq(bucketName), eq(prefix), eq((String) null),
+        eq((String) null), eq((String) null), eq((String) null));
+    verify(mockGcsDelegate).listObjectNamesPage(eq(bucketName), eq(prefix), eq((String) null),
+        eq((String) null), eq((String) null), eq("token1"));
+  }
+
+  @Test
+  public void testListObjectNamesPageInRange()
+      throws IOException {
+    String bucketName = "bucket1";
+    String prefix = "foo/";
+    when(mockGcsDelegate.listObjectNamesPage(eq(bucketName), eq(prefix), eq((String) null),
+          eq("foo/b"), eq("foo/e"), eq((String) null)))
+        .thenReturn(new ListPage<String>(ImmutableList.of("foo/b", "foo/d"), null));
+
+    // Only cached entries within the range are supplemented.
+    cache.putResourceId(new StorageResourceId(bucketName, "foo/a"));
+    cache.putResourceId(new StorageResourceId(bucketName, "foo/c"));
+    cache.putResourceId(new StorageResourceId(bucketName, "foo/e"));
+
+    ListPage<String> page =
+        gcs.listObjectNamesPage(bucketName, prefix, null, "foo/b", "foo/e", null);
+    assertEquals(ImmutableList.of("foo/b", "foo/c", "foo/d"), page.getItems());
+    assertNull(page.getNextPageToken());
+
+    verify(mockGcsDelegate).listObjectNamesPage(eq(bucketName), eq(prefix), eq((String) null),
+        eq("foo/b"), eq("foo/e"), eq((String) null));
+  }
+
   @Test
   public void testListObjectInfo()
       throws IOException {
@@ -464,6 +522,94 @@ public class CacheSupplementedGoogleCloudStorageTest {
     assertNull(cache.getCacheEntry(objectResourceId));
   }
 
+  @Test
+  public void testGetItemInfoWithItemInfoCache()
+      throws IOException {
+    ItemInfoCache itemInfoCache = new ItemInfoCache(100, MAX_INFO_AGE, MAX_INFO_AGE);
+    gcs = new CacheSupplementedGoogleCloudStorage(mockGcsDelegate, cache, itemInfoCache);
+    StorageResourceId missingId = new StorageResourceId("foo-bucket", "missing-object");
+    GoogleCloudStorageItemInfo missingInfo =
+        GoogleCloudStorageImpl.createItemInfoForNotFound(missingId);
+    when(mockGcsDelegate.listObjectInfo(eq("foo-bucket"), eq("bar"), eq("/"),
+        eq(GoogleCloudStorage.MAX_RESULTS_UNLIMITED)))
+        .thenReturn(ImmutableList.of(objectInfo));
+    when(mockGcsDelegate.getItemInfos(eq(ImmutableList.of(missingId))))
+        .thenReturn(ImmutableList.of(missingInfo));
+    when(mockGcsDelegate.getItemInfo(eq(missingId)))
+        .thenReturn(objectInfo);
+
+    // Listed infos are cached; not-found infos too.
+    gcs.listObjectInfo("foo-bucket", "bar", "/");
+    assertEquals(objectInfo, gcs.getItemInfo(objectResourceId));
+    assertEquals(ImmutableList.of(objectInfo, missingInfo),
+        gcs.getItemInfos(ImmutableList.of(objectResourceId, missingId)));
+    assertEquals(missingInfo, gcs.getItemInfo(missingId));
+
+    // Creating the missing object invalidates its not-found info.
+    gcs.createEmptyObject(missingId);
+    assertEquals(objectInfo, gcs.getItemInfo(missingId));
+
+    // Deleting an object invalidates its info.
+    gcs.deleteObjects(ImmutableList.of(objectResourceId));
+    when(mockGcsDelegate.getItemInfo(eq(objectResourceId)))
+        .thenReturn(GoogleCloudStorageImpl.createItemInfoForNotFound(objectResourceId));
+    assertTrue(!gcs.getItemInfo(objectResourceId).exists());
+
+    assertEquals(3, itemInfoCache.getHitCount());
+    assertEquals(3, itemInfoCache.getMissCount());
+
+    verify(mockGcsDelegate).listObjectInfo(eq("foo-bucket"), eq("bar"), eq("/"),
+        eq(GoogleCloudStorage.MAX_RESULTS_UNLIMITED));
+    verify(mockGcsDelegate).getItemInfos(eq(ImmutableList.of(missingId)));
+    verify(mockGcsDelegate).createEmptyObject(eq(missingId));
+    verify(mockGcsDelegate).getItemInfo(eq(missingId));
+    verify(mockGcsDelegate).deleteObjects(eq(ImmutableList.of(objectResourceId)));
+    verify(mockGcsDelegate).getItemInfo(eq(objectResourceId));
+  }
+
+  @Test
+  public void testInfoFetchedDuringCreateIsNotCached()
+      throws IOException {
+    ItemInfoCache itemInfoCache = new ItemInfoCache(100, MAX_INFO_AGE, MAX_INFO_AGE);
+    gcs = new CacheSupplementedGoogleCloudStorage(mockGcsDelegate, cache, itemInfoCache);
+    final StorageResourceId missingId = new StorageResourceId("foo-bucket", "missing-object");
+    final GoogleCloudStorageItemInfo missingInfo =
+        GoogleCloudStorageImpl.createItemInfoForNotFound(missingId);
+    // The object is created while the lookup which doesn't find it is still running.
+    when(mockGcsDelegate.getItemInfo(eq(missingId)))
+        .thenAnswer(new Answer<GoogleCloudStorageItemInfo>() {
+          @Override
+          public GoogleCloudStorageItemInfo answer(InvocationOnMock invocation)
+              throws IOException {
+            gcs.createEmptyObject(missingId);
+            return missingInfo;
+          }
+        })
+        .thenReturn(objectInfo);
+    when(mockGcsDelegate.getItemInfos(eq(ImmutableList.of(missingId))))
+        .thenAnswer(new Answer<List<GoogleCloudStorageItemInfo>>() {
+          @Override
+          public List<GoogleCloudStorageItemInfo> answer(InvocationOnMock invocation)
+              throws IOException {
+            gcs.deleteObjects(ImmutableList.of(missingId));
+            return ImmutableList.of(objectInfo);
+          }
+        });
+
+    assertEquals(missingInfo, gcs.getItemInfo(missingId));
+    assertEquals(objectInfo, gcs.getItemInfo(missingId));
+    assertNull(itemInfoCache.get(missingId));
+
+    // Likewise for an object deleted while it is looked up in a batch.
+    assertEquals(ImmutableList.of(objectInfo), gcs.getItemInfos(ImmutableList.of(missingId)));
+    assertNull(itemInfoCache.get(missingId));
+
+    verify(mockGcsDelegate, times(2)).getItemInfo(eq(missingId));
+    verify(mockGcsDelegate).createEmptyObject(eq(missingId));
+    verify(mockGcsDelegate).getItemInfos(eq(ImmutableList.of(missingId)));
+    verify(mockGcsDelegate).deleteObjects(eq(ImmutableList.of(missingId)));
+  }
+
   @Test
   public void testClose()
       throws IOException {
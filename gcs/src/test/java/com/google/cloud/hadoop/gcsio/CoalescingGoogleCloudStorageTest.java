@@ -0,0 +1,217 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * UnitTests for CoalescingGoogleCloudStorage class.
+ */
+@RunWith(JUnit4.class)
+public class CoalescingGoogleCloudStorageTest {
+  private static final String BUCKET_NAME = "foo-bucket";
+  private static final int TIMEOUT_MILLIS = 10000;
+
+  private GoogleCloudStorage mockGcsDelegate;
+  private CoalescingGoogleCloudStorage gcs;
+  private ExecutorService executor;
+
+  // Released to let blocked delegate calls return.
+  private CountDownLatch releaseLatch;
+
+  private StorageResourceId objectId;
+  private GoogleCloudStorageItemInfo objectInfo;
+
+  @Before
+  public void setUp() {
+    mockGcsDelegate = mock(GoogleCloudStorage.class);
+    gcs = new CoalescingGoogleCloudStorage(mockGcsDelegate);
+    executor = Executors.newCachedThreadPool();
+    releaseLatch = new CountDownLatch(1);
+    objectInfo = DirectoryListCacheTestUtils.createObjectInfo(BUCKET_NAME, "bar-object");
+    objectId = objectInfo.getResourceId();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    verifyNoMoreInteractions(mockGcsDelegate);
+  }
+
+  /**
+   * Returns {@code value} once releaseLatch is released.
+   */
+  private <T> Answer<T> blockingAnswer(final T value) {
+    return new Answer<T>() {
+      @Override
+      public T answer(InvocationOnMock invocation) throws Throwable {
+        releaseLatch.await();
+        return value;
+      }
+    };
+  }
+
+  private Future<GoogleCloudStorageItemInfo> submitGetItemInfo() {
+    return executor.submit(new Callable<GoogleCloudStorageItemInfo>() {
+      @Override
+      public GoogleCloudStorageItemInfo call() throws IOException {
+        return gcs.getItemInfo(objectId);
+      }
+    });
+  }
+
+  /**
+   * Waits until {@code count} calls have joined an in-flight request.
+   */
+  private void awaitCoalescedRequestCount(long count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (gcs.getCoalescedRequestCount() < count) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Timed out waiting for " + count + " coalesced requests");
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void testConcurrentGetItemInfoSharesRequest() throws Exception {
+    when(mockGcsDelegate.getItemInfo(objectId)).thenAnswer(blockingAnswer(objectInfo));
+
+    Future<GoogleCloudStorageItemInfo> first = submitGetItemInfo();
+    // Make sure the first call is in flight before starting the others.
+    verify(mockGcsDelegate, timeout(TIMEOUT_MILLIS)).getItemInfo(objectId);
+    Future<GoogleCloudStorageItemInfo> second = submitGetItemInfo();
+    Future<GoogleCloudStorageItemInfo> third = submitGetItemInfo();
+    awaitCoalescedRequestCount(2);
+    releaseLatch.countDown();
+
+    assertSame(objectInfo, first.get());
+    assertSame(objectInfo, second.get());
+    assertSame(objectInfo, third.get());
+    verify(mockGcsDelegate, times(1)).getItemInfo(objectId);
+
+    // Once finished, the request is no longer shared.
+    assertSame(objectInfo, gcs.getItemInfo(objectId));
+    verify(mockGcsDelegate, times(2)).getItemInfo(objectId);
+    assertEquals(2, gcs.getCoalescedRequestCount());
+  }
+
+  @Test
+  public void testConcurrentListObjectInfoSharesRequestWithCopies() throws Exception {
+    final List<GoogleCloudStorageItemInfo> listed = ImmutableList.of(objectInfo);
+    when(mockGcsDelegate.listObjectInfo(BUCKET_NAME, "", "/",
+        GoogleCloudStorage.MAX_RESULTS_UNLIMITED)).thenAnswer(blockingAnswer(listed));
+    Callable<List<GoogleCloudStorageItemInfo>> listCall =
+        new Callable<List<GoogleCloudStorageItemInfo>>() {
+          @Override
+          public List<GoogleCloudStorageItemInfo> call() throws IOException {
+            return gcs.listObjectInfo(BUCKET_NAME, "", "/");
+          }
+        };
+
+    Future<List<GoogleCloudStorageItemInfo>> first = executor.submit(listCall);
+    verify(mockGcsDelegate, timeout(TIMEOUT_MILLIS)).listObjectInfo(BUCKET_NAME, "", "/",
+        GoogleCloudStorage.MAX_RESULTS_UNLIMITED);
+    Future<List<GoogleCloudStorageItemInfo>> second = executor.submit(listCall);
+    awaitCoalescedRequestCount(1);
+    releaseLatch.countDown();
+
+    assertSame(listed, first.get());
+    assertEquals(listed, second.get());
+    assertNotSame(listed, second.get());
+    verify(mockGcsDelegate, times(1)).listObjectInfo(BUCKET_NAME, "", "/",
+        GoogleCloudStorage.MAX_RESULTS_UNLIMITED);
+  }
+
+  @Test
+  public void testConcurrentGetItemInfoSharesFailure() throws Exception {
+    final IOException failure = new IOException("backend error");
+    when(mockGcsDelegate.getItemInfo(objectId)).thenAnswer(
+        new Answer<GoogleCloudStorageItemInfo>() {
+          @Override
+          public GoogleCloudStorageItemInfo answer(InvocationOnMock invocation)
+              throws Throwable {
+            releaseLatch.await();
+            throw failure;
+          }
+        });
+
+    Future<GoogleCloudStorageItemInfo> first = submitGetItemInfo();
+    verify(mockGcsDelegate, timeout(TIMEOUT_MILLIS)).getItemInfo(objectId);
+    Future<GoogleCloudStorageItemInfo> second = submitGetItemInfo();
+    awaitCoalescedRequestCount(1);
+    releaseLatch.countDown();
+
+    for (Future<GoogleCloudStorageItemInfo> result : ImmutableList.of(first, second)) {
+      try {
+        result.get();
+        fail("Expected IOException");
+      } catch (ExecutionException ee) {
+        assertSame(failure, ee.getCause());
+      }
+    }
+    verify(mockGcsDelegate, times(1)).getItemInfo(objectId);
+  }
+
+  @Test
+  public void testGetItemInfoAfterMutationStartsNewRequest() throws Exception {
+    when(mockGcsDelegate.getItemInfo(objectId)).thenAnswer(blockingAnswer(objectInfo));
+
+    Future<GoogleCloudStorageItemInfo> first = submitGetItemInfo();
+    verify(mockGcsDelegate, timeout(TIMEOUT_MILLIS)).getItemInfo(objectId);
+
+    // The in-flight lookup may predate the new object, so later lookups must not join it.
+    gcs.createEmptyObject(objectId);
+    verify(mockGcsDelegate).createEmptyObject(objectId);
+
+    Future<GoogleCloudStorageItemInfo> second = submitGetItemInfo();
+    verify(mockGcsDelegate, timeout(TIMEOUT_MILLIS).times(2)).getItemInfo(objectId);
+    releaseLatch.countDown();
+
+    assertSame(objectInfo, first.get());
+    assertSame(objectInfo, second.get());
+    assertEquals(0, gcs.getCoalescedRequestCount());
+  }
+}
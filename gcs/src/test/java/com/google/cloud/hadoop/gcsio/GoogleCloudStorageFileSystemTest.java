@@ -17,6 +17,7 @@ package com.google.cloud.hadoop.gcsio;
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.cloud.hadoop.fs.gcs.GoogleHadoopFileSystemBase;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.MoreExecutors;
 
 import org.apache.log4j.Level;
@@ -28,12 +29,14 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The unittest version of {@code GoogleCloudStorageFileSystemIntegrationTest}; the external
@@ -452,4 +455,625 @@ public class GoogleCloudStorageFileSystemTest
       // Expected.
     }
   }
+
+  /**
+   * An in-memory GCS which lists two objects per page and whose copies start failing once
+   * {@code copiesBeforeFailure} reaches zero.
+   */
+  private static class FailingCopyGoogleCloudStorage extends InMemoryGoogleCloudStorage {
+    final AtomicInteger copiesBeforeFailure = new AtomicInteger(Integer.MAX_VALUE);
+
+    FailingCopyGoogleCloudStorage() {
+      super(GoogleCloudStorageOptions.newBuilder().setMaxListItemsPerCall(2).build());
+    }
+
+    @Override
+    public synchronized void copy(String srcBucketName, List<String> srcObjectNames,
+        String dstBucketName, List<String> dstObjectNames)
+        throws IOException {
+      if (copiesBeforeFailure.getAndDecrement() <= 0) {
+        throw new IOException("Injected copy failure");
+      }
+      super.copy(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames);
+    }
+  }
+
+  private static final String[] RENAMED_FILES = {"a", "b", "c", "sub/d", "sub/e", "sub/sub2/f"};
+
+  private static GoogleCloudStorageFileSystem createPagedFileSystem(
+      GoogleCloudStorage gcs, boolean renameJournalEnabled)
+      throws IOException {
+    GoogleCloudStorageFileSystem pagedGcsfs = new GoogleCloudStorageFileSystem(gcs,
+        GoogleCloudStorageFileSystemOptions.newBuilder()
+            .setRenameJournalEnabled(renameJournalEnabled)
+            .build());
+    pagedGcsfs.setUpdateTimestampsExecutor(MoreExecutors.sameThreadExecutor());
+    return pagedGcsfs;
+  }
+
+  private static void createRenameSource(GoogleCloudStorageFileSystem pagedGcsfs, URI srcDir)
+      throws IOException {
+    pagedGcsfs.mkdirs(srcDir.resolve("sub/sub2/"));
+    for (String file : RENAMED_FILES) {
+      pagedGcsfs.create(srcDir.resolve(file)).close();
+    }
+  }
+
+  private static void assertRenamed(
+      GoogleCloudStorageFileSystem pagedGcsfs, URI srcDir, URI dstDir)
+      throws IOException {
+    for (String file : RENAMED_FILES) {
+      Assert.assertTrue(file, pagedGcsfs.exists(dstDir.resolve(file)));
+      Assert.assertFalse(file, pagedGcsfs.exists(srcDir.resolve(file)));
+    }
+    Assert.assertTrue(pagedGcsfs.getFileInfo(dstDir.resolve("sub/sub2/")).isDirectory());
+    Assert.assertFalse(pagedGcsfs.exists(srcDir));
+  }
+
+  /**
+   * Verify that a directory spanning many listing pages is renamed completely.
+   */
+  @Test
+  public void testPagedDirectoryRename()
+      throws IOException {
+    GoogleCloudStorage gcs = new FailingCopyGoogleCloudStorage();
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, false);
+    URI srcDir = URI.create("gs://paged-bucket/src/");
+    URI dstDir = URI.create("gs://paged-bucket/dst/");
+    createRenameSource(pagedGcsfs, srcDir);
+
+    pagedGcsfs.rename(srcDir, dstDir);
+
+    assertRenamed(pagedGcsfs, srcDir, dstDir);
+    pagedGcsfs.close();
+  }
+
+  /**
+   * Verify that a recursive delete of a directory spanning many listing pages removes every
+   * object under it, and nothing else.
+   */
+  @Test
+  public void testPagedRecursiveDelete()
+      throws IOException {
+    final AtomicInteger treeListingPages = new AtomicInteger();
+    GoogleCloudStorage gcs = new FailingCopyGoogleCloudStorage() {
+      @Override
+      public synchronized ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+          String bucketName, String objectNamePrefix, String delimiter,
+          String startOffset, String endOffset, String pageToken)
+          throws IOException {
+        if ("dir/".equals(objectNamePrefix) && delimiter == null) {
+          treeListingPages.incrementAndGet();
+        }
+        return super.listObjectInfoPage(
+            bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+      }
+    };
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, false);
+    URI dir = URI.create("gs://paged-bucket/dir/");
+    URI sibling = URI.create("gs://paged-bucket/dir-sibling");
+    createRenameSource(pagedGcsfs, dir);
+    pagedGcsfs.create(sibling).close();
+    List<String> objectsUnderDir = new ArrayList<>(gcs.listObjectNames("paged-bucket", "dir/", null));
+    objectsUnderDir.remove("dir/");
+    treeListingPages.set(0);
+    String pageToken = null;
+    do {
+      pageToken = gcs.listObjectInfoPage("paged-bucket", "dir/", null, pageToken)
+          .getNextPageToken();
+    } while (pageToken != null);
+    int pagesPerTreeListing = treeListingPages.getAndSet(0);
+
+    pagedGcsfs.delete(dir, true);
+
+    Assert.assertFalse(pagedGcsfs.exists(dir));
+    Assert.assertEquals(ImmutableList.of("dir-sibling"),
+        gcs.listObjectNames("paged-bucket", null, null));
+    Assert.assertTrue(pagedGcsfs.exists(sibling));
+    Assert.assertEquals(objectsUnderDir.size(), pagedGcsfs.getDeletedObjectCount());
+    Assert.assertTrue(pagedGcsfs.getDeletedPageCount() > 1);
+    // The tree is listed once, directory objects included.
+    Assert.assertEquals(pagesPerTreeListing, treeListingPages.get());
+    pagedGcsfs.close();
+  }
+
+  /**
+   * Verify that an incremental listing over several pages lists the same children as
+   * listFileInfo, and a file or missing path the same way. The two listings order children
+   * differently, so both are sorted before comparing them.
+   */
+  @Test
+  public void testListFileInfoIterator()
+      throws IOException {
+    GoogleCloudStorage gcs = new FailingCopyGoogleCloudStorage();
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, false);
+    URI dir = URI.create("gs://paged-bucket/dir/");
+    createRenameSource(pagedGcsfs, dir);
+
+    for (URI path : ImmutableList.of(dir, dir.resolve("sub/"), dir.resolve("a"))) {
+      List<URI> listedPaths = new ArrayList<>();
+      PrefetchingPageIterator<FileInfo> fileInfos = pagedGcsfs.listFileInfoIterator(path, false);
+      while (fileInfos.hasNext()) {
+        listedPaths.add(fileInfos.next().getPath());
+      }
+      List<URI> expectedPaths = new ArrayList<>();
+      for (FileInfo fileInfo : pagedGcsfs.listFileInfo(path, false)) {
+        expectedPaths.add(fileInfo.getPath());
+      }
+      Collections.sort(listedPaths);
+      Collections.sort(expectedPaths);
+      Assert.assertEquals(expectedPaths, listedPaths);
+    }
+
+    try {
+      pagedGcsfs.listFileInfoIterator(dir.resolve("missing/"), false);
+      Assert.fail("Expected FileNotFoundException");
+    } catch (FileNotFoundException fnfe) {
+      // Expected.
+    }
+    pagedGcsfs.close();
+  }
+
+  /**
+   * Verify that a flat listing over several pages lists every object under a directory, including
+   * under an implicit directory, and a file by itself.
+   */
+  @Test
+  public void testListAllFileInfoIterator()
+      throws IOException {
+    GoogleCloudStorage gcs = new FailingCopyGoogleCloudStorage();
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, false);
+    URI dir = URI.create("gs://paged-bucket/dir/");
+    createRenameSource(pagedGcsfs, dir);
+    gcs.createEmptyObject(new StorageResourceId("paged-bucket", "implicit/sub/g"));
+
+    List<URI> expectedPaths = new ArrayList<>();
+    for (String file : RENAMED_FILES) {
+      expectedPaths.add(dir.resolve(file));
+    }
+    expectedPaths.add(dir.resolve("sub/"));
+    expectedPaths.add(dir.resolve("sub/sub2/"));
+    Collections.sort(expectedPaths);
+    Assert.assertEquals(expectedPaths, listAllPaths(pagedGcsfs, dir));
+
+    Assert.assertEquals(ImmutableList.of(URI.create("gs://paged-bucket/implicit/sub/g")),
+        listAllPaths(pagedGcsfs, URI.create("gs://paged-bucket/implicit")));
+    Assert.assertEquals(ImmutableList.of(dir.resolve("sub/d")),
+        listAllPaths(pagedGcsfs, dir.resolve("sub/d")));
+
+    try {
+      pagedGcsfs.listAllFileInfoIterator(dir.resolve("missing/"));
+      Assert.fail("Expected FileNotFoundException");
+    } catch (FileNotFoundException fnfe) {
+      // Expected.
+    }
+    pagedGcsfs.close();
+  }
+
+  /**
+   * Verify that a flat listing split into shards lists the same objects in the same order as an
+   * unsharded listing, whether its shards are stitched together or consumed one by one.
+   */
+  @Test
+  public void testListAllFileInfoIteratorSharded()
+      throws IOException {
+    GoogleCloudStorage gcs = new FailingCopyGoogleCloudStorage();
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, false);
+    GoogleCloudStorageFileSystem shardedGcsfs = new GoogleCloudStorageFileSystem(gcs,
+        GoogleCloudStorageFileSystemOptions.newBuilder()
+            .setListShards(4)
+            .build());
+    URI dir = URI.create("gs://paged-bucket/dir/");
+    createRenameSource(pagedGcsfs, dir);
+    for (String file : ImmutableList.of("0", "5/x", "A", "Mm", "k", "r/s/t", "z", "~", "\u00e9")) {
+      gcs.createEmptyObject(new StorageResourceId("paged-bucket", "dir/" + file));
+    }
+    gcs.createEmptyObject(new StorageResourceId("paged-bucket", "dir-sibling"));
+
+    List<URI> expectedPaths = listAllPaths(pagedGcsfs, dir);
+    Assert.assertEquals(expectedPaths, listAllPaths(shardedGcsfs, dir));
+
+    List<PrefetchingPageIterator<FileInfo>> shardFileInfos =
+        shardedGcsfs.listAllFileInfoShardIterators(dir);
+    Assert.assertEquals(4, shardFileInfos.size());
+    List<URI> listedPaths = new ArrayList<>();
+    for (PrefetchingPageIterator<FileInfo> fileInfos : shardFileInfos) {
+      while (fileInfos.hasNext()) {
+        listedPaths.add(fileInfos.next().getPath());
+      }
+    }
+    Assert.assertEquals(expectedPaths, listedPaths);
+
+    // A listing of a single page and a file aren't split.
+    Assert.assertEquals(
+        1, shardedGcsfs.listAllFileInfoShardIterators(dir.resolve("sub/sub2/")).size());
+    Assert.assertEquals(1, shardedGcsfs.listAllFileInfoShardIterators(dir.resolve("a")).size());
+    pagedGcsfs.close();
+    shardedGcsfs.close();
+  }
+
+  @Test
+  public void testGetListShardOffsets() {
+    Assert.assertEquals(ImmutableList.of("dir/10", "dir/20", "dir/30"),
+        GoogleCloudStorageFileSystem.getListShardOffsets(
+            "dir/", ImmutableList.<String>of(), "0123", 4));
+    // Only names after the last sampled name are split at.
+    Assert.assertEquals(ImmutableList.of("dir/ce", "dir/ec"),
+        GoogleCloudStorageFileSystem.getListShardOffsets(
+            "dir/", ImmutableList.of("dir/", "dir/a", "dir/b/x"), "fedcba", 3));
+    Assert.assertEquals(ImmutableList.of(),
+        GoogleCloudStorageFileSystem.getListShardOffsets(
+            "dir/", ImmutableList.of("dir/z"), "abc", 4));
+  }
+
+  /**
+   * Verify that a directory of numbered objects is split throughout its counter, rather than
+   * only at the first character after the directory's name, where every name is the same.
+   */
+  @Test
+  public void testGetListShardOffsetsOfNumberedObjects() {
+    List<String> sampleNames = new ArrayList<>();
+    for (int i = 0; i < 1000; ++i) {
+      sampleNames.add(String.format("dir/part-%05d", i));
+    }
+    Assert.assertEquals(
+        ImmutableList.of("dir/part-13", "dir/part-25", "dir/part-38", "dir/part-50",
+            "dir/part-62", "dir/part-75", "dir/part-87"),
+        GoogleCloudStorageFileSystem.getListShardOffsets("dir/", sampleNames,
+            GoogleCloudStorageFileSystemOptions.LIST_SHARD_ALPHABET_DEFAULT, 8));
+  }
+
+  /**
+   * A paged in-memory GCS which counts the batched object metadata lookups made against it.
+   */
+  private static class StatCountingGoogleCloudStorage extends FailingCopyGoogleCloudStorage {
+    final AtomicInteger itemInfoLookups = new AtomicInteger();
+    final AtomicInteger limitedListings = new AtomicInteger();
+
+    @Override
+    public List<GoogleCloudStorageItemInfo> getItemInfos(List<StorageResourceId> resourceIds)
+        throws IOException {
+      itemInfoLookups.incrementAndGet();
+      return super.getItemInfos(resourceIds);
+    }
+
+    @Override
+    public List<String> listObjectNames(
+        String bucketName, String objectNamePrefix, String delimiter, long maxResults)
+        throws IOException {
+      limitedListings.incrementAndGet();
+      return super.listObjectNames(bucketName, objectNamePrefix, delimiter, maxResults);
+    }
+  }
+
+  /**
+   * Verify that listing before stat lists the same entries as the default listing, without
+   * looking up a directory which has children.
+   */
+  @Test
+  public void testListFileInfoListBeforeStat()
+      throws IOException {
+    StatCountingGoogleCloudStorage gcs = new StatCountingGoogleCloudStorage();
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, false);
+    GoogleCloudStorageFileSystem listFirstGcsfs = new GoogleCloudStorageFileSystem(gcs,
+        GoogleCloudStorageFileSystemOptions.newBuilder()
+            .setListBeforeStatEnabled(true)
+            .build());
+    URI dir = URI.create("gs://paged-bucket/dir/");
+    createRenameSource(pagedGcsfs, dir);
+    pagedGcsfs.mkdirs(dir.resolve("empty/"));
+    gcs.createEmptyObject(new StorageResourceId("paged-bucket", "implicit/sub/g"));
+
+    URI bucket = URI.create("gs://paged-bucket/");
+    for (URI path : ImmutableList.of(bucket, dir, URI.create("gs://paged-bucket/dir"),
+        dir.resolve("sub/"), dir.resolve("empty/"), dir.resolve("a"),
+        URI.create("gs://paged-bucket/implicit/"))) {
+      List<URI> expectedPaths = new ArrayList<>();
+      for (FileInfo fileInfo : pagedGcsfs.listFileInfo(path, false)) {
+        expectedPaths.add(fileInfo.getPath());
+      }
+      List<URI> listedPaths = new ArrayList<>();
+      for (FileInfo fileInfo : listFirstGcsfs.listFileInfo(path, false)) {
+        listedPaths.add(fileInfo.getPath());
+      }
+      Assert.assertEquals(path.toString(), expectedPaths, listedPaths);
+
+      listedPaths.clear();
+      PrefetchingPageIterator<FileInfo> fileInfos = listFirstGcsfs.listFileInfoIterator(path, false);
+      while (fileInfos.hasNext()) {
+        listedPaths.add(fileInfos.next().getPath());
+      }
+      Collections.sort(expectedPaths);
+      Collections.sort(listedPaths);
+      Assert.assertEquals(path.toString(), expectedPaths, listedPaths);
+    }
+
+    gcs.itemInfoLookups.set(0);
+    listFirstGcsfs.listFileInfo(dir, false);
+    listFirstGcsfs.listFileInfoIterator(dir.resolve("sub/"), false);
+    Assert.assertEquals(0, gcs.itemInfoLookups.get());
+
+    try {
+      listFirstGcsfs.listFileInfo(dir.resolve("missing/"), false);
+      Assert.fail("Expected FileNotFoundException");
+    } catch (FileNotFoundException fnfe) {
+      // Expected.
+    }
+    pagedGcsfs.close();
+    listFirstGcsfs.close();
+  }
+
+  /**
+   * Verify that getFileInfo looks up a path's file and directory forms in a single batch, and
+   * infers an implicit directory when enabled.
+   */
+  @Test
+  public void testGetFileInfoSingleBatch()
+      throws IOException {
+    StatCountingGoogleCloudStorage gcs = new StatCountingGoogleCloudStorage();
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem inferringGcsfs = new GoogleCloudStorageFileSystem(gcs,
+        GoogleCloudStorageFileSystemOptions.newBuilder()
+            .setInferImplicitDirectoriesEnabled(true)
+            .build());
+    URI dir = URI.create("gs://paged-bucket/dir/");
+    createRenameSource(inferringGcsfs, dir);
+    gcs.createEmptyObject(new StorageResourceId("paged-bucket", "implicit/sub/g"));
+
+    gcs.itemInfoLookups.set(0);
+    gcs.limitedListings.set(0);
+    Assert.assertFalse(inferringGcsfs.getFileInfo(dir.resolve("a")).isDirectory());
+    Assert.assertTrue(inferringGcsfs.getFileInfo(dir.resolve("a")).exists());
+    Assert.assertTrue(
+        inferringGcsfs.getFileInfo(URI.create("gs://paged-bucket/dir/sub")).isDirectory());
+    Assert.assertEquals(0, gcs.limitedListings.get());
+    Assert.assertFalse(inferringGcsfs.getFileInfo(dir.resolve("missing")).exists());
+    Assert.assertEquals(4, gcs.itemInfoLookups.get());
+    // Only the missing path, of which neither form exists, is listed to infer a directory.
+    Assert.assertEquals(1, gcs.limitedListings.get());
+
+    FileInfo implicitInfo = inferringGcsfs.getFileInfo(URI.create("gs://paged-bucket/implicit"));
+    Assert.assertTrue(implicitInfo.exists());
+    Assert.assertTrue(implicitInfo.isDirectory());
+    inferringGcsfs.close();
+  }
+
+  /**
+   * Verify that a listing whose following page fails to be fetched is closed.
+   */
+  @Test
+  public void testPrefetchingPageIteratorClosesOnFailure()
+      throws IOException {
+    final AtomicInteger closes = new AtomicInteger();
+    PrefetchingPageIterator<String> items = new PrefetchingPageIterator<String>(
+        new ListPage<>(ImmutableList.of("a"), "next"), MoreExecutors.sameThreadExecutor()) {
+      @Override
+      protected ListPage<String> fetchPage(String pageToken)
+          throws IOException {
+        throw new IOException("Injected listing failure");
+      }
+
+      @Override
+      public void close() {
+        super.close();
+        closes.incrementAndGet();
+      }
+    };
+
+    Assert.assertEquals("a", items.next());
+    try {
+      items.hasNext();
+      Assert.fail("Expected IOException");
+    } catch (IOException ioe) {
+      // Expected.
+    }
+    Assert.assertEquals(1, closes.get());
+    Assert.assertFalse(items.hasNext());
+  }
+
+  private static List<URI> listAllPaths(GoogleCloudStorageFileSystem pagedGcsfs, URI path)
+      throws IOException {
+    List<URI> listedPaths = new ArrayList<>();
+    PrefetchingPageIterator<FileInfo> fileInfos = pagedGcsfs.listAllFileInfoIterator(path);
+    while (fileInfos.hasNext()) {
+      listedPaths.add(fileInfos.next().getPath());
+    }
+    return listedPaths;
+  }
+
+  /**
+   * Verify that a directory cannot be renamed into its own subdirectory.
+   */
+  @Test
+  public void testRenameDirectoryIntoItselfFails()
+      throws IOException {
+    GoogleCloudStorage gcs = new FailingCopyGoogleCloudStorage();
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, false);
+    URI srcDir = URI.create("gs://paged-bucket/src/");
+    createRenameSource(pagedGcsfs, srcDir);
+
+    try {
+      pagedGcsfs.rename(srcDir, srcDir.resolve("sub/inner/"));
+      Assert.fail("Expected IOException");
+    } catch (IOException ioe) {
+      // Expected.
+    }
+    for (String file : RENAMED_FILES) {
+      Assert.assertTrue(file, pagedGcsfs.exists(srcDir.resolve(file)));
+    }
+    pagedGcsfs.close();
+  }
+
+  /**
+   * Verify that an interrupted rename recorded in a journal can be completed.
+   */
+  @Test
+  public void testRecoverRenameCompletes()
+      throws IOException {
+    FailingCopyGoogleCloudStorage gcs = new FailingCopyGoogleCloudStorage();
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, true);
+    URI srcDir = URI.create("gs://paged-bucket/src/");
+    URI dstDir = URI.create("gs://paged-bucket/dst/");
+    createRenameSource(pagedGcsfs, srcDir);
+    Assert.assertFalse(pagedGcsfs.recoverRename(dstDir, false));
+
+    gcs.copiesBeforeFailure.set(2);
+    try {
+      pagedGcsfs.rename(srcDir, dstDir);
+      Assert.fail("Expected IOException");
+    } catch (IOException ioe) {
+      // Expected.
+    }
+    Assert.assertTrue(hasRenameJournal(gcs, "dst/"));
+    Assert.assertFalse(pagedGcsfs.exists(URI.create("gs://paged-bucket/dst.rename-journal")));
+
+    gcs.copiesBeforeFailure.set(Integer.MAX_VALUE);
+    Assert.assertTrue(pagedGcsfs.recoverRename(dstDir, false));
+
+    assertRenamed(pagedGcsfs, srcDir, dstDir);
+    Assert.assertFalse(hasRenameJournal(gcs, "dst/"));
+    Assert.assertFalse(pagedGcsfs.recoverRename(dstDir, false));
+    pagedGcsfs.close();
+  }
+
+  /**
+   * Verify that retrying an interrupted journaled rename completes it.
+   */
+  @Test
+  public void testRetriedRenameCompletes()
+      throws IOException {
+    FailingCopyGoogleCloudStorage gcs = new FailingCopyGoogleCloudStorage();
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, true);
+    URI srcDir = URI.create("gs://paged-bucket/src/");
+    URI dstDir = URI.create("gs://paged-bucket/dst/");
+    createRenameSource(pagedGcsfs, srcDir);
+
+    gcs.copiesBeforeFailure.set(2);
+    try {
+      pagedGcsfs.rename(srcDir, dstDir);
+      Assert.fail("Expected IOException");
+    } catch (IOException ioe) {
+      // Expected.
+    }
+
+    gcs.copiesBeforeFailure.set(Integer.MAX_VALUE);
+    pagedGcsfs.rename(srcDir, dstDir);
+
+    assertRenamed(pagedGcsfs, srcDir, dstDir);
+    Assert.assertFalse(pagedGcsfs.exists(dstDir.resolve("src/")));
+    Assert.assertFalse(hasRenameJournal(gcs, "dst/"));
+    pagedGcsfs.close();
+  }
+
+  /**
+   * Verify that a failed rename without a journal leaves every file in either the source or the
+   * destination.
+   */
+  @Test
+  public void testFailedUnjournaledRenameLosesNothing()
+      throws IOException {
+    FailingCopyGoogleCloudStorage gcs = new FailingCopyGoogleCloudStorage();
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, false);
+    URI srcDir = URI.create("gs://paged-bucket/src/");
+    URI dstDir = URI.create("gs://paged-bucket/dst/");
+    createRenameSource(pagedGcsfs, srcDir);
+
+    gcs.copiesBeforeFailure.set(3);
+    try {
+      pagedGcsfs.rename(srcDir, dstDir);
+      Assert.fail("Expected IOException");
+    } catch (IOException ioe) {
+      // Expected.
+    }
+    for (String file : RENAMED_FILES) {
+      Assert.assertTrue(file,
+          pagedGcsfs.exists(srcDir.resolve(file)) != pagedGcsfs.exists(dstDir.resolve(file)));
+    }
+    Assert.assertTrue(pagedGcsfs.getDeletedPageCount() > 0);
+    pagedGcsfs.close();
+  }
+
+  /**
+   * Verify that a rename deletes only the source objects it copied, and not ones created in the
+   * source after their part of the listing was copied.
+   */
+  @Test
+  public void testRenameKeepsObjectsCreatedDuringRename()
+      throws IOException {
+    final StorageResourceId createdId = new StorageResourceId("paged-bucket", "src/0");
+    FailingCopyGoogleCloudStorage gcs = new FailingCopyGoogleCloudStorage() {
+      @Override
+      public synchronized void copy(String srcBucketName, List<String> srcObjectNames,
+          String dstBucketName, List<String> dstObjectNames)
+          throws IOException {
+        super.copy(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames);
+        if (!getItemInfo(createdId).exists()) {
+          createEmptyObject(createdId);
+        }
+      }
+    };
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, false);
+    URI srcDir = URI.create("gs://paged-bucket/src/");
+    URI dstDir = URI.create("gs://paged-bucket/dst/");
+    createRenameSource(pagedGcsfs, srcDir);
+
+    pagedGcsfs.rename(srcDir, dstDir);
+
+    for (String file : RENAMED_FILES) {
+      Assert.assertTrue(file, pagedGcsfs.exists(dstDir.resolve(file)));
+      Assert.assertFalse(file, pagedGcsfs.exists(srcDir.resolve(file)));
+    }
+    Assert.assertTrue(gcs.getItemInfo(createdId).exists());
+    Assert.assertTrue(pagedGcsfs.getDeletedPageCount() > 1);
+    pagedGcsfs.close();
+  }
+
+  /**
+   * Verify that an interrupted rename recorded in a journal can be rolled back.
+   */
+  @Test
+  public void testRecoverRenameRollsBack()
+      throws IOException {
+    FailingCopyGoogleCloudStorage gcs = new FailingCopyGoogleCloudStorage();
+    gcs.create("paged-bucket");
+    GoogleCloudStorageFileSystem pagedGcsfs = createPagedFileSystem(gcs, true);
+    URI srcDir = URI.create("gs://paged-bucket/src/");
+    URI dstDir = URI.create("gs://paged-bucket/dst/");
+    createRenameSource(pagedGcsfs, srcDir);
+
+    gcs.copiesBeforeFailure.set(2);
+    try {
+      pagedGcsfs.rename(srcDir, dstDir);
+      Assert.fail("Expected IOException");
+    } catch (IOException ioe) {
+      // Expected.
+    }
+
+    gcs.copiesBeforeFailure.set(Integer.MAX_VALUE);
+    Assert.assertTrue(pagedGcsfs.recoverRename(dstDir, true));
+
+    assertRenamed(pagedGcsfs, dstDir, srcDir);
+    Assert.assertFalse(pagedGcsfs.exists(dstDir));
+    pagedGcsfs.close();
+  }
+
+  private static boolean hasRenameJournal(GoogleCloudStorage gcs, String dirName)
+      throws IOException {
+    GoogleCloudStorageItemInfo dirInfo =
+        gcs.getItemInfo(new StorageResourceId("paged-bucket", dirName));
+    return dirInfo.exists() && dirInfo.getMetadata() != null
+        && dirInfo.getMetadata().containsKey(
+            GoogleCloudStorageFileSystem.RENAME_JOURNAL_METADATA_KEY);
+  }
 }
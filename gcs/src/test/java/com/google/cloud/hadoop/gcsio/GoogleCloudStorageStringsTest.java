@@ -15,6 +15,7 @@
 package com.google.cloud.hadoop.gcsio;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -216,4 +217,15 @@ public class GoogleCloudStorageStringsTest {
 
     verifyExpectations(expectations);
   }
+
+  @Test
+  public void testIsInListRange() {
+    assertTrue(GoogleCloudStorageStrings.isInListRange("part-3", null, null));
+    assertTrue(GoogleCloudStorageStrings.isInListRange("part-3", "part-3", "part-6"));
+    assertTrue(GoogleCloudStorageStrings.isInListRange("part-5/x", "part-3", "part-6"));
+    assertFalse(GoogleCloudStorageStrings.isInListRange("part-2", "part-3", "part-6"));
+    assertFalse(GoogleCloudStorageStrings.isInListRange("part-6", "part-3", "part-6"));
+    assertFalse(GoogleCloudStorageStrings.isInListRange("part-6", null, "part-6"));
+    assertTrue(GoogleCloudStorageStrings.isInListRange("part-6", "part-3", null));
+  }
 }
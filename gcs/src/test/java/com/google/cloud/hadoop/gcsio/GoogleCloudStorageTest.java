@@ -32,6 +32,7 @@ import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -64,10 +65,13 @@ import com.google.api.services.storage.model.Objects;
 import com.google.api.services.storage.model.StorageObject;
 import com.google.cloud.hadoop.gcsio.GoogleCloudStorageImpl.BackOffFactory;
 import com.google.cloud.hadoop.util.ApiErrorExtractor;
+import com.google.cloud.hadoop.util.ChecksummingChannel;
 import com.google.cloud.hadoop.util.ClientRequestHelper;
+import com.google.cloud.hadoop.util.Crc32c;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -209,6 +213,7 @@ public class GoogleCloudStorageTest {
     GoogleCloudStorageImpl gcsTestInstance =
         new GoogleCloudStorageImpl(options, mockStorage);
     gcsTestInstance.setThreadPool(mockExecutorService);
+    gcsTestInstance.setBackgroundRepairThreadPool(mockExecutorService);
     gcsTestInstance.setErrorExtractor(mockErrorExtractor);
     gcsTestInstance.setClientRequestHelper(mockClientRequestHelper);
     gcsTestInstance.setBatchFactory(mockBatchFactory);
@@ -280,15 +285,33 @@ public class GoogleCloudStorageTest {
 
   private HttpResponse createFakeResponse(final String responseHeader, final String responseValue,
                                           final InputStream content) throws IOException {
+    return createFakeResponse(responseHeader, responseValue, null, null, content);
+  }
+
+  /** Like createFakeResponse, but also responds with an x-goog-hash header holding a crc32c */
+  private HttpResponse createFakeResponseWithCrc32c(final long contentLength, byte[] crc32c,
+                                                    final InputStream content)
+      throws IOException {
+    return createFakeResponse("Content-Length", Long.toString(contentLength),
+        "x-goog-hash", "crc32c=" + BaseEncoding.base64().encode(crc32c), content);
+  }
+
+  private HttpResponse createFakeResponse(final String responseHeader, final String responseValue,
+                                          final String extraHeader, final String extraValue,
+                                          final InputStream content) throws IOException {
     HttpTransport transport = new MockHttpTransport() {
       @Override
       public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
         MockLowLevelHttpRequest req = new MockLowLevelHttpRequest() {
           @Override
           public LowLevelHttpResponse execute() throws IOException {
-            return new MockLowLevelHttpResponse()
+            MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
                 .addHeader(responseHeader, responseValue)
                 .setContent(content);
+            if (extraHeader != null) {
+              response.addHeader(extraHeader, extraValue);
+            }
+            return response;
           }
         };
         return req;
@@ -1168,6 +1191,117 @@ public class GoogleCloudStorageTest {
     }
   }
 
+  /**
+   * Sets up the mocks for opening OBJECT_NAME and reading {@code testData} from it, with GCS
+   * reporting {@code reportedCrc32c} as the object's CRC32C.
+   */
+  private void setupReadWithCrc32c(byte[] testData, byte[] reportedCrc32c) throws IOException {
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.get(eq(BUCKET_NAME), eq(OBJECT_NAME)))
+        .thenReturn(mockStorageObjectsGet);
+    when(mockClientRequestHelper.getRequestHeaders(eq(mockStorageObjectsGet)))
+        .thenReturn(mockHeaders);
+    when(mockStorageObjectsGet.execute())
+        .thenReturn(new StorageObject()
+            .setBucket(BUCKET_NAME)
+            .setName(OBJECT_NAME)
+            .setUpdated(new DateTime(11L))
+            .setSize(BigInteger.valueOf(testData.length))
+            .setGeneration(1L)
+            .setMetageneration(1L));
+    when(mockStorageObjectsGet.executeMedia())
+        .thenReturn(createFakeResponseWithCrc32c(
+            testData.length, reportedCrc32c, new ByteArrayInputStream(testData)));
+  }
+
+  private void verifyReadWithCrc32c() throws IOException {
+    verify(mockStorage, atLeastOnce()).objects();
+    verify(mockStorageObjects, atLeastOnce()).get(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockClientRequestHelper).getRequestHeaders(any(Storage.Objects.Get.class));
+    verify(mockHeaders).setRange(eq("bytes=0-"));
+    verify(mockStorageObjectsGet).executeMedia();
+    verify(mockStorageObjectsGet).execute();
+  }
+
+  /**
+   * Test that a sequential read of a whole object is validated against the CRC32C reported by GCS
+   * when read checksums are enabled.
+   */
+  @Test
+  public void testOpenWithReadChecksumMatching()
+      throws IOException {
+    GoogleCloudStorage gcs = createTestInstance(
+        createDefaultCloudStorageOptionsBuilder().setReadChecksumEnabled(true).build());
+    byte[] testData = { 0x01, 0x02, 0x03, 0x05, 0x08 };
+    setupReadWithCrc32c(testData, Crc32c.computeAsBytes(testData));
+
+    SeekableReadableByteChannel readChannel =
+        gcs.open(new StorageResourceId(BUCKET_NAME, OBJECT_NAME));
+    byte[] actualData = new byte[testData.length];
+    assertEquals(testData.length, readChannel.read(ByteBuffer.wrap(actualData)));
+    assertArrayEquals(testData, actualData);
+    readChannel.close();
+
+    verifyReadWithCrc32c();
+  }
+
+  /**
+   * Test that a CRC32C mismatch on a whole-object read fails the read.
+   */
+  @Test
+  public void testOpenWithReadChecksumMismatch()
+      throws IOException {
+    GoogleCloudStorage gcs = createTestInstance(
+        createDefaultCloudStorageOptionsBuilder().setReadChecksumEnabled(true).build());
+    byte[] testData = { 0x01, 0x02, 0x03, 0x05, 0x08 };
+    setupReadWithCrc32c(testData, new byte[] { 0x00, 0x00, 0x00, 0x00 });
+
+    SeekableReadableByteChannel readChannel =
+        gcs.open(new StorageResourceId(BUCKET_NAME, OBJECT_NAME));
+    try {
+      readChannel.read(ByteBuffer.wrap(new byte[testData.length]));
+      fail("Expected IOException");
+    } catch (IOException ioe) {
+      assertTrue(ioe.getMessage().contains("CRC32C mismatch"));
+    }
+    readChannel.close();
+
+    verifyReadWithCrc32c();
+  }
+
+  /**
+   * Test that the CRC32C reported by GCS is ignored unless read checksums are enabled.
+   */
+  @Test
+  public void testOpenWithReadChecksumDisabled()
+      throws IOException {
+    byte[] testData = { 0x01, 0x02, 0x03, 0x05, 0x08 };
+    setupReadWithCrc32c(testData, new byte[] { 0x00, 0x00, 0x00, 0x00 });
+
+    SeekableReadableByteChannel readChannel =
+        gcs.open(new StorageResourceId(BUCKET_NAME, OBJECT_NAME));
+    byte[] actualData = new byte[testData.length];
+    assertEquals(testData.length, readChannel.read(ByteBuffer.wrap(actualData)));
+    assertArrayEquals(testData, actualData);
+    assertEquals(0, ((ChecksummingChannel) readChannel).getChecksumTimeNanos());
+    readChannel.close();
+
+    verifyReadWithCrc32c();
+  }
+
+  @Test
+  public void testParseCrc32c() {
+    byte[] crc32c = { 0x01, 0x02, 0x03, 0x04 };
+    String encoded = BaseEncoding.base64().encode(crc32c);
+    assertArrayEquals(crc32c, GoogleCloudStorageReadChannel.parseCrc32c(
+        ImmutableList.of("md5=1B2M2Y8AsgTpgAmY7PhCfg==", "crc32c=" + encoded)));
+    assertArrayEquals(crc32c, GoogleCloudStorageReadChannel.parseCrc32c(
+        ImmutableList.of("crc32c=" + encoded + ",md5=1B2M2Y8AsgTpgAmY7PhCfg==")));
+    assertNull(GoogleCloudStorageReadChannel.parseCrc32c(
+        ImmutableList.of("md5=1B2M2Y8AsgTpgAmY7PhCfg==")));
+    assertNull(GoogleCloudStorageReadChannel.parseCrc32c(null));
+  }
+
   /**
    * Test handling of various types of exceptions thrown during JSON API call for
    * GoogleCloudStorage.open(2).
@@ -1484,7 +1618,8 @@ public class GoogleCloudStorageTest {
   public void testDeleteObjectNormalOperation()
       throws IOException {
     when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
-        any(Storage.class), any(Long.class))).thenReturn(mockBatchHelper);
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
     when(mockStorage.objects()).thenReturn(mockStorageObjects);
     when(mockStorageObjects.get(eq(BUCKET_NAME), eq(OBJECT_NAME)))
         .thenReturn(mockStorageObjectsGet);
@@ -1526,7 +1661,7 @@ public class GoogleCloudStorageTest {
     gcs.deleteObjects(Lists.newArrayList(new StorageResourceId(BUCKET_NAME, OBJECT_NAME)));
 
     verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class),
-        eq(mockStorage), any(Long.class));
+        eq(mockStorage), any(Long.class), anyInt(), any(ExecutorService.class));
     verify(mockStorage, atLeastOnce()).objects();
     verify(mockStorageObjects).delete(eq(BUCKET_NAME), eq(OBJECT_NAME));
     verify(mockStorageObjects).get(eq(BUCKET_NAME), eq(OBJECT_NAME));
@@ -1547,7 +1682,8 @@ public class GoogleCloudStorageTest {
   public void testDeleteObjectApiException()
       throws IOException {
     when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
-        any(Storage.class), any(Long.class))).thenReturn(mockBatchHelper);
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
     when(mockStorage.objects()).thenReturn(mockStorageObjects);
     when(mockStorageObjects.delete(eq(BUCKET_NAME), eq(OBJECT_NAME)))
         .thenReturn(mockStorageObjectsDelete);
@@ -1654,7 +1790,7 @@ public class GoogleCloudStorageTest {
     }
 
     verify(mockBatchFactory, times(2)).newBatchHelper(any(HttpRequestInitializer.class),
-        eq(mockStorage), any(Long.class));
+        eq(mockStorage), any(Long.class), anyInt(), any(ExecutorService.class));
     verify(mockStorage, times(4)).objects();
     verify(mockStorageObjects, times(2)).delete(eq(BUCKET_NAME), eq(OBJECT_NAME));
     verify(mockStorageObjects, times(2)).get(eq(BUCKET_NAME), eq(OBJECT_NAME));
@@ -1668,6 +1804,131 @@ public class GoogleCloudStorageTest {
     verify(mockBatchHelper, times(4)).isEmpty();
   }
 
+  /**
+   * Test that GoogleCloudStorage.deleteObjects(2) deletes an object at its known generation
+   * without first fetching it.
+   */
+  @Test
+  public void testDeleteObjectWithKnownGeneration()
+      throws IOException {
+    when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.delete(eq(BUCKET_NAME), eq(OBJECT_NAME)))
+        .thenReturn(mockStorageObjectsDelete);
+
+    doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+        JsonBatchCallback<Void> callback =
+            (JsonBatchCallback<Void>) invocationOnMock.getArguments()[1];
+        callback.onSuccess(null, new HttpHeaders());
+        return null;
+      }
+    }).when(mockBatchHelper).queue(
+        Matchers.<StorageRequest<Object>>anyObject(),
+        Matchers.<JsonBatchCallback<Object>>anyObject());
+
+    when(mockBatchHelper.isEmpty()).thenReturn(true);
+
+    gcs.deleteObjects(
+        Lists.newArrayList(new StorageResourceId(BUCKET_NAME, OBJECT_NAME)),
+        Lists.newArrayList(2L));
+
+    verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class),
+        eq(mockStorage), any(Long.class), anyInt(), any(ExecutorService.class));
+    verify(mockStorage).objects();
+    verify(mockStorageObjects).delete(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockStorageObjectsDelete).setIfGenerationMatch(eq(2L));
+    verify(mockBatchHelper).isEmpty();
+    verify(mockBatchHelper).flush();
+    verify(mockBatchHelper).queue(
+        Matchers.<StorageRequest<Object>>anyObject(),
+        Matchers.<JsonBatchCallback<Object>>anyObject());
+  }
+
+  /**
+   * Test that GoogleCloudStorage.deleteObjects(2) falls back to fetching the current generation
+   * when the known generation is stale.
+   */
+  @Test
+  public void testDeleteObjectWithStaleGeneration()
+      throws IOException {
+    when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.get(eq(BUCKET_NAME), eq(OBJECT_NAME)))
+        .thenReturn(mockStorageObjectsGet);
+    when(mockStorageObjects.delete(eq(BUCKET_NAME), eq(OBJECT_NAME)))
+        .thenReturn(mockStorageObjectsDelete);
+
+    final GoogleJsonError preconditionError = new GoogleJsonError();
+    preconditionError.setMessage("Fake precondition failure");
+
+    doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+        JsonBatchCallback<Void> callback =
+            (JsonBatchCallback<Void>) invocationOnMock.getArguments()[1];
+        callback.onFailure(preconditionError, new HttpHeaders());
+        return null;
+      }
+    }).doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+        JsonBatchCallback<StorageObject> getCallback =
+            (JsonBatchCallback<StorageObject>) invocationOnMock.getArguments()[1];
+        getCallback.onSuccess(
+            new StorageObject()
+                .setBucket(BUCKET_NAME)
+                .setName(OBJECT_NAME)
+                .setUpdated(new DateTime(11L))
+                .setSize(BigInteger.valueOf(111L))
+                .setGeneration(3L)
+                .setMetageneration(1L),
+            new HttpHeaders());
+        return null;
+      }
+    }).doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+        JsonBatchCallback<Void> callback =
+            (JsonBatchCallback<Void>) invocationOnMock.getArguments()[1];
+        callback.onSuccess(null, new HttpHeaders());
+        return null;
+      }
+    }).when(mockBatchHelper).queue(
+        Matchers.<StorageRequest<Object>>anyObject(),
+        Matchers.<JsonBatchCallback<Object>>anyObject());
+
+    when(mockErrorExtractor.itemNotFound(eq(preconditionError)))
+        .thenReturn(false);
+    when(mockErrorExtractor.preconditionNotMet(eq(preconditionError)))
+        .thenReturn(true);
+    when(mockBatchHelper.isEmpty()).thenReturn(true);
+
+    gcs.deleteObjects(
+        Lists.newArrayList(new StorageResourceId(BUCKET_NAME, OBJECT_NAME)),
+        Lists.newArrayList(2L));
+
+    verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class),
+        eq(mockStorage), any(Long.class), anyInt(), any(ExecutorService.class));
+    verify(mockStorage, times(3)).objects();
+    verify(mockStorageObjects, times(2)).delete(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockStorageObjects).get(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockStorageObjectsDelete).setIfGenerationMatch(eq(2L));
+    verify(mockStorageObjectsDelete).setIfGenerationMatch(eq(3L));
+    verify(mockErrorExtractor).itemNotFound(eq(preconditionError));
+    verify(mockErrorExtractor).preconditionNotMet(eq(preconditionError));
+    verify(mockBatchHelper).isEmpty();
+    verify(mockBatchHelper).flush();
+    verify(mockBatchHelper, times(3)).queue(
+        Matchers.<StorageRequest<Object>>anyObject(),
+        Matchers.<JsonBatchCallback<Object>>anyObject());
+  }
+
   /**
    * Test argument sanitization for GoogleCloudStorage.copy(4).
    */
@@ -1736,7 +1997,8 @@ public class GoogleCloudStorageTest {
       throws IOException {
     String dstObjectName = OBJECT_NAME + "-copy";
     when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
-        any(Storage.class), any(Long.class))).thenReturn(mockBatchHelper);
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
     when(mockStorage.objects()).thenReturn(mockStorageObjects);
     when(mockStorageObjects.copy(
         eq(BUCKET_NAME), eq(OBJECT_NAME), eq(BUCKET_NAME), eq(dstObjectName),
@@ -1747,7 +2009,7 @@ public class GoogleCloudStorageTest {
              BUCKET_NAME, ImmutableList.of(dstObjectName));
 
     verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class),
-        eq(mockStorage), any(Long.class));
+        eq(mockStorage), any(Long.class), anyInt(), any(ExecutorService.class));
     verify(mockStorage).objects();
     verify(mockStorageObjects).copy(
         eq(BUCKET_NAME), eq(OBJECT_NAME), eq(BUCKET_NAME), eq(dstObjectName),
@@ -1767,7 +2029,8 @@ public class GoogleCloudStorageTest {
       throws IOException {
     String dstObjectName = OBJECT_NAME + "-copy";
     when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
-        any(Storage.class), any(Long.class))).thenReturn(mockBatchHelper);
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
     when(mockStorage.objects()).thenReturn(mockStorageObjects);
     when(mockStorageObjects.copy(
         eq(BUCKET_NAME), eq(OBJECT_NAME), eq(BUCKET_NAME), eq(dstObjectName),
@@ -1829,7 +2092,7 @@ public class GoogleCloudStorageTest {
     }
 
     verify(mockBatchFactory, times(2)).newBatchHelper(any(HttpRequestInitializer.class),
-        eq(mockStorage), any(Long.class));
+        eq(mockStorage), any(Long.class), anyInt(), any(ExecutorService.class));
     verify(mockStorage, times(2)).objects();
     verify(mockStorageObjects, times(2)).copy(
         eq(BUCKET_NAME), eq(OBJECT_NAME), eq(BUCKET_NAME), eq(dstObjectName),
@@ -1849,7 +2112,8 @@ public class GoogleCloudStorageTest {
     String dstObjectName = OBJECT_NAME + "-copy";
     String dstBucketName = BUCKET_NAME + "-copy";
     when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
-        any(Storage.class), any(Long.class))).thenReturn(mockBatchHelper);
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
     when(mockStorage.buckets()).thenReturn(mockStorageBuckets);
     when(mockStorageBuckets.get(eq(BUCKET_NAME))).thenReturn(mockStorageBucketsGet);
     when(mockStorageBuckets.get(eq(dstBucketName))).thenReturn(mockStorageBucketsGet2);
@@ -1879,7 +2143,7 @@ public class GoogleCloudStorageTest {
     verify(mockStorageBucketsGet).execute();
     verify(mockStorageBucketsGet2).execute();
     verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class), eq(mockStorage),
-        any(Long.class));
+        any(Long.class), anyInt(), any(ExecutorService.class));
     verify(mockStorage).objects();
     verify(mockStorageObjects).copy(
         eq(BUCKET_NAME), eq(OBJECT_NAME), eq(dstBucketName), eq(dstObjectName),
@@ -2041,6 +2305,119 @@ public class GoogleCloudStorageTest {
     verify(mockStorageBucketsGet2, times(2)).execute();
   }
 
+  /**
+   * Answers each queued request by passing the next of {@code responses} to its callback.
+   */
+  private static Answer<Void> answerRewrites(final ObjectsRewrite.Response... responses) {
+    return new Answer<Void>() {
+      private int calls = 0;
+
+      @Override
+      public Void answer(InvocationOnMock invocation) throws IOException {
+        @SuppressWarnings("unchecked")
+        JsonBatchCallback<ObjectsRewrite.Response> callback =
+            (JsonBatchCallback<ObjectsRewrite.Response>) invocation.getArguments()[1];
+        callback.onSuccess(responses[calls++], new HttpHeaders());
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Test successful operation of GoogleCloudStorage.copy(4) with the rewrite API, where the
+   * rewrite takes two calls and buckets differ; no bucket compatibility check is made.
+   */
+  @Test
+  public void testCopyObjectsWithRewriteDifferentBucket()
+      throws IOException {
+    GoogleCloudStorage gcs = createTestInstance(createDefaultCloudStorageOptionsBuilder()
+        .setCopyWithRewriteEnabled(true)
+        .setMaxBytesRewrittenPerCall(1024 * 1024)
+        .build());
+    String dstObjectName = OBJECT_NAME + "-copy";
+    String dstBucketName = BUCKET_NAME + "-copy";
+    when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
+    doAnswer(answerRewrites(
+        new ObjectsRewrite.Response()
+            .setDone(false)
+            .setRewriteToken("token1")
+            .setTotalBytesRewritten(1024L * 1024)
+            .setObjectSize(2048L * 1024),
+        new ObjectsRewrite.Response()
+            .setDone(true)
+            .setTotalBytesRewritten(2048L * 1024)
+            .setObjectSize(2048L * 1024)))
+        .when(mockBatchHelper).queue(any(ObjectsRewrite.class),
+            Matchers.<JsonBatchCallback<ObjectsRewrite.Response>>anyObject());
+    when(mockBatchHelper.isEmpty()).thenReturn(true);
+
+    gcs.copy(BUCKET_NAME, ImmutableList.of(OBJECT_NAME),
+             dstBucketName, ImmutableList.of(dstObjectName));
+
+    verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class),
+        eq(mockStorage), any(Long.class), anyInt(), any(ExecutorService.class));
+    ArgumentCaptor<ObjectsRewrite> rewriteCaptor = ArgumentCaptor.forClass(ObjectsRewrite.class);
+    verify(mockBatchHelper, times(2)).queue(rewriteCaptor.capture(),
+        Matchers.<JsonBatchCallback<ObjectsRewrite.Response>>anyObject());
+    List<ObjectsRewrite> rewrites = rewriteCaptor.getAllValues();
+    assertNull(rewrites.get(0).getRewriteToken());
+    assertEquals("token1", rewrites.get(1).getRewriteToken());
+    for (ObjectsRewrite rewrite : rewrites) {
+      assertEquals(Long.valueOf(1024 * 1024), rewrite.getMaxBytesRewrittenPerCall());
+      assertEquals("POST", rewrite.getRequestMethod());
+    }
+    verify(mockBatchHelper).flush();
+    verify(mockBatchHelper).isEmpty();
+  }
+
+  /**
+   * Test handling of a not-found source for GoogleCloudStorage.copy(4) with the rewrite API.
+   */
+  @Test
+  public void testCopyObjectsWithRewriteNotFound()
+      throws IOException {
+    GoogleCloudStorage gcs = createTestInstance(createDefaultCloudStorageOptionsBuilder()
+        .setCopyWithRewriteEnabled(true)
+        .build());
+    String dstObjectName = OBJECT_NAME + "-copy";
+    when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
+    final GoogleJsonError notFoundError = new GoogleJsonError();
+    notFoundError.setMessage("Fake not-found exception");
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws IOException {
+        @SuppressWarnings("unchecked")
+        JsonBatchCallback<ObjectsRewrite.Response> callback =
+            (JsonBatchCallback<ObjectsRewrite.Response>) invocation.getArguments()[1];
+        callback.onFailure(notFoundError, new HttpHeaders());
+        return null;
+      }
+    }).when(mockBatchHelper).queue(any(ObjectsRewrite.class),
+        Matchers.<JsonBatchCallback<ObjectsRewrite.Response>>anyObject());
+    when(mockBatchHelper.isEmpty()).thenReturn(true);
+    when(mockErrorExtractor.itemNotFound(eq(notFoundError))).thenReturn(true);
+
+    try {
+      gcs.copy(BUCKET_NAME, ImmutableList.of(OBJECT_NAME),
+               BUCKET_NAME, ImmutableList.of(dstObjectName));
+      fail("Expected FileNotFoundException");
+    } catch (FileNotFoundException e) {
+      // Expected.
+    }
+
+    verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class),
+        eq(mockStorage), any(Long.class), anyInt(), any(ExecutorService.class));
+    verify(mockBatchHelper).queue(any(ObjectsRewrite.class),
+        Matchers.<JsonBatchCallback<ObjectsRewrite.Response>>anyObject());
+    verify(mockBatchHelper).flush();
+    verify(mockBatchHelper).isEmpty();
+    verify(mockErrorExtractor).itemNotFound(eq(notFoundError));
+  }
+
   /**
    * Test for GoogleCloudStorage.listBucketNames(0).
    */
@@ -2162,6 +2539,40 @@ public class GoogleCloudStorageTest {
     verify(mockStorageObjectsList, times(2)).execute();
   }
 
+  /**
+   * Test GoogleCloudStorage.listObjectNamesPage(6) passing a range of names to the API.
+   */
+  @Test
+  public void testListObjectNamesPageInRange()
+      throws IOException {
+    String objectPrefix = "foo/";
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.list(eq(BUCKET_NAME)))
+        .thenReturn(mockStorageObjectsList);
+    when(mockStorageObjectsList.execute())
+        .thenReturn(new Objects()
+            .setItems(ImmutableList.of(
+                new StorageObject().setName("foo/part-3"),
+                new StorageObject().setName("foo/part-4")))
+            .setNextPageToken("token0"));
+
+    ListPage<String> page = gcs.listObjectNamesPage(
+        BUCKET_NAME, objectPrefix, null, "foo/part-3", "foo/part-6", null);
+    assertEquals(ImmutableList.of("foo/part-3", "foo/part-4"), page.getItems());
+    assertNotNull(page.getNextPageToken());
+
+    verify(mockStorage).objects();
+    verify(mockStorageObjects).list(eq(BUCKET_NAME));
+    verify(mockStorageObjectsList)
+        .setMaxResults(eq(GoogleCloudStorageOptions.MAX_LIST_ITEMS_PER_CALL_DEFAULT));
+    verify(mockStorageObjectsList).setPrefix(eq(objectPrefix));
+    verify(mockStorageObjectsList)
+        .set(eq(GoogleCloudStorageImpl.START_OFFSET_PARAMETER), eq("foo/part-3"));
+    verify(mockStorageObjectsList)
+        .set(eq(GoogleCloudStorageImpl.END_OFFSET_PARAMETER), eq("foo/part-6"));
+    verify(mockStorageObjectsList).execute();
+  }
+
   /**
    * Test GoogleCloudStorage.listObjectNames(3) with maxResults set.
    */
@@ -2339,7 +2750,8 @@ public class GoogleCloudStorageTest {
                 "foo/bar/baz/dir1/"))
             .setNextPageToken(null));
     when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
-        any(Storage.class), any(Long.class))).thenReturn(mockBatchHelper);
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
     when(mockStorageObjects.get(eq(BUCKET_NAME), any(String.class)))
         .thenReturn(mockStorageObjectsGet);
     doAnswer(new Answer<Void>() {
@@ -2396,13 +2808,87 @@ public class GoogleCloudStorageTest {
     verify(mockStorageObjectsList).setPrefix(eq(objectPrefix));
     verify(mockStorageObjectsList).execute();
     verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class), eq(mockStorage),
-        any(Long.class));
+        any(Long.class), anyInt(), any(ExecutorService.class));
     verify(mockStorageObjects, times(2)).get(eq(BUCKET_NAME), any(String.class));
     verify(mockBatchHelper, times(2)).queue(
         eq(mockStorageObjectsGet), Matchers.<JsonBatchCallback<StorageObject>>anyObject());
     verify(mockBatchHelper).flush();
   }
 
+  @Test
+  public void testListObjectInfoInferDirectoriesFromPrefixes()
+      throws IOException {
+    GoogleCloudStorage gcs = createTestInstance(createDefaultCloudStorageOptionsBuilder()
+        .setInferDirectoriesFromPrefixesEnabled(true)
+        .build());
+    String objectPrefix = "foo/bar/baz/";
+    String delimiter = "/";
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.list(eq(BUCKET_NAME)))
+        .thenReturn(mockStorageObjectsList);
+    when(mockStorageObjectsList.execute())
+        .thenReturn(new Objects()
+            .setPrefixes(ImmutableList.of(
+                "foo/bar/baz/dir0/",
+                "foo/bar/baz/dir1/"))
+            .setNextPageToken(null));
+
+    List<GoogleCloudStorageItemInfo> objectInfos =
+        gcs.listObjectInfo(BUCKET_NAME, objectPrefix, delimiter);
+
+    // The directories are synthesized from the prefixes without fetching their objects.
+    assertEquals(2, objectInfos.size());
+    assertEquals("foo/bar/baz/dir0/", objectInfos.get(0).getObjectName());
+    assertTrue(objectInfos.get(0).exists());
+    assertEquals(0, objectInfos.get(0).getSize());
+    assertEquals("foo/bar/baz/dir1/", objectInfos.get(1).getObjectName());
+    assertTrue(objectInfos.get(1).exists());
+    assertEquals(0, objectInfos.get(1).getSize());
+
+    verify(mockStorage).objects();
+    verify(mockStorageObjects).list(eq(BUCKET_NAME));
+    verify(mockStorageObjectsList)
+        .setMaxResults(eq(GoogleCloudStorageOptions.MAX_LIST_ITEMS_PER_CALL_DEFAULT));
+    verify(mockStorageObjectsList).setDelimiter(eq(delimiter));
+    verify(mockStorageObjectsList).setPrefix(eq(objectPrefix));
+    verify(mockStorageObjectsList).execute();
+
+    // Background repair is disabled by default.
+    verify(mockExecutorService, never()).execute(any(Runnable.class));
+  }
+
+  @Test
+  public void testListObjectInfoInferDirectoriesBackgroundRepair()
+      throws IOException {
+    GoogleCloudStorage gcs = createTestInstance(createDefaultCloudStorageOptionsBuilder()
+        .setInferDirectoriesFromPrefixesEnabled(true)
+        .setBackgroundRepairImplicitDirectoriesEnabled(true)
+        .build());
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.list(eq(BUCKET_NAME)))
+        .thenReturn(mockStorageObjectsList);
+    when(mockStorageObjectsList.execute())
+        .thenReturn(new Objects()
+            .setPrefixes(ImmutableList.of(
+                "foo/bar/baz/dir0/",
+                "foo/bar/baz/dir1/"))
+            .setNextPageToken(null));
+
+    gcs.listObjectInfo(BUCKET_NAME, "foo/bar/baz/", "/");
+    gcs.listObjectInfo(BUCKET_NAME, "foo/bar/baz/", "/");
+
+    verify(mockStorage, times(2)).objects();
+    verify(mockStorageObjects, times(2)).list(eq(BUCKET_NAME));
+    verify(mockStorageObjectsList, times(2))
+        .setMaxResults(eq(GoogleCloudStorageOptions.MAX_LIST_ITEMS_PER_CALL_DEFAULT));
+    verify(mockStorageObjectsList, times(2)).setDelimiter(eq("/"));
+    verify(mockStorageObjectsList, times(2)).setPrefix(eq("foo/bar/baz/"));
+    verify(mockStorageObjectsList, times(2)).execute();
+
+    // The prefixes of the second listing are already queued, so only one repair is queued.
+    verify(mockExecutorService).execute(any(Runnable.class));
+  }
+
   @Test
   public void testListObjectInfoReturnPrefixesNotFound()
       throws IOException {
@@ -2445,7 +2931,7 @@ public class GoogleCloudStorageTest {
 
     // Set up the follow-up getItemInfos to just return a batch with "not found".
     when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class), any(Storage.class),
-        any(Long.class))).thenReturn(mockBatchHelper);
+        any(Long.class), anyInt(), any(ExecutorService.class))).thenReturn(mockBatchHelper);
     when(mockStorageObjects.get(any(String.class), any(String.class)))
         .thenReturn(mockStorageObjectsGet);
     final GoogleJsonError notFoundError = new GoogleJsonError();
@@ -2556,7 +3042,7 @@ public class GoogleCloudStorageTest {
 
     // Original batch get.
     verify(mockBatchFactory, times(2)).newBatchHelper(any(HttpRequestInitializer.class),
-        eq(mockStorage), any(Long.class));
+        eq(mockStorage), any(Long.class), anyInt(), any(ExecutorService.class));
     verify(mockStorageObjects, times(5)).get(eq(BUCKET_NAME), any(String.class));
     verify(mockBatchHelper, times(5)).queue(
         eq(mockStorageObjectsGet), Matchers.<JsonBatchCallback<StorageObject>>anyObject());
@@ -2635,7 +3121,7 @@ public class GoogleCloudStorageTest {
     when(mockBatchFactory.newBatchHelper(
         any(HttpRequestInitializer.class),
         any(Storage.class),
-        any(Long.class))).thenReturn(mockBatchHelper);
+        any(Long.class), anyInt(), any(ExecutorService.class))).thenReturn(mockBatchHelper);
     when(mockStorageObjects.get(any(String.class), any(String.class)))
         .thenReturn(mockStorageObjectsGet);
     final GoogleJsonError notFoundError = new GoogleJsonError();
@@ -2717,7 +3203,7 @@ public class GoogleCloudStorageTest {
     // Original batch get.
     verify(mockBatchFactory, times(1))
         .newBatchHelper(any(HttpRequestInitializer.class),
-            eq(mockStorage), any(Long.class));
+            eq(mockStorage), any(Long.class), anyInt(), any(ExecutorService.class));
     verify(mockStorageObjects, times(3))
         .get(eq(BUCKET_NAME), any(String.class));
     verify(mockBatchHelper, times(3)).queue(
@@ -2876,6 +3362,51 @@ public class GoogleCloudStorageTest {
     verify(mockStorageObjectsGet).execute();
   }
 
+  /**
+   * Test GoogleCloudStorage.getItemInfo(StorageResourceId) decodes the object CRC32C and MD5
+   * hashes when present.
+   */
+  @Test
+  public void testGetItemInfoObjectWithHashes()
+      throws IOException {
+    byte[] crc32c = new byte[] { 0x01, 0x02, 0x03, 0x04 };
+    byte[] md5Hash = new byte[] { 0x0f, 0x0e, 0x0d, 0x0c, 0x0b, 0x0a, 0x09, 0x08,
+        0x07, 0x06, 0x05, 0x04, 0x03, 0x02, 0x01, 0x00 };
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.get(eq(BUCKET_NAME), eq(OBJECT_NAME)))
+        .thenReturn(mockStorageObjectsGet);
+    when(mockStorageObjectsGet.execute())
+        .thenReturn(new StorageObject()
+            .setBucket(BUCKET_NAME)
+            .setName(OBJECT_NAME)
+            .setUpdated(new DateTime(1234L))
+            .setSize(BigInteger.valueOf(42L))
+            .setGeneration(1L)
+            .setMetageneration(1L)
+            .setCrc32c(BaseEncoding.base64().encode(crc32c))
+            .setMd5Hash(BaseEncoding.base64().encode(md5Hash)));
+    GoogleCloudStorageItemInfo info =
+        gcs.getItemInfo(new StorageResourceId(BUCKET_NAME, OBJECT_NAME));
+    GoogleCloudStorageItemInfo expected = new GoogleCloudStorageItemInfo(
+        new StorageResourceId(BUCKET_NAME, OBJECT_NAME),
+        1234L,
+        42L,
+        null,
+        null,
+        EMPTY_METADATA,
+        1L,
+        1L,
+        crc32c,
+        md5Hash);
+    assertEquals(expected, info);
+    assertArrayEquals(crc32c, info.getCrc32c());
+    assertArrayEquals(md5Hash, info.getMd5Hash());
+
+    verify(mockStorage).objects();
+    verify(mockStorageObjects).get(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockStorageObjectsGet).execute();
+  }
+
   /**
    * Test handling of mismatch in StorageObject.getBucket() and StorageObject.getName() vs
    * respective values in the queried StorageResourceId.
@@ -2973,7 +3504,8 @@ public class GoogleCloudStorageTest {
   public void testGetItemInfos()
       throws IOException {
     when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
-        any(Storage.class), any(Long.class))).thenReturn(mockBatchHelper);
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
 
     // Set up the return for the Bucket fetch.
     when(mockStorage.buckets()).thenReturn(mockStorageBuckets);
@@ -3052,7 +3584,7 @@ public class GoogleCloudStorageTest {
     assertEquals(expectedBucket, itemInfos.get(2));
 
     verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class),
-        eq(mockStorage), any(Long.class));
+        eq(mockStorage), any(Long.class), anyInt(), any(ExecutorService.class));
     verify(mockStorage).buckets();
     verify(mockStorageBuckets).get(eq(BUCKET_NAME));
     verify(mockBatchHelper).queue(
@@ -3068,7 +3600,8 @@ public class GoogleCloudStorageTest {
   public void testGetItemInfosNotFound()
       throws IOException {
     when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
-        any(Storage.class), any(Long.class))).thenReturn(mockBatchHelper);
+        any(Storage.class), any(Long.class), anyInt(), any(ExecutorService.class)))
+        .thenReturn(mockBatchHelper);
 
     // Set up the return for the Bucket fetch.
     when(mockStorage.buckets()).thenReturn(mockStorageBuckets);
@@ -3132,7 +3665,7 @@ public class GoogleCloudStorageTest {
     assertEquals(expectedBucket, itemInfos.get(2));
 
     verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class), eq(mockStorage),
-        any(Long.class));
+        any(Long.class), anyInt(), any(ExecutorService.class));
     verify(mockStorage).buckets();
     verify(mockStorageBuckets).get(eq(BUCKET_NAME));
     verify(mockBatchHelper).queue(
@@ -3149,7 +3682,7 @@ public class GoogleCloudStorageTest {
   public void testGetItemInfosApiException()
       throws IOException {
     when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class), any(Storage.class),
-        any(Long.class))).thenReturn(mockBatchHelper);
+        any(Long.class), anyInt(), any(ExecutorService.class))).thenReturn(mockBatchHelper);
 
     // Set up the return for the Bucket fetch.
     when(mockStorage.buckets()).thenReturn(mockStorageBuckets);
@@ -3212,7 +3745,7 @@ public class GoogleCloudStorageTest {
     // All invocations still should have been attempted; the exception should have been thrown
     // at the very end.
     verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class), eq(mockStorage),
-        any(Long.class));
+        any(Long.class), anyInt(), any(ExecutorService.class));
     verify(mockStorage).buckets();
     verify(mockStorageBuckets).get(eq(BUCKET_NAME));
     verify(mockBatchHelper).queue(
@@ -3231,7 +3764,8 @@ public class GoogleCloudStorageTest {
   @Test
   public void testClose() {
     gcs.close();
-    verify(mockExecutorService).shutdown();
+    // The executor serves both as the thread pool and as the background repair thread pool.
+    verify(mockExecutorService, times(2)).shutdown();
   }
 
   /**
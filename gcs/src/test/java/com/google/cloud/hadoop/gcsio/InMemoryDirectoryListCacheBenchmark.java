@@ -0,0 +1,159 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.common.base.Splitter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timed harness measuring the latency of delimited listings of an InMemoryDirectoryListCache
+ * against the number of cached objects and the number of threads listing concurrently. It is
+ * not run as part of the tests; run it with
+ *
+ * <pre>
+ * java -cp &lt;test classpath&gt; \
+ *     com.google.cloud.hadoop.gcsio.InMemoryDirectoryListCacheBenchmark \
+ *     [cacheSizes] [threadCounts] [listingsPerThread]
+ * </pre>
+ *
+ * where cacheSizes and threadCounts are comma-separated lists, by default 10000,100000,1000000
+ * and 1,4,16, and listingsPerThread defaults to 20000. Objects are cached as
+ * {@value #OBJECTS_PER_DIRECTORY} files in each of as many directories as needed, and every
+ * listing lists one directory chosen at random.
+ */
+public class InMemoryDirectoryListCacheBenchmark {
+  private static final String BUCKET_NAME = "benchmark-bucket";
+
+  // Number of files cached in each directory, and so returned by each listing.
+  private static final int OBJECTS_PER_DIRECTORY = 100;
+
+  // Each timed run is preceded by an untimed one of 1/WARMUP_DIVISOR as many listings, to warm
+  // up the JIT.
+  private static final int WARMUP_DIVISOR = 10;
+
+  public static void main(String[] args)
+      throws Exception {
+    List<Integer> cacheSizes = parseInts(args.length > 0 ? args[0] : "10000,100000,1000000");
+    List<Integer> threadCounts = parseInts(args.length > 1 ? args[1] : "1,4,16");
+    int listingsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+    System.out.printf("%12s %8s %14s %16s %16s%n",
+        "objects", "threads", "listings/sec", "mean usec/list", "max usec/list");
+    for (int cacheSize : cacheSizes) {
+      InMemoryDirectoryListCache cache = createCache(cacheSize);
+      int directoryCount = Math.max(1, cacheSize / OBJECTS_PER_DIRECTORY);
+      for (int threadCount : threadCounts) {
+        runListings(cache, directoryCount, threadCount, listingsPerThread / WARMUP_DIVISOR);
+        Result result = runListings(cache, directoryCount, threadCount, listingsPerThread);
+        long listings = (long) threadCount * listingsPerThread;
+        System.out.printf("%12d %8d %14.0f %16.2f %16.2f%n",
+            cacheSize, threadCount,
+            listings / (result.elapsedNanos / 1e9),
+            result.totalListNanos / 1e3 / listings,
+            result.maxListNanos / 1e3);
+      }
+    }
+  }
+
+  /**
+   * Total and maximum latency of the listings of a run, and the wall-clock time of the run.
+   */
+  private static class Result {
+    long elapsedNanos;
+    long totalListNanos;
+    long maxListNanos;
+  }
+
+  /**
+   * Creates a cache holding {@code cacheSize} objects, with entries which don't expire while the
+   * benchmark runs.
+   */
+  private static InMemoryDirectoryListCache createCache(int cacheSize) {
+    InMemoryDirectoryListCache cache = new InMemoryDirectoryListCache();
+    cache.getMutableConfig()
+        .setMaxEntryAgeMillis(TimeUnit.HOURS.toMillis(1))
+        .setMaxInfoAgeMillis(TimeUnit.HOURS.toMillis(1));
+    for (int i = 0; i < cacheSize; ++i) {
+      String objectName = String.format("%s/file-%06d",
+          getDirectoryName(i / OBJECTS_PER_DIRECTORY), i % OBJECTS_PER_DIRECTORY);
+      cache.putResourceId(new StorageResourceId(BUCKET_NAME, objectName));
+    }
+    return cache;
+  }
+
+  private static String getDirectoryName(int directory) {
+    return String.format("dir-%08d", directory);
+  }
+
+  /**
+   * Lists random directories of {@code cache} {@code listingsPerThread} times on each of
+   * {@code threadCount} threads.
+   */
+  private static Result runListings(final InMemoryDirectoryListCache cache,
+      final int directoryCount, int threadCount, final int listingsPerThread)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      List<Future<Result>> threadResults = new ArrayList<>(threadCount);
+      long startTime = System.nanoTime();
+      for (int thread = 0; thread < threadCount; ++thread) {
+        final long seed = thread;
+        threadResults.add(executor.submit(new Callable<Result>() {
+          @Override
+          public Result call() {
+            Random random = new Random(seed);
+            Result result = new Result();
+            for (int i = 0; i < listingsPerThread; ++i) {
+              String prefix = getDirectoryName(random.nextInt(directoryCount)) + "/";
+              long listStartTime = System.nanoTime();
+              cache.getObjectList(BUCKET_NAME, prefix, "/", new HashSet<String>());
+              long listNanos = System.nanoTime() - listStartTime;
+              result.totalListNanos += listNanos;
+              result.maxListNanos = Math.max(result.maxListNanos, listNanos);
+            }
+            return result;
+          }
+        }));
+      }
+
+      Result result = new Result();
+      for (Future<Result> threadResult : threadResults) {
+        result.totalListNanos += threadResult.get().totalListNanos;
+        result.maxListNanos = Math.max(result.maxListNanos, threadResult.get().maxListNanos);
+      }
+      result.elapsedNanos = System.nanoTime() - startTime;
+      return result;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static List<Integer> parseInts(String commaSeparated) {
+    List<Integer> values = new ArrayList<>();
+    for (String value : Splitter.on(',').trimResults().omitEmptyStrings().split(commaSeparated)) {
+      values.add(Integer.parseInt(value));
+    }
+    return values;
+  }
+}
@@ -19,18 +19,31 @@ package com.google.cloud.hadoop.gcsio;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * UnitTests for InMemoryDirectoryListCache class.
  */
 @RunWith(JUnit4.class)
 public class InMemoryDirectoryListCacheTest extends DirectoryListCacheTest {
+  @Rule
+  public TemporaryFolder tempDirectoryProvider = new TemporaryFolder();
 
   @Override
   protected DirectoryListCache getTestInstance() {
@@ -65,4 +78,220 @@ public class InMemoryDirectoryListCacheTest extends DirectoryListCacheTest {
     assertEquals(0, cache.getBucketList().size());
     assertNull(cache.getObjectList(BUCKET_NAME, "", null, null));
   }
+
+  /**
+   * Objects under a prefix which was already returned are skipped, without skipping objects
+   * which merely sort right after them.
+   */
+  @Test
+  public void testGetObjectListSkipsObjectsUnderReturnedPrefix() throws IOException {
+    cache.putResourceId(createId("foo/bar/"));
+    for (int i = 0; i < 10; ++i) {
+      cache.putResourceId(createId("foo/bar/data" + i + ".txt"));
+    }
+    cache.putResourceId(createId("foo/bar0"));
+    cache.putResourceId(createId("foo/bar0/data.txt"));
+    cache.putResourceId(createId("foo/baz.txt"));
+    cache.putResourceId(createId("fop.txt"));
+
+    Set<String> prefixes = new HashSet<>();
+    List<CacheEntry> listedObjects = cache.getObjectList(BUCKET_NAME, "foo/", "/", prefixes);
+    Set<StorageResourceId> listedSet = extractResourceIdSet(listedObjects);
+    assertEquals(3, listedSet.size());
+    assertTrue(listedSet.contains(createId("foo/bar/")));
+    assertTrue(listedSet.contains(createId("foo/bar0")));
+    assertTrue(listedSet.contains(createId("foo/baz.txt")));
+    assertEquals(2, prefixes.size());
+    assertTrue(prefixes.contains("foo/bar/"));
+    assertTrue(prefixes.contains("foo/bar0/"));
+  }
+
+  /**
+   * The background sweep removes expired entries which no listing has come across.
+   */
+  @Test
+  public void testSweepExpiredEntries() throws IOException {
+    cache.putResourceId(createId("foo/bar/data2.txt"));
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_ENTRY_AGE);
+    cache.putResourceId(createId("foo/bar/data1.txt"));
+    assertEquals(2, cache.getInternalNumObjects());
+
+    // "foo/bar/data2.txt" is expired, but the listing skips it after "foo/bar/data1.txt" yields
+    // the prefix "foo/bar/".
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_ENTRY_AGE + 1);
+    Set<String> prefixes = new HashSet<>();
+    assertEquals(0, cache.getObjectList(BUCKET_NAME, "foo/", "/", prefixes).size());
+    assertTrue(prefixes.contains("foo/bar/"));
+    assertEquals(2, cache.getInternalNumObjects());
+
+    ((InMemoryDirectoryListCache) cache).sweepExpiredEntries();
+    assertEquals(1, cache.getInternalNumObjects());
+    assertEquals(1, cache.getInternalNumBuckets());
+
+    // Once everything expires, the sweep removes the bucket as well.
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + 2 * MAX_ENTRY_AGE + 1);
+    ((InMemoryDirectoryListCache) cache).sweepExpiredEntries();
+    assertEquals(0, cache.getInternalNumObjects());
+    assertEquals(0, cache.getInternalNumBuckets());
+  }
+
+  @Test
+  public void testEvictLeastRecentlyUsedEntriesOverMaxEntries() throws IOException {
+    InMemoryDirectoryListCache inMemoryCache = (InMemoryDirectoryListCache) cache;
+    cache.getMutableConfig().setMaxEntries(10);
+    for (int i = 0; i < 10; ++i) {
+      cache.putResourceId(createId("object" + i));
+    }
+    assertEquals(10, cache.getInternalNumObjects());
+    assertEquals(0, inMemoryCache.getEvictionCount());
+
+    // Using object0 makes object1 and object2 the least recently used.
+    assertNotNull(cache.getCacheEntry(createId("object0")));
+    cache.putResourceId(createId("object10"));
+
+    // Eviction shrinks the cache to 90% of its limit.
+    assertEquals(9, cache.getInternalNumObjects());
+    assertEquals(2, inMemoryCache.getEvictionCount());
+    assertNotNull(cache.getCacheEntry(createId("object0")));
+    assertNull(cache.getCacheEntry(createId("object1")));
+    assertNull(cache.getCacheEntry(createId("object2")));
+    assertNotNull(cache.getCacheEntry(createId("object3")));
+    assertNotNull(cache.getCacheEntry(createId("object10")));
+  }
+
+  @Test
+  public void testEvictOverMaxBytes() throws IOException {
+    InMemoryDirectoryListCache inMemoryCache = (InMemoryDirectoryListCache) cache;
+    long entryBytes = CachedBucket.estimateObjectEntryBytes("object0");
+    cache.getMutableConfig().setMaxBytes(5 * entryBytes);
+    for (int i = 0; i < 5; ++i) {
+      cache.putResourceId(createId("object" + i));
+    }
+    assertEquals(5 * entryBytes, inMemoryCache.getEstimatedSizeBytes());
+    assertEquals(0, inMemoryCache.getEvictionCount());
+
+    cache.putResourceId(createId("object5"));
+    assertEquals(4, cache.getInternalNumObjects());
+    assertEquals(4 * entryBytes, inMemoryCache.getEstimatedSizeBytes());
+    assertEquals(2, inMemoryCache.getEvictionCount());
+    assertNull(cache.getCacheEntry(createId("object0")));
+    assertNull(cache.getCacheEntry(createId("object1")));
+  }
+
+  @Test
+  public void testEvictionRemovesEmptiedBucket() throws IOException {
+    cache.getMutableConfig().setMaxEntries(2);
+    cache.putResourceId(new StorageResourceId("other-bucket", "object0"));
+    cache.putResourceId(createId("object1"));
+    assertEquals(2, cache.getInternalNumBuckets());
+
+    // Shrinking to 90% of 2 entries evicts both older objects, along with other-bucket.
+    cache.putResourceId(createId("object2"));
+    assertEquals(1, cache.getInternalNumObjects());
+    assertEquals(1, cache.getInternalNumBuckets());
+    assertNull(cache.getCacheEntry(new StorageResourceId("other-bucket")));
+    assertNotNull(cache.getCacheEntry(createId("object2")));
+  }
+
+  @Test
+  public void testSnapshotRestoresEntriesAndInfos() throws IOException {
+    Path snapshotPath = tempDirectoryProvider.getRoot().toPath().resolve("cache.snapshot");
+    cache.putResourceId(createId("expiring-object"));
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_ENTRY_AGE);
+    CacheEntry objectEntry = cache.putResourceId(objectResourceId);
+    objectEntry.setItemInfo(objectInfo);
+    cache.putResourceId(createId("dir/object"));
+    ((InMemoryDirectoryListCache) cache).writeSnapshot(snapshotPath);
+
+    // Restored entries keep their original creation and info times, so expired ones are skipped.
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_ENTRY_AGE + 1);
+    InMemoryDirectoryListCache restoredCache = (InMemoryDirectoryListCache) getTestInstance();
+    restoredCache.setClock(mockClock);
+    assertEquals(3, restoredCache.loadSnapshot(snapshotPath, MAX_ENTRY_AGE));
+    assertEquals(2, restoredCache.getInternalNumObjects());
+    assertNull(restoredCache.getCacheEntry(createId("expiring-object")));
+    CacheEntry restoredEntry = restoredCache.getCacheEntry(objectResourceId);
+    assertEquals(objectEntry.getCreationTimeMillis(), restoredEntry.getCreationTimeMillis());
+    assertEquals(objectEntry.getItemInfoUpdateTimeMillis(),
+        restoredEntry.getItemInfoUpdateTimeMillis());
+    assertEquals(objectInfo, restoredEntry.getItemInfo());
+
+    // Entries already in the cache are left alone.
+    assertEquals(0, restoredCache.loadSnapshot(snapshotPath, MAX_ENTRY_AGE));
+  }
+
+  @Test
+  public void testSharedSnapshotIsRestoredOnceAndSavedOnLastClose() throws IOException {
+    Path snapshotPath = tempDirectoryProvider.getRoot().toPath().resolve("cache.snapshot");
+    cache.putResourceId(objectResourceId);
+    ((InMemoryDirectoryListCache) cache).writeSnapshot(snapshotPath);
+
+    InMemoryDirectoryListCache sharedCache = (InMemoryDirectoryListCache) getTestInstance();
+    sharedCache.setClock(mockClock);
+    assertEquals(2, sharedCache.openSnapshot(snapshotPath, MAX_ENTRY_AGE));
+    sharedCache.removeResourceId(objectResourceId);
+
+    // A second user doesn't bring back the entry removed since the snapshot was restored.
+    assertEquals(0, sharedCache.openSnapshot(snapshotPath, MAX_ENTRY_AGE));
+    assertNull(sharedCache.getCacheEntry(objectResourceId));
+
+    // Only the last user to close the snapshot saves it.
+    sharedCache.closeSnapshot(snapshotPath);
+    InMemoryDirectoryListCache restoredCache = (InMemoryDirectoryListCache) getTestInstance();
+    restoredCache.setClock(mockClock);
+    assertEquals(2, restoredCache.loadSnapshot(snapshotPath, MAX_ENTRY_AGE));
+    assertNotNull(restoredCache.getCacheEntry(objectResourceId));
+
+    sharedCache.closeSnapshot(snapshotPath);
+    InMemoryDirectoryListCache nextCache = (InMemoryDirectoryListCache) getTestInstance();
+    nextCache.setClock(mockClock);
+    assertEquals(1, nextCache.loadSnapshot(snapshotPath, MAX_ENTRY_AGE));
+    assertNull(nextCache.getCacheEntry(objectResourceId));
+  }
+
+  @Test
+  public void testSnapshotDropsStaleInfos() throws IOException {
+    Path snapshotPath = tempDirectoryProvider.getRoot().toPath().resolve("cache.snapshot");
+    cache.putResourceId(objectResourceId).setItemInfo(objectInfo);
+    ((InMemoryDirectoryListCache) cache).writeSnapshot(snapshotPath);
+
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_INFO_AGE + 1);
+    InMemoryDirectoryListCache restoredCache = (InMemoryDirectoryListCache) getTestInstance();
+    restoredCache.setClock(mockClock);
+    assertEquals(2, restoredCache.loadSnapshot(snapshotPath, MAX_ENTRY_AGE));
+    assertNull(restoredCache.getCacheEntry(objectResourceId).getItemInfo());
+  }
+
+  @Test
+  public void testOldOrMissingSnapshotRestoresNothing() throws IOException {
+    Path snapshotPath = tempDirectoryProvider.getRoot().toPath().resolve("cache.snapshot");
+    InMemoryDirectoryListCache restoredCache = (InMemoryDirectoryListCache) getTestInstance();
+    restoredCache.setClock(mockClock);
+    assertEquals(0, restoredCache.loadSnapshot(snapshotPath, MAX_ENTRY_AGE));
+
+    cache.putResourceId(objectResourceId);
+    ((InMemoryDirectoryListCache) cache).writeSnapshot(snapshotPath);
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + 1001);
+    assertEquals(0, restoredCache.loadSnapshot(snapshotPath, 1000));
+    assertEquals(0, restoredCache.getInternalNumBuckets());
+  }
+
+  @Test
+  public void testTruncatedSnapshotRestoresNothing() throws IOException {
+    Path snapshotPath = tempDirectoryProvider.getRoot().toPath().resolve("cache.snapshot");
+    cache.putResourceId(objectResourceId);
+    ((InMemoryDirectoryListCache) cache).writeSnapshot(snapshotPath);
+    byte[] snapshot = Files.readAllBytes(snapshotPath);
+    Files.write(snapshotPath, Arrays.copyOf(snapshot, snapshot.length - 1));
+
+    InMemoryDirectoryListCache restoredCache = (InMemoryDirectoryListCache) getTestInstance();
+    restoredCache.setClock(mockClock);
+    try {
+      restoredCache.loadSnapshot(snapshotPath, MAX_ENTRY_AGE);
+      fail("Expected IOException");
+    } catch (IOException ioe) {
+      // Expected.
+    }
+    assertEquals(0, restoredCache.getInternalNumBuckets());
+  }
 }
@@ -22,6 +22,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -211,6 +212,18 @@ public class InMemoryGoogleCloudStorage
     }
   }
 
+  /**
+   * Generations are ignored; the latest generation of each object is always deleted.
+   */
+  @Override
+  public synchronized void deleteObjects(
+      List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    Preconditions.checkArgument(fullObjectNames.size() == generations.size(),
+        "Must supply same number of elements in fullObjectNames and generations");
+    deleteObjects(fullObjectNames);
+  }
+
   @Override
   public synchronized void copy(String srcBucketName, List<String> srcObjectNames,
       String dstBucketName, List<String> dstObjectNames)
@@ -294,6 +307,75 @@ public class InMemoryGoogleCloudStorage
     return new ArrayList<>(uniqueNames);
   }
 
+  /**
+   * Returns pages of up to {@code maxListItemsPerCall} names; the page token is the last name of
+   * the previous page.
+   */
+  @Override
+  public synchronized ListPage<String> listObjectNamesPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    return listObjectNamesPage(bucketName, objectNamePrefix, delimiter, null, null, pageToken);
+  }
+
+  /**
+   * Pages the same way as listObjectNamesPage, over only the names in the given range.
+   */
+  @Override
+  public synchronized ListPage<String> listObjectNamesPage(
+      String bucketName, String objectNamePrefix, String delimiter,
+      String startOffset, String endOffset, String pageToken)
+      throws IOException {
+    List<String> allNames = new ArrayList<>();
+    for (String objectName : listObjectNames(bucketName, objectNamePrefix, delimiter)) {
+      if (GoogleCloudStorageStrings.isInListRange(objectName, startOffset, endOffset)) {
+        allNames.add(objectName);
+      }
+    }
+    Collections.sort(allNames);
+    int startIndex = 0;
+    if (pageToken != null) {
+      while (startIndex < allNames.size() && allNames.get(startIndex).compareTo(pageToken) <= 0) {
+        startIndex++;
+      }
+    }
+    int endIndex = (int) Math.min(
+        allNames.size(), startIndex + storageOptions.getMaxListItemsPerCall());
+    List<String> pageNames = new ArrayList<>(allNames.subList(startIndex, endIndex));
+    String nextPageToken = endIndex < allNames.size() ? allNames.get(endIndex - 1) : null;
+    return new ListPage<>(pageNames, nextPageToken);
+  }
+
+  /**
+   * Pages the same way as listObjectNamesPage.
+   */
+  @Override
+  public synchronized ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    return listObjectInfoPage(bucketName, objectNamePrefix, delimiter, null, null, pageToken);
+  }
+
+  /**
+   * Pages the same way as listObjectNamesPage, over only the names in the given range.
+   */
+  @Override
+  public synchronized ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter,
+      String startOffset, String endOffset, String pageToken)
+      throws IOException {
+    ListPage<String> namePage = listObjectNamesPage(
+        bucketName, objectNamePrefix, delimiter, startOffset, endOffset, pageToken);
+    List<GoogleCloudStorageItemInfo> pageInfos = new ArrayList<>();
+    for (String objectName : namePage.getItems()) {
+      GoogleCloudStorageItemInfo itemInfo = getListedItemInfo(bucketName, objectName);
+      if (itemInfo != null) {
+        pageInfos.add(itemInfo);
+      }
+    }
+    return new ListPage<>(pageInfos, namePage.getNextPageToken());
+  }
+
   @Override
   public synchronized List<GoogleCloudStorageItemInfo> listObjectInfo(
       final String bucketName, String objectNamePrefix, String delimiter)
@@ -313,17 +395,9 @@ public class InMemoryGoogleCloudStorage
         delimiter, GoogleCloudStorage.MAX_RESULTS_UNLIMITED);
     List<GoogleCloudStorageItemInfo> listedInfo = new ArrayList<>();
     for (String objectName : listedNames) {
-      GoogleCloudStorageItemInfo itemInfo =
-          getItemInfo(new StorageResourceId(bucketName, objectName));
-      if (itemInfo.exists()) {
+      GoogleCloudStorageItemInfo itemInfo = getListedItemInfo(bucketName, objectName);
+      if (itemInfo != null) {
         listedInfo.add(itemInfo);
-      } else if (itemInfo.getResourceId().isStorageObject()
-                 && storageOptions.isAutoRepairImplicitDirectoriesEnabled()) {
-        create(itemInfo.getResourceId()).close();
-        GoogleCloudStorageItemInfo newInfo = getItemInfo(itemInfo.getResourceId());
-        if (newInfo.exists()) {
-          listedInfo.add(newInfo);
-        }
       }
       if (maxResults > 0 && listedInfo.size() >= maxResults) {
         break;
@@ -332,6 +406,27 @@ public class InMemoryGoogleCloudStorage
     return listedInfo;
   }
 
+  /**
+   * Gets the info of a listed name, repairing it if it is an implicit directory and auto-repair
+   * is enabled; returns null if it does not exist.
+   */
+  private GoogleCloudStorageItemInfo getListedItemInfo(String bucketName, String objectName)
+      throws IOException {
+    GoogleCloudStorageItemInfo itemInfo =
+        getItemInfo(new StorageResourceId(bucketName, objectName));
+    if (itemInfo.exists()) {
+      return itemInfo;
+    } else if (itemInfo.getResourceId().isStorageObject()
+               && storageOptions.isAutoRepairImplicitDirectoriesEnabled()) {
+      create(itemInfo.getResourceId()).close();
+      GoogleCloudStorageItemInfo newInfo = getItemInfo(itemInfo.getResourceId());
+      if (newInfo.exists()) {
+        return newInfo;
+      }
+    }
+    return null;
+  }
+
   @Override
   public synchronized GoogleCloudStorageItemInfo getItemInfo(StorageResourceId resourceId)
       throws IOException {
@@ -14,8 +14,10 @@
 
 package com.google.cloud.hadoop.gcsio;
 
+import com.google.cloud.hadoop.util.Crc32c;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -68,7 +70,9 @@ class InMemoryObjectEntry {
               null,
               info.getMetadata(),
               0L,
-              0L);
+              0L,
+              Crc32c.computeAsBytes(completedContents),
+              Hashing.md5().hashBytes(completedContents).asBytes());
         }
       }
     };
@@ -163,7 +167,9 @@ class InMemoryObjectEntry {
         null,
         info.getMetadata(),
         0L,
-        0L);
+        0L,
+        info.getCrc32c(),
+        info.getMd5Hash());
     return copy;
   }
 
@@ -237,6 +243,8 @@ class InMemoryObjectEntry {
         null,
         mergedMetadata,
         0L,
-        0L);
+        0L,
+        info.getCrc32c(),
+        info.getMd5Hash());
   }
 }
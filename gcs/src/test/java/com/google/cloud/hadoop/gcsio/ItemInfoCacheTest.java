@@ -0,0 +1,139 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Ticker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UnitTests for ItemInfoCache class.
+ */
+@RunWith(JUnit4.class)
+public class ItemInfoCacheTest {
+  private static final long TTL_MILLIS = 10000L;
+  private static final long NEGATIVE_TTL_MILLIS = 1000L;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  };
+
+  private GoogleCloudStorageItemInfo objectInfo;
+  private GoogleCloudStorageItemInfo notFoundInfo;
+
+  @Before
+  public void setUp() {
+    objectInfo = DirectoryListCacheTestUtils.createObjectInfo("foo-bucket", "bar-object");
+    notFoundInfo = GoogleCloudStorageImpl.createItemInfoForNotFound(
+        new StorageResourceId("foo-bucket", "missing-object"));
+  }
+
+  private void advanceMillis(long millis) {
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  @Test
+  public void testFoundAndNotFoundInfosExpireSeparately() {
+    ItemInfoCache cache = new ItemInfoCache(100, TTL_MILLIS, NEGATIVE_TTL_MILLIS, ticker);
+    cache.put(objectInfo);
+    cache.put(notFoundInfo);
+
+    assertEquals(objectInfo, cache.get(objectInfo.getResourceId()));
+    assertEquals(notFoundInfo, cache.get(notFoundInfo.getResourceId()));
+
+    advanceMillis(NEGATIVE_TTL_MILLIS + 1);
+    assertEquals(objectInfo, cache.get(objectInfo.getResourceId()));
+    assertNull(cache.get(notFoundInfo.getResourceId()));
+
+    advanceMillis(TTL_MILLIS);
+    assertNull(cache.get(objectInfo.getResourceId()));
+
+    assertEquals(3, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(2, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testPutReplacesAndInvalidateRemoves() {
+    ItemInfoCache cache = new ItemInfoCache(100, TTL_MILLIS, NEGATIVE_TTL_MILLIS, ticker);
+    StorageResourceId objectId = objectInfo.getResourceId();
+    cache.put(GoogleCloudStorageImpl.createItemInfoForNotFound(objectId));
+    cache.put(objectInfo);
+    assertEquals(objectInfo, cache.get(objectId));
+    assertEquals(1, cache.size());
+
+    cache.invalidate(objectId);
+    assertNull(cache.get(objectId));
+
+    cache.put(objectInfo);
+    cache.put(notFoundInfo);
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testPutOfInfoFetchedBeforeInvalidationIsDropped() {
+    ItemInfoCache cache = new ItemInfoCache(100, TTL_MILLIS, NEGATIVE_TTL_MILLIS, ticker);
+    long epoch = cache.getInvalidationEpoch();
+    cache.invalidate(notFoundInfo.getResourceId());
+    assertFalse(cache.put(objectInfo, epoch));
+    assertNull(cache.get(objectInfo.getResourceId()));
+
+    epoch = cache.getInvalidationEpoch();
+    assertTrue(cache.put(objectInfo, epoch));
+    assertEquals(objectInfo, cache.get(objectInfo.getResourceId()));
+
+    cache.invalidateAll();
+    assertFalse(cache.put(notFoundInfo, epoch));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testSizeBound() {
+    ItemInfoCache cache = new ItemInfoCache(2, TTL_MILLIS, NEGATIVE_TTL_MILLIS, ticker);
+    for (int i = 0; i < 5; ++i) {
+      cache.put(DirectoryListCacheTestUtils.createObjectInfo("foo-bucket", "object" + i));
+    }
+    assertEquals(2, cache.size());
+    assertEquals(3, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testZeroTtlDisablesHalf() {
+    ItemInfoCache cache = new ItemInfoCache(100, 0, NEGATIVE_TTL_MILLIS, ticker);
+    cache.put(objectInfo);
+    cache.put(notFoundInfo);
+    assertNull(cache.get(objectInfo.getResourceId()));
+    assertEquals(notFoundInfo, cache.get(notFoundInfo.getResourceId()));
+    assertEquals(0, cache.getEvictionCount());
+  }
+}
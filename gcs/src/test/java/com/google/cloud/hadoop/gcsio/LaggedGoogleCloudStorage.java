@@ -21,6 +21,7 @@ import com.google.common.collect.Lists;
 import java.io.IOException;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -102,6 +103,12 @@ public class LaggedGoogleCloudStorage implements GoogleCloudStorage  {
     delegate.deleteObjects(fullObjectNames);
   }
 
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    delegate.deleteObjects(fullObjectNames, generations);
+  }
+
   @Override
   public List<GoogleCloudStorageItemInfo> listBucketInfo() throws IOException {
     return delegate.listBucketInfo();
@@ -190,6 +197,60 @@ public class LaggedGoogleCloudStorage implements GoogleCloudStorage  {
         ITEM_INFO_TO_NAME);
   }
 
+  /**
+   * Returns all names visible through listObjectNames as a single page.
+   */
+  @Override
+  public ListPage<String> listObjectNamesPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken) throws IOException {
+    return listObjectNamesPage(bucketName, objectNamePrefix, delimiter, null, null, pageToken);
+  }
+
+  /**
+   * Returns all names in the given range visible through listObjectNames as a single page.
+   */
+  @Override
+  public ListPage<String> listObjectNamesPage(String bucketName,
+      String objectNamePrefix, String delimiter, String startOffset, String endOffset,
+      String pageToken) throws IOException {
+    List<String> objectNames = new ArrayList<>();
+    for (String objectName : listObjectNames(bucketName, objectNamePrefix, delimiter)) {
+      if (GoogleCloudStorageStrings.isInListRange(objectName, startOffset, endOffset)) {
+        objectNames.add(objectName);
+      }
+    }
+    Collections.sort(objectNames);
+    return new ListPage<>(objectNames, null);
+  }
+
+  /**
+   * Returns all infos visible through listObjectInfo as a single page.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken) throws IOException {
+    return listObjectInfoPage(bucketName, objectNamePrefix, delimiter, null, null, pageToken);
+  }
+
+  /**
+   * Returns all infos in the given range visible through listObjectInfo as a single page.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String startOffset, String endOffset,
+      String pageToken) throws IOException {
+    List<GoogleCloudStorageItemInfo> objectInfos = new ArrayList<>();
+    for (GoogleCloudStorageItemInfo objectInfo
+        : listObjectInfo(bucketName, objectNamePrefix, delimiter)) {
+      if (GoogleCloudStorageStrings.isInListRange(
+          objectInfo.getObjectName(), startOffset, endOffset)) {
+        objectInfos.add(objectInfo);
+      }
+    }
+    Collections.sort(objectInfos, GoogleCloudStorageItemInfo.OBJECT_NAME_COMPARATOR);
+    return new ListPage<>(objectInfos, null);
+  }
+
   @Override
   public List<GoogleCloudStorageItemInfo> listObjectInfo(String bucketName,
       String objectNamePrefix, String delimiter) throws IOException {
@@ -86,6 +86,12 @@ public class ListProhibitedGoogleCloudStorage implements GoogleCloudStorage {
     delegateGcs.deleteObjects(fullObjectNames);
   }
 
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    delegateGcs.deleteObjects(fullObjectNames, generations);
+  }
+
   @Override
   public void copy(String srcBucketName, List<String> srcObjectNames,
       String dstBucketName, List<String> dstObjectNames) throws IOException {
@@ -119,6 +125,36 @@ public class ListProhibitedGoogleCloudStorage implements GoogleCloudStorage {
         "Operation not supported in ListProhibitedGoogleCloudStorage.");
   }
 
+  @Override
+  public ListPage<String> listObjectNamesPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken) throws IOException {
+    throw new UnsupportedOperationException(
+        "Operation not supported in ListProhibitedGoogleCloudStorage.");
+  }
+
+  @Override
+  public ListPage<String> listObjectNamesPage(String bucketName,
+      String objectNamePrefix, String delimiter, String startOffset, String endOffset,
+      String pageToken) throws IOException {
+    throw new UnsupportedOperationException(
+        "Operation not supported in ListProhibitedGoogleCloudStorage.");
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken) throws IOException {
+    throw new UnsupportedOperationException(
+        "Operation not supported in ListProhibitedGoogleCloudStorage.");
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String startOffset, String endOffset,
+      String pageToken) throws IOException {
+    throw new UnsupportedOperationException(
+        "Operation not supported in ListProhibitedGoogleCloudStorage.");
+  }
+
   @Override
   public List<GoogleCloudStorageItemInfo> listObjectInfo(String bucketName,
       String objectNamePrefix, String delimiter) throws IOException {
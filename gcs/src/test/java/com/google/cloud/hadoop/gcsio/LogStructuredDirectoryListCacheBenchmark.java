@@ -0,0 +1,156 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.common.base.Splitter;
+
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timed harness comparing the latency of puts and delimited listings of a
+ * LogStructuredDirectoryListCache against a FileSystemBackedDirectoryListCache holding the same
+ * objects, each in a fresh temporary directory. It is not run as part of the tests; run it with
+ *
+ * <pre>
+ * java -cp &lt;test classpath&gt; \
+ *     com.google.cloud.hadoop.gcsio.LogStructuredDirectoryListCacheBenchmark \
+ *     [cacheSizes] [listings]
+ * </pre>
+ *
+ * where cacheSizes is a comma-separated list, by default 5000,50000, and listings defaults to
+ * 200. Objects are put as {@value #OBJECTS_PER_DIRECTORY} files in each of as many directories as
+ * needed, and every listing lists one directory chosen at random.
+ */
+public class LogStructuredDirectoryListCacheBenchmark {
+  private static final String BUCKET_NAME = "benchmark-bucket";
+
+  // Number of files put in each directory, and so returned by each listing.
+  private static final int OBJECTS_PER_DIRECTORY = 100;
+
+  // The timed listings are preceded by 1/WARMUP_DIVISOR as many untimed ones, to warm up the JIT.
+  private static final int WARMUP_DIVISOR = 10;
+
+  public static void main(String[] args)
+      throws Exception {
+    List<Integer> cacheSizes = parseInts(args.length > 0 ? args[0] : "5000,50000");
+    int listings = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+    System.out.printf("%-18s %10s %14s %16s %16s%n",
+        "cache", "objects", "mean usec/put", "mean usec/list", "max usec/list");
+    for (int cacheSize : cacheSizes) {
+      for (CacheType cacheType : CacheType.values()) {
+        TemporaryFolder basePath = new TemporaryFolder();
+        basePath.create();
+        DirectoryListCache cache = cacheType.create(basePath.getRoot().getPath());
+        try {
+          cache.getMutableConfig()
+              .setMaxEntryAgeMillis(TimeUnit.HOURS.toMillis(1))
+              .setMaxInfoAgeMillis(TimeUnit.HOURS.toMillis(1));
+          long putNanos = putObjects(cache, cacheSize);
+          int directoryCount = Math.max(1, cacheSize / OBJECTS_PER_DIRECTORY);
+          runListings(cache, directoryCount, listings / WARMUP_DIVISOR);
+          Result result = runListings(cache, directoryCount, listings);
+          System.out.printf("%-18s %10d %14.2f %16.2f %16.2f%n",
+              cacheType, cacheSize,
+              putNanos / 1e3 / cacheSize,
+              result.totalListNanos / 1e3 / listings,
+              result.maxListNanos / 1e3);
+        } finally {
+          cache.close();
+          basePath.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * The compared caches, each created under a given base directory.
+   */
+  private enum CacheType {
+    FILESYSTEM_BACKED {
+      @Override
+      DirectoryListCache create(String basePath) {
+        return new FileSystemBackedDirectoryListCache(basePath);
+      }
+    },
+    LOG_STRUCTURED {
+      @Override
+      DirectoryListCache create(String basePath) {
+        return new LogStructuredDirectoryListCache(basePath);
+      }
+    };
+
+    abstract DirectoryListCache create(String basePath);
+  }
+
+  /**
+   * Total and maximum latency of the listings of a run.
+   */
+  private static class Result {
+    long totalListNanos;
+    long maxListNanos;
+  }
+
+  /**
+   * Puts {@code cacheSize} objects into {@code cache}, returning the time taken.
+   */
+  private static long putObjects(DirectoryListCache cache, int cacheSize)
+      throws IOException {
+    long startTime = System.nanoTime();
+    for (int i = 0; i < cacheSize; ++i) {
+      String objectName = String.format("%s/file-%06d",
+          getDirectoryName(i / OBJECTS_PER_DIRECTORY), i % OBJECTS_PER_DIRECTORY);
+      cache.putResourceId(new StorageResourceId(BUCKET_NAME, objectName));
+    }
+    return System.nanoTime() - startTime;
+  }
+
+  private static String getDirectoryName(int directory) {
+    return String.format("dir-%08d", directory);
+  }
+
+  /**
+   * Lists random directories of {@code cache} {@code listings} times.
+   */
+  private static Result runListings(DirectoryListCache cache, int directoryCount, int listings)
+      throws IOException {
+    Random random = new Random(0);
+    Result result = new Result();
+    for (int i = 0; i < listings; ++i) {
+      String prefix = getDirectoryName(random.nextInt(directoryCount)) + "/";
+      long listStartTime = System.nanoTime();
+      cache.getObjectList(BUCKET_NAME, prefix, "/", new HashSet<String>());
+      long listNanos = System.nanoTime() - listStartTime;
+      result.totalListNanos += listNanos;
+      result.maxListNanos = Math.max(result.maxListNanos, listNanos);
+    }
+    return result;
+  }
+
+  private static List<Integer> parseInts(String commaSeparated) {
+    List<Integer> values = new ArrayList<>();
+    for (String value : Splitter.on(',').trimResults().omitEmptyStrings().split(commaSeparated)) {
+      values.add(Integer.parseInt(value));
+    }
+    return values;
+  }
+}
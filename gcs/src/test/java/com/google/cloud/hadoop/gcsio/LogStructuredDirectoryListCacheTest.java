@@ -0,0 +1,184 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+/**
+ * UnitTests for LogStructuredDirectoryListCache class. Like FileSystemBackedDirectoryListCache,
+ * it is intended to be shared by multiple processes, which we stand in for with multiple
+ * instances pointed at the same basePath.
+ */
+@RunWith(JUnit4.class)
+public class LogStructuredDirectoryListCacheTest extends DirectoryListCacheTest {
+  @Rule
+  public TemporaryFolder tempDirectoryProvider = new TemporaryFolder();
+
+  // The File corresponding to the temporary basePath of the testInstance.
+  private File basePathFile;
+
+  private LogStructuredDirectoryListCache logCache;
+
+  @Override
+  protected DirectoryListCache getTestInstance() throws IOException {
+    basePathFile = tempDirectoryProvider.newFolder("gcs_metadata");
+    // Re-root to a subdir which doesn't exist yet just to make sure it's handled properly.
+    basePathFile = basePathFile.toPath().resolve("subdir").toFile();
+    logCache = createCache();
+    return logCache;
+  }
+
+  private LogStructuredDirectoryListCache createCache() {
+    LogStructuredDirectoryListCache cache =
+        new LogStructuredDirectoryListCache(basePathFile.toString());
+    cache.getMutableConfig()
+        .setMaxEntryAgeMillis(MAX_ENTRY_AGE)
+        .setMaxInfoAgeMillis(MAX_INFO_AGE);
+    cache.setClock(mockClock);
+    return cache;
+  }
+
+  @Test
+  public void testChangesAreVisibleToOtherInstances() throws IOException {
+    LogStructuredDirectoryListCache otherCache = createCache();
+
+    cache.putResourceId(new StorageResourceId(BUCKET_NAME, "foo/bar/baz.txt"));
+    assertNotNull(otherCache.getCacheEntry(new StorageResourceId(BUCKET_NAME, "foo/bar/")));
+    assertEquals(1, otherCache.getBucketList().size());
+    assertEquals(3, otherCache.getInternalNumObjects());
+
+    otherCache.removeResourceId(new StorageResourceId(BUCKET_NAME, "foo/bar/baz.txt"));
+    otherCache.putResourceId(new StorageResourceId(BUCKET_NAME, "foo/qux.txt"));
+    List<CacheEntry> listed = cache.getObjectList(BUCKET_NAME, "foo/", "/", null);
+    assertEquals(2, listed.size());
+    assertNull(cache.getCacheEntry(new StorageResourceId(BUCKET_NAME, "foo/bar/baz.txt")));
+
+    // Removing the bucket clears the log for everyone.
+    cache.removeResourceId(new StorageResourceId(BUCKET_NAME));
+    assertNull(otherCache.getObjectList(BUCKET_NAME, "", null, null));
+    assertEquals(0, otherCache.getInternalNumObjects());
+  }
+
+  @Test
+  public void testCompactionKeepsLiveEntries() throws IOException {
+    LogStructuredDirectoryListCache otherCache = createCache();
+    Path logPath = logCache.getLogPath(BUCKET_NAME);
+
+    // Leave behind mostly records of removed entries.
+    for (int i = 0; i < 2000; ++i) {
+      StorageResourceId objectId = new StorageResourceId(BUCKET_NAME, "dir/object" + i);
+      cache.putResourceId(objectId);
+      if (i % 10 != 0) {
+        cache.removeResourceId(objectId);
+      }
+    }
+    long sizeBeforeCompaction = Files.size(logPath);
+    logCache.compact(BUCKET_NAME);
+    assertTrue(Files.size(logPath) < sizeBeforeCompaction);
+
+    // Another instance which missed the compaction rebuilds its view from the new generation.
+    assertEquals(201, otherCache.getInternalNumObjects());
+    assertNotNull(otherCache.getCacheEntry(new StorageResourceId(BUCKET_NAME, "dir/object10")));
+    assertNull(otherCache.getCacheEntry(new StorageResourceId(BUCKET_NAME, "dir/object11")));
+    assertEquals(200, otherCache.getObjectList(BUCKET_NAME, "dir/", "/", null).size());
+  }
+
+  @Test
+  public void testCompactionReplacesLogFile() throws IOException {
+    LogStructuredDirectoryListCache otherCache = createCache();
+    Path logPath = logCache.getLogPath(BUCKET_NAME);
+    cache.putResourceId(new StorageResourceId(BUCKET_NAME, "foo"));
+    cache.putResourceId(new StorageResourceId(BUCKET_NAME, "bar"));
+    cache.removeResourceId(new StorageResourceId(BUCKET_NAME, "bar"));
+    // Make sure otherCache has the old log file open.
+    assertEquals(1, otherCache.getInternalNumObjects());
+    Object oldFileKey = Files.readAttributes(logPath, BasicFileAttributes.class).fileKey();
+
+    logCache.compact(BUCKET_NAME);
+    Object newFileKey = Files.readAttributes(logPath, BasicFileAttributes.class).fileKey();
+    if (oldFileKey != null) {
+      assertFalse(oldFileKey.equals(newFileKey));
+    }
+    // Nothing but the log is left behind.
+    assertEquals(1, basePathFile.listFiles().length);
+
+    // otherCache notices the replacement, and its appends go to the new log.
+    otherCache.putResourceId(new StorageResourceId(BUCKET_NAME, "baz"));
+    assertEquals(2, otherCache.getInternalNumObjects());
+    assertEquals(2, cache.getObjectList(BUCKET_NAME, "", null, null).size());
+  }
+
+  @Test
+  public void testCloseAllowsReuse() throws IOException {
+    cache.putResourceId(new StorageResourceId(BUCKET_NAME, "foo"));
+    cache.close();
+    cache.close();
+    cache.putResourceId(new StorageResourceId(BUCKET_NAME, "bar"));
+    assertEquals(2, cache.getObjectList(BUCKET_NAME, "", null, null).size());
+  }
+
+  @Test
+  public void testAutomaticCompactionBoundsLogSize() throws IOException {
+    StorageResourceId objectId = new StorageResourceId(BUCKET_NAME, "churning-object");
+    for (int i = 0; i < 10000; ++i) {
+      cache.putResourceId(objectId);
+      cache.removeResourceId(objectId);
+    }
+    assertTrue(Files.size(logCache.getLogPath(BUCKET_NAME))
+        < 2 * LogStructuredDirectoryListCache.MIN_COMPACTION_BYTES);
+    assertEquals(1, cache.getInternalNumBuckets());
+    assertEquals(0, cache.getInternalNumObjects());
+  }
+
+  @Test
+  public void testPartialRecordIsDiscarded() throws IOException {
+    cache.putResourceId(new StorageResourceId(BUCKET_NAME, "foo"));
+    Path logPath = logCache.getLogPath(BUCKET_NAME);
+    long validSize = Files.size(logPath);
+
+    // Simulate a writer which died partway through appending a record.
+    try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {1, 0, 0}), validSize);
+    }
+
+    LogStructuredDirectoryListCache otherCache = createCache();
+    assertNotNull(otherCache.getCacheEntry(new StorageResourceId(BUCKET_NAME, "foo")));
+    assertEquals(validSize, Files.size(logPath));
+    otherCache.putResourceId(new StorageResourceId(BUCKET_NAME, "bar"));
+    assertEquals(2, cache.getObjectList(BUCKET_NAME, "", null, null).size());
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.storage.Storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Unit tests for ObjectsRewrite, checking the HTTP request it makes and the parsing of its
+ * response against a fake transport.
+ */
+@RunWith(JUnit4.class)
+public class ObjectsRewriteTest {
+  @Test
+  public void testRequestAndResponse() throws IOException {
+    final String[] requestMethodAndUrl = new String[2];
+    MockHttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        requestMethodAndUrl[0] = method;
+        requestMethodAndUrl[1] = url;
+        return new MockLowLevelHttpRequest().setResponse(new MockLowLevelHttpResponse()
+            .setContentType(Json.MEDIA_TYPE)
+            .setContent("{\"kind\":\"storage#rewriteResponse\",\"totalBytesRewritten\":\"1048576\","
+                + "\"objectSize\":\"3145728\",\"done\":false,\"rewriteToken\":\"token2\"}"));
+      }
+    };
+    Storage gcs = new Storage.Builder(transport, JacksonFactory.getDefaultInstance(), null)
+        .setApplicationName("ObjectsRewriteTest")
+        .build();
+
+    ObjectsRewrite.Response response =
+        new ObjectsRewrite(gcs, "src-bucket", "dir/src object", "dst-bucket", "dst")
+            .setRewriteToken("token1")
+            .setMaxBytesRewrittenPerCall(1048576L)
+            .execute();
+
+    Assert.assertEquals("POST", requestMethodAndUrl[0]);
+    String url = requestMethodAndUrl[1];
+    Assert.assertTrue(url, url.contains(
+        "/storage/v1/b/src-bucket/o/dir%2Fsrc%20object/rewriteTo/b/dst-bucket/o/dst?"));
+    Assert.assertTrue(url, url.contains("rewriteToken=token1"));
+    Assert.assertTrue(url, url.contains("maxBytesRewrittenPerCall=1048576"));
+
+    Assert.assertEquals(Long.valueOf(1048576L), response.getTotalBytesRewritten());
+    Assert.assertEquals(Long.valueOf(3145728L), response.getObjectSize());
+    Assert.assertFalse(response.getDone());
+    Assert.assertEquals("token2", response.getRewriteToken());
+    Assert.assertNull(response.getResource());
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * UnitTests for PrefetchingPageIterator class.
+ */
+@RunWith(JUnit4.class)
+public class PrefetchingPageIteratorTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testInterruptedWaitThrowsInterruptedIOException()
+      throws IOException {
+    final CountDownLatch fetchReleased = new CountDownLatch(1);
+    PrefetchingPageIterator<Integer> items = new PrefetchingPageIterator<Integer>(
+        new ListPage<>(ImmutableList.<Integer>of(), "next"), executor) {
+      @Override
+      protected ListPage<Integer> fetchPage(String pageToken)
+          throws IOException {
+        try {
+          fetchReleased.await();
+        } catch (InterruptedException ie) {
+          throw new IOException(ie);
+        }
+        return new ListPage<>(ImmutableList.of(1), null);
+      }
+    };
+
+    Thread.currentThread().interrupt();
+    try {
+      items.hasNext();
+      fail("Expected InterruptedIOException");
+    } catch (InterruptedIOException iioe) {
+      // Expected.
+    }
+    assertTrue(Thread.interrupted());
+  }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Strings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * UnitTests for RemoteDirectoryListCache class, run against a DirectoryListCacheServer on a
+ * local port.
+ */
+@RunWith(JUnit4.class)
+public class RemoteDirectoryListCacheTest extends DirectoryListCacheTest {
+  private DirectoryListCacheServer server;
+  private RemoteDirectoryListCache remoteCache;
+
+  @Override
+  protected DirectoryListCache getTestInstance() throws IOException {
+    InMemoryDirectoryListCache serverCache = new InMemoryDirectoryListCache();
+    serverCache.getMutableConfig()
+        .setMaxEntryAgeMillis(MAX_ENTRY_AGE)
+        .setMaxInfoAgeMillis(MAX_INFO_AGE);
+    server = new DirectoryListCacheServer(0, serverCache);
+    server.start();
+    remoteCache = new RemoteDirectoryListCache("localhost", server.getPort());
+    remoteCache.getMutableConfig()
+        .setMaxEntryAgeMillis(MAX_ENTRY_AGE)
+        .setMaxInfoAgeMillis(MAX_INFO_AGE);
+    return remoteCache;
+  }
+
+  @Before
+  public void setUpServerClock() {
+    // Expiration is decided by the server, so it must see the same time as the test.
+    server.getCache().setClock(mockClock);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    remoteCache.close();
+    server.close();
+  }
+
+  @Test
+  public void testChangesAreVisibleToOtherClients() throws IOException {
+    RemoteDirectoryListCache otherCache =
+        new RemoteDirectoryListCache("localhost", server.getPort());
+    try {
+      cache.putResourceId(new StorageResourceId(BUCKET_NAME, "foo/bar.txt"));
+      assertNotNull(otherCache.getCacheEntry(new StorageResourceId(BUCKET_NAME, "foo/bar.txt")));
+
+      Set<String> prefixes = new HashSet<>();
+      List<CacheEntry> listed = otherCache.getObjectList(BUCKET_NAME, "", "/", prefixes);
+      assertEquals(0, listed.size());
+      assertEquals(1, prefixes.size());
+      assertEquals("foo/", prefixes.iterator().next());
+
+      otherCache.removeResourceId(new StorageResourceId(BUCKET_NAME, "foo/bar.txt"));
+      assertNull(cache.getCacheEntry(new StorageResourceId(BUCKET_NAME, "foo/bar.txt")));
+    } finally {
+      otherCache.close();
+    }
+  }
+
+  @Test
+  public void testConcurrentRequestsShareConnection() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<CacheEntry>> puts = new ArrayList<>();
+      for (int i = 0; i < 200; ++i) {
+        final StorageResourceId objectId = new StorageResourceId(BUCKET_NAME, "object" + i);
+        puts.add(executor.submit(new Callable<CacheEntry>() {
+          @Override
+          public CacheEntry call() throws IOException {
+            return cache.putResourceId(objectId);
+          }
+        }));
+      }
+      for (int i = 0; i < puts.size(); ++i) {
+        // Each caller gets the response to its own request.
+        assertEquals("object" + i, puts.get(i).get().getResourceId().getObjectName());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(200, cache.getObjectList(BUCKET_NAME, "", null, null).size());
+  }
+
+  @Test
+  public void testReconnectsAfterClose() throws IOException {
+    cache.putResourceId(objectResourceId);
+    remoteCache.close();
+    assertNotNull(cache.getCacheEntry(objectResourceId));
+  }
+
+  @Test
+  public void testServerFailureIsReportedAndConnectionRemainsUsable() throws IOException {
+    DirectoryListCache failingCache = mock(DirectoryListCache.class);
+    when(failingCache.getBucketList()).thenThrow(new IOException("backend failure"));
+    when(failingCache.getInternalNumBuckets()).thenReturn(3);
+    DirectoryListCacheServer failingServer = new DirectoryListCacheServer(0, failingCache);
+    failingServer.start();
+    RemoteDirectoryListCache failingClient =
+        new RemoteDirectoryListCache("localhost", failingServer.getPort());
+    try {
+      try {
+        failingClient.getBucketList();
+        fail("Expected IOException");
+      } catch (IOException ioe) {
+        assertEquals("backend failure", ioe.getMessage());
+      }
+      assertEquals(3, failingClient.getInternalNumBuckets());
+    } finally {
+      failingClient.close();
+      failingServer.close();
+    }
+  }
+
+  @Test
+  public void testServerListensOnLoopbackByDefault() {
+    assertTrue(server.getBindAddress().isLoopbackAddress());
+  }
+
+  @Test
+  public void testUnwritableRequestFailsPipelinedRequestsPromptly() throws Exception {
+    // Object names this long can't be written with writeUTF, failing the connection partway
+    // through whichever batch of requests the writer is sending.
+    final StorageResourceId unwritableId =
+        new StorageResourceId(BUCKET_NAME, Strings.repeat("x", 70000));
+    ExecutorService executor = Executors.newFixedThreadPool(32);
+    long startTime = System.currentTimeMillis();
+    try {
+      List<Future<CacheEntry>> requests = new ArrayList<>();
+      for (int i = 0; i < 2000; ++i) {
+        final StorageResourceId objectId =
+            i == 1000 ? unwritableId : new StorageResourceId(BUCKET_NAME, "object" + i);
+        requests.add(executor.submit(new Callable<CacheEntry>() {
+          @Override
+          public CacheEntry call() throws IOException {
+            return cache.getCacheEntry(objectId);
+          }
+        }));
+      }
+      int numFailed = 0;
+      for (Future<CacheEntry> request : requests) {
+        try {
+          request.get();
+        } catch (ExecutionException ee) {
+          assertTrue(ee.getCause() instanceof IOException);
+          ++numFailed;
+        }
+      }
+      assertTrue(numFailed >= 1);
+    } finally {
+      executor.shutdownNow();
+    }
+    // No request was left waiting for the request timeout.
+    assertTrue(System.currentTimeMillis() - startTime
+        < RemoteDirectoryListCache.REQUEST_TIMEOUT_MILLIS);
+    assertNull(cache.getCacheEntry(objectResourceId));
+  }
+
+  @Test
+  public void testFromAddress() throws IOException {
+    RemoteDirectoryListCache addressedCache =
+        RemoteDirectoryListCache.fromAddress("localhost:" + server.getPort());
+    try {
+      cache.putResourceId(objectResourceId);
+      assertNotNull(addressedCache.getCacheEntry(objectResourceId));
+    } finally {
+      addressedCache.close();
+    }
+  }
+}
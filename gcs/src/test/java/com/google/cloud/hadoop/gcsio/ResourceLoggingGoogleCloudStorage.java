@@ -103,6 +103,12 @@ public class ResourceLoggingGoogleCloudStorage implements GoogleCloudStorage {
     delegateGcs.deleteObjects(fullObjectNames);
   }
 
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    delegateGcs.deleteObjects(fullObjectNames, generations);
+  }
+
   @Override
   public void copy(String srcBucketName, List<String> srcObjectNames,
       String dstBucketName, List<String> dstObjectNames) throws IOException {
@@ -137,6 +143,36 @@ public class ResourceLoggingGoogleCloudStorage implements GoogleCloudStorage {
         delimiter, maxResults);
   }
 
+  @Override
+  public ListPage<String> listObjectNamesPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken) throws IOException {
+    return delegateGcs.listObjectNamesPage(bucketName, objectNamePrefix,
+        delimiter, pageToken);
+  }
+
+  @Override
+  public ListPage<String> listObjectNamesPage(String bucketName,
+      String objectNamePrefix, String delimiter, String startOffset, String endOffset,
+      String pageToken) throws IOException {
+    return delegateGcs.listObjectNamesPage(bucketName, objectNamePrefix,
+        delimiter, startOffset, endOffset, pageToken);
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken) throws IOException {
+    return delegateGcs.listObjectInfoPage(bucketName, objectNamePrefix,
+        delimiter, pageToken);
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String startOffset, String endOffset,
+      String pageToken) throws IOException {
+    return delegateGcs.listObjectInfoPage(bucketName, objectNamePrefix,
+        delimiter, startOffset, endOffset, pageToken);
+  }
+
   @Override
   public List<GoogleCloudStorageItemInfo> listObjectInfo(String bucketName,
       String objectNamePrefix, String delimiter) throws IOException {
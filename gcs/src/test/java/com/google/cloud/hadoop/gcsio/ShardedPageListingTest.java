@@ -0,0 +1,128 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UnitTests for ShardedPageListing class.
+ */
+@RunWith(JUnit4.class)
+public class ShardedPageListingTest {
+  // Number of pages of each shard after the first.
+  private static final int PAGES_PER_SHARD = 6;
+
+  private final ThreadPoolExecutor executor =
+      (ThreadPoolExecutor) Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * A listing of two shards, the first of which is only its first page, while the second has
+   * PAGES_PER_SHARD pages of one number each.
+   */
+  private ShardedPageListing<Integer> createListing(
+      final AtomicInteger numFetches, long parkTimeoutMillis) {
+    return new ShardedPageListing<Integer>(new ListPage<>(ImmutableList.of(0), null), 2, 1,
+        parkTimeoutMillis, executor) {
+      @Override
+      protected ListPage<Integer> fetchPage(int shard, String pageToken) {
+        numFetches.incrementAndGet();
+        int page = pageToken == null ? 1 : Integer.parseInt(pageToken);
+        return new ListPage<>(ImmutableList.of(page),
+            page < PAGES_PER_SHARD ? Integer.toString(page + 1) : null);
+      }
+    };
+  }
+
+  private static List<Integer> drain(PrefetchingPageIterator<Integer> items)
+      throws IOException {
+    List<Integer> drained = new ArrayList<>();
+    while (items.hasNext()) {
+      drained.add(items.next());
+    }
+    return drained;
+  }
+
+  /**
+   * Waits for at least {@code minFetches} pages to have been fetched, and then for every fetch
+   * to have stopped.
+   */
+  private void awaitFetchesStopped(AtomicInteger numFetches, int minFetches)
+      throws InterruptedException {
+    for (int i = 0; i < 500 && numFetches.get() < minFetches; ++i) {
+      Thread.sleep(10);
+    }
+    for (int i = 0; i < 500 && executor.getActiveCount() > 0; ++i) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testListsEveryShardInOrder()
+      throws IOException {
+    ShardedPageListing<Integer> listing = createListing(new AtomicInteger(), 60 * 1000L);
+    assertEquals(ImmutableList.of(0, 1, 2, 3, 4, 5, 6), drain(listing.iterator(executor)));
+  }
+
+  @Test
+  public void testStalledConsumerParksShardAndResumes()
+      throws Exception {
+    AtomicInteger numFetches = new AtomicInteger();
+    ShardedPageListing<Integer> listing = createListing(numFetches, 10);
+
+    // With nobody consuming the second shard, its fetch gives up its thread once its queue stays
+    // full, holding on to the page it couldn't queue.
+    awaitFetchesStopped(numFetches, 2);
+    assertEquals(0, executor.getActiveCount());
+    assertEquals(2, numFetches.get());
+
+    // Consuming the shard resumes it, without losing or repeating pages.
+    PrefetchingPageIterator<Integer> shardItems = listing.shardIterator(1, executor);
+    assertEquals(ImmutableList.of(1, 2, 3, 4, 5, 6), drain(shardItems));
+    assertEquals(PAGES_PER_SHARD, numFetches.get());
+  }
+
+  @Test
+  public void testClosedShardIsNotResumed()
+      throws Exception {
+    AtomicInteger numFetches = new AtomicInteger();
+    ShardedPageListing<Integer> listing = createListing(numFetches, 10);
+    awaitFetchesStopped(numFetches, 2);
+
+    listing.shardIterator(1, executor).close();
+    awaitFetchesStopped(numFetches, 2);
+    assertEquals(0, executor.getActiveCount());
+    assertTrue(numFetches.get() < PAGES_PER_SHARD);
+  }
+}
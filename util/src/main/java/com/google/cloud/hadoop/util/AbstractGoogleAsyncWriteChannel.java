@@ -43,7 +43,7 @@ import java.util.concurrent.ExecutorService;
  */
 public abstract class AbstractGoogleAsyncWriteChannel
     <T extends AbstractGoogleClientRequest<S>, S>
-    implements WritableByteChannel {
+    implements WritableByteChannel, ChecksummingChannel {
 
   // Default size of upload buffer.
   public static final int UPLOAD_PIPE_BUFFER_SIZE_DEFAULT = 1 * 1024 * 1024;
@@ -130,6 +130,13 @@ public abstract class AbstractGoogleAsyncWriteChannel
   @VisibleForTesting
   private boolean limitFileSizeTo250Gb = true;
 
+  // Running CRC32C of all bytes written so far, computed as the bytes pass through write() so
+  // that no second pass over the data is needed; null if checksumming is disabled.
+  private Crc32c crc32c;
+
+  // Total time spent updating crc32c.
+  private long checksumTimeNanos;
+
   /**
    * Construct a new channel using the given ExecutorService to run background uploads.
    * @param threadPool
@@ -140,6 +147,7 @@ public abstract class AbstractGoogleAsyncWriteChannel
     this.threadPool = threadPool;
     enableFileSizeLimit250Gb(options.isFileSizeLimitedTo250Gb());
     setUploadBufferSize(options.getUploadBufferSize());
+    enableChecksum(options.isChecksumEnabled());
   }
 
   /**
@@ -197,6 +205,28 @@ public abstract class AbstractGoogleAsyncWriteChannel
     limitFileSizeTo250Gb = enableLimit;
   }
 
+  /**
+   * Enables or disables computing a CRC32C of the written data. Must be called before the first
+   * write.
+   */
+  public void enableChecksum(boolean enableChecksum) {
+    crc32c = enableChecksum ? new Crc32c() : null;
+  }
+
+  /**
+   * Returns the CRC32C of all bytes written so far as 4 big-endian bytes, or null if checksumming
+   * is disabled. Derived classes may compare it against the checksum computed by the server in
+   * {@link #handleResponse}.
+   */
+  public byte[] getCrc32c() {
+    return crc32c == null ? null : crc32c.getValueAsBytes();
+  }
+
+  @Override
+  public long getChecksumTimeNanos() {
+    return checksumTimeNanos;
+  }
+
   /**
    * Writes contents of the given buffer to this channel.
    *
@@ -223,7 +253,17 @@ public abstract class AbstractGoogleAsyncWriteChannel
     // No point in writing further if upload failed on another thread.
     throwIfUploadFailed();
 
-    return pipeSinkChannel.write(buffer);
+    if (crc32c == null) {
+      return pipeSinkChannel.write(buffer);
+    }
+
+    ByteBuffer written = buffer.duplicate();
+    int bytesWritten = pipeSinkChannel.write(buffer);
+    written.limit(written.position() + bytesWritten);
+    long startTime = System.nanoTime();
+    crc32c.update(written);
+    checksumTimeNanos += System.nanoTime() - startTime;
+    return bytesWritten;
   }
 
   /**
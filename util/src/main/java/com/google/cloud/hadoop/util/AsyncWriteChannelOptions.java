@@ -28,6 +28,11 @@ public class AsyncWriteChannelOptions {
    * Default upload buffer size.
    */
   public static final int UPLOAD_BUFFER_SIZE_DEFAULT = 64 * 1024 * 1024;
+  /**
+   * Default of whether to compute a CRC32C of written data and validate it against the uploaded
+   * object.
+   */
+  public static final boolean CHECKSUM_ENABLED_DEFAULT = false;
 
   /**
    * Mutable builder for the GoogleCloudStorageWriteChannelOptions class.
@@ -35,6 +40,7 @@ public class AsyncWriteChannelOptions {
   public static class Builder {
     private boolean fileSizeLimitedTo250Gb = LIMIT_FILESIZE_TO_250GB_DEFAULT;
     private int uploadBufferSize = UPLOAD_BUFFER_SIZE_DEFAULT;
+    private boolean checksumEnabled = CHECKSUM_ENABLED_DEFAULT;
 
     public Builder setFileSizeLimitedTo250Gb(boolean fileSizeLimitedTo250Gb) {
       this.fileSizeLimitedTo250Gb = fileSizeLimitedTo250Gb;
@@ -46,8 +52,14 @@ public class AsyncWriteChannelOptions {
       return this;
     }
 
+    public Builder setChecksumEnabled(boolean checksumEnabled) {
+      this.checksumEnabled = checksumEnabled;
+      return this;
+    }
+
     public AsyncWriteChannelOptions build() {
-      return new AsyncWriteChannelOptions(fileSizeLimitedTo250Gb, uploadBufferSize);
+      return new AsyncWriteChannelOptions(
+          fileSizeLimitedTo250Gb, uploadBufferSize, checksumEnabled);
     }
   }
 
@@ -61,11 +73,18 @@ public class AsyncWriteChannelOptions {
 
   private final boolean fileSizeLimitedTo250Gb;
   private final int uploadBufferSize;
+  private final boolean checksumEnabled;
 
   public AsyncWriteChannelOptions(boolean fileSizeLimitedTo250Gb,
       int uploadBufferSize) {
+    this(fileSizeLimitedTo250Gb, uploadBufferSize, CHECKSUM_ENABLED_DEFAULT);
+  }
+
+  public AsyncWriteChannelOptions(boolean fileSizeLimitedTo250Gb,
+      int uploadBufferSize, boolean checksumEnabled) {
     this.fileSizeLimitedTo250Gb = fileSizeLimitedTo250Gb;
     this.uploadBufferSize = uploadBufferSize;
+    this.checksumEnabled = checksumEnabled;
   }
 
   public boolean isFileSizeLimitedTo250Gb() {
@@ -74,4 +93,9 @@ public class AsyncWriteChannelOptions {
 
   public int getUploadBufferSize() {
     return uploadBufferSize;
-  }}
+  }
+
+  public boolean isChecksumEnabled() {
+    return checksumEnabled;
+  }
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.util;
+
+/**
+ * Implemented by channels which may checksum the data passing through them, so that callers
+ * (possibly through wrapping channels) can report the cost of doing so.
+ */
+public interface ChecksummingChannel {
+  /**
+   * Returns the total time in nanoseconds spent computing checksums on this channel so far, or 0
+   * if checksumming is disabled.
+   */
+  long getChecksumTimeNanos();
+}
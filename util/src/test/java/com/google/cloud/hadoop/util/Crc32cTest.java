@@ -0,0 +1,85 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.cloud.hadoop.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class Crc32cTest {
+  private static long crc(byte[] bytes) {
+    Crc32c crc32c = new Crc32c();
+    crc32c.update(bytes);
+    return crc32c.getValue();
+  }
+
+  @Test
+  public void knownVectors() {
+    Assert.assertEquals(0L, crc(new byte[0]));
+    Assert.assertEquals(0xE3069283L, crc("123456789".getBytes(StandardCharsets.US_ASCII)));
+
+    // Test vectors from RFC 3720, section B.4.
+    Assert.assertEquals(0x8A9136AAL, crc(new byte[32]));
+    byte[] ones = new byte[32];
+    Arrays.fill(ones, (byte) 0xff);
+    Assert.assertEquals(0x62A8AB43L, crc(ones));
+    byte[] ascending = new byte[32];
+    for (int i = 0; i < ascending.length; i++) {
+      ascending[i] = (byte) i;
+    }
+    Assert.assertEquals(0x46DD794EL, crc(ascending));
+  }
+
+  @Test
+  public void bigEndianBytes() {
+    Assert.assertArrayEquals(
+        new byte[] { (byte) 0xE3, 0x06, (byte) 0x92, (byte) 0x83 },
+        Crc32c.computeAsBytes("123456789".getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  @Test
+  public void incrementalUpdatesMatchSingleUpdate() {
+    byte[] data = new byte[1000];
+    new Random(0).nextBytes(data);
+    long expected = crc(data);
+
+    Crc32c bytewise = new Crc32c();
+    for (byte b : data) {
+      bytewise.update(b);
+    }
+    Assert.assertEquals(expected, bytewise.getValue());
+
+    Crc32c chunked = new Crc32c();
+    chunked.update(data, 0, 3);
+    chunked.update(ByteBuffer.wrap(data, 3, 500));
+    ByteBuffer direct = ByteBuffer.allocateDirect(data.length - 503);
+    direct.put(data, 503, data.length - 503);
+    direct.flip();
+    chunked.update(direct);
+    Assert.assertFalse(direct.hasRemaining());
+    Assert.assertEquals(expected, chunked.getValue());
+
+    chunked.reset();
+    Assert.assertEquals(0L, chunked.getValue());
+  }
+}